@@ -0,0 +1,739 @@
+package src.com.musicplayer;
+
+import src.com.musicplayer.audio.DecoderRegistry;
+import src.com.musicplayer.audio.Equalizer;
+import src.com.musicplayer.audio.LibraryAnalyzer;
+import src.com.musicplayer.audio.ReadAheadInputStream;
+import src.com.musicplayer.audio.Resampler;
+import src.com.musicplayer.audio.TimbreAnalyzer;
+import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.database.LibrarySnapshot;
+import src.com.musicplayer.model.EqualizerPreset;
+import src.com.musicplayer.model.Playlist;
+import src.com.musicplayer.model.ReadAheadStats;
+import src.com.musicplayer.model.Song;
+import src.com.musicplayer.playback.SimilarityIndex;
+import src.com.musicplayer.server.Json;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point for batch work on the library, for servers, cron jobs
+ * and benchmarks. It runs against the same database as {@link MusicPlayer}
+ * but never touches AWT or Swing.
+ *
+ * <pre>
+ * java src.com.musicplayer.LibraryTool import &lt;file or folder&gt;...
+ * java src.com.musicplayer.LibraryTool rescan [&lt;folder&gt;...]
+ * java src.com.musicplayer.LibraryTool validate [--remove]
+ * java src.com.musicplayer.LibraryTool analyze [--workers &lt;n&gt;]
+ * java src.com.musicplayer.LibraryTool export &lt;file&gt; [--playlist &lt;name&gt;]
+ * java src.com.musicplayer.LibraryTool benchmark-resampler [--seconds &lt;n&gt;]
+ * java src.com.musicplayer.LibraryTool benchmark-read-ahead [--stall-ms &lt;n&gt;]
+ * java src.com.musicplayer.LibraryTool benchmark-equalizer [--seconds &lt;n&gt;]
+ * </pre>
+ *
+ * Progress and results are written to standard output as one JSON object per
+ * line; the usual log messages go to standard error. Checking and analyzing
+ * files uses all cores.
+ */
+public class LibraryTool {
+    private static final int INSERT_BATCH = 500;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final int VALIDATE_READ_SIZE = 64 * 1024;
+    private static final int BENCHMARK_SECONDS = 60;
+    private static final int BENCHMARK_RUNS = 5;
+    private static final double BENCHMARK_TONE_HZ = 997.0;
+    // A simulated share holding a 30 s CD-quality WAV, read at playback speed
+    private static final int SHARE_SECONDS = 30;
+    private static final int SHARE_BYTE_RATE = 44100 * 4;
+    private static final int SHARE_READ_SIZE = 16 * 1024;
+    private static final long SHARE_CHUNK_NANOS = 2_000_000L;
+    private static final long SHARE_STALL_MS = 3000;
+    private static final long DEVICE_BUFFER_NANOS = 250_000_000L;
+    // 50 ms at 44.1 kHz is what the output writes at a time with its initial buffer
+    private static final int[] EQUALIZER_BLOCK_FRAMES = { 256, 2205, 8192 };
+
+    private final DatabaseManager databaseManager = new DatabaseManager();
+    private final PrintStream out;
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    private String command;
+    private long startNanos;
+
+    private LibraryTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        // Standard output carries only the JSON lines
+        PrintStream out = System.out;
+        System.setOut(System.err);
+
+        if (args.length == 0) {
+            printUsage();
+            System.exit(2);
+        }
+        LibraryTool tool = new LibraryTool(out);
+        int status;
+        try {
+            status = tool.run(args[0], Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            status = 2;
+        } catch (Exception e) {
+            tool.emit("error", "message", String.valueOf(e.getMessage()));
+            e.printStackTrace();
+            status = 1;
+        }
+        out.flush();
+        System.exit(status);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: LibraryTool <command> [arguments]");
+        System.err.println("  import <file or folder>...       Add audio files to the library");
+        System.err.println("  rescan [<folder>...]             Drop missing files, then add new ones");
+        System.err.println("  validate [--remove]              Check that every song can be decoded");
+        System.err.println("  analyze [--workers <n>]          Run the library analysis");
+        System.err.println("  export <file> [--playlist <name>] Export the library or a playlist");
+        System.err.println("  benchmark-resampler [--seconds <n>] Compare resampler speed and quality");
+        System.err.println("  benchmark-read-ahead [--stall-ms <n>] Play through storage stalls with and without read-ahead");
+        System.err.println("  benchmark-equalizer [--seconds <n>] Measure the equalizer's cost per block");
+    }
+
+    private int run(String command, String[] args) throws Exception {
+        this.command = command;
+        startNanos = System.nanoTime();
+        if (command.equals("benchmark-resampler")) {
+            String seconds = option(args, "--seconds");
+            benchmarkResampler(seconds != null ? Integer.parseInt(seconds) : BENCHMARK_SECONDS);
+            return 0;
+        }
+        if (command.equals("benchmark-read-ahead")) {
+            String stallMs = option(args, "--stall-ms");
+            return benchmarkReadAhead(stallMs != null ? Long.parseLong(stallMs) : SHARE_STALL_MS);
+        }
+        if (command.equals("benchmark-equalizer")) {
+            String seconds = option(args, "--seconds");
+            benchmarkEqualizer(seconds != null ? Integer.parseInt(seconds) : BENCHMARK_SECONDS);
+            return 0;
+        }
+        databaseManager.initializeDatabase();
+
+        switch (command) {
+            case "import":
+                if (args.length == 0) {
+                    throw new IllegalArgumentException("import needs at least one file or folder");
+                }
+                importFiles(args);
+                return 0;
+            case "rescan":
+                rescan(args);
+                return 0;
+            case "validate":
+                return validate(hasFlag(args, "--remove"));
+            case "analyze":
+                String workers = option(args, "--workers");
+                analyze(workers != null ? Integer.parseInt(workers) : threads);
+                return 0;
+            case "export":
+                if (args.length == 0 || args[0].startsWith("--")) {
+                    throw new IllegalArgumentException("export needs a target file");
+                }
+                export(Path.of(args[0]), option(args, "--playlist"));
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private void importFiles(String[] paths) throws IOException {
+        List<File> files = collectAudioFiles(paths);
+        emit("start", "total", files.size());
+        int added = 0;
+        for (int from = 0; from < files.size(); from += INSERT_BATCH) {
+            List<File> batch = files.subList(from, Math.min(files.size(), from + INSERT_BATCH));
+            added += databaseManager.addSongsToDatabase(batch.toArray(new File[0]));
+            emit("progress", "done", from + batch.size(), "total", files.size());
+        }
+        int songs = writeSnapshot();
+        emit("done", "added", added, "skipped", files.size() - added, "songs", songs, "elapsedMs", elapsedMillis());
+    }
+
+    private void rescan(String[] folders) throws IOException {
+        List<Song> songs = databaseManager.loadAllSongs();
+        emit("start", "total", songs.size());
+        AtomicInteger checked = new AtomicInteger();
+        int[] missing;
+        Progress progress = new Progress(checked::get, songs::size);
+        try {
+            missing = songs.parallelStream()
+                    .filter(song -> {
+                        File file = new File(song.getFilePath());
+                        boolean gone = !file.exists() || !file.canRead();
+                        checked.incrementAndGet();
+                        return gone;
+                    })
+                    .mapToInt(Song::getId)
+                    .toArray();
+        } finally {
+            progress.stop();
+        }
+        int removed = missing.length > 0 ? databaseManager.removeSongs(missing, missing.length) : 0;
+
+        int added = 0;
+        if (folders.length > 0) {
+            List<File> files = collectAudioFiles(folders);
+            for (int from = 0; from < files.size(); from += INSERT_BATCH) {
+                List<File> batch = files.subList(from, Math.min(files.size(), from + INSERT_BATCH));
+                added += databaseManager.addSongsToDatabase(batch.toArray(new File[0]));
+            }
+        }
+        int total = writeSnapshot();
+        emit("done", "removed", removed, "added", added, "songs", total, "elapsedMs", elapsedMillis());
+    }
+
+    private int validate(boolean remove) {
+        List<Song> songs = databaseManager.loadAllSongs();
+        emit("start", "total", songs.size());
+        AtomicInteger checked = new AtomicInteger();
+        int[] invalid;
+        Progress progress = new Progress(checked::get, songs::size);
+        try {
+            invalid = songs.parallelStream()
+                    .filter(song -> {
+                        String problem = checkSong(song);
+                        checked.incrementAndGet();
+                        if (problem != null) {
+                            emit("invalid", "id", song.getId(), "path", song.getFilePath(), "reason", problem);
+                        }
+                        return problem != null;
+                    })
+                    .mapToInt(Song::getId)
+                    .toArray();
+        } finally {
+            progress.stop();
+        }
+
+        int removed = 0;
+        if (remove && invalid.length > 0) {
+            removed = databaseManager.removeSongs(invalid, invalid.length);
+            writeSnapshot();
+        }
+        emit("done", "checked", songs.size(), "invalid", invalid.length, "removed", removed,
+                "elapsedMs", elapsedMillis());
+        return invalid.length > removed ? 1 : 0;
+    }
+
+    /**
+     * @return Why the song cannot be played, or null if it can
+     */
+    private static String checkSong(Song song) {
+        File file = new File(song.getFilePath());
+        if (!file.exists()) {
+            return "missing";
+        }
+        if (!file.canRead()) {
+            return "unreadable";
+        }
+        // Decoding the start of the file catches corrupt and mislabelled files
+        try (AudioInputStream pcm = DecoderRegistry.openPcm(file)) {
+            byte[] buffer = new byte[VALIDATE_READ_SIZE];
+            if (pcm.read(buffer, 0, buffer.length - buffer.length % pcm.getFormat().getFrameSize()) < 0) {
+                return "empty";
+            }
+            return null;
+        } catch (Exception e) {
+            return "undecodable: " + e.getMessage();
+        }
+    }
+
+    private void analyze(int workers) throws InterruptedException {
+        List<Song> songs = databaseManager.loadAllSongs();
+        LibraryAnalyzer analyzer = new LibraryAnalyzer(databaseManager, workers);
+        emit("start", "total", songs.size(), "workers", workers);
+        Progress progress = new Progress(analyzer::getAnalyzedCount,
+                () -> analyzer.getAnalyzedCount() + analyzer.getRemainingCount());
+        try {
+            analyzer.scan(songs);
+            analyzer.awaitIdle();
+        } finally {
+            progress.stop();
+        }
+        int analyzed = analyzer.getAnalyzedCount();
+
+        long indexStart = System.nanoTime();
+        SimilarityIndex index = SimilarityIndex.build(
+                databaseManager.loadSimilarityFeatures(TimbreAnalyzer.FEATURE_COUNT), System.nanoTime());
+        int indexed = 0;
+        if (index != null) {
+            index.write(databaseManager.getDataDirectory());
+            indexed = index.size();
+        }
+        emit("done", "analyzed", analyzed, "indexed", indexed,
+                "indexMs", (System.nanoTime() - indexStart) / 1_000_000L, "elapsedMs", elapsedMillis());
+    }
+
+    private void export(Path target, String playlistName) throws IOException {
+        int entries;
+        if (playlistName == null) {
+            entries = databaseManager.exportLibrary(target);
+        } else {
+            Playlist playlist = databaseManager.loadPlaylists().stream()
+                    .filter(p -> p.getName().equals(playlistName))
+                    .findFirst()
+                    .orElseThrow(() -> new IOException("No playlist named " + playlistName));
+            entries = databaseManager.exportPlaylist(playlist.getId(), target);
+        }
+        emit("done", "entries", entries, "file", target.toAbsolutePath().toString(), "elapsedMs", elapsedMillis());
+    }
+
+    /**
+     * Converts a stereo test tone between common rates with every resampler
+     * quality and with the Java Sound converter, and reports the time taken,
+     * the signal-to-noise ratio of the result and the bytes allocated.
+     */
+    private void benchmarkResampler(int seconds) throws IOException {
+        float[][] conversions = { { 44100f, 48000f }, { 48000f, 44100f }, { 96000f, 48000f } };
+        String[] paths = { "polyphase-fast", "polyphase-standard", "polyphase-best", "java-sound" };
+        int[] qualities = { Resampler.QUALITY_FAST, Resampler.QUALITY_STANDARD, Resampler.QUALITY_BEST, -1 };
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        for (float[] conversion : conversions) {
+            float inputRate = conversion[0];
+            float outputRate = conversion[1];
+            AudioFormat inputFormat = new AudioFormat(inputRate, 16, 2, true, false);
+            byte[] tone = benchmarkTone(inputRate, seconds);
+            String name = Math.round(inputRate) + "->" + Math.round(outputRate);
+
+            for (int i = 0; i < paths.length; i++) {
+                int quality = qualities[i];
+                short[] converted = null;
+                long elapsed = Long.MAX_VALUE;
+                long allocated = 0;
+                // The best of a few runs, the first ones warm up the JIT
+                for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                    long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                    long start = System.nanoTime();
+                    converted = convertTone(tone, inputFormat, outputRate, quality);
+                    elapsed = Math.min(elapsed, System.nanoTime() - start);
+                    allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                }
+                if (converted == null) {
+                    emit("result", "conversion", name, "path", paths[i], "supported", "false");
+                    continue;
+                }
+                double millis = elapsed / 1e6;
+                long expectedFrames = (long) tone.length / inputFormat.getFrameSize() * Math.round(outputRate)
+                        / Math.round(inputRate);
+                emit("result", "conversion", name, "path", paths[i],
+                        "ms", Math.round(millis * 10) / 10.0,
+                        "realtime", Math.round(seconds * 1000.0 / millis),
+                        "snrDb", Math.round(toneSnr(converted, outputRate) * 10) / 10.0,
+                        "frameError", converted.length - expectedFrames,
+                        "allocatedBytes", allocated);
+            }
+        }
+        emit("done", "seconds", seconds, "elapsedMs", elapsedMillis());
+    }
+
+    /**
+     * Filters a stereo 44.1 kHz test tone through the equalizer in the block
+     * sizes the output writes, flat and with all ten bands in use, and reports
+     * the time per block, the share of one core that playing in real time
+     * takes, the bytes allocated and the level change at the tone.
+     */
+    private void benchmarkEqualizer(int seconds) {
+        byte[] tone = benchmarkTone(44100f, seconds);
+        EqualizerPreset allBands = null;
+        for (EqualizerPreset preset : Equalizer.PRESETS) {
+            if (preset.getName().equals("Rock")) {
+                allBands = preset;
+            }
+        }
+        EqualizerPreset[] settings = { Equalizer.PRESETS.get(0), allBands };
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        byte[] filtered = new byte[tone.length];
+
+        for (EqualizerPreset setting : settings) {
+            for (int blockFrames : EQUALIZER_BLOCK_FRAMES) {
+                int blockBytes = blockFrames * 4;
+                int blocks = (tone.length + blockBytes - 1) / blockBytes;
+                long elapsed = Long.MAX_VALUE;
+                long allocated = 0;
+                // The best of a few runs, the first ones warm up the JIT
+                for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                    Equalizer equalizer = new Equalizer();
+                    equalizer.setGains(setting.getGains());
+                    // One block of silence first, so its working buffer is grown
+                    // before measuring, as it is after the output's first write
+                    equalizer.process(new byte[blockBytes], 0, blockBytes, 2);
+                    System.arraycopy(tone, 0, filtered, 0, tone.length);
+                    long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                    long start = System.nanoTime();
+                    // Filtered in place one block at a time, as the output does
+                    for (int offset = 0; offset < filtered.length; offset += blockBytes) {
+                        equalizer.process(filtered, offset, Math.min(blockBytes, filtered.length - offset), 2);
+                    }
+                    elapsed = Math.min(elapsed, System.nanoTime() - start);
+                    allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                }
+                emit("result", "preset", setting.getName(), "blockFrames", blockFrames,
+                        "nsPerBlock", elapsed / blocks,
+                        "cpuPercent", Math.round(elapsed / (seconds * 1e9) * 100 * 1000) / 1000.0,
+                        "allocatedBytes", allocated,
+                        "toneGainDb", Math.round(levelChangeDb(tone, filtered) * 100) / 100.0);
+            }
+        }
+        emit("done", "seconds", seconds, "elapsedMs", elapsedMillis());
+    }
+
+    /** The level of the left channel after filtering relative to before, in dB. */
+    private static double levelChangeDb(byte[] before, byte[] after) {
+        double in = 0;
+        double out = 0;
+        // Past the first second, once the filters have settled
+        for (int i = 44100 * 4; i + 1 < before.length; i += 4) {
+            double x = (short) ((before[i] & 0xFF) | before[i + 1] << 8);
+            double y = (short) ((after[i] & 0xFF) | after[i + 1] << 8);
+            in += x * x;
+            out += y * y;
+        }
+        return 10.0 * Math.log10(out / in);
+    }
+
+    /**
+     * Plays a file from a simulated network share at playback speed, once
+     * reading the share directly and once through read-ahead. The share
+     * answers quickly but hangs for {@code stallMs} at a quarter, half and
+     * three quarters of the file. Playback drops out whenever data arrives
+     * later than the output device's buffer allows.
+     *
+     * @return 0 if read-ahead played through without dropouts, 1 otherwise
+     */
+    private int benchmarkReadAhead(long stallMs) throws IOException {
+        long size = (long) SHARE_SECONDS * SHARE_BYTE_RATE;
+        emit("start", "seconds", SHARE_SECONDS, "stallMs", stallMs, "stalls", 3);
+        int dropouts = 0;
+        for (String path : new String[] { "direct", "read-ahead" }) {
+            ReadAheadInputStream.Source share = simulatedShare(size, stallMs);
+            ReadAheadStats before = ReadAheadInputStream.statistics();
+            long[] playback;
+            if (path.equals("direct")) {
+                ByteBuffer buffer = ByteBuffer.allocate(SHARE_READ_SIZE);
+                long[] offset = { 0 };
+                playback = playAtSpeed(size, () -> {
+                    buffer.clear();
+                    int read = share.read(buffer, offset[0]);
+                    offset[0] += Math.max(read, 0);
+                    return read;
+                });
+            } else {
+                try (ReadAheadInputStream in = new ReadAheadInputStream(share, size, null)) {
+                    byte[] buffer = new byte[SHARE_READ_SIZE];
+                    playback = playAtSpeed(size, () -> in.read(buffer, 0, buffer.length));
+                }
+                dropouts = (int) playback[0];
+            }
+            ReadAheadStats after = ReadAheadInputStream.statistics();
+            emit("result", "path", path,
+                    "dropouts", playback[0],
+                    "silenceMs", playback[1] / 1_000_000,
+                    "underruns", after.getUnderruns() - before.getUnderruns(),
+                    "stalls", after.getStalls() - before.getStalls(),
+                    "longestStallMs", after.getLongestStallMillis(),
+                    "largestBuffer", after.getLargestBuffer());
+        }
+        emit("done", "continuous", dropouts == 0, "elapsedMs", elapsedMillis());
+        return dropouts == 0 ? 0 : 1;
+    }
+
+    /** One blocking read of the next piece of the file. */
+    private interface PieceReader {
+        int read() throws IOException;
+    }
+
+    /**
+     * Reads a file while an imagined output device drains it at playback
+     * speed, topping the device up whenever it has room.
+     *
+     * @return {dropouts, nanoseconds of silence}
+     */
+    private static long[] playAtSpeed(long size, PieceReader reader) throws IOException {
+        long dropouts = 0;
+        long silence = 0;
+        long played = 0;
+        long due = System.nanoTime();
+        while (played < size) {
+            LockSupport.parkNanos(due - System.nanoTime());
+            int read = reader.read();
+            if (read < 0) {
+                break;
+            }
+            played += read;
+            // The device runs dry once its buffer has played out
+            long late = System.nanoTime() - (due + DEVICE_BUFFER_NANOS);
+            if (late > 0) {
+                dropouts++;
+                silence += late;
+                due = System.nanoTime();
+            }
+            due += read * 1_000_000_000L / SHARE_BYTE_RATE;
+        }
+        return new long[] { dropouts, silence };
+    }
+
+    /**
+     * A share that returns zeros in 64 KB reads taking a few milliseconds, and
+     * hangs once at each quarter of the file.
+     */
+    private static ReadAheadInputStream.Source simulatedShare(long size, long stallMs) {
+        long[] stallAt = { size / 4, size / 2, size * 3 / 4 };
+        boolean[] stalled = new boolean[stallAt.length];
+        return (target, position) -> {
+            if (position >= size) {
+                return -1;
+            }
+            int length = (int) Math.min(Math.min(target.remaining(), 64 * 1024), size - position);
+            long pause = SHARE_CHUNK_NANOS;
+            for (int i = 0; i < stallAt.length; i++) {
+                if (!stalled[i] && position + length > stallAt[i]) {
+                    stalled[i] = true;
+                    pause += stallMs * 1_000_000L;
+                }
+            }
+            LockSupport.parkNanos(pause);
+            target.position(target.position() + length);
+            return length;
+        };
+    }
+
+    private static byte[] benchmarkTone(float rate, int seconds) {
+        int frames = (int) (rate * seconds);
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            int sample = (int) Math.round(Math.sin(2.0 * Math.PI * BENCHMARK_TONE_HZ * i / rate) * 16384.0);
+            for (int c = 0; c < 2; c++) {
+                pcm[i * 4 + c * 2] = (byte) sample;
+                pcm[i * 4 + c * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        return pcm;
+    }
+
+    /**
+     * @param quality A resampler quality, or -1 for the Java Sound converter
+     * @return The left channel of the result, or null if the conversion is not
+     *         supported
+     */
+    private static short[] convertTone(byte[] tone, AudioFormat inputFormat, float outputRate, int quality)
+            throws IOException {
+        AudioInputStream source = new AudioInputStream(new ByteArrayInputStream(tone), inputFormat,
+                tone.length / inputFormat.getFrameSize());
+        AudioInputStream converted;
+        if (quality >= 0) {
+            converted = Resampler.convert(source, outputRate, quality);
+        } else {
+            AudioFormat outputFormat = new AudioFormat(outputRate, 16, 2, true, false);
+            try {
+                converted = AudioSystem.getAudioInputStream(outputFormat, source);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        // Room for a little more than the exact length, to see converters that drift
+        int frames = (int) ((long) tone.length / 4 * Math.round(outputRate) / Math.round(inputFormat.getSampleRate()));
+        short[] left = new short[frames + frames / 100];
+        byte[] buffer = new byte[64 * 1024];
+        int frame = 0;
+        int filled = 0;
+        int read;
+        try (AudioInputStream stream = converted) {
+            while ((read = stream.read(buffer, filled, buffer.length - filled)) > 0) {
+                filled += read;
+                int whole = filled - filled % 4;
+                for (int at = 0; at < whole && frame < left.length; at += 4) {
+                    left[frame++] = (short) ((buffer[at] & 0xFF) | (buffer[at + 1] << 8));
+                }
+                // Java Sound may return partial frames
+                System.arraycopy(buffer, whole, buffer, 0, filled - whole);
+                filled -= whole;
+            }
+        }
+        return Arrays.copyOf(left, frame);
+    }
+
+    /**
+     * Fits a sine at the test tone frequency by least squares to ten short
+     * windows spread over the signal; everything not explained by the fit
+     * counts as noise. Short windows keep a converter whose output rate is
+     * slightly off from being judged by its drift alone, which frameError
+     * reports instead.
+     */
+    private static double toneSnr(short[] samples, float rate) {
+        int window = (int) (rate / 10);
+        double omega = 2.0 * Math.PI * BENCHMARK_TONE_HZ / rate;
+        double signal = 0;
+        double noise = 0;
+        for (int w = 1; w <= 10; w++) {
+            int from = (int) ((long) (samples.length - window) * w / 11);
+            int to = from + window;
+            double ss = 0, sc = 0, cc = 0, ys = 0, yc = 0;
+            for (int i = from; i < to; i++) {
+                double s = Math.sin(omega * i);
+                double c = Math.cos(omega * i);
+                ss += s * s;
+                sc += s * c;
+                cc += c * c;
+                ys += samples[i] * s;
+                yc += samples[i] * c;
+            }
+            double determinant = ss * cc - sc * sc;
+            double a = (ys * cc - yc * sc) / determinant;
+            double b = (yc * ss - ys * sc) / determinant;
+            for (int i = from; i < to; i++) {
+                double fit = a * Math.sin(omega * i) + b * Math.cos(omega * i);
+                double error = samples[i] - fit;
+                signal += fit * fit;
+                noise += error * error;
+            }
+        }
+        return 10.0 * Math.log10(signal / Math.max(noise, 1e-9));
+    }
+
+    /**
+     * Expands folders into the playable files below them, in path order.
+     */
+    private static List<File> collectAudioFiles(String[] paths) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            Path root = Path.of(path);
+            if (!Files.isDirectory(root)) {
+                files.add(root.toFile());
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(file -> DecoderRegistry.isSupportedFileName(file.getFileName().toString()))
+                        .sorted()
+                        .forEach(file -> files.add(file.toFile()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes a fresh library snapshot so the next launch of the player does not
+     * have to rebuild it.
+     *
+     * @return The number of songs in the library
+     */
+    private int writeSnapshot() {
+        long generation = databaseManager.getLibraryGeneration();
+        List<Song> songs = databaseManager.loadValidPlaylist();
+        if (generation >= 0) {
+            LibrarySnapshot.write(databaseManager.getDataDirectory(), songs, generation);
+        }
+        return songs.size();
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    private static boolean hasFlag(String[] args, String flag) {
+        return Arrays.asList(args).contains(flag);
+    }
+
+    private static String option(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes one JSON line: the event, the command and the given name/value
+     * pairs. Numbers are written as they are, everything else as a string.
+     */
+    private void emit(String event, Object... fields) {
+        StringBuilder line = new StringBuilder(96);
+        line.append("{\"event\":");
+        Json.appendString(line, event);
+        line.append(",\"command\":");
+        Json.appendString(line, command);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(',');
+            Json.appendString(line, (String) fields[i]);
+            line.append(':');
+            Object value = fields[i + 1];
+            if (value instanceof Number || value instanceof Boolean) {
+                line.append(value);
+            } else {
+                Json.appendString(line, String.valueOf(value));
+            }
+        }
+        line.append('}');
+        out.println(line);
+    }
+
+    /**
+     * Reports progress every {@link #PROGRESS_INTERVAL_MS} until stopped, and
+     * once more when stopped.
+     */
+    private class Progress {
+        private final IntSupplier done;
+        private final IntSupplier total;
+        private final ScheduledExecutorService reporter;
+
+        Progress(IntSupplier done, IntSupplier total) {
+            this.done = done;
+            this.total = total;
+            this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "library-tool-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::report, PROGRESS_INTERVAL_MS, PROGRESS_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void report() {
+            emit("progress", "done", done.getAsInt(), "total", total.getAsInt(), "elapsedMs", elapsedMillis());
+        }
+
+        void stop() {
+            reporter.shutdownNow();
+            report();
+        }
+    }
+}
@@ -6,21 +6,65 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 
 // Import classes
+import src.com.musicplayer.model.Chapter;
+import src.com.musicplayer.model.DuplicateGroup;
+import src.com.musicplayer.model.EqualizerPreset;
+import src.com.musicplayer.model.NowPlaying;
+import src.com.musicplayer.model.PlaybackState;
+import src.com.musicplayer.model.Playlist;
+import src.com.musicplayer.model.PlaylistEntry;
+import src.com.musicplayer.model.PlaylistImport;
+import src.com.musicplayer.model.QueueEntry;
+import src.com.musicplayer.model.ReadAheadStats;
 import src.com.musicplayer.model.Song;
+import src.com.musicplayer.model.SongAnalysis;
 import src.com.musicplayer.audio.AudioPlayer;
+import src.com.musicplayer.audio.DecoderRegistry;
+import src.com.musicplayer.audio.Equalizer;
+import src.com.musicplayer.audio.LibraryAnalyzer;
+import src.com.musicplayer.audio.OutputDevices;
+import src.com.musicplayer.audio.ReadAheadInputStream;
+import src.com.musicplayer.audio.Resampler;
+import src.com.musicplayer.audio.TimbreAnalyzer;
 import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.database.DuplicateFinder;
+import src.com.musicplayer.database.LibrarySnapshot;
+import src.com.musicplayer.database.PlayHistoryRecorder;
+import src.com.musicplayer.database.PlaylistFileWriter;
+import src.com.musicplayer.playback.PlayQueue;
+import src.com.musicplayer.playback.PlaylistOrder;
+import src.com.musicplayer.playback.ShuffleEngine;
+import src.com.musicplayer.playback.SimilarityIndex;
+import src.com.musicplayer.server.LibraryServer;
+import src.com.musicplayer.server.PlayerControl;
 import src.com.musicplayer.ui.CustomButton;
 import src.com.musicplayer.ui.CustomSlider;
 
@@ -47,6 +91,9 @@ public class MusicPlayer extends JFrame {
     private JLabel currentTimeLabel;
     private JLabel totalTimeLabel;
     private JLabel volumeIcon;
+    private boolean isUpdatingSeekBar = false;
+    private int displayedPosition = -1;
+    private int displayedDuration = -1;
     private ImageIcon cachedAlbumArt;
     private BufferedImage cachedNoteImage;
 
@@ -62,9 +109,78 @@ public class MusicPlayer extends JFrame {
     private CustomButton shuffleButton;
     private CustomButton loopButton;
     private boolean isShuffling = false;
+    private boolean isSmartShuffle = false;
     private boolean isLooping = false;
-    private List<Integer> shuffleOrder;
+    private ShuffleEngine shuffleEngine;
     private Random random;
+    private long shuffleSeed;
+    private boolean isSyncingSelection = false;
+
+    // "Up Next" queue
+    private PlayQueue playQueue;
+    private Map<Integer, Integer> songIndexById;
+
+    // Library and playlist views; the view list shows one of them at a time
+    private static final int VIEW_LIBRARY = -1;
+    private static final int VIEW_MOST_PLAYED = -2;
+    private static final int VIEW_RECENTLY_PLAYED = -3;
+    private static final int HISTORY_VIEW_SIZE = 100;
+    private static final int PLAYLIST_PAGE_SIZE = 500;
+    private List<Song> librarySongs;
+    private Map<Integer, Song> songById;
+    private JComboBox<Playlist> viewSelector;
+    private Playlist activeView;
+    private PlaylistOrder activeOrder;
+    private Map<Integer, PlaylistOrder> loadedPlaylists;
+    private boolean isSwitchingView = false;
+    private JPanel queuePanel;
+    private JList<Song> queueView;
+    private DefaultListModel<Song> queueModel;
+
+    // Play history
+    private PlayHistoryRecorder historyRecorder;
+    private int listeningSongId = -1;
+    private long listenedMs;
+    private long lastListenTickNanos;
+    private boolean playRecorded;
+
+    // Library analysis: loudness normalization, and tempo/key sorting and
+    // filtering of the library view
+    private static final double NORMALIZATION_TARGET_LUFS = -18.0;
+    private static final double TRUE_PEAK_CEILING_DBTP = -1.0;
+    private static final int SORT_NONE = 0;
+    private static final int SORT_BPM = 1;
+    private static final int SORT_KEY = 2;
+    private LibraryAnalyzer libraryAnalyzer;
+    private Map<Integer, SongAnalysis> songAnalysis = new HashMap<>();
+    private int librarySort = SORT_NONE;
+    private double minBpm = Double.NaN;
+    private double maxBpm = Double.NaN;
+
+    // Radio: songs that sound like a seed song, played once the queue is empty
+    private static final int RADIO_BATCH = 40;
+    private static final int RADIO_REFILL_AT = 5;
+    private SimilarityIndex similarityIndex;
+    private final ArrayDeque<Integer> radioSongIds = new ArrayDeque<>();
+    private final Set<Integer> radioPlayed = new HashSet<>();
+    private boolean isRadioOn = false;
+    private boolean isLibraryReady = false;
+
+    // Serves the library on localhost while switched on
+    private LibraryServer libraryServer;
+
+    // Resume state
+    private static final int CHECKPOINT_INTERVAL_MS = 5000;
+    private Timer checkpointTimer;
+    private PlaybackState lastSavedState;
+    private String resumeFilePath;
+    private int resumePosition;
+    // Long-form files count as heard once within this of the end, and lose their bookmark
+    private static final long BOOKMARK_END_MS = 30_000;
+    private long lastBookmarkMillis = -1;
+
+    // Startup timing, set in main() before the frame is created
+    private static long launchNanos;
 
     // Colors
     private static final Color BACKGROUND_COLOR = new Color(18, 18, 18);
@@ -75,12 +191,19 @@ public class MusicPlayer extends JFrame {
     public static final Color ACCENT_COLOR = new Color(30, 215, 96);
     public static final Color BUTTON_HOVER_COLOR = new Color(40, 40, 40);
 
+    private static final Font PLAY_PAUSE_FONT = new Font("Segoe UI Symbol", Font.BOLD, 20);
+
     // Font
     private Font TITLE_FONT;
     private Font ARTIST_FONT;
     private Font REGULAR_FONT;
 
     public MusicPlayer() {
+        if (launchNanos == 0) {
+            launchNanos = System.nanoTime();
+        }
+        long phaseStart = System.nanoTime();
+
         setTitle("Music Player");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(800, 600);
@@ -88,17 +211,6 @@ public class MusicPlayer extends JFrame {
         setLocationRelativeTo(null);
         setUndecorated(true);
 
-        // Set application icon
-        try (InputStream is = getClass().getResourceAsStream("/images/icon.png")) {
-            if (is != null) {
-                setIconImage(ImageIO.read(is));
-            } else {
-                System.err.println("Application icon not found at /images/icon.png");
-            }
-        } catch (IOException e) {
-            System.err.println("Error loading application icon: " + e.getMessage());
-        }
-
         // Initialize DatabaseManager
         databaseManager = new DatabaseManager();
 
@@ -110,36 +222,40 @@ public class MusicPlayer extends JFrame {
         audioPlayer = new AudioPlayer();
 
         // Initialize shuffle
-        shuffleOrder = new ArrayList<>();
+        shuffleEngine = new ShuffleEngine();
+
+        // Initialize the play queue
+        playQueue = new PlayQueue(databaseManager);
+        songIndexById = new HashMap<>();
+        queueModel = new DefaultListModel<>();
+
+        // Initialize playlist views
+        librarySongs = new ArrayList<>();
+        songById = new HashMap<>();
+        loadedPlaylists = new HashMap<>();
+        activeView = new Playlist(VIEW_LIBRARY, "Library");
+
+        // Initialize play history recording
+        historyRecorder = new PlayHistoryRecorder(databaseManager);
+        libraryAnalyzer = new LibraryAnalyzer(databaseManager);
+        libraryAnalyzer.setOnPassFinished(this::rebuildSimilarityIndex);
+        libraryServer = new LibraryServer(databaseManager, createRemoteControl());
         random = new Random();
+        shuffleSeed = random.nextLong();
 
-        // Load Inter font for all users
-        loadInterFontFromResources();
-
-        // Initialize font constants
+        // Initialize font constants; the Inter font itself is registered in the
+        // background and applied once it is available
         initializeFonts();
 
-        // Initialize database
-        databaseManager.initializeDatabase();
-
-        // Load playlist from database
-        refreshPlaylistFromDatabase();
-
         // Set up the layout
         setupUI();
 
-        // Initialize current song after UI is ready
-        initializeCurrentSong();
-
         // Make the frame draggable
         makeDraggable();
 
         // Set up timer for progress updates
         setupProgressTimer();
 
-        // Make the frame visible
-        setVisible(true);
-
         // Add window listener for proper cleanup
         addWindowListener(new WindowAdapter() {
             @Override
@@ -148,15 +264,126 @@ public class MusicPlayer extends JFrame {
                 System.exit(0);
             }
         });
+
+        logStartupPhase("UI construction", phaseStart);
+
+        // Make the frame visible
+        setVisible(true);
+        System.out.println("Startup: window shown " + elapsedMillis(launchNanos) + " ms after launch");
+
+        // Everything else runs off the critical path
+        startBackgroundInitialization();
     }
 
-    private void cleanup() {
-        if (progressTimer != null) {
-            progressTimer.stop();
-        }
-        if (audioPlayer != null) {
-            audioPlayer.dispose();
+    /**
+     * Loads the icon, the Inter font and the database/playlist concurrently after
+     * the window is already on screen. The library snapshot is shown as soon as it
+     * is mapped; the database only reloads the playlist if the snapshot is stale.
+     * The first song is not decoded here; that happens lazily on first play.
+     */
+    private void startBackgroundInitialization() {
+        // Slow on some systems, so the device menu has the list ready when opened
+        OutputDevices.discover();
+
+        CompletableFuture<Void> icon = CompletableFuture.runAsync(() -> {
+            long phaseStart = System.nanoTime();
+            Image iconImage = loadApplicationIcon();
+            if (iconImage != null) {
+                SwingUtilities.invokeLater(() -> setIconImage(iconImage));
+            }
+            logStartupPhase("icon", phaseStart);
+        });
+
+        CompletableFuture<Void> fonts = CompletableFuture.runAsync(() -> {
+            long phaseStart = System.nanoTime();
+            loadInterFontFromResources();
+            logStartupPhase("fonts", phaseStart);
+        }).thenRun(() -> SwingUtilities.invokeLater(this::applyInterFonts));
+
+        CompletableFuture<LibrarySnapshot> snapshot = CompletableFuture.supplyAsync(() -> {
+            long phaseStart = System.nanoTime();
+            LibrarySnapshot librarySnapshot = LibrarySnapshot.read(databaseManager.getDataDirectory());
+            if (librarySnapshot != null) {
+                List<Song> songs = librarySnapshot.getSongs();
+                SwingUtilities.invokeLater(() -> applyPlaylist(songs));
+            }
+            logStartupPhase("library snapshot", phaseStart);
+            return librarySnapshot;
+        });
+
+        CompletableFuture<Void> similarity = CompletableFuture.runAsync(() -> {
+            long phaseStart = System.nanoTime();
+            SimilarityIndex index = SimilarityIndex.read(databaseManager.getDataDirectory());
+            if (index != null) {
+                SwingUtilities.invokeLater(() -> {
+                    if (similarityIndex == null) {
+                        similarityIndex = index;
+                    }
+                });
+            }
+            logStartupPhase("similarity index", phaseStart);
+        });
+
+        CompletableFuture<Void> library = CompletableFuture.runAsync(() -> {
+            long phaseStart = System.nanoTime();
+            databaseManager.initializeDatabase();
+            logStartupPhase("database", phaseStart);
+        }).thenCombine(snapshot, (_, librarySnapshot) -> librarySnapshot).thenAccept(librarySnapshot -> {
+            long phaseStart = System.nanoTime();
+            if (librarySnapshot != null
+                    && librarySnapshot.getGeneration() == databaseManager.getLibraryGeneration()) {
+                System.out.println("Library snapshot is current, skipping playlist reload.");
+                return;
+            }
+            List<Song> songs = loadLibrary();
+            SwingUtilities.invokeLater(() -> applyPlaylist(songs));
+            logStartupPhase("playlist", phaseStart);
+        }).thenRun(() -> {
+            // Queued after the playlist so the saved songs can be found in it
+            List<QueueEntry> queue = databaseManager.loadQueue();
+            PlaybackState state = databaseManager.loadPlaybackState();
+            List<Playlist> playlists = databaseManager.loadPlaylists();
+            SwingUtilities.invokeLater(() -> {
+                for (Playlist userPlaylist : playlists) {
+                    viewSelector.addItem(userPlaylist);
+                }
+                playQueue.load(queue);
+                refreshQueueView();
+                restorePlaybackState(state);
+
+                // Analyze new and changed songs for normalization, sorting and radio
+                isLibraryReady = true;
+                libraryAnalyzer.scan(librarySongs);
+            });
+        });
+
+        CompletableFuture.allOf(icon, fonts, similarity, library).whenComplete((_, error) -> {
+            if (error != null) {
+                System.err.println("Error during background initialization: " + error.getMessage());
+                error.printStackTrace();
+            }
+            System.out.println("Startup: completed in " + elapsedMillis(launchNanos) + " ms");
+        });
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    private static void logStartupPhase(String phase, long startNanos) {
+        System.out.println("Startup: " + phase + " took " + elapsedMillis(startNanos) + " ms");
+    }
+
+    private Image loadApplicationIcon() {
+        try (InputStream is = getClass().getResourceAsStream("/images/icon.png")) {
+            if (is != null) {
+                return ImageIO.read(is);
+            }
+            System.err.println("Application icon not found at /images/icon.png");
+        } catch (IOException e) {
+            System.err.println("Error loading application icon: " + e.getMessage());
         }
+        return null;
     }
 
     private void loadInterFontFromResources() {
@@ -180,9 +407,170 @@ public class MusicPlayer extends JFrame {
         }
     }
 
+    /**
+     * Reopens the song that was playing when the app last closed. The song is
+     * only selected here; it is decoded on first play and then seeks straight
+     * to the saved position. Starts the periodic checkpoint afterwards, so a
+     * checkpoint can never overwrite the saved state before it is read.
+     */
+    private void restorePlaybackState(PlaybackState state) {
+        if (state != null && state.getFilePath() != null && !audioPlayer.isLoaded() && !isPlaying) {
+            int index = -1;
+            for (int i = 0; i < playlist.size(); i++) {
+                if (playlist.get(i).getFilePath().equals(state.getFilePath())) {
+                    index = i;
+                    break;
+                }
+            }
+
+            if (index >= 0) {
+                currentSongIndex = index;
+                shuffleSeed = state.getShuffleSeed();
+                if (state.isShuffling() != isShuffling || state.isSmartShuffle() != isSmartShuffle) {
+                    setShuffleMode(state.isShuffling(), state.isSmartShuffle(), false);
+                }
+                if (state.isLooping() != isLooping) {
+                    toggleLoop();
+                }
+                resumeFilePath = state.getFilePath();
+                resumePosition = state.getPosition();
+                selectCurrentSong();
+                playlistView.ensureIndexIsVisible(currentSongIndex);
+                initializeCurrentSong();
+                updateTimeLabels(resumePosition, 0);
+                lastSavedState = state;
+            }
+        }
+
+        checkpointTimer = new Timer(CHECKPOINT_INTERVAL_MS, _ -> checkpointPlaybackState());
+        checkpointTimer.start();
+    }
+
+    private PlaybackState capturePlaybackState() {
+        // The playing song may not be part of the playlist view being shown
+        Song song = currentSongIndex >= 0 && currentSongIndex < playlist.size()
+                ? playlist.get(currentSongIndex)
+                : songById.get(listeningSongId);
+        if (song == null) {
+            return null;
+        }
+        int position;
+        if (audioPlayer.isLoaded()) {
+            position = audioPlayer.getCurrentPosition();
+        } else if (song.getFilePath().equals(resumeFilePath)) {
+            position = resumePosition;
+        } else {
+            position = 0;
+        }
+        return new PlaybackState(song.getFilePath(), position, isShuffling, isSmartShuffle, isLooping, shuffleSeed);
+    }
+
+    /**
+     * Periodic checkpoint: writes the playback state in the background, but only
+     * if it changed since the last write.
+     */
+    private void checkpointPlaybackState() {
+        checkpointBookmark();
+        PlaybackState state = capturePlaybackState();
+        if (state == null || state.equals(lastSavedState)) {
+            return;
+        }
+        lastSavedState = state;
+
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                databaseManager.savePlaybackState(state);
+                return null;
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Writes the bookmark of the long-form file being played in the
+     * background, if the position moved since the last write.
+     */
+    private void checkpointBookmark() {
+        if (!audioPlayer.isLongForm()) {
+            return;
+        }
+        String filePath = audioPlayer.getFilePath();
+        long position = audioPlayer.getPositionMillis();
+        long duration = audioPlayer.getDuration() * 1000L;
+        if (position == lastBookmarkMillis) {
+            return;
+        }
+        lastBookmarkMillis = position;
+
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                saveBookmark(filePath, position, duration);
+                return null;
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Remembers where a long-form file was left, or forgets it once it has been
+     * heard to the end. Writes on the calling thread.
+     */
+    private void saveBookmark(String filePath, long positionMs, long durationMs) {
+        if (positionMs >= durationMs - BOOKMARK_END_MS) {
+            databaseManager.deleteBookmark(filePath);
+        } else {
+            databaseManager.saveBookmark(filePath, positionMs);
+        }
+    }
+
+    private void savePlaybackStateNow() {
+        if (checkpointTimer == null) {
+            // The saved state has not been restored yet, keep it as is
+            return;
+        }
+        checkpointTimer.stop();
+        if (audioPlayer.isLongForm()) {
+            saveBookmark(audioPlayer.getFilePath(), audioPlayer.getPositionMillis(),
+                    audioPlayer.getDuration() * 1000L);
+        }
+        PlaybackState state = capturePlaybackState();
+        if (state != null && !state.equals(lastSavedState)) {
+            databaseManager.savePlaybackState(state);
+            lastSavedState = state;
+        }
+    }
+
     @SuppressWarnings("unused")
     private static Font INTER_REGULAR;
 
+    /**
+     * Re-creates the Inter fonts after the font has been registered in the
+     * background. Fonts created before registration already resolved to a
+     * fallback face, so every component still asking for "Inter" gets a new one.
+     */
+    private void applyInterFonts() {
+        initializeFonts();
+        refreshInterFonts(getContentPane());
+        // Re-measure the fixed row height with the real font
+        playlistView.setPrototypeCellValue(null);
+        playlistView.setPrototypeCellValue(createPrototypeSong());
+        playlistView.repaint();
+    }
+
+    private static void refreshInterFonts(Component component) {
+        Font font = component.getFont();
+        if (font != null && "Inter".equals(font.getName())) {
+            component.setFont(new Font("Inter", font.getStyle(), font.getSize()));
+        }
+        if (component instanceof Container container) {
+            for (Component child : container.getComponents()) {
+                refreshInterFonts(child);
+            }
+        }
+    }
+
     private void initializeFonts() {
         try {
             // Try to create font objects with the loaded Inter font
@@ -230,73 +618,678 @@ public class MusicPlayer extends JFrame {
         SwingWorker<List<Song>, Void> worker = new SwingWorker<List<Song>, Void>() {
             @Override
             protected List<Song> doInBackground() throws Exception {
-                // Use the new method that automatically cleans up invalid entries
-                return databaseManager.loadValidPlaylist();
+                return loadLibrary();
             }
 
             @Override
             protected void done() {
                 try {
-                    List<Song> songsFromDB = get();
-                    int previousSize = playlist.size();
-                    int previousIndex = currentSongIndex;
+                    applyPlaylist(get());
+                } catch (Exception e) {
+                    System.err.println("Error loading playlist: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        };
+        worker.execute();
+    }
 
-                    playlist.clear();
-                    playlistModel.clear();
-                    playlist.addAll(songsFromDB);
+    /**
+     * Loads the playlist from the database and writes a fresh library snapshot
+     * for the next launch. Runs off the EDT.
+     */
+    private List<Song> loadLibrary() {
+        // Read the generation first: if the library changes during the load the
+        // snapshot looks stale and is simply rebuilt next time
+        long generation = databaseManager.getLibraryGeneration();
+        // Use the new method that automatically cleans up invalid entries
+        List<Song> songs = databaseManager.loadValidPlaylist();
+        if (generation >= 0) {
+            LibrarySnapshot.write(databaseManager.getDataDirectory(), songs, generation);
+        }
+        return songs;
+    }
 
-                    for (Song song : playlist) {
-                        playlistModel.addElement(song);
-                    }
+    /**
+     * Takes over a freshly loaded library. The library view is refreshed in
+     * place; any other view is rebuilt from its song ids.
+     */
+    private void applyPlaylist(List<Song> songsFromDB) {
+        librarySongs = songsFromDB;
+        songById = new HashMap<>(songsFromDB.size() * 2);
+        for (Song song : songsFromDB) {
+            songById.put(song.getId(), song);
+        }
+        if (isLibraryReady) {
+            libraryAnalyzer.scan(songsFromDB);
+        }
 
-                    // Handle playlist changes intelligently
-                    if (!playlist.isEmpty() && playlistView != null) {
-                        // If playlist size changed, validate current index
-                        if (playlist.size() != previousSize) {
-                            if (previousIndex >= playlist.size()) {
-                                currentSongIndex = 0;
-                            } else if (previousIndex < 0) {
-                                currentSongIndex = 0;
-                            } else {
-                                // Try to maintain current song if possible
-                                currentSongIndex = previousIndex;
-                            }
+        if (activeView.getId() == VIEW_LIBRARY && !isLibraryArranged()) {
+            applyLibraryView(songsFromDB);
+        } else {
+            showView(activeView);
+        }
+    }
 
-                            // If the current song file no longer exists, reset to first song
-                            if (currentSongIndex < playlist.size()) {
-                                Song currentSong = playlist.get(currentSongIndex);
-                                File currentFile = new File(currentSong.getFilePath());
-                                if (!currentFile.exists()) {
-                                    currentSongIndex = 0;
-                                    isPlaying = false;
-                                    playPauseButton.setText("▶");
-                                    loadCurrentSong();
-                                }
-                            }
-                        }
+    private void applyLibraryView(List<Song> songsFromDB) {
+        int previousSize = playlist.size();
+        int previousIndex = currentSongIndex;
+        List<Song> previousSongs = isShuffling ? new ArrayList<>(playlist) : null;
+
+        playlist.clear();
+        playlist.addAll(songsFromDB);
+        playlistModel.clear();
+        playlistModel.addAll(songsFromDB);
+        rebuildSongIndex();
+        refreshQueueView();
+
+        // Handle playlist changes intelligently
+        if (!playlist.isEmpty() && playlistView != null) {
+            // If playlist size changed, validate current index
+            if (playlist.size() != previousSize) {
+                if (previousIndex >= playlist.size()) {
+                    currentSongIndex = 0;
+                } else if (previousIndex < 0) {
+                    currentSongIndex = 0;
+                } else {
+                    // Try to maintain current song if possible
+                    currentSongIndex = previousIndex;
+                }
 
-                        playlistView.setSelectedIndex(currentSongIndex);
-                    } else if (playlist.isEmpty() && playlistView != null) {
-                        currentSongIndex = -1;
+                // If the current song file no longer exists, reset to first song
+                if (currentSongIndex < playlist.size()) {
+                    Song currentSong = playlist.get(currentSongIndex);
+                    File currentFile = new File(currentSong.getFilePath());
+                    if (!currentFile.exists()) {
+                        currentSongIndex = 0;
                         isPlaying = false;
                         playPauseButton.setText("▶");
-                        updateUIForEmptyPlaylist();
+                        loadCurrentSong();
+                    }
+                }
+            }
+
+            selectCurrentSong();
+            if (!audioPlayer.isLoaded()) {
+                initializeCurrentSong();
+            }
+        } else if (playlist.isEmpty() && playlistView != null) {
+            currentSongIndex = -1;
+            isPlaying = false;
+            playPauseButton.setText("▶");
+            updateUIForEmptyPlaylist();
+        }
+
+        // Update shuffle order if shuffling is enabled
+        if (isShuffling && !playlist.isEmpty()) {
+            if (shuffleEngine.isValidFor(previousSongs.size())) {
+                patchShuffleOrder(previousSongs);
+            } else {
+                rebuildShuffleOrder();
+            }
+        }
+    }
+
+    /**
+     * Carries the current shuffle order over to the new playlist instead of
+     * reshuffling: songs keep their place and new songs are slotted in randomly.
+     */
+    private void patchShuffleOrder(List<Song> previousSongs) {
+        Map<String, Integer> newIndexByPath = new HashMap<>(playlist.size() * 2);
+        for (int i = 0; i < playlist.size(); i++) {
+            newIndexByPath.put(playlist.get(i).getFilePath(), i);
+        }
+        int[] newIndexOfOld = new int[previousSongs.size()];
+        for (int i = 0; i < newIndexOfOld.length; i++) {
+            newIndexOfOld[i] = newIndexByPath.getOrDefault(previousSongs.get(i).getFilePath(), -1);
+        }
+        shuffleEngine.remap(newIndexOfOld, playlist.size(), random);
+    }
+
+    /**
+     * Selects the current song in the playlist view without the selection
+     * listener treating it as a user pick and decoding the song again.
+     */
+    private void selectCurrentSong() {
+        isSyncingSelection = true;
+        try {
+            if (currentSongIndex >= 0) {
+                playlistView.setSelectedIndex(currentSongIndex);
+            } else {
+                playlistView.clearSelection();
+            }
+        } finally {
+            isSyncingSelection = false;
+        }
+    }
+
+    private void rebuildSongIndex() {
+        songIndexById.clear();
+        for (int i = 0; i < playlist.size(); i++) {
+            songIndexById.putIfAbsent(playlist.get(i).getId(), i);
+        }
+    }
+
+    /**
+     * Row used to measure the playlist view once; with a fixed row height the
+     * list does not have to measure every song whenever the view changes.
+     */
+    private static Song createPrototypeSong() {
+        return new Song(-1, "Prototype Song Title", "", "", "");
+    }
+
+    /**
+     * Switches the playlist view. The library and cached playlists are shown
+     * right away; a user playlist seen for the first time is loaded page by
+     * page in the background.
+     */
+    private void showView(Playlist view) {
+        activeView = view;
+        activeOrder = null;
+        switch (view.getId()) {
+            case VIEW_LIBRARY:
+                showSongs(isLibraryArranged() ? arrangeLibrary(librarySongs) : librarySongs);
+                break;
+            case VIEW_MOST_PLAYED:
+            case VIEW_RECENTLY_PLAYED:
+                loadHistoryView(view);
+                break;
+            default:
+                PlaylistOrder order = loadedPlaylists.get(view.getId());
+                if (order == null) {
+                    order = new PlaylistOrder(databaseManager, view.getId());
+                    loadedPlaylists.put(view.getId(), order);
+                    activeOrder = order;
+                    showSongs(new ArrayList<>());
+                    loadPlaylistPages(order);
+                } else {
+                    activeOrder = order;
+                    showSongs(songsOf(order));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Replaces the songs in the view. The playing song keeps playing; if it is
+     * not part of the new view nothing is selected until the next song starts.
+     */
+    private void showSongs(List<Song> songs) {
+        int playingId = currentSongIndex >= 0 && currentSongIndex < playlist.size()
+                ? playlist.get(currentSongIndex).getId()
+                : listeningSongId;
+
+        playlist.clear();
+        playlist.addAll(songs);
+        // One change event for the whole view instead of one per song
+        playlistModel.clear();
+        playlistModel.addAll(songs);
+        rebuildSongIndex();
+
+        currentSongIndex = songIndexById.getOrDefault(playingId, -1);
+        if (!audioPlayer.isLoaded()) {
+            if (playlist.isEmpty()) {
+                updateUIForEmptyPlaylist();
+            } else {
+                if (currentSongIndex < 0) {
+                    currentSongIndex = 0;
+                }
+                initializeCurrentSong();
+            }
+        }
+        selectCurrentSong();
+        if (currentSongIndex >= 0) {
+            playlistView.ensureIndexIsVisible(currentSongIndex);
+        }
+
+        if (isShuffling) {
+            rebuildShuffleOrder();
+        }
+    }
+
+    /**
+     * Resolves a playlist's song ids against the library. Songs that are no
+     * longer in the library are dropped from the playlist.
+     */
+    private List<Song> songsOf(PlaylistOrder order) {
+        List<Song> songs = new ArrayList<>(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            Song song = songById.get(order.getSongId(i));
+            if (song == null) {
+                order.remove(i--);
+            } else {
+                songs.add(song);
+            }
+        }
+        return songs;
+    }
+
+    /**
+     * @return true if the library view is sorted or filtered by the analysis
+     *         instead of showing the library in its own order
+     */
+    private boolean isLibraryArranged() {
+        return librarySort != SORT_NONE || !Double.isNaN(minBpm);
+    }
+
+    /**
+     * Applies the BPM filter and the tempo or key sort to the library. Songs
+     * without a value sort last, in library order.
+     */
+    private List<Song> arrangeLibrary(List<Song> songs) {
+        List<Song> arranged = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            if (!Double.isNaN(minBpm)) {
+                SongAnalysis analysis = songAnalysis.get(song.getId());
+                double bpm = analysis != null ? analysis.getBpm() : Double.NaN;
+                if (!(bpm >= minBpm && bpm <= maxBpm)) {
+                    continue;
+                }
+            }
+            arranged.add(song);
+        }
+        if (librarySort == SORT_BPM) {
+            arranged.sort(Comparator.comparingDouble(song -> {
+                SongAnalysis analysis = songAnalysis.get(song.getId());
+                return analysis == null || Double.isNaN(analysis.getBpm()) ? Double.MAX_VALUE : analysis.getBpm();
+            }));
+        } else if (librarySort == SORT_KEY) {
+            arranged.sort(Comparator.comparingInt(song -> {
+                SongAnalysis analysis = songAnalysis.get(song.getId());
+                return analysis == null ? Integer.MAX_VALUE : analysis.getKeyOrder();
+            }));
+        }
+        return arranged;
+    }
+
+    /**
+     * Sorts the library view by tempo or key, or back to library order.
+     */
+    private void setLibrarySort(int sort) {
+        librarySort = sort;
+        arrangeLibraryView();
+    }
+
+    /**
+     * Asks for a BPM range to filter the library view by; an empty range
+     * clears the filter.
+     */
+    private void promptBpmFilter() {
+        String current = Double.isNaN(minBpm) ? "" : Math.round(minBpm) + "-" + Math.round(maxBpm);
+        String input = (String) JOptionPane.showInputDialog(this,
+                "Show songs with a tempo in this range, e.g. 120-130.\nLeave empty to show all songs.",
+                "Filter by BPM", JOptionPane.PLAIN_MESSAGE, null, null, current);
+        if (input == null) {
+            return;
+        }
+        input = input.trim();
+        if (input.isEmpty()) {
+            minBpm = Double.NaN;
+            maxBpm = Double.NaN;
+        } else {
+            try {
+                String[] bounds = input.split("\\s*-\\s*", 2);
+                double low = Double.parseDouble(bounds[0]);
+                double high = bounds.length > 1 ? Double.parseDouble(bounds[1]) : low;
+                minBpm = Math.min(low, high);
+                maxBpm = Math.max(low, high);
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this, "Enter a tempo or a range such as 120-130.",
+                        "Filter by BPM", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+        }
+        arrangeLibraryView();
+    }
+
+    /**
+     * Loads the latest analysis results and shows the library with the current
+     * sort and filter. User playlists keep their own order.
+     */
+    private void arrangeLibraryView() {
+        if (!isLibraryArranged()) {
+            if (activeView.getId() == VIEW_LIBRARY) {
+                showView(activeView);
+            } else {
+                viewSelector.setSelectedIndex(0);
+            }
+            return;
+        }
+        SwingWorker<Map<Integer, SongAnalysis>, Void> worker = new SwingWorker<Map<Integer, SongAnalysis>, Void>() {
+            @Override
+            protected Map<Integer, SongAnalysis> doInBackground() throws Exception {
+                return databaseManager.loadSongAnalysis();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    songAnalysis = get();
+                } catch (Exception e) {
+                    System.err.println("Error loading song analysis: " + e.getMessage());
+                }
+                if (activeView.getId() == VIEW_LIBRARY) {
+                    showView(activeView);
+                } else {
+                    // Selecting the library shows it arranged
+                    viewSelector.setSelectedIndex(0);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void loadPlaylistPages(PlaylistOrder order) {
+        SwingWorker<Void, List<PlaylistEntry>> worker = new SwingWorker<Void, List<PlaylistEntry>>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                // Entries added before the playlist was opened must be written first
+                PlaylistOrder.awaitPendingWrites();
+                long afterKey = Long.MIN_VALUE;
+                List<PlaylistEntry> page;
+                do {
+                    page = databaseManager.loadPlaylistEntries(order.getPlaylistId(), afterKey, PLAYLIST_PAGE_SIZE);
+                    if (page == null) {
+                        throw new IOException("Could not read playlist " + order.getPlaylistId());
+                    }
+                    if (!page.isEmpty()) {
+                        afterKey = page.get(page.size() - 1).getSortKey();
+                        publish(page);
                     }
+                } while (page.size() == PLAYLIST_PAGE_SIZE);
+                return null;
+            }
 
-                    // Update shuffle order if shuffling is enabled
-                    if (isShuffling && !playlist.isEmpty()) {
-                        rebuildShuffleOrder();
+            @Override
+            protected void process(List<List<PlaylistEntry>> pages) {
+                List<Song> added = new ArrayList<>();
+                for (List<PlaylistEntry> page : pages) {
+                    List<PlaylistEntry> known = new ArrayList<>(page.size());
+                    for (PlaylistEntry entry : page) {
+                        Song song = songById.get(entry.getSongId());
+                        if (song != null) {
+                            known.add(entry);
+                            added.add(song);
+                        }
                     }
+                    order.appendLoaded(known);
+                }
+                if (order == activeOrder && !added.isEmpty()) {
+                    appendToView(added);
+                }
+            }
 
+            @Override
+            protected void done() {
+                try {
+                    get();
                 } catch (Exception e) {
                     System.err.println("Error loading playlist: " + e.getMessage());
-                    e.printStackTrace();
+                    order.abandonLoading();
+                    loadedPlaylists.remove(order.getPlaylistId());
+                    return;
+                }
+                List<Song> added = new ArrayList<>();
+                for (int songId : order.finishLoading()) {
+                    Song song = songById.get(songId);
+                    if (song != null) {
+                        added.add(song);
+                    }
+                }
+                if (order == activeOrder && !added.isEmpty()) {
+                    appendToView(added);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void appendToView(List<Song> songs) {
+        int start = playlist.size();
+        playlist.addAll(songs);
+        playlistModel.addAll(songs);
+        for (int i = start; i < playlist.size(); i++) {
+            songIndexById.putIfAbsent(playlist.get(i).getId(), i);
+        }
+        if (currentSongIndex < 0 && songIndexById.containsKey(listeningSongId)) {
+            currentSongIndex = songIndexById.get(listeningSongId);
+            selectCurrentSong();
+        }
+        if (start == 0 && !audioPlayer.isLoaded()) {
+            currentSongIndex = 0;
+            initializeCurrentSong();
+            selectCurrentSong();
+        }
+        if (isShuffling) {
+            rebuildShuffleOrder();
+        }
+    }
+
+    private void loadHistoryView(Playlist view) {
+        showSongs(new ArrayList<>());
+        SwingWorker<int[], Void> worker = new SwingWorker<int[], Void>() {
+            @Override
+            protected int[] doInBackground() throws Exception {
+                return view.getId() == VIEW_MOST_PLAYED
+                        ? databaseManager.loadMostPlayedSongIds(HISTORY_VIEW_SIZE)
+                        : databaseManager.loadRecentlyPlayedSongIds(HISTORY_VIEW_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    int[] ids = get();
+                    if (activeView != view) {
+                        return;
+                    }
+                    List<Song> songs = new ArrayList<>(ids.length);
+                    for (int id : ids) {
+                        Song song = songById.get(id);
+                        if (song != null) {
+                            songs.add(song);
+                        }
+                    }
+                    showSongs(songs);
+                } catch (Exception e) {
+                    System.err.println("Error loading play history: " + e.getMessage());
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void addToPlaylist(Playlist target, int index) {
+        if (index < 0 || index >= playlist.size()) {
+            return;
+        }
+        Song song = playlist.get(index);
+        PlaylistOrder order = loadedPlaylists.get(target.getId());
+        if (order == null) {
+            // Not loaded yet: only the database needs the new entry
+            PlaylistOrder.append(databaseManager, target.getId(), song.getId());
+            return;
+        }
+        int previousSize = order.size();
+        order.add(song.getId());
+        if (order == activeOrder && order.size() > previousSize) {
+            appendToView(List.of(song));
+        }
+    }
+
+    private void createPlaylistWith(int index) {
+        String name = JOptionPane.showInputDialog(this, "Playlist name:", "New Playlist",
+                JOptionPane.PLAIN_MESSAGE);
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        SwingWorker<Playlist, Void> worker = new SwingWorker<Playlist, Void>() {
+            @Override
+            protected Playlist doInBackground() throws Exception {
+                return databaseManager.createPlaylist(name.trim());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Playlist created = get();
+                    if (created == null) {
+                        return;
+                    }
+                    isSwitchingView = true;
+                    try {
+                        viewSelector.addItem(created);
+                    } finally {
+                        isSwitchingView = false;
+                    }
+                    addToPlaylist(created, index);
+                } catch (Exception e) {
+                    System.err.println("Error creating playlist: " + e.getMessage());
                 }
             }
         };
         worker.execute();
     }
 
+    private void removeFromActivePlaylist(int index) {
+        if (activeOrder == null || index < 0 || index >= playlist.size()) {
+            return;
+        }
+        int oldSize = playlist.size();
+        activeOrder.remove(index);
+        playlist.remove(index);
+        playlistModel.remove(index);
+        rebuildSongIndex();
+
+        if (currentSongIndex == index) {
+            // Keeps playing, but is no longer part of this view
+            currentSongIndex = -1;
+        } else if (currentSongIndex > index) {
+            currentSongIndex--;
+        }
+        int[] newIndexOfOld = new int[oldSize];
+        for (int i = 0; i < oldSize; i++) {
+            newIndexOfOld[i] = i < index ? i : i == index ? -1 : i - 1;
+        }
+        remapShuffleOrder(newIndexOfOld, oldSize);
+        selectCurrentSong();
+    }
+
+    /**
+     * Applies a drag-reorder in the active playlist. Only the moved entry gets
+     * a new ordering key, so this is one row written in the background.
+     */
+    private void moveInActivePlaylist(int from, int to) {
+        if (!canReorder() || from == to) {
+            return;
+        }
+        activeOrder.move(from, to);
+        Song moved = playlist.remove(from);
+        playlist.add(to, moved);
+        playlistModel.remove(from);
+        playlistModel.add(to, moved);
+        rebuildSongIndex();
+
+        int[] newIndexOfOld = new int[playlist.size()];
+        for (int i = 0; i < newIndexOfOld.length; i++) {
+            if (i == from) {
+                newIndexOfOld[i] = to;
+            } else if (from < to && i > from && i <= to) {
+                newIndexOfOld[i] = i - 1;
+            } else if (to < from && i >= to && i < from) {
+                newIndexOfOld[i] = i + 1;
+            } else {
+                newIndexOfOld[i] = i;
+            }
+        }
+        if (currentSongIndex >= 0) {
+            currentSongIndex = newIndexOfOld[currentSongIndex];
+        }
+        remapShuffleOrder(newIndexOfOld, newIndexOfOld.length);
+        selectCurrentSong();
+    }
+
+    /**
+     * @return Whether the view is a user playlist that has finished loading;
+     *         until then its new ordering keys could clash with unloaded ones
+     */
+    private boolean canReorder() {
+        return activeOrder != null && activeOrder.isFullyLoaded();
+    }
+
+    private void remapShuffleOrder(int[] newIndexOfOld, int oldSize) {
+        if (!isShuffling) {
+            return;
+        }
+        if (shuffleEngine.isValidFor(oldSize)) {
+            shuffleEngine.remap(newIndexOfOld, playlist.size(), random);
+        } else {
+            rebuildShuffleOrder();
+        }
+    }
+
+    private void deleteActivePlaylist() {
+        if (activeOrder == null) {
+            return;
+        }
+        Playlist deleted = activeView;
+        int choice = JOptionPane.showConfirmDialog(this,
+                "Delete the playlist \"" + deleted.getName() + "\"? The songs stay in your library.",
+                "Delete Playlist",
+                JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) {
+            return;
+        }
+        PlaylistOrder.delete(databaseManager, deleted.getId());
+        loadedPlaylists.remove(deleted.getId());
+        viewSelector.setSelectedIndex(0);
+        viewSelector.removeItem(deleted);
+    }
+
+    /**
+     * Moves songs within a user playlist by dragging them in the list.
+     */
+    private class PlaylistReorderHandler extends TransferHandler {
+        private int dragIndex = -1;
+
+        @Override
+        public int getSourceActions(JComponent c) {
+            return canReorder() ? MOVE : NONE;
+        }
+
+        @Override
+        protected Transferable createTransferable(JComponent c) {
+            dragIndex = playlistView.getSelectedIndex();
+            return new StringSelection(Integer.toString(dragIndex));
+        }
+
+        @Override
+        public boolean canImport(TransferSupport support) {
+            return support.isDrop() && support.getComponent() == playlistView
+                    && canReorder() && dragIndex >= 0;
+        }
+
+        @Override
+        public boolean importData(TransferSupport support) {
+            if (!canImport(support)) {
+                return false;
+            }
+            int to = ((JList.DropLocation) support.getDropLocation()).getIndex();
+            if (to > dragIndex) {
+                to--;
+            }
+            if (to < 0 || to >= playlist.size()) {
+                return false;
+            }
+            moveInActivePlaylist(dragIndex, to);
+            return true;
+        }
+
+        @Override
+        protected void exportDone(JComponent source, Transferable data, int action) {
+            dragIndex = -1;
+        }
+    }
+
     private void refreshPlaylist() {
         // Show loading indicator
         titleLabel.setText("Refreshing playlist...");
@@ -343,8 +1336,7 @@ public class MusicPlayer extends JFrame {
         artistLabel.setText("Add songs to begin");
         seekBar.setValue(0);
         seekBar.setMaximum(0);
-        currentTimeLabel.setText("0:00");
-        totalTimeLabel.setText("0:00");
+        updateTimeLabels(0, 0);
     }
 
     // Replace addFilesToPlaylist() method
@@ -391,7 +1383,7 @@ public class MusicPlayer extends JFrame {
 
     private void openFileChooser() {
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Select MP3 Files");
+        fileChooser.setDialogTitle("Select Audio Files");
         fileChooser.setMultiSelectionEnabled(true);
 
         // Set default directory to the user's music folder
@@ -399,7 +1391,9 @@ public class MusicPlayer extends JFrame {
         File defaultDir = musicFolder.exists() ? musicFolder : new File(System.getProperty("user.home"));
         fileChooser.setCurrentDirectory(defaultDir);
 
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("MP3 Files", "mp3");
+        String[] extensions = DecoderRegistry.getExtensions();
+        FileNameExtensionFilter filter = new FileNameExtensionFilter(
+                "Audio Files (" + String.join(", ", extensions).toUpperCase(Locale.ROOT) + ")", extensions);
         fileChooser.setFileFilter(filter);
 
         int result = fileChooser.showOpenDialog(this);
@@ -411,6 +1405,302 @@ public class MusicPlayer extends JFrame {
         }
     }
 
+    private void importPlaylistFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import Playlist");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Playlists (M3U, M3U8, PLS)", "m3u", "m3u8", "pls"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        String fileName = file.getName();
+        String name = fileName.lastIndexOf('.') > 0 ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+
+        SwingWorker<PlaylistImport, Void> worker = new SwingWorker<PlaylistImport, Void>() {
+            @Override
+            protected PlaylistImport doInBackground() throws Exception {
+                return databaseManager.importPlaylist(file.toPath(), name, PlaylistOrder.KEY_GAP);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    PlaylistImport result = get();
+                    if (result == null) {
+                        JOptionPane.showMessageDialog(MusicPlayer.this,
+                                "The playlist could not be imported.",
+                                "Import Error",
+                                JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    if (result.getAddedSongCount() > 0) {
+                        refreshPlaylistFromDatabase();
+                    }
+                    isSwitchingView = true;
+                    try {
+                        viewSelector.addItem(result.getPlaylist());
+                    } finally {
+                        isSwitchingView = false;
+                    }
+
+                    String message = "Imported " + result.getEntryCount() + " song(s) into \""
+                            + result.getPlaylist().getName() + "\".";
+                    if (result.getAddedSongCount() > 0) {
+                        message += "\n" + result.getAddedSongCount() + " song(s) were added to your library.";
+                    }
+                    if (result.getMissingCount() > 0) {
+                        message += "\n" + result.getMissingCount() + " file(s) could not be found and were skipped.";
+                    }
+                    JOptionPane.showMessageDialog(MusicPlayer.this, message, "Playlist Imported",
+                            JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Error importing playlist: " + e.getMessage(),
+                            "Import Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void exportPlaylistFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export Playlist");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Playlists (M3U, M3U8, PLS)", "m3u", "m3u8", "pls"));
+        fileChooser.setSelectedFile(new File(activeView.getName() + ".m3u8"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selected = fileChooser.getSelectedFile();
+        String lowerName = selected.getName().toLowerCase();
+        File target = lowerName.endsWith(".m3u") || lowerName.endsWith(".m3u8") || lowerName.endsWith(".pls")
+                ? selected
+                : new File(selected.getPath() + ".m3u8");
+
+        // Library and playlists stream from the database; history views are small
+        Playlist view = activeView;
+        List<Song> shownSongs = new ArrayList<>(view.getId() > 0 || view.getId() == VIEW_LIBRARY
+                ? List.of()
+                : playlist);
+        SwingWorker<Integer, Void> worker = new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                if (view.getId() > 0) {
+                    return databaseManager.exportPlaylist(view.getId(), target.toPath());
+                }
+                if (view.getId() == VIEW_LIBRARY) {
+                    return databaseManager.exportLibrary(target.toPath());
+                }
+                try (PlaylistFileWriter writer = new PlaylistFileWriter(target.toPath())) {
+                    for (Song song : shownSongs) {
+                        writer.add(song.getFilePath(), song.getTitle(), song.getArtist());
+                    }
+                    return writer.getCount();
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    int count = get();
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Exported " + count + " song(s) to " + target.getName() + ".",
+                            "Playlist Exported",
+                            JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Error exporting playlist: " + e.getMessage(),
+                            "Export Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Shows the equalizer bands and presets. Changes are heard while the
+     * dialog is open, from the next block written to the output; they last for
+     * the session.
+     */
+    private void showEqualizer() {
+        Equalizer equalizer = audioPlayer.getEqualizer();
+        float[] gains = equalizer.getGains();
+        int maxGain = Math.round(Equalizer.MAX_GAIN_DB);
+        JSlider[] sliders = new JSlider[Equalizer.BANDS];
+        boolean[] applyingPreset = new boolean[1];
+        JComboBox<EqualizerPreset> presetBox = new JComboBox<>(
+                Equalizer.PRESETS.toArray(new EqualizerPreset[0]));
+
+        JPanel bandPanel = new JPanel(new GridLayout(1, Equalizer.BANDS, 4, 0));
+        for (int band = 0; band < Equalizer.BANDS; band++) {
+            int index = band;
+            JSlider slider = new JSlider(JSlider.VERTICAL, -maxGain, maxGain, Math.round(gains[band]));
+            slider.setMajorTickSpacing(maxGain);
+            slider.setPaintTicks(true);
+            slider.setPreferredSize(new Dimension(40, 180));
+            JLabel gainLabel = new JLabel(formatGain(slider.getValue()), SwingConstants.CENTER);
+            slider.addChangeListener(_ -> {
+                gainLabel.setText(formatGain(slider.getValue()));
+                if (!applyingPreset[0]) {
+                    equalizer.setGain(index, slider.getValue());
+                    // No longer the preset shown
+                    presetBox.setSelectedIndex(-1);
+                }
+            });
+            sliders[band] = slider;
+
+            float frequency = Equalizer.FREQUENCIES[band];
+            JLabel frequencyLabel = new JLabel(frequency >= 1000
+                    ? Math.round(frequency / 1000) + "k"
+                    : String.valueOf(Math.round(frequency)), SwingConstants.CENTER);
+            JPanel column = new JPanel(new BorderLayout(0, 4));
+            column.add(gainLabel, BorderLayout.NORTH);
+            column.add(slider, BorderLayout.CENTER);
+            column.add(frequencyLabel, BorderLayout.SOUTH);
+            bandPanel.add(column);
+        }
+
+        presetBox.setSelectedIndex(-1);
+        for (EqualizerPreset preset : Equalizer.PRESETS) {
+            if (Arrays.equals(preset.getGains(), gains)) {
+                presetBox.setSelectedItem(preset);
+            }
+        }
+        presetBox.addActionListener(_ -> {
+            EqualizerPreset preset = (EqualizerPreset) presetBox.getSelectedItem();
+            if (preset == null) {
+                return;
+            }
+            float[] presetGains = preset.getGains();
+            // One coefficient update for the whole preset, not one per slider
+            equalizer.setGains(presetGains);
+            applyingPreset[0] = true;
+            for (int band = 0; band < Equalizer.BANDS; band++) {
+                sliders[band].setValue(Math.round(presetGains[band]));
+            }
+            applyingPreset[0] = false;
+        });
+
+        JPanel presetPanel = new JPanel(new BorderLayout(8, 0));
+        presetPanel.add(new JLabel("Preset:"), BorderLayout.WEST);
+        presetPanel.add(presetBox, BorderLayout.CENTER);
+
+        JPanel equalizerPanel = new JPanel(new BorderLayout(0, 10));
+        equalizerPanel.add(presetPanel, BorderLayout.NORTH);
+        equalizerPanel.add(bandPanel, BorderLayout.CENTER);
+        JOptionPane.showMessageDialog(this, equalizerPanel, "Equalizer", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static String formatGain(int db) {
+        return db > 0 ? "+" + db : String.valueOf(db);
+    }
+
+    private void findDuplicates() {
+        List<Song> songs = new ArrayList<>(librarySongs);
+        SwingWorker<List<DuplicateGroup>, Void> worker = new SwingWorker<List<DuplicateGroup>, Void>() {
+            @Override
+            protected List<DuplicateGroup> doInBackground() throws Exception {
+                return new DuplicateFinder(databaseManager).findDuplicates(songs);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    showDuplicateReport(get());
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Error finding duplicates: " + e.getMessage(),
+                            "Duplicate Scan Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void showDuplicateReport(List<DuplicateGroup> groups) {
+        if (groups.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "No duplicate songs were found.",
+                    "Find Duplicates",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        int copies = 0;
+        StringBuilder report = new StringBuilder();
+        for (DuplicateGroup group : groups) {
+            Song kept = group.getKept();
+            report.append(kept.getTitle()).append(" - ").append(kept.getArtist()).append('\n');
+            report.append("  keep:    ").append(kept.getFilePath()).append('\n');
+            for (Song duplicate : group.getDuplicates()) {
+                report.append("  remove:  ").append(duplicate.getFilePath()).append('\n');
+                copies++;
+            }
+            report.append('\n');
+        }
+
+        JTextArea reportArea = new JTextArea(report.toString());
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        reportArea.setCaretPosition(0);
+        JScrollPane reportPane = new JScrollPane(reportArea);
+        reportPane.setPreferredSize(new Dimension(560, 320));
+        JPanel reportPanel = new JPanel(new BorderLayout(0, 10));
+        reportPanel.add(new JLabel(groups.size() + " song(s) have " + copies
+                + " duplicate copies. Removing them keeps the oldest copy; files stay on disk."),
+                BorderLayout.NORTH);
+        reportPanel.add(reportPane, BorderLayout.CENTER);
+
+        Object[] options = { "Remove Duplicates", "Close" };
+        int choice = JOptionPane.showOptionDialog(this, reportPanel, "Find Duplicates",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[1]);
+        if (choice != 0) {
+            return;
+        }
+
+        int[] removeIds = new int[copies];
+        int[] keepIds = new int[copies];
+        int next = 0;
+        for (DuplicateGroup group : groups) {
+            for (Song duplicate : group.getDuplicates()) {
+                removeIds[next] = duplicate.getId();
+                keepIds[next] = group.getKept().getId();
+                next++;
+            }
+        }
+        SwingWorker<List<QueueEntry>, Void> worker = new SwingWorker<List<QueueEntry>, Void>() {
+            @Override
+            protected List<QueueEntry> doInBackground() throws Exception {
+                // Playlist and queue rows are repointed, wait for pending edits first
+                PlaylistOrder.awaitPendingWrites();
+                playQueue.awaitPendingWrites();
+                databaseManager.removeDuplicateSongs(removeIds, keepIds);
+                return databaseManager.loadQueue();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    List<QueueEntry> queue = get();
+                    // In-memory playlists and the queue still refer to the removed copies
+                    loadedPlaylists.clear();
+                    activeOrder = null;
+                    playQueue.load(queue);
+                    refreshPlaylistFromDatabase();
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Error removing duplicates: " + e.getMessage(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
     private void setupUI() {
         // Set up main panel with BorderLayout
         mainPanel = new JPanel(new BorderLayout());
@@ -451,20 +1741,34 @@ public class MusicPlayer extends JFrame {
         titlePanel.setBackground(BACKGROUND_COLOR);
         titlePanel.setBorder(new EmptyBorder(0, 0, 10, 0));
 
-        // Left side components (label and upload button)
+        // Left side component (upload button); the view selector sits above
         JPanel leftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
         leftPanel.setBackground(BACKGROUND_COLOR);
 
-        JLabel playlistLabel = new JLabel("Playlist");
-        playlistLabel.setFont(new Font("Inter", Font.BOLD, 18));
-        playlistLabel.setForeground(TEXT_COLOR);
-        playlistLabel.setBorder(new EmptyBorder(0, 0, 0, 20));
+        viewSelector = new JComboBox<>();
+        viewSelector.addItem(activeView);
+        viewSelector.addItem(new Playlist(VIEW_MOST_PLAYED, "Most Played"));
+        viewSelector.addItem(new Playlist(VIEW_RECENTLY_PLAYED, "Recently Played"));
+        viewSelector.setFont(new Font("Inter", Font.BOLD, 14));
+        viewSelector.setForeground(TEXT_COLOR);
+        viewSelector.setBackground(BACKGROUND_COLOR);
+        viewSelector.setFocusable(false);
+        viewSelector.setPreferredSize(new Dimension(150, 32));
+        viewSelector.addActionListener(_ -> {
+            Playlist selected = (Playlist) viewSelector.getSelectedItem();
+            if (!isSwitchingView && selected != null && selected != activeView) {
+                showView(selected);
+            }
+        });
+        JPanel selectorWrapper = new JPanel(new BorderLayout());
+        selectorWrapper.setBackground(BACKGROUND_COLOR);
+        selectorWrapper.setBorder(new EmptyBorder(0, 0, 10, 0));
+        selectorWrapper.add(viewSelector, BorderLayout.CENTER);
         CustomButton uploadButton = createUploadButton();
 
-        leftPanel.add(playlistLabel);
         leftPanel.add(uploadButton);
 
-        // Right side component (refresh button)
+        // Right side components (playlist file menu and refresh button)
         JPanel rightPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
         rightPanel.setBackground(BACKGROUND_COLOR);
         rightPanel.setBorder(new EmptyBorder(0, 0, 0, 0));
@@ -477,9 +1781,109 @@ public class MusicPlayer extends JFrame {
         refreshButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
         refreshButton.addActionListener(_ -> refreshPlaylist());
 
+        JPopupMenu fileMenu = new JPopupMenu();
+        JMenuItem importItem = new JMenuItem("Import Playlist...");
+        JMenuItem exportItem = new JMenuItem("Export Playlist...");
+        JMenuItem duplicatesItem = new JMenuItem("Find Duplicates...");
+        JMenuItem equalizerItem = new JMenuItem("Equalizer...");
+        importItem.addActionListener(_ -> importPlaylistFile());
+        exportItem.addActionListener(_ -> exportPlaylistFile());
+        duplicatesItem.addActionListener(_ -> findDuplicates());
+        equalizerItem.addActionListener(_ -> showEqualizer());
+        fileMenu.add(importItem);
+        fileMenu.add(exportItem);
+        fileMenu.addSeparator();
+
+        JMenu sortMenu = new JMenu("Sort Library By");
+        ButtonGroup sortGroup = new ButtonGroup();
+        String[] sortNames = { "Library Order", "Tempo (BPM)", "Key" };
+        int[] sorts = { SORT_NONE, SORT_BPM, SORT_KEY };
+        for (int i = 0; i < sorts.length; i++) {
+            int sort = sorts[i];
+            JRadioButtonMenuItem sortItem = new JRadioButtonMenuItem(sortNames[i], sort == librarySort);
+            sortItem.addActionListener(_ -> setLibrarySort(sort));
+            sortGroup.add(sortItem);
+            sortMenu.add(sortItem);
+        }
+        JMenuItem bpmFilterItem = new JMenuItem("Filter by BPM...");
+        bpmFilterItem.addActionListener(_ -> promptBpmFilter());
+        fileMenu.add(sortMenu);
+        fileMenu.add(bpmFilterItem);
+        fileMenu.addSeparator();
+
+        // Only used when the output cannot play a file's sample rate
+        JMenu resamplingMenu = new JMenu("Resampling Quality");
+        ButtonGroup resamplingGroup = new ButtonGroup();
+        String[] qualityNames = { "Fast", "Standard", "Best" };
+        int[] qualities = { Resampler.QUALITY_FAST, Resampler.QUALITY_STANDARD, Resampler.QUALITY_BEST };
+        for (int i = 0; i < qualities.length; i++) {
+            int quality = qualities[i];
+            JRadioButtonMenuItem qualityItem = new JRadioButtonMenuItem(qualityNames[i],
+                    quality == Resampler.QUALITY_STANDARD);
+            qualityItem.addActionListener(_ -> audioPlayer.setResamplerQuality(quality));
+            resamplingGroup.add(qualityItem);
+            resamplingMenu.add(qualityItem);
+        }
+        fileMenu.add(resamplingMenu);
+
+        JMenu deviceMenu = new JMenu("Output Device");
+        deviceMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                populateOutputDeviceMenu(deviceMenu);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+        fileMenu.add(deviceMenu);
+
+        JMenu chaptersMenu = new JMenu("Chapters");
+        chaptersMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                populateChaptersMenu(chaptersMenu);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+        fileMenu.add(chaptersMenu);
+        fileMenu.add(equalizerItem);
+        fileMenu.add(duplicatesItem);
+
+        JCheckBoxMenuItem serverItem = new JCheckBoxMenuItem("Serve Library on localhost");
+        serverItem.addActionListener(_ -> setLibraryServerEnabled(serverItem));
+        fileMenu.add(serverItem);
+
+        CustomButton fileButton = new CustomButton("⋮");
+        fileButton.setToolTipText("Playlist Files and Library Tools");
+        fileButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 14));
+        fileButton.setForeground(TEXT_COLOR);
+        fileButton.setPreferredSize(new Dimension(35, 30));
+        fileButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        fileButton.addActionListener(_ -> fileMenu.show(fileButton, 0, fileButton.getHeight()));
+
+        JPanel fileButtonWrapper = new JPanel(new BorderLayout());
+        fileButtonWrapper.setBackground(BACKGROUND_COLOR);
+        fileButtonWrapper.setBorder(new EmptyBorder(0, 0, 0, 5));
+        fileButtonWrapper.add(fileButton, BorderLayout.CENTER);
+
+        rightPanel.add(fileButtonWrapper);
         rightPanel.add(refreshButton);
 
         // Add both panels to titlePanel
+        titlePanel.add(selectorWrapper, BorderLayout.NORTH);
         titlePanel.add(leftPanel, BorderLayout.WEST);
         titlePanel.add(rightPanel, BorderLayout.EAST);
 
@@ -489,8 +1893,12 @@ public class MusicPlayer extends JFrame {
         playlistView.setForeground(TEXT_COLOR);
         playlistView.setFont(REGULAR_FONT);
         playlistView.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        playlistView.setPrototypeCellValue(createPrototypeSong());
+        playlistView.setDragEnabled(true);
+        playlistView.setDropMode(DropMode.INSERT);
+        playlistView.setTransferHandler(new PlaylistReorderHandler());
         playlistView.addListSelectionListener(e -> {
-            if (!e.getValueIsAdjusting() && !playlistModel.isEmpty()) {
+            if (!isSyncingSelection && !e.getValueIsAdjusting() && !playlistModel.isEmpty()) {
                 int selectedIndex = playlistView.getSelectedIndex();
                 if (selectedIndex >= 0) { // Only update if valid index
                     currentSongIndex = selectedIndex;
@@ -530,6 +1938,17 @@ public class MusicPlayer extends JFrame {
                 int maxWidth = list.getWidth() - 30;
                 if (maxWidth <= 0)
                     maxWidth = 200;
+
+                // Tempo and key next to the title while the library is arranged by them
+                String details = analysisDetails(song);
+                if (details != null) {
+                    JLabel detailsLabel = new JLabel(details);
+                    detailsLabel.setFont(REGULAR_FONT);
+                    detailsLabel.setForeground(isSelected ? Color.BLACK : Color.GRAY);
+                    detailsLabel.setBorder(new EmptyBorder(5, 5, 5, 10));
+                    cellPanel.add(detailsLabel, BorderLayout.EAST);
+                    maxWidth -= fm.stringWidth(details) + 15;
+                }
                 String displayText = fm.stringWidth(title) > maxWidth
                         ? truncateWithEllipsis(title, fm, maxWidth)
                         : title;
@@ -546,6 +1965,19 @@ public class MusicPlayer extends JFrame {
                 return cellPanel;
             }
 
+            private String analysisDetails(Song song) {
+                if (activeView.getId() != VIEW_LIBRARY || !isLibraryArranged()) {
+                    return null;
+                }
+                SongAnalysis analysis = songAnalysis.get(song.getId());
+                if (analysis == null) {
+                    return null;
+                }
+                String bpm = Double.isNaN(analysis.getBpm()) ? "" : String.valueOf(Math.round(analysis.getBpm()));
+                String key = analysis.getKey() != null ? analysis.getKey() : "";
+                return bpm.isEmpty() || key.isEmpty() ? bpm + key : bpm + " · " + key;
+            }
+
             private String truncateWithEllipsis(String text, FontMetrics fm, int maxWidth) {
                 String ellipsis = "...";
                 int ellipsisWidth = fm.stringWidth(ellipsis);
@@ -568,6 +2000,73 @@ public class MusicPlayer extends JFrame {
         playlistView.setOpaque(false);
         playlistView.setBorder(new EmptyBorder(5, 5, 5, 5));
 
+        // Right-click to queue a song without changing the selection (which would load it)
+        JPopupMenu playlistMenu = new JPopupMenu();
+        JMenuItem playNextItem = new JMenuItem("Play Next");
+        JMenuItem addToQueueItem = new JMenuItem("Add to Queue");
+        JMenuItem startRadioItem = new JMenuItem("Start Radio");
+        JMenuItem stopRadioItem = new JMenuItem("Stop Radio");
+        JMenu addToPlaylistMenu = new JMenu("Add to Playlist");
+        JMenuItem removeFromPlaylistItem = new JMenuItem("Remove from Playlist");
+        JMenuItem deletePlaylistItem = new JMenuItem("Delete Playlist...");
+        playlistMenu.add(playNextItem);
+        playlistMenu.add(addToQueueItem);
+        playlistMenu.add(startRadioItem);
+        playlistMenu.add(stopRadioItem);
+        playlistMenu.addSeparator();
+        playlistMenu.add(addToPlaylistMenu);
+        playlistMenu.add(removeFromPlaylistItem);
+        playlistMenu.add(deletePlaylistItem);
+        final int[] menuIndex = { -1 };
+        playNextItem.addActionListener(_ -> queueSong(menuIndex[0], true));
+        addToQueueItem.addActionListener(_ -> queueSong(menuIndex[0], false));
+        startRadioItem.addActionListener(_ -> startRadio(menuIndex[0]));
+        stopRadioItem.addActionListener(_ -> stopRadio());
+        removeFromPlaylistItem.addActionListener(_ -> removeFromActivePlaylist(menuIndex[0]));
+        deletePlaylistItem.addActionListener(_ -> deleteActivePlaylist());
+        playlistView.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showMenu(e);
+            }
+
+            private void showMenu(MouseEvent e) {
+                if (!e.isPopupTrigger()) {
+                    return;
+                }
+                int index = playlistView.locationToIndex(e.getPoint());
+                if (index >= 0 && playlistView.getCellBounds(index, index).contains(e.getPoint())) {
+                    menuIndex[0] = index;
+                    // User playlists are the selector entries with real ids
+                    addToPlaylistMenu.removeAll();
+                    for (int i = 0; i < viewSelector.getItemCount(); i++) {
+                        Playlist target = viewSelector.getItemAt(i);
+                        if (target.getId() > 0 && target != activeView) {
+                            JMenuItem item = new JMenuItem(target.getName());
+                            item.addActionListener(_ -> addToPlaylist(target, menuIndex[0]));
+                            addToPlaylistMenu.add(item);
+                        }
+                    }
+                    if (addToPlaylistMenu.getItemCount() > 0) {
+                        addToPlaylistMenu.addSeparator();
+                    }
+                    JMenuItem newPlaylistItem = new JMenuItem("New Playlist...");
+                    newPlaylistItem.addActionListener(_ -> createPlaylistWith(menuIndex[0]));
+                    addToPlaylistMenu.add(newPlaylistItem);
+                    startRadioItem.setEnabled(similarityIndex != null);
+                    stopRadioItem.setVisible(isRadioOn);
+                    removeFromPlaylistItem.setVisible(activeOrder != null);
+                    deletePlaylistItem.setVisible(activeOrder != null);
+                    playlistMenu.show(playlistView, e.getX(), e.getY());
+                }
+            }
+        });
+
         JScrollPane scrollPane = new JScrollPane(playlistView);
         scrollPane.setBorder(null);
         scrollPane.setOpaque(false);
@@ -591,6 +2090,451 @@ public class MusicPlayer extends JFrame {
 
         sidebarPanel.add(titlePanel, BorderLayout.NORTH);
         sidebarPanel.add(roundedContainer, BorderLayout.CENTER);
+        setupQueuePanel();
+        sidebarPanel.add(queuePanel, BorderLayout.SOUTH);
+    }
+
+    private void setupQueuePanel() {
+        queuePanel = new JPanel(new BorderLayout(0, 5));
+        queuePanel.setBackground(BACKGROUND_COLOR);
+        queuePanel.setBorder(new EmptyBorder(10, 0, 0, 0));
+        queuePanel.setVisible(false);
+
+        JLabel queueLabel = new JLabel("Up Next");
+        queueLabel.setFont(new Font("Inter", Font.BOLD, 14));
+        queueLabel.setForeground(TEXT_COLOR);
+
+        queueView = new JList<>(queueModel);
+        queueView.setBackground(new Color(28, 28, 28));
+        queueView.setForeground(TEXT_COLOR);
+        queueView.setFont(REGULAR_FONT);
+        queueView.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        queueView.setVisibleRowCount(4);
+        queueView.setBorder(new EmptyBorder(5, 5, 5, 5));
+        queueView.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                    boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, ((Song) value).getTitle(), index, isSelected, false);
+                setFont(REGULAR_FONT);
+                setBorder(new EmptyBorder(3, 5, 3, 5));
+                setBackground(isSelected ? ACCENT_COLOR : list.getBackground());
+                setForeground(isSelected ? Color.BLACK : TEXT_COLOR);
+                return this;
+            }
+        });
+
+        JPopupMenu queueMenu = new JPopupMenu();
+        JMenuItem moveUpItem = new JMenuItem("Move Up");
+        JMenuItem moveDownItem = new JMenuItem("Move Down");
+        JMenuItem removeItem = new JMenuItem("Remove from Queue");
+        queueMenu.add(moveUpItem);
+        queueMenu.add(moveDownItem);
+        queueMenu.add(removeItem);
+        moveUpItem.addActionListener(_ -> moveQueuedSong(queueView.getSelectedIndex(), -1));
+        moveDownItem.addActionListener(_ -> moveQueuedSong(queueView.getSelectedIndex(), 1));
+        removeItem.addActionListener(_ -> {
+            int position = queueView.getSelectedIndex();
+            if (position >= 0) {
+                playQueue.remove(position);
+                refreshQueueView();
+            }
+        });
+        queueView.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showMenu(e);
+            }
+
+            private void showMenu(MouseEvent e) {
+                if (!e.isPopupTrigger()) {
+                    return;
+                }
+                int index = queueView.locationToIndex(e.getPoint());
+                if (index >= 0) {
+                    queueView.setSelectedIndex(index);
+                    moveUpItem.setEnabled(index > 0);
+                    moveDownItem.setEnabled(index < queueModel.size() - 1);
+                    queueMenu.show(queueView, e.getX(), e.getY());
+                }
+            }
+        });
+
+        JScrollPane queueScrollPane = new JScrollPane(queueView);
+        queueScrollPane.setBorder(null);
+        queueScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+
+        queuePanel.add(queueLabel, BorderLayout.NORTH);
+        queuePanel.add(queueScrollPane, BorderLayout.CENTER);
+    }
+
+    private void queueSong(int playlistIndex, boolean playNext) {
+        if (playlistIndex < 0 || playlistIndex >= playlist.size()) {
+            return;
+        }
+        int songId = playlist.get(playlistIndex).getId();
+        if (playNext) {
+            playQueue.playNext(songId);
+        } else {
+            playQueue.addLast(songId);
+        }
+        refreshQueueView();
+    }
+
+    private void moveQueuedSong(int position, int offset) {
+        int target = position + offset;
+        if (position < 0 || target < 0 || target >= playQueue.size()) {
+            return;
+        }
+        playQueue.move(position, target);
+        refreshQueueView();
+        queueView.setSelectedIndex(target);
+    }
+
+    /**
+     * Mirrors the play queue into the "Up Next" list; hidden while it is empty.
+     * Entries for songs that left the library are dropped so list positions
+     * match queue positions.
+     */
+    private void refreshQueueView() {
+        if (queuePanel == null) {
+            return;
+        }
+        for (int i = playQueue.size() - 1; i >= 0; i--) {
+            if (!songById.containsKey(playQueue.get(i))) {
+                playQueue.remove(i);
+            }
+        }
+        queueModel.clear();
+        for (int i = 0; i < playQueue.size(); i++) {
+            queueModel.addElement(songById.get(playQueue.get(i)));
+        }
+        boolean visible = !queueModel.isEmpty();
+        if (queuePanel.isVisible() != visible) {
+            queuePanel.setVisible(visible);
+            sidebarPanel.revalidate();
+        }
+    }
+
+    /**
+     * Takes songs off the queue until one is found that can still be played.
+     *
+     * @return The index of that song in the shown view, or -1 if the queue ran dry
+     */
+    private int pollQueuedSong() {
+        try {
+            while (!playQueue.isEmpty()) {
+                Song song = songById.get(playQueue.poll());
+                if (song != null) {
+                    File songFile = new File(song.getFilePath());
+                    if (songFile.exists() && songFile.canRead()) {
+                        if (!songIndexById.containsKey(song.getId())) {
+                            // Queued from another view; continue in the library
+                            viewSelector.setSelectedIndex(0);
+                        }
+                        return songIndexById.get(song.getId());
+                    }
+                }
+            }
+            return -1;
+        } finally {
+            refreshQueueView();
+        }
+    }
+
+    /**
+     * Plays a song and keeps playing songs that sound like it once the queue
+     * is empty.
+     */
+    private void startRadio(int playlistIndex) {
+        if (playlistIndex < 0 || playlistIndex >= playlist.size() || similarityIndex == null) {
+            return;
+        }
+        Song seed = playlist.get(playlistIndex);
+        radioSongIds.clear();
+        radioPlayed.clear();
+        radioPlayed.add(seed.getId());
+        if (!extendRadio(seed.getId())) {
+            JOptionPane.showMessageDialog(this,
+                    "No similar songs found for \"" + seed.getTitle() + "\".\n"
+                            + "Songs become available for radio once the library analysis has reached them.",
+                    "Start Radio", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        isRadioOn = true;
+        currentSongIndex = playlistIndex;
+        isPlaying = true;
+        playPauseButton.setText("❚❚");
+        playPauseButton.setFont(PLAY_PAUSE_FONT);
+        loadCurrentSong();
+    }
+
+    private void stopRadio() {
+        isRadioOn = false;
+        radioSongIds.clear();
+        radioPlayed.clear();
+    }
+
+    /**
+     * Adds the nearest songs to the station that have not been played on it.
+     *
+     * @param songId The song to find neighbours of
+     * @return false if no new song was found
+     */
+    private boolean extendRadio(int songId) {
+        Set<Integer> exclude = new HashSet<>(radioPlayed);
+        exclude.addAll(radioSongIds);
+        long start = System.nanoTime();
+        int[] neighbours = similarityIndex.neighbours(songId, RADIO_BATCH, exclude);
+        System.out.println("Radio: " + neighbours.length + " similar song(s) found in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        int added = 0;
+        for (int neighbour : neighbours) {
+            if (songById.containsKey(neighbour)) {
+                radioSongIds.add(neighbour);
+                added++;
+            }
+        }
+        return added > 0;
+    }
+
+    /**
+     * Takes the next playable song off the station, topping it up from the
+     * song it hands out so the station drifts along with what is playing.
+     *
+     * @return The index of that song in the shown view, or -1 if the station
+     *         ran dry
+     */
+    private int pollRadioSong() {
+        while (!radioSongIds.isEmpty()) {
+            int songId = radioSongIds.poll();
+            radioPlayed.add(songId);
+            if (radioSongIds.size() < RADIO_REFILL_AT) {
+                extendRadio(songId);
+            }
+            Song song = songById.get(songId);
+            if (song != null) {
+                File songFile = new File(song.getFilePath());
+                if (songFile.exists() && songFile.canRead()) {
+                    if (!songIndexById.containsKey(songId)) {
+                        // Radio covers the whole library
+                        viewSelector.setSelectedIndex(0);
+                    }
+                    Integer index = songIndexById.get(songId);
+                    if (index != null) {
+                        return index;
+                    }
+                }
+            }
+        }
+        isRadioOn = false;
+        return -1;
+    }
+
+    /**
+     * Rebuilds the similarity index from the latest analysis results. Runs on
+     * the analyzer thread after a pass.
+     */
+    private void rebuildSimilarityIndex() {
+        long start = System.nanoTime();
+        SimilarityIndex index = SimilarityIndex.build(
+                databaseManager.loadSimilarityFeatures(TimbreAnalyzer.FEATURE_COUNT), System.nanoTime());
+        if (index == null) {
+            return;
+        }
+        index.write(databaseManager.getDataDirectory());
+        System.out.println("Similarity index: " + index.size() + " song(s) indexed in "
+                + (System.nanoTime() - start) / 1_000_000L + " ms");
+        SwingUtilities.invokeLater(() -> similarityIndex = index);
+    }
+
+    private void setLibraryServerEnabled(JCheckBoxMenuItem item) {
+        if (!item.isSelected()) {
+            libraryServer.stop();
+            item.setToolTipText(null);
+            return;
+        }
+        try {
+            libraryServer.start(LibraryServer.DEFAULT_PORT);
+            item.setToolTipText("http://127.0.0.1:" + libraryServer.getPort() + "/ - token "
+                    + libraryServer.getToken());
+        } catch (IOException e) {
+            item.setSelected(false);
+            JOptionPane.showMessageDialog(this,
+                    "Could not start the library server on port " + LibraryServer.DEFAULT_PORT + ":\n"
+                            + e.getMessage(),
+                    "Library Server",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Lists the output devices found so far, with the one in use selected. While
+     * discovery is still running the menu says so and fills in once it is done.
+     */
+    private void populateOutputDeviceMenu(JMenu menu) {
+        menu.removeAll();
+        CompletableFuture<List<Mixer>> discovery = OutputDevices.discover();
+        if (!discovery.isDone()) {
+            JMenuItem searching = new JMenuItem("Searching for devices...");
+            searching.setEnabled(false);
+            menu.add(searching);
+            discovery.thenRun(() -> SwingUtilities.invokeLater(() -> {
+                if (menu.isPopupMenuVisible()) {
+                    populateOutputDeviceMenu(menu);
+                    menu.getPopupMenu().pack();
+                }
+            }));
+        } else {
+            Mixer current = audioPlayer.getOutputDevice();
+            ButtonGroup deviceGroup = new ButtonGroup();
+            JRadioButtonMenuItem defaultItem = new JRadioButtonMenuItem("System Default", current == null);
+            defaultItem.addActionListener(_ -> switchOutputDevice(null));
+            deviceGroup.add(defaultItem);
+            menu.add(defaultItem);
+            for (Mixer device : discovery.getNow(List.of())) {
+                JRadioButtonMenuItem deviceItem = new JRadioButtonMenuItem(OutputDevices.nameOf(device),
+                        device == current);
+                deviceItem.addActionListener(_ -> switchOutputDevice(device));
+                deviceGroup.add(deviceItem);
+                menu.add(deviceItem);
+            }
+        }
+        menu.addSeparator();
+        JMenuItem rescanItem = new JMenuItem("Rescan Devices");
+        rescanItem.addActionListener(_ -> OutputDevices.rescan());
+        menu.add(rescanItem);
+    }
+
+    /**
+     * Lists the chapters of the file being played, with the one playing
+     * selected. A chapter starts playing from its first second.
+     */
+    private void populateChaptersMenu(JMenu menu) {
+        menu.removeAll();
+        List<Chapter> chapters = audioPlayer.getChapters();
+        if (chapters.isEmpty()) {
+            JMenuItem none = new JMenuItem("No Chapters");
+            none.setEnabled(false);
+            menu.add(none);
+            return;
+        }
+        long position = audioPlayer.getPositionMillis();
+        int playing = 0;
+        for (int i = 0; i < chapters.size(); i++) {
+            if (chapters.get(i).getStartMillis() <= position) {
+                playing = i;
+            }
+        }
+        ButtonGroup chapterGroup = new ButtonGroup();
+        for (int i = 0; i < chapters.size(); i++) {
+            Chapter chapter = chapters.get(i);
+            JRadioButtonMenuItem chapterItem = new JRadioButtonMenuItem(
+                    formatTime((int) (chapter.getStartMillis() / 1000)) + "  " + chapter.getTitle(), i == playing);
+            chapterItem.addActionListener(_ -> {
+                audioPlayer.seekMillis(chapter.getStartMillis());
+                updateTimeLabels();
+            });
+            chapterGroup.add(chapterItem);
+            menu.add(chapterItem);
+        }
+    }
+
+    /**
+     * Moves playback to another device off the EDT; the track carries on from
+     * where it is.
+     */
+    private void switchOutputDevice(Mixer device) {
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws LineUnavailableException {
+                audioPlayer.setOutputDevice(device);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(MusicPlayer.this,
+                            "Could not switch to "
+                                    + (device != null ? OutputDevices.nameOf(device) : "the system default")
+                                    + ":\n" + cause.getMessage(),
+                            "Output Device",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Lets the library server read and drive playback. It calls in on its own
+     * threads, so everything is handed to the EDT.
+     */
+    private PlayerControl createRemoteControl() {
+        return new PlayerControl() {
+            @Override
+            public NowPlaying nowPlaying() {
+                NowPlaying[] state = new NowPlaying[1];
+                try {
+                    SwingUtilities.invokeAndWait(() -> {
+                        Song song = currentSongIndex >= 0 && currentSongIndex < playlist.size()
+                                ? playlist.get(currentSongIndex)
+                                : null;
+                        state[0] = new NowPlaying(song, isPlaying, audioPlayer.getCurrentPosition(),
+                                audioPlayer.getDuration());
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (InvocationTargetException e) {
+                    System.err.println("Error reading playback state for the library server: "
+                            + e.getCause().getMessage());
+                }
+                return state[0];
+            }
+
+            @Override
+            public boolean control(String action) {
+                Runnable command;
+                switch (action) {
+                    case PlayerControl.ACTION_PLAY:
+                        command = () -> {
+                            if (!isPlaying) {
+                                togglePlayPause();
+                            }
+                        };
+                        break;
+                    case PlayerControl.ACTION_PAUSE:
+                        command = () -> {
+                            if (isPlaying) {
+                                togglePlayPause();
+                            }
+                        };
+                        break;
+                    case PlayerControl.ACTION_TOGGLE:
+                        command = MusicPlayer.this::togglePlayPause;
+                        break;
+                    case PlayerControl.ACTION_NEXT:
+                        command = MusicPlayer.this::nextSong;
+                        break;
+                    case PlayerControl.ACTION_PREVIOUS:
+                        command = MusicPlayer.this::previousSong;
+                        break;
+                    default:
+                        return false;
+                }
+                SwingUtilities.invokeLater(command);
+                return true;
+            }
+        };
     }
 
     private void setupHeaderPanel() {
@@ -645,7 +2589,7 @@ public class MusicPlayer extends JFrame {
         closeButton.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                cleanup();
+                performCleanShutdown();
                 System.exit(0);
             }
         });
@@ -716,12 +2660,12 @@ public class MusicPlayer extends JFrame {
         seekBar.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
-                if (!seekBar.getValueIsAdjusting() && audioPlayer.isLoaded()) {
+                if (!isUpdatingSeekBar && !seekBar.getValueIsAdjusting() && audioPlayer.isLoaded()) {
                     int value = seekBar.getValue();
                     audioPlayer.seek(value);
                     updateTimeLabels();
                     playPauseButton.setText("❚❚");
-                    playPauseButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 20));
+                    playPauseButton.setFont(PLAY_PAUSE_FONT);
                     isPlaying = true;
                 }
             }
@@ -740,7 +2684,7 @@ public class MusicPlayer extends JFrame {
         previousButton.addActionListener(_ -> previousSong());
 
         playPauseButton = new CustomButton("▶");
-        playPauseButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 20));
+        playPauseButton.setFont(PLAY_PAUSE_FONT);
         playPauseButton.setPreferredSize(new Dimension(60, 60));
         playPauseButton.addActionListener(_ -> togglePlayPause());
 
@@ -917,9 +2861,12 @@ public class MusicPlayer extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 if (!isPlaying || !audioPlayer.isLoaded()) {
+                    lastListenTickNanos = 0;
                     return;
                 }
 
+                trackListening();
+
                 int currentPosition = audioPlayer.getCurrentPosition();
                 int duration = audioPlayer.getDuration();
 
@@ -940,27 +2887,27 @@ public class MusicPlayer extends JFrame {
             }
 
             private void updateSeekBarAndLabels(int currentPosition, int duration) {
-                // Update seek bar without triggering listener
-                ChangeListener[] listeners = seekBar.getChangeListeners();
-                for (ChangeListener listener : listeners) {
-                    seekBar.removeChangeListener(listener);
-                }
-
-                seekBar.setMaximum(duration);
-                seekBar.setValue(currentPosition);
-
-                for (ChangeListener listener : listeners) {
-                    seekBar.addChangeListener(listener);
+                // Update seek bar without triggering a seek; the slider UI only
+                // repaints the region that actually moved
+                isUpdatingSeekBar = true;
+                try {
+                    if (seekBar.getMaximum() != duration) {
+                        seekBar.setMaximum(duration);
+                    }
+                    if (seekBar.getValue() != currentPosition) {
+                        seekBar.setValue(currentPosition);
+                    }
+                } finally {
+                    isUpdatingSeekBar = false;
                 }
 
-                // Update time labels
-                currentTimeLabel.setText(formatTime(currentPosition));
-                totalTimeLabel.setText(formatTime(duration));
+                updateTimeLabels(currentPosition, duration);
             }
 
             private void handleSongEnd() {
                 progressTimer.stop();
                 isPlaying = false;
+                finishListening(PlayHistoryRecorder.EVENT_COMPLETE);
 
                 SwingUtilities.invokeLater(() -> {
                     nextSong();
@@ -971,35 +2918,93 @@ public class MusicPlayer extends JFrame {
         progressTimer.start();
     }
 
+    /**
+     * Accumulates listening time while playing and records the play once the
+     * song has actually started.
+     */
+    private void trackListening() {
+        long now = System.nanoTime();
+        if (lastListenTickNanos != 0) {
+            listenedMs += (now - lastListenTickNanos) / 1_000_000L;
+        }
+        lastListenTickNanos = now;
+        if (!playRecorded && listeningSongId >= 0) {
+            historyRecorder.record(listeningSongId, PlayHistoryRecorder.EVENT_PLAY, 0);
+            playRecorded = true;
+        }
+    }
+
+    /**
+     * Records how a started song ended (skipped or completed) and how long it
+     * was listened to.
+     */
+    private void finishListening(int event) {
+        if (listeningSongId >= 0 && playRecorded) {
+            historyRecorder.record(listeningSongId, event, listenedMs);
+        }
+        listeningSongId = -1;
+        listenedMs = 0;
+        lastListenTickNanos = 0;
+        playRecorded = false;
+    }
+
     private void updateTimeLabels() {
         if (audioPlayer.isLoaded()) {
             int currentPosition = audioPlayer.getCurrentPosition();
             int duration = audioPlayer.getDuration();
 
+            updateTimeLabels(currentPosition, duration);
+        }
+    }
+
+    private void updateTimeLabels(int currentPosition, int duration) {
+        // Only relabel when the displayed second changes to avoid needless layout
+        if (currentPosition != displayedPosition) {
             currentTimeLabel.setText(formatTime(currentPosition));
+            displayedPosition = currentPosition;
+        }
+        if (duration != displayedDuration) {
             totalTimeLabel.setText(formatTime(duration));
+            displayedDuration = duration;
         }
     }
 
     private String formatTime(int seconds) {
         int minutes = seconds / 60;
         seconds = seconds % 60;
-        return String.format("%d:%02d", minutes, seconds);
+        return minutes + (seconds < 10 ? ":0" : ":") + seconds;
+    }
+
+    /**
+     * Gain that brings a song to the normalization target without pushing its
+     * true peak over the ceiling.
+     *
+     * @param loudness {loudness in LUFS, true peak in dBTP}, or null if unknown
+     */
+    private static float normalizationGain(double[] loudness) {
+        if (loudness == null) {
+            return 0.0f;
+        }
+        double gain = NORMALIZATION_TARGET_LUFS - loudness[0];
+        gain = Math.min(gain, TRUE_PEAK_CEILING_DBTP - loudness[1]);
+        return (float) gain;
     }
 
     private void togglePlayPause() {
         if (!isPlaying) {
             if (!audioPlayer.isLoaded()) {
+                // First play: decode now, playback starts once loading finishes
                 loadCurrentSong();
+            } else {
+                audioPlayer.play();
             }
-            audioPlayer.play();
             playPauseButton.setText("❚❚");
-            playPauseButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 20));
+            playPauseButton.setFont(PLAY_PAUSE_FONT);
             isPlaying = true;
         } else {
             audioPlayer.pause();
             playPauseButton.setText("▶");
-            playPauseButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 20));
+            playPauseButton.setFont(PLAY_PAUSE_FONT);
             isPlaying = false;
         }
     }
@@ -1009,6 +3014,37 @@ public class MusicPlayer extends JFrame {
             return; // No songs to play
         }
 
+        // Songs the user queued come first; loop mode keeps repeating the current song
+        int queuedIndex = isLooping ? -1 : pollQueuedSong();
+        if (queuedIndex < 0 && isRadioOn && !isLooping) {
+            queuedIndex = pollRadioSong();
+        }
+        if (queuedIndex >= 0) {
+            currentSongIndex = queuedIndex;
+        } else if (!advanceToNextPlayableSong()) {
+            // If we couldn't find any valid songs, refresh the playlist
+            refreshPlaylist();
+            return;
+        }
+
+        loadCurrentSong();
+
+        // Autoplay the next song
+        isPlaying = true;
+        audioPlayer.play();
+        playPauseButton.setText("❚❚");
+        playPauseButton.setFont(PLAY_PAUSE_FONT);
+        playlistView.setSelectedIndex(currentSongIndex);
+        updateTimeLabels();
+    }
+
+    /**
+     * Moves currentSongIndex to the next playable song in playlist or shuffle
+     * order.
+     *
+     * @return false if no playable song was found
+     */
+    private boolean advanceToNextPlayableSong() {
         int originalIndex = currentSongIndex;
         int attempts = 0;
 
@@ -1017,14 +3053,11 @@ public class MusicPlayer extends JFrame {
                 // Stay on current song for loop mode
                 break;
             } else if (isShuffling) {
-                // Validate shuffleOrder
-                if (shuffleOrder.isEmpty() || shuffleOrder.size() != playlist.size()
-                        || !shuffleOrder.contains(currentSongIndex)) {
+                // Validate shuffle order
+                if (!shuffleEngine.isValidFor(playlist.size())) {
                     rebuildShuffleOrder();
                 }
-                int currentShuffleIndex = shuffleOrder.indexOf(currentSongIndex);
-                int nextShuffleIndex = (currentShuffleIndex + 1) % shuffleOrder.size();
-                currentSongIndex = shuffleOrder.get(nextShuffleIndex);
+                currentSongIndex = shuffleEngine.next(currentSongIndex);
             } else {
                 currentSongIndex = (currentSongIndex + 1) % playlist.size();
             }
@@ -1042,34 +3075,24 @@ public class MusicPlayer extends JFrame {
             attempts++;
         } while (attempts < playlist.size() && currentSongIndex != originalIndex);
 
-        // If we couldn't find any valid songs, refresh the playlist
-        if (attempts >= playlist.size()) {
-            refreshPlaylist();
-            return;
-        }
-
-        loadCurrentSong();
-
-        // Autoplay the next song
-        isPlaying = true;
-        audioPlayer.play();
-        playPauseButton.setText("❚❚");
-        playPauseButton.setFont(new Font("Segoe UI Symbol", Font.BOLD, 20));
-        playlistView.setSelectedIndex(currentSongIndex);
-        updateTimeLabels();
+        return attempts < playlist.size();
     }
 
     private void previousSong() {
+        if (playlist.isEmpty()) {
+            return; // No songs to play
+        }
+
         if (isLooping) {
             loadCurrentSong();
         } else if (isShuffling) {
-            int prevIndex = shuffleOrder.indexOf(currentSongIndex) - 1;
-            if (prevIndex < 0)
-                prevIndex = shuffleOrder.size() - 1;
-            currentSongIndex = shuffleOrder.get(prevIndex);
+            if (!shuffleEngine.isValidFor(playlist.size())) {
+                rebuildShuffleOrder();
+            }
+            currentSongIndex = shuffleEngine.previous(currentSongIndex);
             loadCurrentSong();
         } else {
-            currentSongIndex = (currentSongIndex - 1 + playlist.size()) % playlist.size();
+            currentSongIndex = (Math.max(currentSongIndex, 0) - 1 + playlist.size()) % playlist.size();
             loadCurrentSong();
         }
 
@@ -1080,36 +3103,70 @@ public class MusicPlayer extends JFrame {
     }
 
     private void toggleShuffle() {
-        isShuffling = !isShuffling;
+        // Cycle: off -> shuffle -> smart shuffle -> off
+        if (!isShuffling) {
+            setShuffleMode(true, false, true);
+        } else if (!isSmartShuffle) {
+            setShuffleMode(true, true, true);
+        } else {
+            setShuffleMode(false, false, true);
+        }
+    }
+
+    private void setShuffleMode(boolean shuffling, boolean smart, boolean newOrder) {
+        isShuffling = shuffling;
+        isSmartShuffle = shuffling && smart;
+        shuffleButton.setToolTipText(isSmartShuffle ? "Smart Shuffle (spreads artists)" : "Shuffle");
         shuffleButton.setActive(isShuffling);
         shuffleButton.setBackground(isShuffling ? ACCENT_COLOR : CONTROL_PANEL_COLOR);
         shuffleButton.repaint();
 
         if (isShuffling) {
+            if (newOrder) {
+                shuffleSeed = random.nextLong();
+            }
             rebuildShuffleOrder();
         } else {
-            shuffleOrder.clear();
+            shuffleEngine.clear();
         }
     }
 
     private void rebuildShuffleOrder() {
-        shuffleOrder.clear();
+        shuffleEngine.clear();
         if (playlist.isEmpty()) {
             return;
         }
-        List<Integer> indices = new ArrayList<>();
-        for (int i = 0; i < playlist.size(); i++) {
-            indices.add(i);
-        }
-        while (!indices.isEmpty()) {
-            int index = random.nextInt(indices.size());
-            shuffleOrder.add(indices.remove(index));
+        // Seeded so a restored session gets the same order back
+        if (isSmartShuffle) {
+            rebuildSmartShuffleOrder();
+        } else {
+            shuffleEngine.shuffle(playlist.size(), shuffleSeed);
         }
         if (currentSongIndex >= playlist.size()) {
             currentSongIndex = 0;
         }
     }
 
+    /**
+     * Maps artists and albums to dense ids and hands them to the smart shuffle.
+     * Albums are keyed per artist, so "Unknown Album" by two artists stays apart.
+     */
+    private void rebuildSmartShuffleOrder() {
+        int size = playlist.size();
+        int[] artistIds = new int[size];
+        int[] albumIds = new int[size];
+        Map<String, Integer> artistIndex = new HashMap<>();
+        Map<String, Integer> albumIndex = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Song song = playlist.get(i);
+            String artist = song.getArtist() == null ? "" : song.getArtist();
+            String album = song.getAlbum() == null ? "" : song.getAlbum();
+            artistIds[i] = artistIndex.computeIfAbsent(artist, _ -> artistIndex.size());
+            albumIds[i] = albumIndex.computeIfAbsent(artist + '\u0000' + album, _ -> albumIndex.size());
+        }
+        shuffleEngine.smartShuffle(artistIds, albumIds, shuffleSeed);
+    }
+
     private void toggleLoop() {
         isLooping = !isLooping;
         loopButton.setActive(isLooping);
@@ -1117,11 +3174,20 @@ public class MusicPlayer extends JFrame {
         loopButton.repaint();
     }
 
+    /**
+     * Shows the current song without decoding it; the audio is loaded lazily
+     * the first time the user presses play.
+     */
     private void initializeCurrentSong() {
-        if (!playlist.isEmpty()) {
+        if (playlist.isEmpty()) {
+            return;
+        }
+        if (currentSongIndex >= playlist.size() || currentSongIndex < 0) {
             currentSongIndex = 0;
-            loadCurrentSong();
         }
+        Song song = playlist.get(currentSongIndex);
+        titleLabel.setText(song.getTitle());
+        artistLabel.setText(song.getArtist());
     }
 
     private void loadCurrentSong() {
@@ -1162,11 +3228,21 @@ public class MusicPlayer extends JFrame {
             return;
         }
 
+        // Leaving a song that was playing counts as a skip
+        if (song.getId() != listeningSongId) {
+            finishListening(PlayHistoryRecorder.EVENT_SKIP);
+            listeningSongId = song.getId();
+        }
+
         // Update UI immediately for responsiveness
         titleLabel.setText(song.getTitle());
         artistLabel.setText(song.getArtist());
         seekBar.setValue(0);
-        playlistView.setSelectedIndex(currentSongIndex);
+        selectCurrentSong();
+
+        // Resume where the last session stopped if this is the restored song
+        int startPosition = song.getFilePath().equals(resumeFilePath) ? resumePosition : 0;
+        resumeFilePath = null;
 
         // Load audio in background with enhanced error handling
         SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
@@ -1177,11 +3253,29 @@ public class MusicPlayer extends JFrame {
                     audioPlayer = new AudioPlayer();
                 }
 
+                // Leave a bookmark in the podcast or audiobook being left
+                if (audioPlayer.isLongForm()) {
+                    saveBookmark(audioPlayer.getFilePath(), audioPlayer.getPositionMillis(),
+                            audioPlayer.getDuration() * 1000L);
+                }
+
                 // Reset audio player to ensure clean state
                 audioPlayer.reset();
 
+                // Play at a common loudness once the song has been measured
+                audioPlayer.setNormalizationGain(normalizationGain(databaseManager.loadLoudness(song.getId())));
+
                 // Load the new audio file
                 audioPlayer.load(song.getFilePath());
+                if (startPosition > 0 && audioPlayer.isLoaded()) {
+                    audioPlayer.seek(startPosition);
+                } else if (audioPlayer.isLongForm()) {
+                    // Carry on where this recording was left last time
+                    long bookmark = databaseManager.loadBookmark(song.getFilePath());
+                    if (bookmark > 0) {
+                        audioPlayer.seekMillis(bookmark);
+                    }
+                }
                 return null;
             }
 
@@ -1233,6 +3327,8 @@ public class MusicPlayer extends JFrame {
     }
 
     public static void main(String[] args) {
+        launchNanos = System.nanoTime();
+
         // Set the look and feel to the system look and feel
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -1251,6 +3347,14 @@ public class MusicPlayer extends JFrame {
 
     private void performCleanShutdown() {
         try {
+            // Save where we are so the next launch can resume
+            savePlaybackStateNow();
+            playQueue.shutdown();
+            historyRecorder.shutdown();
+            libraryAnalyzer.shutdown();
+            libraryServer.stop();
+            PlaylistOrder.shutdownWriter();
+
             // Stop the progress timer
             if (progressTimer != null) {
                 progressTimer.stop();
@@ -1263,6 +3367,14 @@ public class MusicPlayer extends JFrame {
                 audioPlayer.dispose();
             }
 
+            ReadAheadStats readAhead = ReadAheadInputStream.statistics();
+            if (readAhead.getStreams() > 0) {
+                System.out.println("Read-ahead: " + readAhead.getStreams() + " files, "
+                        + readAhead.getStalls() + " storage stalls (longest " + readAhead.getLongestStallMillis()
+                        + " ms), " + readAhead.getUnderruns() + " underruns (" + readAhead.getUnderrunMillis()
+                        + " ms waited)");
+            }
+
             // Clean up database connections
             if (databaseManager != null) {
                 // Perform final cleanup of invalid songs
@@ -0,0 +1,31 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A way of turning one kind of audio file into PCM. Decoders are picked by
+ * {@link DecoderRegistry} from the first bytes of a file, not its extension.
+ */
+public interface AudioDecoder {
+
+    /** @return A short name for logs, e.g. "FLAC" */
+    String getName();
+
+    /**
+     * @param header The first bytes of the file
+     * @param length Number of valid bytes in {@code header}
+     * @return true if this decoder recognizes the file
+     */
+    boolean canDecode(byte[] header, int length);
+
+    /**
+     * Opens the file as a PCM stream. The caller closes it.
+     *
+     * @param file The audio file
+     * @return A PCM stream; its format is whatever the file holds
+     */
+    AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException;
+}
@@ -1,20 +1,43 @@
 package src.com.musicplayer.audio;
 
+import src.com.musicplayer.model.Chapter;
+import src.com.musicplayer.model.OutputDiagnostics;
+
 import javax.sound.sampled.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Plays one file at a time. Tracks are decoded into memory when loaded, so
+ * seeking is instant. Recordings of {@link #LONG_FORM_SECONDS} or more, and
+ * anything with chapters, are played in long-form mode instead: decoded while
+ * they play, with memory independent of their length, and seeks served by a
+ * seek index.
+ */
 public class AudioPlayer {
-    private Clip clip;
-    private AudioInputStream audioInputStream;
+    // Long enough that decoding it all would take a lot of memory and time
+    public static final int LONG_FORM_SECONDS = 20 * 60;
+    // Rates tried, in order, when the output does not take a file's own rate
+    private static final float[] FALLBACK_RATES = { 48000f, 44100f, 96000f, 88200f, 32000f };
+    // Output rate per file rate and channel count for the selected device
+    private final Map<Long, Float> outputRates = new ConcurrentHashMap<>();
+
+    private final Equalizer equalizer = new Equalizer();
+    private final LineOutput output = new LineOutput(equalizer);
     private AudioInputStream decodedStream;
-    private long totalLength;
+    private float frameRate;
     private long currentPosition;
     private boolean isLoaded = false;
     private boolean isPlaying = false;
     private float volume = 0.8f; // Default volume
     private String currentFilePath;
-    private FloatControl volumeControl;
+    private float normalizationDb;
+    private int resamplerQuality = Resampler.QUALITY_STANDARD;
+    private boolean longForm;
+    private List<Chapter> chapters = List.of();
 
     public synchronized void load(String filePath) {
         try {
@@ -24,29 +47,47 @@ public class AudioPlayer {
                 throw new IOException("Audio file does not exist or is not readable: " + filePath);
             }
 
-            // Load MP3 using mp3spi
-            audioInputStream = AudioSystem.getAudioInputStream(audioFile);
-            AudioFormat baseFormat = audioInputStream.getFormat();
-            AudioFormat decodedFormat = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED,
-                    baseFormat.getSampleRate(),
-                    16,
-                    baseFormat.getChannels(),
-                    baseFormat.getChannels() * 2,
-                    baseFormat.getSampleRate(),
-                    false);
-            decodedStream = AudioSystem.getAudioInputStream(decodedFormat, audioInputStream);
-
-            clip = AudioSystem.getClip();
-            clip.open(decodedStream);
-            totalLength = clip.getMicrosecondLength();
+            // The decoder is picked by file content; PCM WAV reaches the output unconverted
+            // unless the output cannot play its sample rate
+            AudioInputStream pcm = DecoderRegistry.openPcm(audioFile);
+            decodedStream = pcm;
+            float rate = outputRate(pcm.getFormat());
+            List<Chapter> fileChapters = Id3Chapters.read(audioFile);
+            // MP3 goes through the Java Sound providers, which neither seek nor know the length
+            AudioDecoder decoder = DecoderRegistry.decoderFor(audioFile);
+            SeekIndex index = decoder instanceof WavDecoder || decoder instanceof FlacDecoder
+                    ? null
+                    : SeekIndex.open(audioFile);
+            long frames = pcm.getFrameLength() != AudioSystem.NOT_SPECIFIED || index == null
+                    ? pcm.getFrameLength()
+                    : index.getFrameLength();
+
+            PcmSource source;
+            if (!fileChapters.isEmpty() || (frames != AudioSystem.NOT_SPECIFIED
+                    && frames / pcm.getFormat().getFrameRate() >= LONG_FORM_SECONDS)) {
+                source = new StreamingPcm(audioFile, pcm, index, rate, resamplerQuality);
+                decodedStream = null; // closed with the source
+                longForm = true;
+                chapters = fileChapters;
+                System.out.println("Long-form mode: " + audioFile.getName() + ", " + fileChapters.size()
+                        + " chapters");
+            } else {
+                // The whole track is decoded up front, so seeking is instant
+                decodedStream = Resampler.convert(pcm, rate, resamplerQuality);
+                source = PcmSource.of(decodedStream.getFormat(), decodedStream.readAllBytes());
+            }
+            try {
+                output.open(source);
+            } catch (LineUnavailableException e) {
+                source.close();
+                throw e;
+            }
+            frameRate = source.getFormat().getFrameRate();
             currentPosition = 0;
             isLoaded = true;
             currentFilePath = filePath;
 
-            // Initialize volume control
-            if (clip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-                volumeControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
+            if (output.hasGainControl()) {
                 setVolume(volume);
             } else {
                 System.err.println("Volume control not supported for: " + filePath);
@@ -75,20 +116,11 @@ public class AudioPlayer {
         isPlaying = false;
         isLoaded = false;
 
-        // Close clip
-        if (clip != null) {
-            try {
-                if (clip.isRunning()) {
-                    clip.stop();
-                }
-                if (clip.isOpen()) {
-                    clip.close();
-                }
-            } catch (Exception e) {
-                System.err.println("Error closing clip: " + e.getMessage());
-            } finally {
-                clip = null;
-            }
+        // Close the output line
+        try {
+            output.close();
+        } catch (Exception e) {
+            System.err.println("Error closing output line: " + e.getMessage());
         }
 
         // Close decoded stream
@@ -102,21 +134,72 @@ public class AudioPlayer {
             }
         }
 
-        // Close audio input stream
-        if (audioInputStream != null) {
-            try {
-                audioInputStream.close();
-            } catch (IOException e) {
-                System.err.println("Error closing audio input stream: " + e.getMessage());
-            } finally {
-                audioInputStream = null;
+        currentPosition = 0;
+        currentFilePath = null;
+        longForm = false;
+        chapters = List.of();
+    }
+
+    /**
+     * Picks the sample rate to play 16-bit PCM at: its own if the output
+     * takes it, otherwise the first supported common rate.
+     */
+    private float outputRate(AudioFormat pcm) {
+        long key = ((long) Math.round(pcm.getSampleRate()) << 8) | pcm.getChannels();
+        return outputRates.computeIfAbsent(key, _ -> {
+            if (isLineSupported(pcm.getSampleRate(), pcm.getChannels())) {
+                return pcm.getSampleRate();
+            }
+            for (float rate : FALLBACK_RATES) {
+                if (isLineSupported(rate, pcm.getChannels())) {
+                    System.out.println("Output does not take " + pcm.getSampleRate() + " Hz, resampling to "
+                            + rate + " Hz");
+                    return rate;
+                }
             }
+            return pcm.getSampleRate();
+        });
+    }
+
+    private boolean isLineSupported(float rate, int channels) {
+        AudioFormat format = new AudioFormat(rate, 16, channels, true, false);
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+        Mixer device = output.getDevice();
+        return device != null ? device.isLineSupported(info) : AudioSystem.isLineSupported(info);
+    }
+
+    /**
+     * Plays through another device from now on. The loaded track moves to it
+     * at the current position, from the audio already decoded.
+     *
+     * @param device A device from {@link OutputDevices}, or null for the system default
+     * @throws LineUnavailableException If the device cannot play the loaded track;
+     *                                  playback stays on the previous device
+     */
+    public synchronized void setOutputDevice(Mixer device) throws LineUnavailableException {
+        output.setDevice(device);
+        outputRates.clear();
+        if (device != null) {
+            System.out.println("Audio output: switched to " + OutputDevices.nameOf(device));
+        } else {
+            System.out.println("Audio output: switched to the system default");
         }
+    }
 
-        volumeControl = null;
-        currentPosition = 0;
-        totalLength = 0;
-        currentFilePath = null;
+    /**
+     * @return The selected device, or null for the system default
+     */
+    public Mixer getOutputDevice() {
+        return output.getDevice();
+    }
+
+    /**
+     * Sets the quality of sample-rate conversion, used from the next load on.
+     *
+     * @param quality One of the Resampler.QUALITY_ constants
+     */
+    public synchronized void setResamplerQuality(int quality) {
+        this.resamplerQuality = quality;
     }
 
     public synchronized void reset() {
@@ -125,17 +208,17 @@ public class AudioPlayer {
 
     public synchronized void dispose() {
         cleanup();
+        output.shutdown();
     }
 
     public synchronized void play() {
-        if (!isLoaded || clip == null) {
-            System.err.println("Cannot play: Audio not loaded or clip is null.");
+        if (!isLoaded) {
+            System.err.println("Cannot play: Audio not loaded.");
             return;
         }
         if (!isPlaying) {
             try {
-                clip.setMicrosecondPosition(currentPosition);
-                clip.start();
+                output.start();
                 isPlaying = true;
             } catch (Exception e) {
                 System.err.println("Error starting playback: " + e.getMessage());
@@ -145,14 +228,14 @@ public class AudioPlayer {
     }
 
     public synchronized void pause() {
-        if (!isLoaded || clip == null) {
-            System.err.println("Cannot pause: Audio not loaded or clip is null.");
+        if (!isLoaded) {
+            System.err.println("Cannot pause: Audio not loaded.");
             return;
         }
         if (isPlaying) {
             try {
-                currentPosition = clip.getMicrosecondPosition();
-                clip.stop();
+                output.stop();
+                currentPosition = toMicroseconds(output.position());
                 isPlaying = false;
             } catch (Exception e) {
                 System.err.println("Error pausing audio: " + e.getMessage());
@@ -162,21 +245,19 @@ public class AudioPlayer {
     }
 
     public synchronized void stop() {
-        if (!isLoaded || clip == null) {
+        if (!isLoaded) {
             // Only log if unexpected; initial stop before load is normal
             if (currentFilePath != null) {
-                System.err.println("Cannot stop: Audio not loaded or clip is null for: " + currentFilePath);
+                System.err.println("Cannot stop: Audio not loaded for: " + currentFilePath);
             }
             isPlaying = false;
             currentPosition = 0;
             return;
         }
         try {
-            if (clip.isRunning()) {
-                clip.stop();
-            }
+            output.stop();
             currentPosition = 0;
-            clip.setMicrosecondPosition(0);
+            output.seek(0);
             isPlaying = false;
         } catch (Exception e) {
             System.err.println("Error stopping audio: " + e.getMessage());
@@ -185,14 +266,24 @@ public class AudioPlayer {
     }
 
     public synchronized void seek(int position) { // position in seconds
-        if (!isLoaded || clip == null) {
-            System.err.println("Cannot seek: Audio not loaded or clip is null.");
+        seekMillis(position * 1000L);
+    }
+
+    /**
+     * Moves to a position, keeping on playing if the player was.
+     *
+     * @param millis The position in milliseconds
+     */
+    public synchronized void seekMillis(long millis) {
+        if (!isLoaded) {
+            System.err.println("Cannot seek: Audio not loaded.");
             return;
         }
 
         boolean wasPlaying = isPlaying;
         try {
-            long targetPosition = (long) position * 1_000_000L;
+            long totalLength = toMicroseconds(output.getTotalFrames());
+            long targetPosition = millis * 1000L;
             if (targetPosition < 0) {
                 targetPosition = 0;
             } else if (targetPosition >= totalLength) {
@@ -202,39 +293,44 @@ public class AudioPlayer {
                 }
             }
 
-            if (isPlaying) {
-                clip.stop();
-            }
-            clip.setMicrosecondPosition(targetPosition);
+            // The line keeps running if it was
+            output.seek(toFrames(targetPosition));
             currentPosition = targetPosition;
-
-            if (wasPlaying) {
-                clip.start();
-                isPlaying = true;
-            }
+            isPlaying = wasPlaying;
         } catch (Exception e) {
             System.err.println("Error seeking audio: " + e.getMessage());
             try {
                 isPlaying = false;
                 currentPosition = 0;
-                clip.setMicrosecondPosition(0);
+                output.stop();
+                output.seek(0);
             } catch (Exception ex) {
                 System.err.println("Error during seek recovery: " + ex.getMessage());
             }
         }
     }
 
+    /**
+     * Sets a gain that is added to the volume, used to play tracks at a common
+     * loudness. It stays in effect for later loads until changed.
+     * 
+     * @param gainDb The gain in dB, 0 for none
+     */
+    public synchronized void setNormalizationGain(float gainDb) {
+        this.normalizationDb = gainDb;
+        if (isLoaded && output.hasGainControl()) {
+            setVolume(volume);
+        }
+    }
+
     public synchronized void setVolume(float volume) { // volume is 0.0 to 1.0
         this.volume = Math.max(0.0f, Math.min(1.0f, volume));
-        if (volumeControl != null && isLoaded && clip != null) {
+        if (isLoaded && output.hasGainControl()) {
             try {
-                float minGain = volumeControl.getMinimum();
-                float maxGain = volumeControl.getMaximum();
                 float targetMinDb = -40.0f;
                 float targetMaxDb = 0.0f;
-                float gain = targetMinDb + (this.volume * (targetMaxDb - targetMinDb));
-                gain = Math.max(minGain, Math.min(maxGain, gain));
-                volumeControl.setValue(gain);
+                // The output clamps to the gain range of the line
+                output.setGain(targetMinDb + (this.volume * (targetMaxDb - targetMinDb)) + normalizationDb);
             } catch (Exception e) {
                 System.err.println("Error setting volume: " + e.getMessage());
             }
@@ -244,12 +340,12 @@ public class AudioPlayer {
     }
 
     public synchronized int getCurrentPosition() {
-        if (!isLoaded || clip == null) {
+        if (!isLoaded) {
             return 0;
         }
         try {
-            if (isPlaying && clip.isRunning()) {
-                currentPosition = clip.getMicrosecondPosition();
+            if (isPlaying) {
+                currentPosition = toMicroseconds(output.position());
             }
             return (int) (currentPosition / 1_000_000L);
         } catch (Exception e) {
@@ -258,18 +354,73 @@ public class AudioPlayer {
         }
     }
 
+    /**
+     * @return The position in milliseconds, for chapters and bookmarks
+     */
+    public synchronized long getPositionMillis() {
+        if (!isLoaded) {
+            return 0;
+        }
+        if (isPlaying) {
+            currentPosition = toMicroseconds(output.position());
+        }
+        return currentPosition / 1000L;
+    }
+
     public synchronized int getDuration() {
         if (isLoaded) {
-            return (int) (totalLength / 1_000_000L);
+            // A long-form length is estimated until its seek index is complete
+            return (int) (toMicroseconds(Math.max(0, output.getTotalFrames())) / 1_000_000L);
         }
         return 0;
     }
 
+    /**
+     * @return Whether the loaded file is played in long-form mode
+     */
+    public synchronized boolean isLongForm() {
+        return isLoaded && longForm;
+    }
+
+    /**
+     * @return The chapters of the loaded file by start time, empty if it has none
+     */
+    public synchronized List<Chapter> getChapters() {
+        return chapters;
+    }
+
+    public synchronized String getFilePath() {
+        return currentFilePath;
+    }
+
     public synchronized boolean isLoaded() {
-        return isLoaded && clip != null;
+        return isLoaded;
     }
 
     public synchronized boolean isPlaying() {
-        return isPlaying && isLoaded && clip != null && clip.isRunning();
+        return isPlaying && isLoaded && output.isRunning();
+    }
+
+    /**
+     * @return The equalizer applied to everything played; its gains can be
+     *         changed from any thread and take effect with the next block
+     */
+    public Equalizer getEqualizer() {
+        return equalizer;
+    }
+
+    /**
+     * @return The output line's buffer size, latency and underruns so far
+     */
+    public OutputDiagnostics getOutputDiagnostics() {
+        return output.diagnostics();
+    }
+
+    private long toFrames(long microseconds) {
+        return (long) (microseconds * (double) frameRate / 1_000_000L);
+    }
+
+    private long toMicroseconds(long frames) {
+        return (long) (frames * 1_000_000L / (double) frameRate);
     }
 }
\ No newline at end of file
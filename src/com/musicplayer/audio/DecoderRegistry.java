@@ -0,0 +1,240 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.spi.AudioFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Chooses a decoder for every audio file by sniffing its first bytes, and
+ * remembers the choice per file (keyed by path, size and modification time) so
+ * a file is only probed once.
+ *
+ * Built in are a PCM WAV reader, a pure-Java FLAC decoder and the Java Sound
+ * service providers, which handle MP3 through mp3spi and Ogg Vorbis if a
+ * Vorbis provider is installed. Further decoders can be registered and are
+ * tried first.
+ */
+public final class DecoderRegistry {
+    private static final int HEADER_SIZE = 64;
+    private static final int CACHE_SIZE = 4096;
+
+    private static final List<AudioDecoder> decoders = new ArrayList<>();
+    private static final AudioDecoder fallback = new SpiDecoder();
+    private static final boolean vorbisAvailable = hasVorbisProvider();
+
+    // Least recently used first
+    private static final Map<String, CachedChoice> choices = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedChoice> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    static {
+        decoders.add(new WavDecoder());
+        decoders.add(new FlacDecoder());
+    }
+
+    private DecoderRegistry() {
+    }
+
+    /**
+     * Adds a decoder that is asked before the built-in ones.
+     */
+    public static synchronized void register(AudioDecoder decoder) {
+        decoders.add(0, decoder);
+        choices.clear();
+    }
+
+    /**
+     * @return The file extensions that can be played, without dots
+     */
+    public static String[] getExtensions() {
+        return vorbisAvailable
+                ? new String[] { "mp3", "wav", "flac", "ogg", "oga" }
+                : new String[] { "mp3", "wav", "flac" };
+    }
+
+    /**
+     * @param fileName A file name or path
+     * @return true if the extension is one that can be played
+     */
+    public static boolean isSupportedFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : getExtensions()) {
+            if (name.endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a file as 16-bit signed little-endian PCM at its own sample rate
+     * and channel count. Streams already in that format are returned as they
+     * are, so PCM WAV files reach the line without any conversion.
+     *
+     * @param file The audio file
+     * @return The PCM stream, closing it closes the file
+     */
+    public static AudioInputStream openPcm(File file) throws IOException, UnsupportedAudioFileException {
+        AudioDecoder decoder = decoderFor(file);
+        AudioInputStream stream;
+        try {
+            stream = decoder.open(file);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            // The file may have been replaced since the choice was made
+            forget(file);
+            throw e;
+        }
+        return toPcm(stream);
+    }
+
+    /**
+     * Opens an MPEG audio file as PCM from a frame in the middle, found by a
+     * {@link SeekIndex}, so nothing before it is decoded. MPEG audio is read by
+     * the Java Sound providers, which find the stream from any frame.
+     *
+     * @param file   The audio file
+     * @param offset The byte offset of a frame header
+     * @return The PCM stream from that frame on, closing it closes the file
+     */
+    static AudioInputStream openPcmAt(File file, long offset) throws IOException, UnsupportedAudioFileException {
+        FileSource in = FileSource.open(file);
+        AudioInputStream stream;
+        try {
+            in.skipNBytes(offset);
+            stream = AudioSystem.getAudioInputStream(in);
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return toPcm(stream);
+    }
+
+    /** Converts to 16-bit signed little-endian PCM unless the stream already is. */
+    private static AudioInputStream toPcm(AudioInputStream stream) throws IOException, UnsupportedAudioFileException {
+        AudioFormat format = stream.getFormat();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 16
+                && !format.isBigEndian()) {
+            return stream;
+        }
+        AudioFormat pcmFormat = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                format.getSampleRate(),
+                16,
+                format.getChannels(),
+                format.getChannels() * 2,
+                format.getSampleRate(),
+                false);
+        try {
+            return AudioSystem.getAudioInputStream(pcmFormat, stream);
+        } catch (IllegalArgumentException e) {
+            stream.close();
+            throw new UnsupportedAudioFileException("No conversion from " + format + " to 16-bit PCM");
+        }
+    }
+
+    /**
+     * @param file The audio file
+     * @return The decoder for it, from the cache if the file has not changed
+     */
+    public static AudioDecoder decoderFor(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modified = file.lastModified();
+        synchronized (DecoderRegistry.class) {
+            CachedChoice choice = choices.get(path);
+            if (choice != null && choice.size == size && choice.modified == modified) {
+                return choice.decoder;
+            }
+        }
+
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        }
+        synchronized (DecoderRegistry.class) {
+            AudioDecoder chosen = fallback;
+            for (AudioDecoder decoder : decoders) {
+                if (decoder.canDecode(header, length)) {
+                    chosen = decoder;
+                    break;
+                }
+            }
+            choices.put(path, new CachedChoice(chosen, size, modified));
+            return chosen;
+        }
+    }
+
+    private static synchronized void forget(File file) {
+        choices.remove(file.getAbsolutePath());
+    }
+
+    private static boolean hasVorbisProvider() {
+        try {
+            for (AudioFileReader reader : ServiceLoader.load(AudioFileReader.class)) {
+                String name = reader.getClass().getName().toLowerCase(Locale.ROOT);
+                if (name.contains("vorbis") || name.contains("ogg")) {
+                    return true;
+                }
+            }
+        } catch (Throwable e) {
+            System.err.println("Could not list audio file readers: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static class CachedChoice {
+        final AudioDecoder decoder;
+        final long size;
+        final long modified;
+
+        CachedChoice(AudioDecoder decoder, long size, long modified) {
+            this.decoder = decoder;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /** Whatever the installed Java Sound service providers can read. */
+    private static class SpiDecoder implements AudioDecoder {
+        @Override
+        public String getName() {
+            return "Java Sound";
+        }
+
+        @Override
+        public boolean canDecode(byte[] header, int length) {
+            return true;
+        }
+
+        @Override
+        public AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+            // A mapped stream instead of the buffered file streams the providers open themselves
+            FileSource in = FileSource.open(file);
+            try {
+                return AudioSystem.getAudioInputStream(in);
+            } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+    }
+}
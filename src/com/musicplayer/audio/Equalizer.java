@@ -0,0 +1,262 @@
+package src.com.musicplayer.audio;
+
+import src.com.musicplayer.model.EqualizerPreset;
+
+import java.util.List;
+
+/**
+ * Ten-band equalizer on the PCM written to the output: one peaking biquad
+ * filter per octave band, applied as a cascade to blocks of float samples.
+ *
+ * The filter coefficients are computed when a gain or the sample rate
+ * changes, never per block, and published as one immutable object through a
+ * volatile field; the audio thread reads that field once per block and never
+ * takes a lock. Bands at 0 dB are left out of the cascade, and with all bands
+ * flat the PCM is not touched at all. The filter state belongs to the audio
+ * thread alone; a band that comes back into the cascade starts from silence
+ * rather than from the history it had when it left, which would click.
+ *
+ * Boosting a band can push full-scale audio past what 16 bits hold, so the
+ * signal is first lowered by the peak gain of the whole cascade: a preset that
+ * boosts sounds quieter overall instead of clipping. Neighbouring bands
+ * overlap, so that peak can be more than the largest single band's gain; it is
+ * found from the cascade's response when the coefficients are computed.
+ */
+public final class Equalizer {
+    public static final int BANDS = 10;
+    public static final float[] FREQUENCIES = { 31, 62, 125, 250, 500, 1000, 2000, 4000, 8000, 16000 };
+    public static final float MAX_GAIN_DB = 12.0f;
+    // One octave between the -3 dB points of the boost or cut
+    private static final double Q = Math.sqrt(2.0);
+    // Bands this close to the Nyquist frequency cannot be filtered at this rate and stay flat
+    private static final double MAX_FREQUENCY_RATIO = 0.45;
+    private static final double DENORMAL = 1e-20;
+    // Frequencies the cascade's response is checked at to find its peak
+    private static final int RESPONSE_POINTS = 256;
+
+    public static final List<EqualizerPreset> PRESETS = List.of(
+            new EqualizerPreset("Flat", 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+            new EqualizerPreset("Bass Boost", 6, 5, 4, 2, 0, 0, 0, 0, 0, 0),
+            new EqualizerPreset("Treble Boost", 0, 0, 0, 0, 0, 1, 2, 4, 5, 6),
+            new EqualizerPreset("Rock", 5, 4, 2, -1, -2, -1, 2, 3, 4, 5),
+            new EqualizerPreset("Pop", -1, 1, 3, 4, 3, 0, -1, -1, 1, 2),
+            new EqualizerPreset("Jazz", 3, 2, 1, 2, -1, -1, 0, 1, 2, 3),
+            new EqualizerPreset("Classical", 4, 3, 2, 1, -1, -1, 0, 2, 3, 4),
+            new EqualizerPreset("Vocal", -2, -2, -1, 0, 2, 4, 4, 2, 0, -1),
+            new EqualizerPreset("Spoken Word", -6, -4, -1, 0, 2, 3, 3, 2, 0, -2));
+
+    // Written under the lock, read by the audio thread without it; null while flat
+    private volatile Coefficients coefficients;
+
+    // Guarded by this
+    private final float[] gains = new float[BANDS];
+    private float sampleRate = 44100f;
+
+    // The audio thread's own
+    private double[] state = new double[0]; // z1, z2 per band and channel
+    private float[] block = new float[0];
+    private int filteredBands; // bit per band in the cascade of the last block
+
+    /**
+     * @param band The band, 0 for the lowest
+     * @param db   Its gain, clamped to {@link #MAX_GAIN_DB} either way
+     */
+    public synchronized void setGain(int band, float db) {
+        gains[band] = Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, db));
+        update();
+    }
+
+    /**
+     * Sets every band at once, as for a preset, with a single update.
+     */
+    public synchronized void setGains(float[] db) {
+        for (int band = 0; band < BANDS; band++) {
+            gains[band] = Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, db[band]));
+        }
+        update();
+    }
+
+    public synchronized float[] getGains() {
+        return gains.clone();
+    }
+
+    /**
+     * @return Whether any band is boosted or cut
+     */
+    public boolean isActive() {
+        return coefficients != null;
+    }
+
+    /**
+     * Designs the filters for the sample rate of a new track.
+     */
+    synchronized void setSampleRate(float rate) {
+        if (rate != sampleRate) {
+            sampleRate = rate;
+            update();
+        }
+    }
+
+    /**
+     * Filters 16-bit signed little-endian PCM in place. The filter state is
+     * kept between calls, so only one thread may call this: the output's
+     * writer, or a benchmark with an equalizer of its own.
+     *
+     * @param pcm      Interleaved samples
+     * @param offset   Where the block starts in {@code pcm}
+     * @param length   The number of bytes to filter, whole frames
+     * @param channels Samples per frame
+     */
+    public void process(byte[] pcm, int offset, int length, int channels) {
+        Coefficients current = coefficients;
+        if (current == null) {
+            filteredBands = 0;
+            return;
+        }
+        int frames = length / (2 * channels);
+        if (block.length < frames) {
+            block = new float[frames];
+        }
+        if (state.length != channels * BANDS * 2) {
+            state = new double[channels * BANDS * 2];
+        }
+        int rejoined = current.bandMask & ~filteredBands;
+        if (rejoined != 0) {
+            for (int band = 0; band < BANDS; band++) {
+                if ((rejoined & 1 << band) != 0) {
+                    for (int channel = 0; channel < channels; channel++) {
+                        state[(channel * BANDS + band) * 2] = 0.0;
+                        state[(channel * BANDS + band) * 2 + 1] = 0.0;
+                    }
+                }
+            }
+        }
+        filteredBands = current.bandMask;
+        float preamp = current.preamp;
+        int stride = channels * 2;
+        for (int channel = 0; channel < channels; channel++) {
+            for (int i = 0, p = offset + channel * 2; i < frames; i++, p += stride) {
+                block[i] = (short) ((pcm[p] & 0xFF) | pcm[p + 1] << 8) * preamp;
+            }
+            for (int k = 0; k < current.bands.length; k++) {
+                filter(block, frames, current.b0[k], current.b1[k], current.b2[k], current.a1[k], current.a2[k],
+                        state, (channel * BANDS + current.bands[k]) * 2);
+            }
+            for (int i = 0, p = offset + channel * 2; i < frames; i++, p += stride) {
+                int sample = Math.round(block[i]);
+                sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                pcm[p] = (byte) sample;
+                pcm[p + 1] = (byte) (sample >> 8);
+            }
+        }
+    }
+
+    /**
+     * One biquad over a block, in transposed direct form II.
+     */
+    private static void filter(float[] x, int n, double b0, double b1, double b2, double a1, double a2,
+            double[] state, int offset) {
+        double z1 = state[offset];
+        double z2 = state[offset + 1];
+        for (int i = 0; i < n; i++) {
+            double in = x[i];
+            double out = b0 * in + z1;
+            z1 = b1 * in - a1 * out + z2;
+            z2 = b2 * in - a2 * out;
+            x[i] = (float) out;
+        }
+        // A decaying tail would otherwise end in denormals, which are slow
+        state[offset] = Math.abs(z1) < DENORMAL ? 0.0 : z1;
+        state[offset + 1] = Math.abs(z2) < DENORMAL ? 0.0 : z2;
+    }
+
+    /** Recomputes the coefficients and publishes them in one write. */
+    private void update() {
+        int active = 0;
+        for (int band = 0; band < BANDS; band++) {
+            if (isFiltered(band)) {
+                active++;
+            }
+        }
+        coefficients = active == 0 ? null : new Coefficients(active);
+    }
+
+    private boolean isFiltered(int band) {
+        return gains[band] != 0.0f && FREQUENCIES[band] < sampleRate * MAX_FREQUENCY_RATIO;
+    }
+
+    /** Peaking filters for the bands that are not flat, normalized so a0 is 1. */
+    private final class Coefficients {
+        final int[] bands;
+        final int bandMask;
+        final float preamp; // linear, cancels the peak gain of the cascade
+        final double[] b0;
+        final double[] b1;
+        final double[] b2;
+        final double[] a1;
+        final double[] a2;
+
+        Coefficients(int count) {
+            bands = new int[count];
+            b0 = new double[count];
+            b1 = new double[count];
+            b2 = new double[count];
+            a1 = new double[count];
+            a2 = new double[count];
+            int k = 0;
+            int mask = 0;
+            for (int band = 0; band < BANDS; band++) {
+                if (!isFiltered(band)) {
+                    continue;
+                }
+                mask |= 1 << band;
+                // Robert Bristow-Johnson's audio EQ cookbook
+                double a = Math.pow(10.0, gains[band] / 40.0);
+                double w0 = 2.0 * Math.PI * FREQUENCIES[band] / sampleRate;
+                double alpha = Math.sin(w0) / (2.0 * Q);
+                double cos = Math.cos(w0);
+                double a0 = 1.0 + alpha / a;
+                bands[k] = band;
+                b0[k] = (1.0 + alpha * a) / a0;
+                b1[k] = -2.0 * cos / a0;
+                b2[k] = (1.0 - alpha * a) / a0;
+                a1[k] = -2.0 * cos / a0;
+                a2[k] = (1.0 - alpha / a) / a0;
+                k++;
+            }
+            bandMask = mask;
+            preamp = (float) (1.0 / Math.max(1.0, peakGain()));
+        }
+
+        /**
+         * @return The largest linear gain of the cascade, at log-spaced
+         *         frequencies and at the band centres
+         */
+        private double peakGain() {
+            double nyquist = sampleRate / 2.0;
+            double peak = 0.0;
+            for (int i = 0; i < RESPONSE_POINTS + bands.length; i++) {
+                double frequency = i < RESPONSE_POINTS
+                        ? 20.0 * Math.pow(nyquist / 20.0, i / (double) (RESPONSE_POINTS - 1))
+                        : FREQUENCIES[bands[i - RESPONSE_POINTS]];
+                double w = 2.0 * Math.PI * Math.min(frequency, nyquist) / sampleRate;
+                double cos1 = Math.cos(w);
+                double sin1 = Math.sin(w);
+                double cos2 = Math.cos(2.0 * w);
+                double sin2 = Math.sin(2.0 * w);
+                double gain = 1.0;
+                for (int k = 0; k < bands.length; k++) {
+                    // |b0 + b1 z^-1 + b2 z^-2| / |1 + a1 z^-1 + a2 z^-2| at z = e^jw
+                    double numeratorRe = b0[k] + b1[k] * cos1 + b2[k] * cos2;
+                    double numeratorIm = b1[k] * sin1 + b2[k] * sin2;
+                    double denominatorRe = 1.0 + a1[k] * cos1 + a2[k] * cos2;
+                    double denominatorIm = a1[k] * sin1 + a2[k] * sin2;
+                    gain *= Math.sqrt((numeratorRe * numeratorRe + numeratorIm * numeratorIm)
+                            / (denominatorRe * denominatorRe + denominatorIm * denominatorIm));
+                }
+                peak = Math.max(peak, gain);
+            }
+            return peak;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package src.com.musicplayer.audio;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Sequential input over one file, the source for all decoders. Besides the
+ * bytes it knows the file size and the current position, and supports mark and
+ * reset, which the Java Sound providers rely on when they probe a stream.
+ *
+ * Files on local disks are memory-mapped. Files on network shares and similar
+ * slow storage are prefetched by a background thread instead, so a stall on
+ * the share does not block the decoder as long as the buffer lasts; the
+ * system property {@code musicplayer.readahead} set to {@code always} or
+ * {@code never} overrides the choice.
+ */
+abstract class FileSource extends InputStream {
+    // File store types, as reported on Linux and macOS, that are read over a network
+    private static final Set<String> NETWORK_STORES = Set.of(
+            "nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs", "afpfs", "webdav", "davfs",
+            "9p", "sshfs", "fuse.sshfs", "fuse.rclone", "fuse.s3fs", "ceph", "glusterfs", "fuse.glusterfs");
+
+    /**
+     * Opens a file the way that suits the storage it is on.
+     */
+    static FileSource open(File file) throws IOException {
+        if (isSlowStorage(file.toPath())) {
+            return new ReadAheadInputStream(file);
+        }
+        return new MappedFileInputStream(file);
+    }
+
+    /** @return The position of the next byte in the file */
+    abstract long position();
+
+    abstract long size();
+
+    /**
+     * Reads four bytes as a big-endian int.
+     *
+     * @throws EOFException if fewer than four bytes are left
+     */
+    int readInt() throws IOException {
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            int next = read();
+            if (next < 0) {
+                throw new EOFException();
+            }
+            value = value << 8 | next;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * @return Whether reads from this path can stall for longer than playback
+     *         tolerates
+     */
+    static boolean isSlowStorage(Path path) {
+        String mode = System.getProperty("musicplayer.readahead", "auto");
+        if (mode.equals("always")) {
+            return true;
+        } else if (mode.equals("never")) {
+            return false;
+        }
+        // UNC paths on Windows, where mapped drives also report NTFS
+        if (path.toString().startsWith("\\\\")) {
+            return true;
+        }
+        try {
+            FileStore store = Files.getFileStore(path);
+            return NETWORK_STORES.contains(store.type().toLowerCase(Locale.ROOT));
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pure-Java FLAC decoder.
+ *
+ * The compressed bytes are parsed straight out of the file mapping. Frames are
+ * decoded one at a time into per-channel int[] blocks that are
+ * reused for the whole file, and handed out as interleaved 16-bit
+ * little-endian PCM; files with more bits per sample are rounded down to 16.
+ * Supports every subframe type (constant, verbatim, fixed and LPC prediction),
+ * both Rice residual codings and all stereo decorrelation modes. Frame CRCs
+ * are not checked.
+ */
+final class FlacDecoder implements AudioDecoder {
+
+    @Override
+    public String getName() {
+        return "FLAC";
+    }
+
+    @Override
+    public boolean canDecode(byte[] header, int length) {
+        int start = id3Size(header, length);
+        return start >= 0 && start + 4 <= length && header[start] == 'f' && header[start + 1] == 'L'
+                && header[start + 2] == 'a' && header[start + 3] == 'C';
+    }
+
+    @Override
+    public AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        FlacStream stream = new FlacStream(FileSource.open(file));
+        try {
+            stream.readHeader();
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        AudioFormat format = new AudioFormat(stream.sampleRate, 16, stream.channels, true, false);
+        long frames = stream.totalSamples > 0 ? stream.totalSamples : AudioSystem.NOT_SPECIFIED;
+        return new AudioInputStream(stream, format, frames);
+    }
+
+    /**
+     * @return The size of a leading ID3v2 tag, 0 without one, or -1 if the header
+     *         is too short to tell
+     */
+    private static int id3Size(byte[] header, int length) {
+        if (length < 10) {
+            return -1;
+        }
+        if (header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+            return 0;
+        }
+        int size = (header[6] & 0x7F) << 21 | (header[7] & 0x7F) << 14 | (header[8] & 0x7F) << 7
+                | (header[9] & 0x7F);
+        return 10 + size + ((header[5] & 0x10) != 0 ? 10 : 0);
+    }
+
+    /** The decoding state of one open file, read as interleaved PCM bytes. */
+    private static class FlacStream extends InputStream {
+        private final FileSource in;
+        private long bits;
+        private int bitCount;
+
+        int sampleRate;
+        int channels;
+        int bitsPerSample;
+        long totalSamples;
+        private int maxBlockSize;
+
+        private int[][] samples;
+        private final int[] coefficients = new int[32];
+        private final byte[] single = new byte[1];
+        private byte[] pcm = new byte[0];
+        private int pcmPosition;
+        private int pcmLength;
+        private boolean finished;
+
+        FlacStream(FileSource in) {
+            this.in = in;
+        }
+
+        void readHeader() throws IOException, UnsupportedAudioFileException {
+            int magic = readBits(32);
+            if (magic >>> 8 == 0x494433) { // "ID3"
+                // ID3v2: the remaining header bytes, then the tag
+                int flags = readBits(16) & 0xFF;
+                int size = readBits(8) << 21 | readBits(8) << 14 | readBits(8) << 7 | readBits(8);
+                skipBytes(size + ((flags & 0x10) != 0 ? 10 : 0));
+                magic = readBits(32);
+            }
+            if (magic != 0x664C6143) { // "fLaC"
+                throw new UnsupportedAudioFileException("Not a FLAC stream");
+            }
+            boolean last = false;
+            boolean hasStreamInfo = false;
+            while (!last) {
+                last = readBits(1) == 1;
+                int type = readBits(7);
+                int length = readBits(24);
+                if (type == 0) {
+                    readBits(16); // minimum block size
+                    maxBlockSize = readBits(16);
+                    readBits(24); // minimum frame size
+                    readBits(24); // maximum frame size
+                    sampleRate = readBits(20);
+                    channels = readBits(3) + 1;
+                    bitsPerSample = readBits(5) + 1;
+                    totalSamples = (long) readBits(4) << 32 | Integer.toUnsignedLong(readBits(32));
+                    skipBytes(16); // MD5
+                    skipBytes(length - 34);
+                    hasStreamInfo = true;
+                } else {
+                    skipBytes(length);
+                }
+            }
+            if (!hasStreamInfo || sampleRate == 0) {
+                throw new UnsupportedAudioFileException("FLAC stream without stream info");
+            }
+            samples = new int[channels][Math.max(maxBlockSize, 16)];
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == 1 ? single[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (pcmPosition == pcmLength) {
+                if (finished || !decodeFrame()) {
+                    finished = true;
+                    return -1;
+                }
+            }
+            int count = Math.min(length, pcmLength - pcmPosition);
+            System.arraycopy(pcm, pcmPosition, target, offset, count);
+            pcmPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return pcmLength - pcmPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Decodes the next frame into the PCM buffer.
+         *
+         * @return false at the end of the stream
+         */
+        private boolean decodeFrame() throws IOException {
+            if (!findSync()) {
+                return false;
+            }
+            try {
+                int blockSizeCode = readBits(4);
+                int sampleRateCode = readBits(4);
+                int channelAssignment = readBits(4);
+                int sampleSizeCode = readBits(3);
+                readBits(1);
+                skipUtf8Number();
+
+                int blockSize;
+                if (blockSizeCode == 1) {
+                    blockSize = 192;
+                } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+                    blockSize = 576 << (blockSizeCode - 2);
+                } else if (blockSizeCode == 6) {
+                    blockSize = readBits(8) + 1;
+                } else if (blockSizeCode == 7) {
+                    blockSize = readBits(16) + 1;
+                } else if (blockSizeCode >= 8) {
+                    blockSize = 256 << (blockSizeCode - 8);
+                } else {
+                    throw new IOException("Reserved FLAC block size");
+                }
+                if (sampleRateCode == 12) {
+                    readBits(8);
+                } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+                    readBits(16);
+                }
+                int sampleSize = switch (sampleSizeCode) {
+                    case 0 -> bitsPerSample;
+                    case 1 -> 8;
+                    case 2 -> 12;
+                    case 4 -> 16;
+                    case 5 -> 20;
+                    case 6 -> 24;
+                    case 7 -> 32;
+                    default -> throw new IOException("Reserved FLAC sample size");
+                };
+                readBits(8); // CRC-8
+
+                int frameChannels = channelAssignment < 8 ? channelAssignment + 1 : 2;
+                if (frameChannels != channels || channelAssignment > 10) {
+                    throw new IOException("Unsupported FLAC channel assignment " + channelAssignment);
+                }
+                if (blockSize > samples[0].length) {
+                    samples = new int[channels][blockSize];
+                }
+                for (int c = 0; c < channels; c++) {
+                    // The side channel carries one extra bit
+                    boolean side = (channelAssignment == 8 || channelAssignment == 10) && c == 1
+                            || channelAssignment == 9 && c == 0;
+                    decodeSubframe(samples[c], blockSize, sampleSize + (side ? 1 : 0));
+                }
+                decorrelate(channelAssignment, blockSize);
+                bitCount -= bitCount & 7;
+                readBits(16); // CRC-16
+
+                writePcm(blockSize, sampleSize);
+                return true;
+            } catch (EOFException e) {
+                // A truncated last frame ends the stream
+                return false;
+            }
+        }
+
+        /**
+         * Skips to the next frame sync code, including the blocking strategy
+         * bit, so trailing tags or damaged bytes end or skip over cleanly.
+         */
+        private boolean findSync() throws IOException {
+            bitCount -= bitCount & 7;
+            try {
+                int window = readBits(8);
+                while (true) {
+                    int next = readBits(8);
+                    window = (window << 8 | next) & 0xFFFF;
+                    if ((window & 0xFFFE) == 0xFFF8) {
+                        return true;
+                    }
+                }
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private void decodeSubframe(int[] out, int blockSize, int sampleSize) throws IOException {
+            readBits(1); // padding
+            int type = readBits(6);
+            int wasted = 0;
+            if (readBits(1) == 1) {
+                wasted = readUnary() + 1;
+                sampleSize -= wasted;
+            }
+            if (type == 0) {
+                int value = readSigned(sampleSize);
+                for (int i = 0; i < blockSize; i++) {
+                    out[i] = value;
+                }
+            } else if (type == 1) {
+                for (int i = 0; i < blockSize; i++) {
+                    out[i] = readSigned(sampleSize);
+                }
+            } else if (type >= 8 && type <= 12) {
+                decodeFixed(out, blockSize, sampleSize, type & 7);
+            } else if (type >= 32) {
+                decodeLpc(out, blockSize, sampleSize, (type & 31) + 1);
+            } else {
+                throw new IOException("Reserved FLAC subframe type " + type);
+            }
+            if (wasted > 0) {
+                for (int i = 0; i < blockSize; i++) {
+                    out[i] <<= wasted;
+                }
+            }
+        }
+
+        private void decodeFixed(int[] out, int blockSize, int sampleSize, int order) throws IOException {
+            for (int i = 0; i < order; i++) {
+                out[i] = readSigned(sampleSize);
+            }
+            readResidual(out, blockSize, order);
+            switch (order) {
+                case 1:
+                    for (int i = 1; i < blockSize; i++) {
+                        out[i] += out[i - 1];
+                    }
+                    break;
+                case 2:
+                    for (int i = 2; i < blockSize; i++) {
+                        out[i] += 2 * out[i - 1] - out[i - 2];
+                    }
+                    break;
+                case 3:
+                    for (int i = 3; i < blockSize; i++) {
+                        out[i] += 3 * out[i - 1] - 3 * out[i - 2] + out[i - 3];
+                    }
+                    break;
+                case 4:
+                    for (int i = 4; i < blockSize; i++) {
+                        out[i] += 4 * out[i - 1] - 6 * out[i - 2] + 4 * out[i - 3] - out[i - 4];
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void decodeLpc(int[] out, int blockSize, int sampleSize, int order) throws IOException {
+            for (int i = 0; i < order; i++) {
+                out[i] = readSigned(sampleSize);
+            }
+            int precision = readBits(4) + 1;
+            if (precision == 16) {
+                throw new IOException("Invalid FLAC LPC precision");
+            }
+            int shift = readSigned(5);
+            if (shift < 0) {
+                throw new IOException("Negative FLAC LPC shift");
+            }
+            for (int i = 0; i < order; i++) {
+                coefficients[i] = readSigned(precision);
+            }
+            readResidual(out, blockSize, order);
+            for (int i = order; i < blockSize; i++) {
+                // A long sum keeps 24-bit audio with high-precision coefficients exact
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) coefficients[j] * out[i - 1 - j];
+                }
+                out[i] += (int) (sum >> shift);
+            }
+        }
+
+        private void readResidual(int[] out, int blockSize, int order) throws IOException {
+            int method = readBits(2);
+            if (method > 1) {
+                throw new IOException("Reserved FLAC residual coding");
+            }
+            int parameterBits = method == 0 ? 4 : 5;
+            int escape = (1 << parameterBits) - 1;
+            int partitionOrder = readBits(4);
+            int partitions = 1 << partitionOrder;
+            int partitionSize = blockSize >> partitionOrder;
+            int i = order;
+            for (int p = 0; p < partitions; p++) {
+                int end = (p + 1) * partitionSize;
+                int parameter = readBits(parameterBits);
+                if (parameter == escape) {
+                    int rawBits = readBits(5);
+                    for (; i < end; i++) {
+                        out[i] = readSigned(rawBits);
+                    }
+                } else {
+                    for (; i < end; i++) {
+                        int value = readUnary() << parameter | readBits(parameter);
+                        out[i] = (value >>> 1) ^ -(value & 1);
+                    }
+                }
+            }
+        }
+
+        private void decorrelate(int channelAssignment, int blockSize) {
+            int[] a = samples[0];
+            int[] b = channels > 1 ? samples[1] : null;
+            switch (channelAssignment) {
+                case 8: // left, side
+                    for (int i = 0; i < blockSize; i++) {
+                        b[i] = a[i] - b[i];
+                    }
+                    break;
+                case 9: // side, right
+                    for (int i = 0; i < blockSize; i++) {
+                        a[i] += b[i];
+                    }
+                    break;
+                case 10: // mid, side
+                    for (int i = 0; i < blockSize; i++) {
+                        int side = b[i];
+                        int mid = a[i] << 1 | (side & 1);
+                        a[i] = (mid + side) >> 1;
+                        b[i] = (mid - side) >> 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void writePcm(int blockSize, int sampleSize) {
+            int length = blockSize * channels * 2;
+            if (pcm.length < length) {
+                pcm = new byte[length];
+            }
+            int shift = sampleSize - 16;
+            int position = 0;
+            for (int i = 0; i < blockSize; i++) {
+                for (int c = 0; c < channels; c++) {
+                    int sample = samples[c][i];
+                    sample = shift > 0 ? sample >> shift : sample << -shift;
+                    pcm[position++] = (byte) sample;
+                    pcm[position++] = (byte) (sample >> 8);
+                }
+            }
+            pcmPosition = 0;
+            pcmLength = length;
+        }
+
+        private void skipUtf8Number() throws IOException {
+            int first = readBits(8);
+            int extra = 0;
+            while ((first & (0x80 >> extra)) != 0 && extra < 7) {
+                extra++;
+            }
+            // One leading one bit is a continuation byte, which cannot start a number
+            for (int i = 1; i < extra; i++) {
+                readBits(8);
+            }
+        }
+
+        private int readBits(int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            while (bitCount < count) {
+                if (bitCount <= 32 && in.size() - in.position() >= Integer.BYTES) {
+                    bits = bits << 32 | Integer.toUnsignedLong(in.readInt());
+                    bitCount += 32;
+                } else {
+                    bits = bits << 8 | nextByte();
+                    bitCount += 8;
+                }
+            }
+            bitCount -= count;
+            return (int) (bits >>> bitCount & (-1L >>> (64 - count)));
+        }
+
+        private int readSigned(int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            int value = readBits(count);
+            return count == 32 ? value : value << (32 - count) >> (32 - count);
+        }
+
+        /** Counts zero bits up to the next one bit, which is consumed. */
+        private int readUnary() throws IOException {
+            int zeros = 0;
+            while (true) {
+                if (bitCount == 0) {
+                    bits = nextByte();
+                    bitCount = 8;
+                }
+                long window = bits & (-1L >>> (64 - bitCount));
+                if (window == 0) {
+                    zeros += bitCount;
+                    bitCount = 0;
+                    continue;
+                }
+                int leading = Long.numberOfLeadingZeros(window) - (64 - bitCount);
+                zeros += leading;
+                bitCount -= leading + 1;
+                return zeros;
+            }
+        }
+
+        private int nextByte() throws IOException {
+            int value = in.read();
+            if (value < 0) {
+                throw new EOFException();
+            }
+            return value;
+        }
+
+        private void skipBytes(long count) throws IOException {
+            // Only called on byte boundaries; whole bytes may still be buffered
+            long buffered = bitCount >> 3;
+            if (count <= buffered) {
+                bitCount -= (int) count * 8;
+                return;
+            }
+            bitCount = 0;
+            if (in.skip(count - buffered) < count - buffered) {
+                throw new EOFException();
+            }
+        }
+    }
+}
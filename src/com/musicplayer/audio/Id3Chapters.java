@@ -0,0 +1,214 @@
+package src.com.musicplayer.audio;
+
+import src.com.musicplayer.model.Chapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the chapter frames (CHAP) of an ID3v2.3 or v2.4 tag at the start of a
+ * file, as podcasts and audiobooks carry them. Only the tag is read, never the
+ * audio after it. A chapter's title comes from its TIT2 subframe.
+ */
+final class Id3Chapters {
+    private static final int HEADER_SIZE = 10;
+    // Tags with several cover images can be large; anything beyond this is not a tag worth reading
+    private static final int MAX_TAG_SIZE = 64 << 20;
+
+    private Id3Chapters() {
+    }
+
+    /**
+     * @param file An audio file
+     * @return Its chapters by start time, empty if it has none or the tag is
+     *         unreadable
+     */
+    static List<Chapter> read(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+                return List.of();
+            }
+            int major = header.get(3);
+            if (major != 3 && major != 4) {
+                // ID3v2.2 has no chapter frames
+                return List.of();
+            }
+            int flags = header.get(5) & 0xFF;
+            int size = syncSafe(header.array(), 6);
+            if (size <= 0 || size > MAX_TAG_SIZE || size > channel.size() - HEADER_SIZE) {
+                return List.of();
+            }
+            ByteBuffer body = ByteBuffer.allocate(size);
+            readFully(channel, body, HEADER_SIZE);
+            byte[] tag = body.array();
+            int length = size;
+            if (major == 3 && (flags & 0x80) != 0) {
+                // ID3v2.3 unsynchronises the whole tag, v2.4 each frame
+                tag = resynchronise(tag, 0, size);
+                length = tag.length;
+            }
+            int position = 0;
+            if ((flags & 0x40) != 0 && length >= 4) {
+                // Extended header: its size excludes itself in v2.3, includes it in v2.4
+                position = major == 3 ? 4 + readInt(tag, 0) : syncSafe(tag, 0);
+            }
+
+            List<Chapter> chapters = new ArrayList<>();
+            readFrames(tag, position, length, major, (frame, data) -> {
+                if (frame.equals("CHAP")) {
+                    readChapter(data, major, chapters);
+                }
+            });
+            return finish(chapters);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not read chapters of " + file.getName() + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    /** Called with each frame's id and its content, after unsynchronisation is undone. */
+    private interface FrameVisitor {
+        void visit(String id, byte[] data);
+    }
+
+    private static void readFrames(byte[] tag, int start, int end, int major, FrameVisitor visitor) {
+        int position = start;
+        while (position + HEADER_SIZE <= end && tag[position] != 0) {
+            String id = new String(tag, position, 4, StandardCharsets.ISO_8859_1);
+            int size = major == 4 ? syncSafe(tag, position + 4) : readInt(tag, position + 4);
+            int format = tag[position + 9] & 0xFF;
+            int dataStart = position + HEADER_SIZE;
+            if (size < 0 || dataStart + size > end) {
+                break;
+            }
+            position = dataStart + size;
+
+            if (major == 3) {
+                if ((format & 0xC0) != 0) {
+                    continue; // compressed or encrypted
+                }
+                if ((format & 0x20) != 0) {
+                    dataStart++; // group id
+                }
+            } else {
+                if ((format & 0x0C) != 0) {
+                    continue; // compressed or encrypted
+                }
+                if ((format & 0x40) != 0) {
+                    dataStart++; // group id
+                }
+            }
+            int dataEnd = position;
+            byte[] data;
+            if (major == 4 && (format & 0x02) != 0) {
+                data = resynchronise(tag, dataStart, dataEnd);
+            } else {
+                data = Arrays.copyOfRange(tag, Math.min(dataStart, dataEnd), dataEnd);
+            }
+            if (major == 4 && (format & 0x01) != 0) {
+                // Data length indicator
+                data = Arrays.copyOfRange(data, Math.min(4, data.length), data.length);
+            }
+            visitor.visit(id, data);
+        }
+    }
+
+    private static void readChapter(byte[] data, int major, List<Chapter> chapters) {
+        int idEnd = 0;
+        while (idEnd < data.length && data[idEnd] != 0) {
+            idEnd++;
+        }
+        int timesStart = idEnd + 1;
+        if (timesStart + 16 > data.length) {
+            return;
+        }
+        long start = Integer.toUnsignedLong(readInt(data, timesStart));
+        long end = Integer.toUnsignedLong(readInt(data, timesStart + 4));
+        String[] title = { null };
+        readFrames(data, timesStart + 16, data.length, major, (frame, content) -> {
+            if (frame.equals("TIT2") && title[0] == null) {
+                title[0] = readText(content);
+            }
+        });
+        chapters.add(new Chapter(title[0], start, end));
+    }
+
+    /** Sorts by start time, names untitled chapters and fills in missing ends. */
+    private static List<Chapter> finish(List<Chapter> found) {
+        List<Chapter> sorted = new ArrayList<>(found);
+        sorted.sort(Comparator.comparingLong(Chapter::getStartMillis));
+        List<Chapter> chapters = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            Chapter chapter = sorted.get(i);
+            long start = chapter.getStartMillis();
+            long end = chapter.getEndMillis();
+            if (end <= start || end == 0xFFFFFFFFL) {
+                end = i + 1 < sorted.size() ? sorted.get(i + 1).getStartMillis() : -1;
+            }
+            String title = chapter.getTitle();
+            if (title == null || title.isBlank()) {
+                title = "Chapter " + (i + 1);
+            }
+            chapters.add(new Chapter(title, start, end));
+        }
+        return List.copyOf(chapters);
+    }
+
+    private static String readText(byte[] data) {
+        if (data.length < 1) {
+            return null;
+        }
+        Charset charset = switch (data[0]) {
+            case 1 -> StandardCharsets.UTF_16;
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+        String text = new String(data, 1, data.length - 1, charset);
+        // v2.4 separates several values with nulls; the first is the title
+        int nul = text.indexOf('\0');
+        return (nul >= 0 ? text.substring(0, nul) : text).trim();
+    }
+
+    /** Undoes unsynchronisation: every 0xFF 0x00 was a plain 0xFF. */
+    private static byte[] resynchronise(byte[] data, int start, int end) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        for (int i = start; i < end; i++) {
+            out.write(data[i]);
+            if ((data[i] & 0xFF) == 0xFF && i + 1 < end && data[i + 1] == 0) {
+                i++;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int syncSafe(byte[] data, int offset) {
+        return (data[offset] & 0x7F) << 21 | (data[offset + 1] & 0x7F) << 14 | (data[offset + 2] & 0x7F) << 7
+                | (data[offset + 3] & 0x7F);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8
+                | (data[offset + 3] & 0xFF);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File ends inside the ID3 tag");
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package src.com.musicplayer.audio;
+
+import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.model.Song;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background job that analyzes every song and stores the results in the Songs
+ * table: loudness and true peak for volume normalization, tempo and key for
+ * sorting and filtering, and a timbre summary for similarity search.
+ *
+ * Tracks are decoded on a small pool of minimum-priority threads. Decoding is
+ * the shared stage: each file is decoded once per pass and the PCM is handed
+ * to every {@link PcmAnalyzer}. Every worker keeps its own decode buffer and
+ * analyzers for all the tracks it handles. Results are written in batches as
+ * they come in, together with the file size, modification time and
+ * {@link #ANALYSIS_VERSION}, so an interrupted pass continues where it stopped
+ * and only new or changed files, or files analyzed by an older version, are
+ * decoded again. Files that cannot be decoded are stamped the same way with no
+ * results, so they are not retried until they change.
+ */
+public class LibraryAnalyzer {
+    /** Bumped whenever an analysis is added or changed. */
+    public static final int ANALYSIS_VERSION = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BATCH = 25;
+
+    private final DatabaseManager databaseManager;
+    private final int workers;
+    private final ThreadLocal<Worker> workerState = ThreadLocal.withInitial(Worker::new);
+
+    private ExecutorService pool;
+    private List<Song> pendingRescan;
+    private Runnable onPassFinished;
+    // Set while the pass-finished callback of the last pass runs
+    private boolean finishing;
+
+    // Results waiting to be written
+    private final List<Result> results = new ArrayList<>();
+
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private long startNanos;
+
+    public LibraryAnalyzer(DatabaseManager databaseManager) {
+        this(databaseManager, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    /**
+     * @param databaseManager Where songs are read from and results written to
+     * @param workers         The number of decode threads
+     */
+    public LibraryAnalyzer(DatabaseManager databaseManager, int workers) {
+        this.databaseManager = databaseManager;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * @param onPassFinished Called on a worker thread when a pass that analyzed
+     *                       at least one track has written all its results
+     */
+    public void setOnPassFinished(Runnable onPassFinished) {
+        this.onPassFinished = onPassFinished;
+    }
+
+    /**
+     * Analyzes the songs that have no results or have changed since they were
+     * analyzed. If a pass is already running, the songs are checked again once
+     * it is done.
+     *
+     * @param songs The library
+     */
+    public synchronized void scan(List<Song> songs) {
+        if (pool != null) {
+            pendingRescan = songs;
+            return;
+        }
+        pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "library-analyzer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        ExecutorService scanPool = pool;
+        scanPool.execute(() -> submitChanged(scanPool, songs));
+    }
+
+    /**
+     * Blocks until no pass is running or waiting to run.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (pool != null || finishing) {
+            wait();
+        }
+    }
+
+    /**
+     * @return The number of tracks analyzed in the current or last pass
+     */
+    public int getAnalyzedCount() {
+        return analyzed.get();
+    }
+
+    /**
+     * @return The number of tracks of the current pass still to be analyzed
+     */
+    public int getRemainingCount() {
+        return remaining.get();
+    }
+
+    /**
+     * Stops analyzing and writes what has been measured so far; the rest is
+     * picked up by the next pass.
+     */
+    public void shutdown() {
+        ExecutorService scanPool;
+        synchronized (this) {
+            scanPool = pool;
+            pool = null;
+            pendingRescan = null;
+            notifyAll();
+        }
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+            try {
+                scanPool.awaitTermination(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void submitChanged(ExecutorService scanPool, List<Song> songs) {
+        Map<Integer, long[]> stamps = databaseManager.loadAnalysisStamps();
+        List<Song> changed = new ArrayList<>();
+        analyzed.set(0);
+        for (Song song : songs) {
+            long[] stamp = stamps.get(song.getId());
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Path.of(song.getFilePath()),
+                        BasicFileAttributes.class);
+                if (stamp == null || stamp[0] != attributes.size()
+                        || stamp[1] != attributes.lastModifiedTime().toMillis()
+                        || stamp[2] < ANALYSIS_VERSION) {
+                    changed.add(song);
+                }
+            } catch (Exception e) {
+                // Missing files are cleaned up elsewhere
+            }
+        }
+        if (changed.isEmpty()) {
+            finish(scanPool);
+            return;
+        }
+
+        System.out.println("Library analysis: " + changed.size() + " track(s) to analyze on " + workers
+                + " worker(s)");
+        startNanos = System.nanoTime();
+        remaining.set(changed.size());
+        for (Song song : changed) {
+            scanPool.execute(() -> {
+                try {
+                    if (!Thread.currentThread().isInterrupted()) {
+                        analyze(song);
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        finish(scanPool);
+                    }
+                }
+            });
+        }
+    }
+
+    private void analyze(Song song) {
+        Worker worker = workerState.get();
+        File file = new File(song.getFilePath());
+        long size;
+        long modified;
+        try {
+            size = file.length();
+            modified = Files.getLastModifiedTime(file.toPath()).toMillis();
+        } catch (Exception e) {
+            // Missing files are cleaned up elsewhere
+            return;
+        }
+        Result result;
+        try (AudioInputStream pcm = DecoderRegistry.openPcm(file)) {
+            AudioFormat pcmFormat = pcm.getFormat();
+            for (PcmAnalyzer analyzer : worker.analyzers) {
+                analyzer.reset(pcmFormat.getSampleRate(), pcmFormat.getChannels());
+            }
+            int frameSize = pcmFormat.getFrameSize();
+            int usable = worker.buffer.length - worker.buffer.length % frameSize;
+            int filled = 0;
+            int read;
+            while ((read = pcm.read(worker.buffer, filled, usable - filled)) > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                filled += read;
+                int whole = filled - filled % frameSize;
+                for (PcmAnalyzer analyzer : worker.analyzers) {
+                    analyzer.process(worker.buffer, whole);
+                }
+                // Keep a partial frame for the next read
+                System.arraycopy(worker.buffer, whole, worker.buffer, 0, filled - whole);
+                filled -= whole;
+            }
+            result = new Result(song.getId(), worker.loudness.integratedLoudness(), worker.loudness.truePeak(),
+                    worker.tempoKey.bpm(), worker.tempoKey.key(), worker.timbre.features(), size, modified);
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Stopped mid-decode, not a broken file
+                return;
+            }
+            System.err.println("Library analysis: could not analyze " + song.getFilePath() + " - " + e.getMessage()
+                    + ", skipped until the file changes");
+            result = Result.failed(song.getId(), size, modified);
+        }
+        addResult(result);
+    }
+
+    private void addResult(Result result) {
+        boolean write;
+        synchronized (results) {
+            results.add(result);
+            write = results.size() >= WRITE_BATCH;
+        }
+        int done = result.failed ? analyzed.get() : analyzed.incrementAndGet();
+        if (write) {
+            flush();
+            System.out.printf("Library analysis: %d track(s) analyzed, %.1f tracks/min%n", done,
+                    tracksPerMinute(done));
+        }
+    }
+
+    private void finish(ExecutorService scanPool) {
+        flush();
+        int done = analyzed.get();
+        if (done > 0) {
+            System.out.printf("Library analysis: finished, %d track(s) in %d s, %.1f tracks/min%n", done,
+                    (System.nanoTime() - startNanos) / 1_000_000_000L, tracksPerMinute(done));
+        }
+        List<Song> rescan;
+        synchronized (this) {
+            if (pool != scanPool) {
+                // Shut down while the pass was running
+                return;
+            }
+            rescan = pendingRescan;
+            pendingRescan = null;
+            if (rescan == null) {
+                pool = null;
+                finishing = true;
+            }
+        }
+        scanPool.shutdown();
+        Runnable callback = onPassFinished;
+        if (done > 0 && callback != null) {
+            callback.run();
+        }
+        if (rescan != null) {
+            synchronized (this) {
+                if (pool == scanPool) {
+                    // Songs passed in while the callback ran are the newer list
+                    List<Song> latest = pendingRescan != null ? pendingRescan : rescan;
+                    pendingRescan = null;
+                    pool = null;
+                    scan(latest);
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            finishing = false;
+            notifyAll();
+        }
+    }
+
+    private double tracksPerMinute(int done) {
+        double minutes = (System.nanoTime() - startNanos) / 60e9;
+        return minutes > 0 ? done / minutes : 0.0;
+    }
+
+    private void flush() {
+        List<Result> batch;
+        synchronized (results) {
+            if (results.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(results);
+            results.clear();
+        }
+        int count = batch.size();
+        int[] ids = new int[count];
+        double[] loudness = new double[count];
+        double[] peaks = new double[count];
+        double[] bpms = new double[count];
+        String[] keys = new String[count];
+        float[][] timbres = new float[count][];
+        long[] sizes = new long[count];
+        long[] modified = new long[count];
+        for (int i = 0; i < count; i++) {
+            Result result = batch.get(i);
+            ids[i] = result.songId;
+            loudness[i] = result.loudness;
+            peaks[i] = result.truePeak;
+            bpms[i] = result.bpm;
+            keys[i] = result.key;
+            timbres[i] = result.timbre;
+            sizes[i] = result.fileSize;
+            modified[i] = result.modifiedMillis;
+        }
+        databaseManager.saveAnalysis(ids, loudness, peaks, bpms, keys, timbres, sizes, modified, ANALYSIS_VERSION,
+                count);
+    }
+
+    /** Decode buffer and analyzers owned by one worker thread. */
+    private static class Worker {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final LoudnessMeter loudness = new LoudnessMeter();
+        final TempoKeyAnalyzer tempoKey = new TempoKeyAnalyzer();
+        final TimbreAnalyzer timbre = new TimbreAnalyzer();
+        final PcmAnalyzer[] analyzers = { loudness, tempoKey, timbre };
+    }
+
+    private static class Result {
+        final int songId;
+        final double loudness;
+        final double truePeak;
+        final double bpm;
+        final String key;
+        final float[] timbre;
+        final long fileSize;
+        final long modifiedMillis;
+        // The file could not be decoded; only the stamp is meaningful
+        final boolean failed;
+
+        Result(int songId, double loudness, double truePeak, double bpm, String key, float[] timbre, long fileSize,
+                long modifiedMillis) {
+            this.songId = songId;
+            this.loudness = loudness;
+            this.truePeak = truePeak;
+            this.bpm = bpm;
+            this.key = key;
+            this.timbre = timbre;
+            this.fileSize = fileSize;
+            this.modifiedMillis = modifiedMillis;
+            this.failed = false;
+        }
+
+        private Result(int songId, long fileSize, long modifiedMillis) {
+            this.songId = songId;
+            this.loudness = Double.NaN;
+            this.truePeak = Double.NaN;
+            this.bpm = Double.NaN;
+            this.key = null;
+            this.timbre = null;
+            this.fileSize = fileSize;
+            this.modifiedMillis = modifiedMillis;
+            this.failed = true;
+        }
+
+        static Result failed(int songId, long fileSize, long modifiedMillis) {
+            return new Result(songId, fileSize, modifiedMillis);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package src.com.musicplayer.audio;
+
+import src.com.musicplayer.model.OutputDiagnostics;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+
+/**
+ * Plays decoded PCM through a {@link SourceDataLine}, written by a dedicated
+ * thread a quarter of the line's buffer at a time. The PCM comes from a
+ * {@link PcmSource}: a track decoded into memory, or a long one decoded while
+ * it plays, which the writer reads outside the lock so decoding never holds up
+ * the controls. The {@link Equalizer} filters each chunk on its way to the
+ * line, also outside the lock. The line is given only what fits in its
+ * buffer, so writing never blocks and is done under the lock.
+ *
+ * Before every write the writer checks how full the line's buffer is. If the
+ * device has played everything it was given, the output ran dry: the
+ * underrun is counted, its length estimated from how far the line's frame
+ * position fell behind the clock, and the buffer is doubled on the spot, up
+ * to {@link #MAX_BUFFER_MS}; the audio has already stopped, so reopening the
+ * line costs nothing audible. After a minute of playback without underruns the
+ * buffer is halved, though not below the size that last ended an underrun
+ * until ten quiet minutes have passed, and never below
+ * {@link #MIN_BUFFER_MS}. Shrinking is applied the next
+ * time the line starts, seeks or gets a new track, so a stable system never
+ * hears the line being reopened.
+ *
+ * Pausing stops and flushes the line and remembers the frame being played;
+ * playing resumes writing from there. Switching to another device works the
+ * same way: the old line is closed and the new one continues at the frame that
+ * was being heard, read again from the source.
+ */
+final class LineOutput {
+    static final int MIN_BUFFER_MS = 40;
+    static final int INITIAL_BUFFER_MS = 200;
+    static final int MAX_BUFFER_MS = 2000;
+    private static final long STABLE_NANOS = 60_000_000_000L;
+    private static final long FLOOR_DECAY_NANOS = 600_000_000_000L;
+    private static final int WRITES_PER_BUFFER = 4;
+
+    private final Equalizer equalizer;
+
+    // Guarded by this
+    private Mixer device; // null for the system default
+    private SourceDataLine line;
+    private FloatControl gainControl;
+    private float gainDb;
+    private AudioFormat format;
+    private PcmSource source;
+    private int frameSize;
+    private long endFrame = Long.MAX_VALUE; // where the source ended, once read that far
+    private long writeFrame; // next frame to hand to the line
+    private long originFrame; // the frame playing when the line's position was lineBase
+    private long lineBase;
+    private int generation; // bumped by a flush so a write in flight is not counted
+    private boolean running;
+    private boolean drained;
+    private boolean primed; // the buffer has been filled since the last start
+    private boolean closed;
+    private int bufferMillis = INITIAL_BUFFER_MS; // for lines opened from now on
+
+    private long lastCheckNanos;
+    private long lastLinePosition;
+    private long stableNanos;
+    private long sinceUnderrunNanos;
+    private int floorMillis = MIN_BUFFER_MS; // shrinking stops here, raised by underruns
+    private long underruns;
+    private long underrunNanos;
+    private int resizes;
+
+    private byte[] buffer = new byte[0]; // the writer's
+
+    LineOutput(Equalizer equalizer) {
+        this.equalizer = equalizer;
+        Thread writer = new Thread(this::writeLoop, "audio-output");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MAX_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Opens a line for a new track, positioned at its start and stopped.
+     *
+     * @param source The track, closed by the output when done with it
+     */
+    synchronized void open(PcmSource source) throws LineUnavailableException {
+        close();
+        this.source = source;
+        this.format = source.getFormat();
+        this.frameSize = format.getFrameSize();
+        this.endFrame = Long.MAX_VALUE;
+        equalizer.setSampleRate(format.getSampleRate());
+        openLine();
+        reposition(0);
+    }
+
+    /**
+     * Closes the line and forgets the track.
+     */
+    synchronized void close() {
+        running = false;
+        closeLine();
+        generation++;
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                System.err.println("Error closing audio source: " + e.getMessage());
+            }
+            source = null;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Closes the line and ends the writer thread.
+     */
+    synchronized void shutdown() {
+        close();
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized void start() throws LineUnavailableException {
+        if (line == null || running) {
+            return;
+        }
+        applyBufferSize();
+        line.start();
+        running = true;
+        primed = false;
+        notifyAll();
+    }
+
+    /**
+     * Stops at the frame being played and drops the rest of the buffer.
+     */
+    synchronized void stop() {
+        if (line == null || !running) {
+            return;
+        }
+        running = false;
+        long played = position();
+        line.stop();
+        line.flush();
+        reposition(played);
+    }
+
+    synchronized void seek(long frame) throws LineUnavailableException {
+        if (line == null) {
+            return;
+        }
+        boolean wasRunning = running;
+        running = false;
+        line.stop();
+        line.flush();
+        long length = getTotalFrames();
+        reposition(Math.max(0, length >= 0 ? Math.min(length, frame) : frame));
+        if (wasRunning) {
+            start();
+        }
+    }
+
+    /**
+     * @return The frame being heard
+     */
+    synchronized long position() {
+        if (line == null) {
+            return Math.min(endFrame, originFrame);
+        }
+        return Math.min(endFrame, originFrame + line.getLongFramePosition() - lineBase);
+    }
+
+    /**
+     * Moves the output to another device. A track that is playing continues
+     * on the new device at the frame being heard; if the device cannot take
+     * it, the output stays on the old one.
+     *
+     * @param device The device, or null for the system default
+     * @throws LineUnavailableException If the new device cannot play the track
+     */
+    synchronized void setDevice(Mixer device) throws LineUnavailableException {
+        if (device == this.device) {
+            return;
+        }
+        Mixer previous = this.device;
+        this.device = device;
+        if (source == null) {
+            return;
+        }
+        boolean wasRunning = running;
+        try {
+            reopen();
+        } catch (LineUnavailableException e) {
+            this.device = previous;
+            running = wasRunning;
+            reopen();
+            throw e;
+        }
+    }
+
+    synchronized Mixer getDevice() {
+        return device;
+    }
+
+    /**
+     * @return The length of the track in frames, which for a track decoded
+     *         while playing may be an estimate until its end has been read
+     */
+    synchronized long getTotalFrames() {
+        if (endFrame != Long.MAX_VALUE) {
+            return endFrame;
+        }
+        return source != null ? source.getFrameLength() : 0;
+    }
+
+    /**
+     * @return Whether the line is playing and has not reached the end
+     */
+    synchronized boolean isRunning() {
+        return running && position() < endFrame;
+    }
+
+    synchronized boolean hasGainControl() {
+        return gainControl != null;
+    }
+
+    /**
+     * Sets the line's gain, clamped to what the line supports; kept when the
+     * line is reopened.
+     */
+    synchronized void setGain(float db) {
+        gainDb = db;
+        applyGain();
+    }
+
+    synchronized OutputDiagnostics diagnostics() {
+        int bufferBytes = 0;
+        int lineMillis = 0;
+        int latencyMillis = 0;
+        if (line != null) {
+            bufferBytes = line.getBufferSize();
+            lineMillis = toMillis(bufferBytes);
+            latencyMillis = running ? toMillis(bufferBytes - line.available()) : 0;
+        }
+        return new OutputDiagnostics(bufferBytes, lineMillis, latencyMillis, underruns,
+                underrunNanos / 1_000_000, resizes);
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                int writeGeneration = -1;
+                try {
+                    SourceDataLine target;
+                    PcmSource from;
+                    long frame;
+                    int channels;
+                    int length = 0;
+                    synchronized (this) {
+                        while (!closed && (!running || line == null || drained)) {
+                            wait();
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        writeGeneration = generation;
+                        if (writeFrame < endFrame) {
+                            checkUnderrun();
+                            if (line == null || !running) {
+                                // Growing the buffer failed to reopen the line
+                                continue;
+                            }
+                            length = Math.max(frameSize, line.getBufferSize() / WRITES_PER_BUFFER / frameSize * frameSize);
+                        }
+                        target = line;
+                        from = source;
+                        frame = writeFrame;
+                        channels = format.getChannels();
+                        writeGeneration = generation;
+                    }
+
+                    if (length == 0) {
+                        // Everything is written; let the line play out its buffer
+                        target.drain();
+                        synchronized (this) {
+                            if (writeGeneration == generation) {
+                                drained = true;
+                            }
+                        }
+                        continue;
+                    }
+
+                    // Decoding blocks, so it does not hold the lock
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    int read;
+                    try {
+                        read = from.read(frame, buffer, length);
+                    } catch (IOException e) {
+                        System.err.println("Audio output: could not read the track - " + e.getMessage());
+                        read = -1;
+                    }
+                    if (read < 0) {
+                        synchronized (this) {
+                            if (writeGeneration == generation) {
+                                endFrame = frame;
+                            }
+                        }
+                        continue;
+                    }
+                    equalizer.process(buffer, 0, read, channels);
+                    // Handed over only as much as the line has room for, under the
+                    // lock: a seek or stop during the read drops the chunk instead
+                    // of it being played after the flush
+                    int offset = 0;
+                    while (offset < read) {
+                        synchronized (this) {
+                            if (writeGeneration != generation) {
+                                break;
+                            }
+                            int room = target.available() / frameSize * frameSize;
+                            if (room == 0) {
+                                wait(Math.max(1, toMillis(read - offset) / 2));
+                                continue;
+                            }
+                            int written = target.write(buffer, offset, Math.min(room, read - offset));
+                            offset += written;
+                            writeFrame += written / frameSize;
+                            if (!primed && line.available() <= line.getBufferSize() / 2) {
+                                primed = true;
+                                lastCheckNanos = System.nanoTime();
+                                lastLinePosition = line.getLongFramePosition();
+                            }
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // A failing decoder, resampler or equalizer ends its track, not the writer
+                    System.err.println("Audio output: the track failed and was ended - " + e);
+                    e.printStackTrace();
+                    endTrack(writeGeneration);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Only shutdown ends the writer
+        }
+    }
+
+    /**
+     * Ends the track at the frame being heard, as if its source had ended there,
+     * so the player moves on to the next one.
+     */
+    private synchronized void endTrack(int writeGeneration) {
+        if (writeGeneration != generation) {
+            // A seek or new track since; that one starts over
+            return;
+        }
+        if (source != null) {
+            endFrame = Math.min(endFrame, position());
+            writeFrame = Math.min(writeFrame, endFrame);
+        }
+        drained = true;
+    }
+
+    /**
+     * Counts an underrun if the line has played everything written to it, and
+     * adapts the buffer size.
+     */
+    private void checkUnderrun() {
+        if (!primed) {
+            return;
+        }
+        long now = System.nanoTime();
+        long linePosition = line.getLongFramePosition();
+        long elapsed = now - lastCheckNanos;
+        if (line.getBufferSize() - line.available() < frameSize) {
+            // The device fell behind the clock by the time it had nothing to play
+            long expectedFrames = (long) (elapsed * (double) format.getFrameRate() / 1e9);
+            long starvedFrames = Math.max(0, expectedFrames - (linePosition - lastLinePosition));
+            underruns++;
+            underrunNanos += (long) (starvedFrames * 1e9 / format.getFrameRate());
+            stableNanos = 0;
+            sinceUnderrunNanos = 0;
+            primed = false;
+            if (bufferMillis < MAX_BUFFER_MS) {
+                bufferMillis = Math.min(MAX_BUFFER_MS, toMillis(line.getBufferSize()) * 2);
+                floorMillis = bufferMillis;
+                try {
+                    reopen();
+                    resizes++;
+                    System.out.println("Audio output: underrun, buffer grown to " + bufferMillis + " ms");
+                } catch (LineUnavailableException e) {
+                    System.err.println("Audio output: could not grow the buffer - " + e.getMessage());
+                }
+            }
+            return;
+        }
+        stableNanos += elapsed;
+        sinceUnderrunNanos += elapsed;
+        if (stableNanos >= STABLE_NANOS) {
+            // Not below the size that last proved enough, until that was long ago
+            if (sinceUnderrunNanos >= FLOOR_DECAY_NANOS) {
+                floorMillis = Math.max(MIN_BUFFER_MS, floorMillis / 2);
+                sinceUnderrunNanos = 0;
+            }
+            bufferMillis = Math.max(floorMillis, bufferMillis / 2);
+            stableNanos = 0;
+        }
+        lastCheckNanos = now;
+        lastLinePosition = linePosition;
+    }
+
+    /** Reopens the line if its buffer differs from the size wanted now. */
+    private void applyBufferSize() throws LineUnavailableException {
+        if (Math.abs(toMillis(line.getBufferSize()) - bufferMillis) > 1) {
+            reopen();
+            resizes++;
+        }
+    }
+
+    /**
+     * Replaces the line with one opened on the current device and buffer size,
+     * continuing at the frame being heard.
+     */
+    private void reopen() throws LineUnavailableException {
+        boolean wasRunning = running;
+        long played = position();
+        closeLine();
+        try {
+            openLine();
+        } catch (LineUnavailableException e) {
+            running = false;
+            originFrame = played;
+            generation++;
+            throw e;
+        }
+        reposition(played);
+        if (wasRunning) {
+            line.start();
+        }
+    }
+
+    private void closeLine() {
+        if (line != null) {
+            line.stop();
+            line.flush();
+            line.close();
+            line = null;
+        }
+        gainControl = null;
+    }
+
+    private void openLine() throws LineUnavailableException {
+        SourceDataLine opened;
+        try {
+            opened = device != null
+                    ? (SourceDataLine) device.getLine(new DataLine.Info(SourceDataLine.class, format))
+                    : AudioSystem.getSourceDataLine(format);
+        } catch (IllegalArgumentException e) {
+            // No line for this format on the device
+            throw new LineUnavailableException(e.getMessage());
+        }
+        int frames = Math.max(1, (int) (format.getFrameRate() * bufferMillis / 1000));
+        opened.open(format, frames * frameSize);
+        if (opened.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+            gainControl = (FloatControl) opened.getControl(FloatControl.Type.MASTER_GAIN);
+        }
+        line = opened;
+        applyGain();
+    }
+
+    /** Continues from a frame after the line was flushed or reopened. */
+    private void reposition(long frame) {
+        writeFrame = frame;
+        originFrame = frame;
+        lineBase = line.getLongFramePosition();
+        drained = false;
+        primed = false;
+        generation++;
+        notifyAll();
+    }
+
+    private void applyGain() {
+        if (gainControl != null) {
+            gainControl.setValue(Math.max(gainControl.getMinimum(), Math.min(gainControl.getMaximum(), gainDb)));
+        }
+    }
+
+    private int toMillis(int bytes) {
+        return (int) ((long) bytes / frameSize * 1000 / Math.max(1, (long) format.getFrameRate()));
+    }
+}
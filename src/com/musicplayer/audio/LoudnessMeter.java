@@ -0,0 +1,223 @@
+package src.com.musicplayer.audio;
+
+import java.util.Arrays;
+
+/**
+ * Integrated loudness and true peak after ITU-R BS.1770 / EBU R128.
+ *
+ * Samples are K-weighted (a high shelf followed by a high pass, with
+ * coefficients derived for the actual sample rate), the weighted energy is
+ * collected in 100 ms steps, and the integrated loudness is the gated mean
+ * over 400 ms blocks with 75 % overlap: blocks below -70 LUFS are dropped,
+ * then blocks more than 10 LU below the mean of the rest. True peak is
+ * measured on a 4x oversampled signal. A meter is reused for many tracks;
+ * {@link #reset} prepares it for the next one.
+ */
+public class LoudnessMeter implements PcmAnalyzer {
+    private static final double ABSOLUTE_GATE = -70.0;
+    private static final double RELATIVE_GATE = -10.0;
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    private static final double[][] INTERPOLATOR = createInterpolator();
+
+    private int channels;
+    private double[] channelWeights;
+
+    // K-weighting: two biquads per channel, coefficients shared, state per channel
+    private double sb0, sb1, sb2, sa1, sa2;
+    private double hb0, hb1, hb2, ha1, ha2;
+    private double[] state = new double[0];
+
+    private int stepFrames;
+    private int framesInStep;
+    private double stepEnergy;
+    private double[] stepEnergies = new double[1024];
+    private int stepCount;
+
+    private double[] history = new double[0];
+    private int historyPosition;
+    private double peak;
+
+    /**
+     * Starts a new measurement.
+     *
+     * @param sampleRate Sample rate in Hz
+     * @param channels   Number of interleaved channels
+     */
+    @Override
+    public void reset(float sampleRate, int channels) {
+        this.channels = channels;
+        channelWeights = new double[channels];
+        for (int c = 0; c < channels; c++) {
+            // 5.1 order: L R C LFE Ls Rs; the LFE does not count, surrounds weigh more
+            channelWeights[c] = channels >= 6 && c == 3 ? 0.0 : channels >= 6 && c >= 4 ? 1.41 : 1.0;
+        }
+
+        double fs = sampleRate;
+        double k = Math.tan(Math.PI * 1681.974450955533 / fs);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        sb0 = (vh + vb * k / q + k * k) / a0;
+        sb1 = 2.0 * (k * k - vh) / a0;
+        sb2 = (vh - vb * k / q + k * k) / a0;
+        sa1 = 2.0 * (k * k - 1.0) / a0;
+        sa2 = (1.0 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / fs);
+        q = 0.5003270373238773;
+        a0 = 1.0 + k / q + k * k;
+        hb0 = 1.0;
+        hb1 = -2.0;
+        hb2 = 1.0;
+        ha1 = 2.0 * (k * k - 1.0) / a0;
+        ha2 = (1.0 - k / q + k * k) / a0;
+
+        if (state.length < channels * 4) {
+            state = new double[channels * 4];
+            history = new double[channels * TAPS_PER_PHASE];
+        }
+        Arrays.fill(state, 0.0);
+        Arrays.fill(history, 0.0);
+        historyPosition = 0;
+
+        stepFrames = Math.max(1, Math.round(sampleRate / 10));
+        framesInStep = 0;
+        stepEnergy = 0.0;
+        stepCount = 0;
+        peak = 0.0;
+    }
+
+    /**
+     * Feeds 16-bit little-endian interleaved PCM.
+     *
+     * @param buffer The PCM bytes
+     * @param length Number of valid bytes, a multiple of the frame size
+     */
+    @Override
+    public void process(byte[] buffer, int length) {
+        int frameSize = channels * 2;
+        for (int offset = 0; offset + frameSize <= length; offset += frameSize) {
+            double frameEnergy = 0.0;
+            for (int c = 0; c < channels; c++) {
+                int i = offset + c * 2;
+                double x = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)) / 32768.0;
+
+                trackPeak(c, x);
+
+                int s = c * 4;
+                // Direct form II transposed, shelf then high pass
+                double y = sb0 * x + state[s];
+                state[s] = sb1 * x - sa1 * y + state[s + 1];
+                state[s + 1] = sb2 * x - sa2 * y;
+                double z = hb0 * y + state[s + 2];
+                state[s + 2] = hb1 * y - ha1 * z + state[s + 3];
+                state[s + 3] = hb2 * y - ha2 * z;
+
+                frameEnergy += channelWeights[c] * z * z;
+            }
+            historyPosition = (historyPosition + 1) % TAPS_PER_PHASE;
+
+            stepEnergy += frameEnergy;
+            if (++framesInStep == stepFrames) {
+                if (stepCount == stepEnergies.length) {
+                    stepEnergies = Arrays.copyOf(stepEnergies, stepCount * 2);
+                }
+                stepEnergies[stepCount++] = stepEnergy / stepFrames;
+                stepEnergy = 0.0;
+                framesInStep = 0;
+            }
+        }
+    }
+
+    /**
+     * @return Integrated loudness in LUFS, or negative infinity for silence or
+     *         tracks shorter than one block
+     */
+    public double integratedLoudness() {
+        int blocks = stepCount - 3;
+        if (blocks <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double[] blockEnergy = new double[blocks];
+        for (int b = 0; b < blocks; b++) {
+            blockEnergy[b] = (stepEnergies[b] + stepEnergies[b + 1] + stepEnergies[b + 2] + stepEnergies[b + 3])
+                    / 4.0;
+        }
+
+        double absoluteThreshold = energyOf(ABSOLUTE_GATE);
+        double sum = 0.0;
+        int count = 0;
+        for (double energy : blockEnergy) {
+            if (energy > absoluteThreshold) {
+                sum += energy;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double relativeThreshold = energyOf(loudnessOf(sum / count) + RELATIVE_GATE);
+        double threshold = Math.max(absoluteThreshold, relativeThreshold);
+        sum = 0.0;
+        count = 0;
+        for (double energy : blockEnergy) {
+            if (energy > threshold) {
+                sum += energy;
+                count++;
+            }
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : loudnessOf(sum / count);
+    }
+
+    /**
+     * @return True peak in dBTP, or negative infinity for digital silence
+     */
+    public double truePeak() {
+        return peak > 0.0 ? 20.0 * Math.log10(peak) : Double.NEGATIVE_INFINITY;
+    }
+
+    private void trackPeak(int channel, double x) {
+        int base = channel * TAPS_PER_PHASE;
+        history[base + historyPosition] = x;
+        double max = Math.abs(x);
+        for (double[] phase : INTERPOLATOR) {
+            double y = 0.0;
+            int position = historyPosition;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                y += phase[t] * history[base + position];
+                position = position == 0 ? TAPS_PER_PHASE - 1 : position - 1;
+            }
+            max = Math.max(max, Math.abs(y));
+        }
+        if (max > peak) {
+            peak = max;
+        }
+    }
+
+    private static double loudnessOf(double energy) {
+        return -0.691 + 10.0 * Math.log10(energy);
+    }
+
+    private static double energyOf(double loudness) {
+        return Math.pow(10.0, (loudness + 0.691) / 10.0);
+    }
+
+    /**
+     * Polyphase windowed-sinc interpolator, one row of taps per output phase.
+     */
+    private static double[][] createInterpolator() {
+        double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+        int length = OVERSAMPLING * TAPS_PER_PHASE;
+        double center = (length - 1) / 2.0;
+        for (int n = 0; n < length; n++) {
+            double t = (n - center) / OVERSAMPLING;
+            double sinc = t == 0.0 ? 1.0 : Math.sin(Math.PI * t) / (Math.PI * t);
+            double window = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * (n + 0.5) / length);
+            phases[n % OVERSAMPLING][n / OVERSAMPLING] = sinc * window;
+        }
+        return phases;
+    }
+}
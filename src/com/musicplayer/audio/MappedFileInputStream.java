@@ -0,0 +1,174 @@
+package src.com.musicplayer.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential input over a memory-mapped file, the source for decoders of
+ * files on local storage.
+ *
+ * The file is mapped one {@link #WINDOW_SIZE} window at a time, so positions
+ * are longs and files beyond 2 GB are read correctly; only one window is
+ * mapped at any time. Single-byte reads come straight out of the mapping, so
+ * a decoder that parses byte by byte reads the compressed data without any
+ * copy. As reading moves on, the next stretch of the window is faulted in
+ * ahead of time in one go instead of one page fault at a time; the stretch
+ * starts small so the first bytes are available quickly and doubles up to
+ * {@link #READ_AHEAD}.
+ * Mark and reset work across windows.
+ */
+final class MappedFileInputStream extends FileSource {
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    static final int READ_AHEAD = 1024 * 1024;
+    private static final int FIRST_READ_AHEAD = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int loadedUpTo;
+    private int readAheadSize = FIRST_READ_AHEAD;
+    private long markPosition = -1;
+    private long markLimit;
+
+    MappedFileInputStream(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            map(0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    long position() {
+        return windowStart + window.position();
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        // The loaded stretch never passes the window end, so one check covers both
+        if (window.position() >= loadedUpTo) {
+            if (!window.hasRemaining() && !advance()) {
+                return -1;
+            }
+            readAhead();
+        }
+        return window.get() & 0xFF;
+    }
+
+    /**
+     * Reads four bytes as a big-endian int, in one access when they are in
+     * the loaded stretch.
+     */
+    @Override
+    int readInt() throws IOException {
+        if (window.position() + Integer.BYTES <= loadedUpTo) {
+            return window.getInt();
+        }
+        return super.readInt();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!window.hasRemaining() && !advance()) {
+            return -1;
+        }
+        int count = Math.min(length, window.remaining());
+        if (window.position() + count > loadedUpTo) {
+            readAhead();
+        }
+        window.get(buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long target = Math.min(size, position() + n);
+        long skipped = target - position();
+        seek(target);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position());
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        markPosition = position();
+        markLimit = readLimit;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (markPosition < 0 || position() - markPosition > markLimit) {
+            throw new IOException("Mark invalid or read limit exceeded");
+        }
+        seek(markPosition);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released by the garbage collector
+        channel.close();
+    }
+
+    /**
+     * Moves to a position in the file, mapping another window if needed.
+     */
+    void seek(long position) throws IOException {
+        if (position >= windowStart && position <= windowStart + window.limit()) {
+            window.position((int) (position - windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    private boolean advance() throws IOException {
+        long next = windowStart + window.limit();
+        if (next >= size) {
+            return false;
+        }
+        map(next);
+        return true;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        long length = Math.min(WINDOW_SIZE, size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        loadedUpTo = 0;
+    }
+
+    /**
+     * Faults in the next stretch of the window with a single call, so the
+     * kernel can read it as one sequential request.
+     */
+    private void readAhead() {
+        int from = window.position();
+        int length = Math.min(readAheadSize, window.limit() - from);
+        if (length > 0) {
+            window.slice(from, length).load();
+        }
+        loadedUpTo = from + length;
+        readAheadSize = Math.min(readAheadSize * 2, READ_AHEAD);
+    }
+}
@@ -0,0 +1,80 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The audio devices that can play 16-bit PCM, found once in the background.
+ *
+ * Enumerating mixers can take seconds on Linux, where every ALSA device and
+ * port is probed, and {@link AudioSystem#getMixer} repeats that work on each
+ * call. The list is therefore built once and keeps the {@link Mixer} objects
+ * themselves, so opening a line on a chosen device never enumerates again.
+ * {@link #rescan()} starts over, for devices plugged in later.
+ */
+public final class OutputDevices {
+    private static final DataLine.Info PCM_LINE =
+            new DataLine.Info(SourceDataLine.class, new AudioFormat(44100f, 16, 2, true, false));
+
+    private static CompletableFuture<List<Mixer>> devices;
+
+    private OutputDevices() {
+    }
+
+    /**
+     * Starts the discovery unless it has run already.
+     *
+     * @return The devices, completed once they are known
+     */
+    public static synchronized CompletableFuture<List<Mixer>> discover() {
+        if (devices == null) {
+            devices = CompletableFuture.supplyAsync(OutputDevices::scan);
+        }
+        return devices;
+    }
+
+    /**
+     * Forgets the devices found so far and looks again.
+     */
+    public static synchronized CompletableFuture<List<Mixer>> rescan() {
+        devices = null;
+        return discover();
+    }
+
+    /**
+     * @return The name shown for a device
+     */
+    public static String nameOf(Mixer device) {
+        Mixer.Info info = device.getMixerInfo();
+        String description = info.getDescription();
+        if (description == null || description.isEmpty() || description.equals(info.getName())) {
+            return info.getName();
+        }
+        return info.getName() + " (" + description + ")";
+    }
+
+    private static List<Mixer> scan() {
+        long start = System.nanoTime();
+        List<Mixer> found = new ArrayList<>();
+        for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+            try {
+                Mixer mixer = AudioSystem.getMixer(info);
+                if (mixer.isLineSupported(PCM_LINE)) {
+                    found.add(mixer);
+                }
+            } catch (RuntimeException e) {
+                // A device that cannot even be asked is no use for output
+                System.err.println("Output devices: skipping " + info.getName() + " - " + e.getMessage());
+            }
+        }
+        System.out.println("Output devices: found " + found.size() + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return List.copyOf(found);
+    }
+}
@@ -0,0 +1,25 @@
+package src.com.musicplayer.audio;
+
+/**
+ * An analysis fed by the shared decode stage of {@link LibraryAnalyzer}. Every
+ * analyzer sees the same decoded PCM, so a file is decoded once no matter how
+ * many analyses run on it.
+ */
+public interface PcmAnalyzer {
+
+    /**
+     * Starts a new track.
+     *
+     * @param sampleRate Sample rate in Hz
+     * @param channels   Number of interleaved channels
+     */
+    void reset(float sampleRate, int channels);
+
+    /**
+     * Feeds 16-bit little-endian interleaved PCM.
+     *
+     * @param buffer The PCM bytes
+     * @param length Number of valid bytes, a multiple of the frame size
+     */
+    void process(byte[] buffer, int length);
+}
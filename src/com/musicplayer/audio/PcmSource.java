@@ -0,0 +1,75 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decoded audio for {@link LineOutput}, read at any frame. Only the output's
+ * writer thread reads it, so a source may block while it decodes.
+ */
+interface PcmSource extends Closeable {
+
+    AudioFormat getFormat();
+
+    /**
+     * @return The length in frames. It may be an estimate that is corrected
+     *         while playing; the end is wherever {@link #read} returns -1
+     */
+    long getFrameLength();
+
+    /**
+     * Reads PCM starting at a frame.
+     *
+     * @param frame  The first frame to read
+     * @param buffer Where to put it
+     * @param length The most bytes to read, a whole number of frames
+     * @return The number of bytes read, a whole number of frames, or -1 at the end
+     */
+    int read(long frame, byte[] buffer, int length) throws IOException;
+
+    /**
+     * @return A source over a whole track already decoded into memory
+     */
+    static PcmSource of(AudioFormat format, byte[] pcm) {
+        return new Decoded(format, pcm);
+    }
+
+    /** A whole track in memory; reads are copies. */
+    final class Decoded implements PcmSource {
+        private final AudioFormat format;
+        private final byte[] pcm;
+        private final int frameSize;
+
+        private Decoded(AudioFormat format, byte[] pcm) {
+            this.format = format;
+            this.pcm = pcm;
+            this.frameSize = format.getFrameSize();
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public long getFrameLength() {
+            return pcm.length / frameSize;
+        }
+
+        @Override
+        public int read(long frame, byte[] buffer, int length) {
+            long offset = frame * frameSize;
+            if (offset >= pcm.length / frameSize * frameSize) {
+                return -1;
+            }
+            int count = (int) Math.min(length, pcm.length / frameSize * frameSize - offset);
+            System.arraycopy(pcm, (int) offset, buffer, 0, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
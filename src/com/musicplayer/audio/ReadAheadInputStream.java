@@ -0,0 +1,480 @@
+package src.com.musicplayer.audio;
+
+import src.com.musicplayer.model.ReadAheadStats;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequential input that a background thread fills ahead of the reader, for
+ * files on network shares and other storage where a single read can stall for
+ * seconds.
+ *
+ * The prefetcher reads {@link #CHUNK_SIZE} chunks into a bounded queue. The
+ * bound is sized to cover a span of time at the rate the reader consumes: it
+ * starts at four seconds, grows to twice the longest stall seen whenever a
+ * stall eats up more than half of it, and halves again after thirty seconds
+ * without stalls, always within {@link #MIN_BUFFER} and {@link #MAX_BUFFER}.
+ * A reader that is faster than the storage keeps the queue empty, so only slow
+ * readers such as playback hold much memory. Chunk arrays are reused.
+ *
+ * A source read slower than {@link #STALL_NANOS} counts as a stall, and a
+ * reader waiting that long for data as an underrun; both are totalled over all
+ * streams in {@link #statistics()}. The first fill after opening or skipping
+ * is not an underrun.
+ */
+public final class ReadAheadInputStream extends FileSource {
+    /**
+     * Reads from storage; blocking, and possibly slow.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @return The number of bytes read, or -1 at the end of the data
+         */
+        int read(ByteBuffer target, long position) throws IOException;
+    }
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int MIN_BUFFER = 256 * 1024;
+    static final int MAX_BUFFER = 16 * 1024 * 1024;
+    static final long STALL_NANOS = 50_000_000L;
+    private static final long MIN_COVER_NANOS = 4_000_000_000L;
+    private static final long MAX_COVER_NANOS = 60_000_000_000L;
+    private static final long QUIET_NANOS = 30_000_000_000L;
+
+    private static final AtomicInteger streamCount = new AtomicInteger();
+    private static final AtomicLong underrunCount = new AtomicLong();
+    private static final AtomicLong underrunNanos = new AtomicLong();
+    private static final AtomicLong stallCount = new AtomicLong();
+    private static final AtomicLong stallNanos = new AtomicLong();
+    private static final AtomicLong longestStallNanos = new AtomicLong();
+    private static final AtomicInteger largestBuffer = new AtomicInteger();
+
+    private final Source source;
+    private final Closeable resource;
+    private final long size;
+
+    // Shared with the prefetcher, guarded by this
+    private final ArrayDeque<Chunk> ready = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> spare = new ArrayDeque<>();
+    private long buffered;
+    private int capacity = MIN_BUFFER;
+    private long coverNanos = MIN_COVER_NANOS;
+    private double consumeRate; // bytes per second
+    private long lastStall = System.nanoTime();
+    private long fetchPosition;
+    private long end;
+    private int generation; // bumped by a skip so a read in flight is dropped
+    private IOException failure;
+    private boolean closed;
+    private boolean primed;
+
+    // Reader side only
+    private final byte[] single = new byte[1];
+    private Chunk current;
+    private int currentOffset;
+    private long position;
+    private long lastTake;
+    private byte[] markBuffer;
+    private int markCount;
+    private int markLimit;
+    private long markPosition;
+    private boolean marked;
+    private int replay = -1; // next mark buffer byte to hand out again after reset
+
+    public ReadAheadInputStream(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    private ReadAheadInputStream(FileChannel channel) throws IOException {
+        this(channel::read, sizeOf(channel), channel);
+    }
+
+    /**
+     * @param source   Where the bytes come from
+     * @param size     The number of bytes to read
+     * @param resource Closed with the stream, may be null
+     */
+    public ReadAheadInputStream(Source source, long size, Closeable resource) {
+        this.source = source;
+        this.resource = resource;
+        this.size = size;
+        this.end = size;
+        streamCount.incrementAndGet();
+        largestBuffer.accumulateAndGet(capacity, Math::max);
+        Thread thread = new Thread(this::prefetch, "read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The counters of all read-ahead streams since startup
+     */
+    public static ReadAheadStats statistics() {
+        return new ReadAheadStats(
+                streamCount.get(),
+                underrunCount.get(),
+                underrunNanos.get() / 1_000_000,
+                stallCount.get(),
+                stallNanos.get() / 1_000_000,
+                longestStallNanos.get() / 1_000_000,
+                largestBuffer.get());
+    }
+
+    private static long sizeOf(FileChannel channel) throws IOException {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    long position() {
+        return position;
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (current != null && currentOffset < current.length && replay < 0 && !marked) {
+            position++;
+            return current.data[currentOffset++] & 0xFF;
+        }
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        if (length == 0) {
+            return 0;
+        }
+        if (replay >= 0) {
+            int count = Math.min(length, markCount - replay);
+            System.arraycopy(markBuffer, replay, buffer, offset, count);
+            replay += count;
+            if (replay == markCount) {
+                replay = -1;
+            }
+            position += count;
+            return count;
+        }
+        if ((current == null || currentOffset == current.length) && !nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - currentOffset);
+        System.arraycopy(current.data, currentOffset, buffer, offset, count);
+        currentOffset += count;
+        position += count;
+        if (marked) {
+            record(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (replay >= 0 || marked) {
+            // Skipped bytes must be replayable after a reset, so read through them
+            return super.skip(n);
+        }
+        long skipped = 0;
+        if (current != null) {
+            int count = (int) Math.min(n, current.length - currentOffset);
+            currentOffset += count;
+            skipped = count;
+        }
+        synchronized (this) {
+            while (skipped < n && !ready.isEmpty()) {
+                Chunk next = ready.poll();
+                buffered -= next.length;
+                recycle(current);
+                current = next;
+                int count = (int) Math.min(n - skipped, next.length);
+                currentOffset = count;
+                skipped += count;
+            }
+            if (skipped < n) {
+                // Past everything buffered: restart prefetching at the target
+                long target = Math.min(end, position + n);
+                skipped = target - position;
+                recycle(current);
+                current = null;
+                if (target != fetchPosition) {
+                    fetchPosition = target;
+                    generation++;
+                    failure = null;
+                    primed = false;
+                }
+            }
+            // Either way there is room to prefetch into
+            notifyAll();
+        }
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long count = current != null ? current.length - currentOffset : 0;
+        if (replay >= 0) {
+            count += markCount - replay;
+        }
+        synchronized (this) {
+            count += buffered;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        if (replay >= 0) {
+            // The bytes not yet handed out again start the new mark
+            int rest = markCount - replay;
+            System.arraycopy(markBuffer, replay, markBuffer, 0, rest);
+            markCount = rest;
+            replay = 0;
+        } else {
+            markCount = 0;
+        }
+        if (markBuffer == null) {
+            markBuffer = new byte[Math.min(readLimit, 8192)];
+        }
+        markLimit = Math.max(readLimit, markCount);
+        markPosition = position;
+        marked = true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (!marked) {
+            throw new IOException("Mark invalid or read limit exceeded");
+        }
+        replay = markCount > 0 ? 0 : -1;
+        position = markPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.clear();
+            spare.clear();
+            buffered = 0;
+            notifyAll();
+        }
+        // A read in flight fails once the channel is closed
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+    private void record(byte[] buffer, int offset, int count) {
+        if ((long) markCount + count > markLimit) {
+            marked = false;
+            return;
+        }
+        if (markBuffer.length < markCount + count) {
+            int grown = (int) Math.min(markLimit, Math.max(markCount + count, markBuffer.length * 2L));
+            markBuffer = Arrays.copyOf(markBuffer, grown);
+        }
+        System.arraycopy(buffer, offset, markBuffer, markCount, count);
+        markCount += count;
+    }
+
+    /**
+     * Makes the next prefetched chunk current, waiting for it if necessary.
+     *
+     * @return false at the end of the data
+     */
+    private synchronized boolean nextChunk() throws IOException {
+        recycle(current);
+        current = null;
+        long waitStart = 0;
+        while (ready.isEmpty()) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            if (fetchPosition >= end) {
+                return false;
+            }
+            if (waitStart == 0) {
+                waitStart = System.nanoTime();
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for read-ahead");
+            }
+        }
+        long now = System.nanoTime();
+        long waited = waitStart != 0 ? now - waitStart : 0;
+        if (waited >= STALL_NANOS && primed) {
+            underrunCount.incrementAndGet();
+            underrunNanos.addAndGet(waited);
+        }
+        primed = true;
+
+        current = ready.poll();
+        currentOffset = 0;
+        buffered -= current.length;
+        if (lastTake != 0) {
+            // How fast the previous chunk was consumed, leaving out the wait for this one
+            long busy = Math.max(1_000, now - lastTake - waited);
+            double rate = current.length * 1e9 / busy;
+            consumeRate = consumeRate == 0 ? rate : consumeRate * 0.9 + rate * 0.1;
+            updateCapacity();
+        }
+        lastTake = now;
+        notifyAll();
+        return true;
+    }
+
+    private void prefetch() {
+        try {
+            while (true) {
+                byte[] data;
+                long at;
+                int length;
+                int fetchGeneration;
+                synchronized (this) {
+                    while (!closed && (failure != null || fetchPosition >= end || buffered >= capacity)) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    data = spare.isEmpty() ? new byte[CHUNK_SIZE] : spare.pop();
+                    at = fetchPosition;
+                    length = (int) Math.min(CHUNK_SIZE, end - at);
+                    fetchGeneration = generation;
+                }
+
+                IOException error = null;
+                int read = 0;
+                long start = System.nanoTime();
+                try {
+                    read = readFully(data, length, at);
+                } catch (IOException e) {
+                    error = e;
+                }
+                long elapsed = System.nanoTime() - start;
+
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    adapt(elapsed);
+                    if (fetchGeneration != generation) {
+                        spare.push(data);
+                        continue;
+                    }
+                    if (error != null) {
+                        failure = error;
+                        spare.push(data);
+                    } else if (read == 0) {
+                        // The file is shorter than when it was opened
+                        end = at;
+                        spare.push(data);
+                    } else {
+                        ready.add(new Chunk(data, read));
+                        buffered += read;
+                        fetchPosition = at + read;
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Only closing stops the prefetcher
+        }
+    }
+
+    private int readFully(byte[] data, int length, long at) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(data, 0, length);
+        while (target.hasRemaining()) {
+            if (source.read(target, at + target.position()) < 0) {
+                break;
+            }
+        }
+        return target.position();
+    }
+
+    /**
+     * Grows the time span the buffer covers after a long stall, and shrinks it
+     * after a quiet spell.
+     */
+    private void adapt(long elapsed) {
+        long now = System.nanoTime();
+        if (elapsed >= STALL_NANOS) {
+            stallCount.incrementAndGet();
+            stallNanos.addAndGet(elapsed);
+            longestStallNanos.accumulateAndGet(elapsed, Math::max);
+            lastStall = now;
+            if (elapsed * 2 > coverNanos) {
+                coverNanos = Math.min(MAX_COVER_NANOS, Math.max(coverNanos * 2, elapsed * 2));
+                updateCapacity();
+            }
+        } else if (now - lastStall > QUIET_NANOS && coverNanos > MIN_COVER_NANOS) {
+            coverNanos = Math.max(MIN_COVER_NANOS, coverNanos / 2);
+            lastStall = now;
+            updateCapacity();
+        }
+    }
+
+    private void updateCapacity() {
+        double bytes = consumeRate * coverNanos / 1e9;
+        capacity = (int) Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, bytes));
+        largestBuffer.accumulateAndGet(capacity, Math::max);
+        // Do not hold on to arrays the smaller buffer no longer needs
+        while (!spare.isEmpty() && buffered + (long) spare.size() * CHUNK_SIZE > capacity) {
+            spare.pop();
+        }
+    }
+
+    private void recycle(Chunk chunk) {
+        if (chunk != null) {
+            synchronized (this) {
+                if (!closed && buffered + (long) (spare.size() + 1) * CHUNK_SIZE <= capacity) {
+                    spare.push(chunk.data);
+                }
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
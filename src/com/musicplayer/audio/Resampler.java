@@ -0,0 +1,289 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.util.Arrays;
+
+/**
+ * Polyphase windowed-sinc sample-rate converter for interleaved 16-bit signed
+ * little-endian PCM.
+ *
+ * The rate ratio is reduced to a fraction L/M. The Kaiser-windowed low-pass
+ * filter is sampled at L phases once, up front, and stored phase by phase so
+ * every output sample is one dot product over a contiguous run of taps. The
+ * dot product keeps four independent sums, which lets the JIT keep several
+ * multiply-adds in flight and use SIMD registers. Input is kept per channel as
+ * floats in a history buffer sized for one block; converting a block does not
+ * allocate.
+ *
+ * Not thread-safe; one instance converts one stream.
+ */
+public final class Resampler {
+    public static final int QUALITY_FAST = 0;
+    public static final int QUALITY_STANDARD = 1;
+    public static final int QUALITY_BEST = 2;
+
+    /** Largest number of input frames per {@link #process} call. */
+    public static final int BLOCK_FRAMES = 4096;
+
+    // Per quality: filter length, Kaiser beta, and pass band as a fraction of
+    // the lower Nyquist frequency
+    private static final int[] TAPS = { 16, 32, 64 };
+    private static final double[] KAISER_BETA = { 5.0, 7.5, 10.0 };
+    private static final double[] PASS_BAND = { 0.80, 0.90, 0.95 };
+
+    // Above this many phases the ratio is approximated; the resulting pitch
+    // error is below 0.05 %
+    private static final int MAX_PHASES = 1024;
+
+    private final int channels;
+    private final int taps;
+    private final int phases;
+    private final int step;
+    private final float[] filter;
+    private final float[][] history;
+
+    // Frames in the history, and the first frame of the next output's window
+    private int filled;
+    private int position;
+    private int phase;
+    private long inputFrames;
+    private long outputFrames;
+
+    /**
+     * @param inputRate  The sample rate of the input
+     * @param outputRate The sample rate to convert to
+     * @param channels   The number of interleaved channels
+     * @param quality    One of the QUALITY_ constants
+     */
+    public Resampler(float inputRate, float outputRate, int channels, int quality) {
+        if (quality < QUALITY_FAST || quality > QUALITY_BEST) {
+            throw new IllegalArgumentException("Unknown resampler quality " + quality);
+        }
+        long in = Math.round(inputRate);
+        long out = Math.round(outputRate);
+        long divisor = gcd(in, out);
+        long l = out / divisor;
+        long m = in / divisor;
+        if (l > MAX_PHASES) {
+            m = Math.max(1, Math.round((double) m * MAX_PHASES / l));
+            l = MAX_PHASES;
+        }
+        this.channels = channels;
+        this.taps = TAPS[quality];
+        this.phases = (int) l;
+        this.step = (int) m;
+        this.filter = buildFilter(phases, step, taps, KAISER_BETA[quality], PASS_BAND[quality]);
+        this.history = new float[channels][taps + BLOCK_FRAMES + taps / 2];
+        reset();
+    }
+
+    /**
+     * Wraps a 16-bit PCM stream so it is read at another sample rate.
+     *
+     * @param pcm        16-bit signed little-endian PCM
+     * @param outputRate The sample rate to convert to
+     * @param quality    One of the QUALITY_ constants
+     * @return The converted stream, or {@code pcm} itself if the rates match
+     */
+    public static AudioInputStream convert(AudioInputStream pcm, float outputRate, int quality) {
+        AudioFormat format = pcm.getFormat();
+        if (Math.round(format.getSampleRate()) == Math.round(outputRate)) {
+            return pcm;
+        }
+        Resampler resampler = new Resampler(format.getSampleRate(), outputRate, format.getChannels(), quality);
+        AudioFormat outputFormat = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                outputRate,
+                16,
+                format.getChannels(),
+                format.getChannels() * 2,
+                outputRate,
+                false);
+        long frames = pcm.getFrameLength();
+        return new AudioInputStream(new ResamplingInputStream(pcm, resampler), outputFormat,
+                frames == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED : resampler.outputLength(frames));
+    }
+
+    /** Forgets all input, as if newly created. */
+    public void reset() {
+        for (float[] channel : history) {
+            Arrays.fill(channel, 0.0f);
+        }
+        // Zeros before the first sample, so output 0 is centred on input 0
+        filled = taps / 2 - 1;
+        position = 0;
+        phase = 0;
+        inputFrames = 0;
+        outputFrames = 0;
+    }
+
+    /**
+     * @param inputFrames The number of input frames
+     * @return The number of output frames they convert to
+     */
+    public long outputLength(long inputFrames) {
+        return (inputFrames * phases + step - 1) / step;
+    }
+
+    /**
+     * @param inputFrames Input frames per call, at most {@link #BLOCK_FRAMES}
+     * @return The most output frames one call can produce
+     */
+    public int maxOutputFrames(int inputFrames) {
+        return (int) (((long) (inputFrames + taps) * phases) / step) + 2;
+    }
+
+    /**
+     * Converts one block of input.
+     *
+     * @param input        Interleaved 16-bit little-endian frames
+     * @param inputOffset  Offset of the first frame in bytes
+     * @param frames       Number of input frames, at most {@link #BLOCK_FRAMES}
+     * @param output       Receives the converted frames
+     * @param outputOffset Offset in bytes; room for
+     *                     {@link #maxOutputFrames(int)} frames is needed
+     * @return The number of frames written to {@code output}
+     */
+    public int process(byte[] input, int inputOffset, int frames, byte[] output, int outputOffset) {
+        if (frames > BLOCK_FRAMES) {
+            throw new IllegalArgumentException("At most " + BLOCK_FRAMES + " frames per block");
+        }
+        int frameSize = channels * 2;
+        for (int c = 0; c < channels; c++) {
+            float[] samples = history[c];
+            int at = inputOffset + c * 2;
+            for (int i = 0; i < frames; i++, at += frameSize) {
+                samples[filled + i] = (short) ((input[at] & 0xFF) | (input[at + 1] << 8)) * (1.0f / 32768.0f);
+            }
+        }
+        filled += frames;
+        inputFrames += frames;
+        return produce(output, outputOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Flushes the samples still held back by the filter at the end of the
+     * stream.
+     *
+     * @param output       Receives the converted frames
+     * @param outputOffset Offset in bytes; room for
+     *                     {@link #maxOutputFrames(int)} of 0 frames is needed
+     * @return The number of frames written to {@code output}
+     */
+    public int drain(byte[] output, int outputOffset) {
+        int padding = taps / 2;
+        for (float[] samples : history) {
+            Arrays.fill(samples, filled, filled + padding, 0.0f);
+        }
+        filled += padding;
+        return produce(output, outputOffset, outputLength(inputFrames));
+    }
+
+    private int produce(byte[] output, int outputOffset, long outputLimit) {
+        int produced = 0;
+        int at = outputOffset;
+        while (position + taps <= filled && outputFrames < outputLimit) {
+            int coefficients = phase * taps;
+            for (int c = 0; c < channels; c++) {
+                float value = dot(history[c], position, filter, coefficients, taps);
+                int sample = Math.round(value * 32768.0f);
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                } else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                output[at++] = (byte) sample;
+                output[at++] = (byte) (sample >> 8);
+            }
+            produced++;
+            outputFrames++;
+            phase += step;
+            if (phase >= phases) {
+                position += phase / phases;
+                phase %= phases;
+            }
+        }
+
+        // Keep only the frames later outputs still need
+        int keep = Math.max(0, filled - position);
+        int from = Math.min(position, filled);
+        if (from > 0) {
+            for (float[] samples : history) {
+                System.arraycopy(samples, from, samples, 0, keep);
+            }
+            position -= from;
+            filled = keep;
+        }
+        return produced;
+    }
+
+    private static float dot(float[] samples, int sampleOffset, float[] coefficients, int coefficientOffset,
+            int length) {
+        float sum0 = 0.0f;
+        float sum1 = 0.0f;
+        float sum2 = 0.0f;
+        float sum3 = 0.0f;
+        for (int k = 0; k < length; k += 4) {
+            sum0 += samples[sampleOffset + k] * coefficients[coefficientOffset + k];
+            sum1 += samples[sampleOffset + k + 1] * coefficients[coefficientOffset + k + 1];
+            sum2 += samples[sampleOffset + k + 2] * coefficients[coefficientOffset + k + 2];
+            sum3 += samples[sampleOffset + k + 3] * coefficients[coefficientOffset + k + 3];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Samples the windowed-sinc low-pass at every phase. Each phase is scaled
+     * to unity gain at DC so no phase adds ripple of its own.
+     */
+    private static float[] buildFilter(int phases, int step, int taps, double beta, double passBand) {
+        // Cut-off in cycles per input sample, below the lower of the two Nyquists
+        double cutoff = 0.5 * passBand * Math.min(1.0, (double) phases / step);
+        int half = taps / 2;
+        double norm = besselI0(beta);
+        float[] table = new float[phases * taps];
+        double[] row = new double[taps];
+        for (int p = 0; p < phases; p++) {
+            double sum = 0.0;
+            for (int k = 0; k < taps; k++) {
+                // Distance from the output instant to input sample k, in input samples
+                double t = (double) p / phases + half - 1 - k;
+                double x = t / half;
+                double window = besselI0(beta * Math.sqrt(Math.max(0.0, 1.0 - x * x))) / norm;
+                double arg = 2.0 * cutoff * t;
+                double sinc = arg == 0.0 ? 1.0 : Math.sin(Math.PI * arg) / (Math.PI * arg);
+                row[k] = 2.0 * cutoff * sinc * window;
+                sum += row[k];
+            }
+            for (int k = 0; k < taps; k++) {
+                table[p * taps + k] = (float) (row[k] / sum);
+            }
+        }
+        return table;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double quarter = x * x / 4.0;
+        for (int k = 1; k < 50; k++) {
+            term *= quarter / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return Math.max(a, 1);
+    }
+}
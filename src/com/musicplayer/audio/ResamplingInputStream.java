@@ -0,0 +1,87 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16-bit PCM from a source stream through a {@link Resampler}. All
+ * buffers are sized once, for one block.
+ */
+final class ResamplingInputStream extends InputStream {
+    private final AudioInputStream source;
+    private final Resampler resampler;
+    private final int frameSize;
+    private final byte[] input;
+    private final byte[] output;
+    private int inputFilled;
+    private int outputPosition;
+    private int outputLimit;
+    private boolean drained;
+
+    ResamplingInputStream(AudioInputStream source, Resampler resampler) {
+        this.source = source;
+        this.resampler = resampler;
+        this.frameSize = source.getFormat().getFrameSize();
+        this.input = new byte[Resampler.BLOCK_FRAMES * frameSize];
+        this.output = new byte[resampler.maxOutputFrames(Resampler.BLOCK_FRAMES) * frameSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (outputPosition == outputLimit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, outputLimit - outputPosition);
+        System.arraycopy(output, outputPosition, buffer, offset, count);
+        outputPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return outputLimit - outputPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Converts the next block.
+     *
+     * @return false once everything has been read
+     */
+    private boolean fill() throws IOException {
+        if (drained) {
+            return false;
+        }
+        int read = source.read(input, inputFilled, input.length - inputFilled);
+        outputPosition = 0;
+        if (read < 0) {
+            outputLimit = resampler.drain(output, 0) * frameSize;
+            drained = true;
+            return outputLimit > 0;
+        }
+        inputFilled += read;
+        int frames = inputFilled / frameSize;
+        outputLimit = resampler.process(input, 0, frames, output, 0) * frameSize;
+        // Keep a partial frame for the next block
+        int used = frames * frameSize;
+        System.arraycopy(input, used, input, 0, inputFilled - used);
+        inputFilled -= used;
+        return true;
+    }
+}
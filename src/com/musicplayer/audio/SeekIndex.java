@@ -0,0 +1,344 @@
+package src.com.musicplayer.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where decoding can start in an MPEG audio (MP3) file: the byte offset of a
+ * frame for sample positions spread over the file, so a seek opens the
+ * decoder a few frames before its target instead of decoding from the start.
+ *
+ * The frame headers are walked once by a background thread, which needs only
+ * four bytes of each frame; until it is done, seeks past the part indexed so
+ * far start from the last point found. The index holds at most
+ * {@link #MAX_POINTS} points whatever the length of the file: when it is
+ * full, every other point is dropped and the spacing doubles. The length is
+ * estimated from the first frame (its Xing or VBRI header, or its bit rate)
+ * and made exact by the walk.
+ */
+final class SeekIndex {
+    static final int MAX_POINTS = 4096;
+    private static final int WINDOW_SIZE = 64 * 1024;
+    // Bit rates in kbit/s by version (MPEG-1, then 2 and 2.5) and layer (I, II, III)
+    private static final int[][][] BIT_RATES = {
+            {
+                    { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+                    { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 } },
+            {
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } } };
+    private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+    private final File file;
+    private final long audioStart;
+    private final int firstHeader;
+    private final int sampleRate;
+
+    // Guarded by this
+    private final long[] frames = new long[MAX_POINTS];
+    private final long[] offsets = new long[MAX_POINTS];
+    private int count;
+    private long spacing; // samples between points
+    private long frameLength;
+    private boolean complete;
+    private Thread scanner;
+
+    private SeekIndex(File file, long audioStart, int firstHeader, long estimatedFrames) {
+        this.file = file;
+        this.audioStart = audioStart;
+        this.firstHeader = firstHeader;
+        this.sampleRate = sampleRate(firstHeader);
+        this.spacing = sampleRate;
+        this.frameLength = estimatedFrames;
+        frames[0] = 0;
+        offsets[0] = audioStart;
+        count = 1;
+    }
+
+    /**
+     * Finds the first frame of a file and estimates its length, without
+     * walking the file yet.
+     *
+     * @return The index, or null if the file is not MPEG audio
+     */
+    static SeekIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Window in = new Window(channel);
+            long position = 0;
+            // One or more ID3v2 tags before the audio
+            while (in.has(position, 10) && in.intAt(position) >>> 8 == 0x494433) {
+                int flags = in.byteAt(position + 5);
+                long size = (in.byteAt(position + 6) & 0x7F) << 21 | (in.byteAt(position + 7) & 0x7F) << 14
+                        | (in.byteAt(position + 8) & 0x7F) << 7 | (in.byteAt(position + 9) & 0x7F);
+                position += 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+            }
+            // Real files sometimes have a little junk before the first frame
+            long limit = Math.min(in.size, position + WINDOW_SIZE);
+            for (; position + 4 <= limit; position++) {
+                int header = in.intAt(position);
+                int length = frameLength(header);
+                if (length > 0 && in.has(position + length, 4)
+                        && sameStream(header, in.intAt(position + length))) {
+                    return new SeekIndex(file, position, header, estimateFrames(in, position, header));
+                }
+            }
+            return null;
+        }
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The number of samples per channel, estimated until the walk is
+     *         done
+     */
+    synchronized long getFrameLength() {
+        return frameLength;
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param frame A sample position
+     * @return {sample position, byte offset} of the last point at or before it
+     */
+    synchronized long[] floor(long frame) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (frames[middle] <= frame) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return new long[] { frames[low], offsets[low] };
+    }
+
+    /**
+     * Starts walking the frames on a background thread, unless already started.
+     */
+    synchronized void scanInBackground() {
+        if (scanner != null) {
+            return;
+        }
+        scanner = new Thread(this::scan, "seek-index");
+        scanner.setDaemon(true);
+        scanner.setPriority(Thread.MIN_PRIORITY);
+        scanner.start();
+    }
+
+    /**
+     * Stops the walk; what was indexed so far stays usable.
+     */
+    synchronized void cancel() {
+        if (scanner != null) {
+            scanner.interrupt();
+        }
+    }
+
+    private void scan() {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Window in = new Window(channel);
+            long position = audioStart;
+            long samples = 0;
+            long nextPoint = spacing();
+            while (in.has(position, 4)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                int header = in.intAt(position);
+                int length = sameStream(firstHeader, header) ? frameLength(header) : 0;
+                if (length <= 0 || !in.has(position, length)) {
+                    if (header >>> 8 == 0x544147 || !in.has(position, length)) { // "TAG": ID3v1 at the end
+                        break;
+                    }
+                    // Lost sync: look for the next frame header
+                    position = resync(in, position + 1);
+                    if (position < 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (samples >= nextPoint) {
+                    nextPoint = addPoint(samples, position);
+                }
+                samples += samplesPerFrame(header);
+                position += length;
+            }
+            synchronized (this) {
+                frameLength = samples;
+                complete = true;
+            }
+            System.out.println("Seek index: " + file.getName() + ", " + samples / sampleRate + " s, "
+                    + count() + " points in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("Seek index: stopped reading " + file.getName() + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a point, thinning out the index first if it is full.
+     *
+     * @return The sample position at which the next point is due
+     */
+    private synchronized long addPoint(long samples, long offset) {
+        if (count == MAX_POINTS) {
+            for (int i = 0; i < MAX_POINTS / 2; i++) {
+                frames[i] = frames[i * 2];
+                offsets[i] = offsets[i * 2];
+            }
+            count = MAX_POINTS / 2;
+            spacing *= 2;
+        }
+        frames[count] = samples;
+        offsets[count] = offset;
+        count++;
+        return frames[count - 1] + spacing;
+    }
+
+    private synchronized long spacing() {
+        return spacing;
+    }
+
+    private synchronized int count() {
+        return count;
+    }
+
+    private long resync(Window in, long position) throws IOException {
+        for (; in.has(position, 4); position++) {
+            int header = in.intAt(position);
+            int length = sameStream(firstHeader, header) ? frameLength(header) : 0;
+            if (length > 0 && (!in.has(position + length, 4) || sameStream(header, in.intAt(position + length)))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The frame count from a Xing, Info or VBRI header in the first frame, or
+     * the size of the audio at the first frame's bit rate.
+     */
+    private static long estimateFrames(Window in, long position, int header) throws IOException {
+        int samplesPerFrame = samplesPerFrame(header);
+        boolean mpeg1 = (header >>> 19 & 3) == 3;
+        boolean mono = (header >>> 6 & 3) == 3;
+        long xing = position + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        if (in.has(xing, 12)) {
+            int tag = in.intAt(xing);
+            if ((tag == 0x58696E67 || tag == 0x496E666F) && (in.intAt(xing + 4) & 1) != 0) { // "Xing", "Info"
+                // The header frame itself decodes to silence, so it counts too
+                return (Integer.toUnsignedLong(in.intAt(xing + 8)) + 1) * samplesPerFrame;
+            }
+        }
+        if (in.has(position + 36, 18) && in.intAt(position + 36) == 0x56425249) { // "VBRI"
+            return (Integer.toUnsignedLong(in.intAt(position + 36 + 14)) + 1) * samplesPerFrame;
+        }
+        int bitRate = bitRate(header);
+        return (long) ((in.size - position) * 8.0 / (bitRate * 1000.0) * sampleRate(header));
+    }
+
+    /** @return The frame's length in bytes, or 0 if it is not a valid header */
+    private static int frameLength(int header) {
+        if ((header >>> 21 & 0x7FF) != 0x7FF) {
+            return 0;
+        }
+        int version = header >>> 19 & 3;
+        int layer = header >>> 17 & 3;
+        int bitRateIndex = header >>> 12 & 15;
+        int rateIndex = header >>> 10 & 3;
+        if (version == 1 || layer == 0 || bitRateIndex == 0 || bitRateIndex == 15 || rateIndex == 3) {
+            // Reserved values, and free format, which cannot be walked by headers
+            return 0;
+        }
+        int padding = header >>> 9 & 1;
+        int bitRate = bitRate(header) * 1000;
+        int sampleRate = sampleRate(header);
+        if (layer == 3) { // Layer I
+            return (12 * bitRate / sampleRate + padding) * 4;
+        }
+        int samples = samplesPerFrame(header);
+        return samples / 8 * bitRate / sampleRate + padding;
+    }
+
+    /** Same version, layer and sample rate: the fields that never change within a stream. */
+    private static boolean sameStream(int first, int header) {
+        return (header >>> 21 & 0x7FF) == 0x7FF && (first & 0x001E0C00) == (header & 0x001E0C00)
+                && frameLength(header) > 0;
+    }
+
+    private static int bitRate(int header) {
+        int version = header >>> 19 & 3;
+        int layer = header >>> 17 & 3;
+        return BIT_RATES[version == 3 ? 0 : 1][3 - layer][header >>> 12 & 15];
+    }
+
+    private static int sampleRate(int header) {
+        int version = header >>> 19 & 3;
+        int rate = SAMPLE_RATES[header >>> 10 & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    private static int samplesPerFrame(int header) {
+        int version = header >>> 19 & 3;
+        int layer = header >>> 17 & 3;
+        if (layer == 3) {
+            return 384;
+        }
+        return layer == 1 && version != 3 ? 576 : 1152;
+    }
+
+    /** Positional reads through a small buffer, so a walk never maps or loads the whole file. */
+    private static final class Window {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+        private final long size;
+        private long start = -1;
+
+        Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        boolean has(long position, int length) {
+            return position >= 0 && position + length <= size;
+        }
+
+        int intAt(long position) throws IOException {
+            load(position, 4);
+            return buffer.getInt((int) (position - start));
+        }
+
+        int byteAt(long position) throws IOException {
+            load(position, 1);
+            return buffer.get((int) (position - start)) & 0xFF;
+        }
+
+        private void load(long position, int length) throws IOException {
+            if (start >= 0 && position >= start && position + length <= start + buffer.limit()) {
+                return;
+            }
+            buffer.clear();
+            start = position;
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                // Keep reading until the buffer is full or the file ends
+            }
+            buffer.flip();
+            if (buffer.limit() < length) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes a long file while it plays, for podcasts and audiobooks that would
+ * take hundreds of megabytes decoded. Besides the decoder's own buffers only
+ * the {@link SeekIndex} is held, and that has a fixed size, so memory does
+ * not grow with the length of the file.
+ *
+ * Reading anywhere but just after the last read repositions. MP3 files are
+ * reopened at the index point a little before the target and decoded
+ * forward from there; other files are reopened and skipped forward, which for
+ * WAV is a jump in the file and for anything else means decoding the skipped
+ * part.
+ */
+final class StreamingPcm implements PcmSource {
+    // Decoded and dropped before a seek target, so an MP3 decoder has the frames
+    // its first output refers back to
+    private static final int PRIMING_FRAMES = 2 * 1152;
+
+    private final File file;
+    private final SeekIndex index; // null unless MPEG
+    private final AudioFormat sourceFormat;
+    private final long sourceFrames;
+    private final float rate;
+    private final int quality;
+    private final AudioFormat format;
+    private final int frameSize;
+    private final byte[] scratch = new byte[64 * 1024];
+
+    // Guarded by this
+    private AudioInputStream stream; // null after a failed reposition
+    private long position;
+    private boolean closed;
+
+    /**
+     * @param file    The audio file
+     * @param pcm     The file opened as PCM, read from its start
+     * @param index   The seek index of an MP3 file, walked from now on, or null
+     * @param rate    The sample rate to play at
+     * @param quality The resampling quality if that is not the file's rate
+     */
+    StreamingPcm(File file, AudioInputStream pcm, SeekIndex index, float rate, int quality) {
+        this.file = file;
+        this.index = index;
+        this.sourceFormat = pcm.getFormat();
+        this.sourceFrames = pcm.getFrameLength();
+        this.rate = rate;
+        this.quality = quality;
+        this.stream = Resampler.convert(pcm, rate, quality);
+        this.format = stream.getFormat();
+        this.frameSize = format.getFrameSize();
+        if (index != null) {
+            index.scanInBackground();
+        }
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        long frames = index != null ? index.getFrameLength() : sourceFrames;
+        if (frames == AudioSystem.NOT_SPECIFIED) {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+        return Math.round(frames * (double) rate / sourceFormat.getFrameRate());
+    }
+
+    @Override
+    public synchronized int read(long frame, byte[] buffer, int length) throws IOException {
+        if (closed) {
+            return -1;
+        }
+        if (stream == null || frame != position) {
+            reposition(frame);
+        }
+        int count;
+        do {
+            count = stream.read(buffer, 0, length / frameSize * frameSize);
+        } while (count == 0);
+        if (count > 0) {
+            position += count / frameSize;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (index != null) {
+            index.cancel();
+        }
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    private void reposition(long frame) throws IOException {
+        long start = System.nanoTime();
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+        long sourceFrame = Math.round(frame * (double) sourceFormat.getFrameRate() / rate);
+        long from = 0;
+        AudioInputStream pcm;
+        try {
+            if (index != null) {
+                long[] point = index.floor(Math.max(0, sourceFrame - PRIMING_FRAMES));
+                from = point[0];
+                pcm = from > 0 ? DecoderRegistry.openPcmAt(file, point[1]) : DecoderRegistry.openPcm(file);
+            } else {
+                pcm = DecoderRegistry.openPcm(file);
+            }
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Cannot reopen " + file.getName() + ": " + e.getMessage(), e);
+        }
+        try {
+            skip(pcm, (sourceFrame - from) * sourceFormat.getFrameSize());
+        } catch (IOException | RuntimeException e) {
+            pcm.close();
+            throw e;
+        }
+        stream = Resampler.convert(pcm, rate, quality);
+        position = frame;
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (millis >= 100) {
+            System.out.println("Streaming: seek in " + file.getName() + " took " + millis + " ms");
+        }
+    }
+
+    private void skip(AudioInputStream pcm, long bytes) throws IOException {
+        int sourceFrameSize = sourceFormat.getFrameSize();
+        while (bytes > 0) {
+            long skipped = pcm.skip(bytes);
+            if (skipped <= 0) {
+                // Some converted streams do not skip; read instead
+                int chunk = (int) Math.min(scratch.length / sourceFrameSize * sourceFrameSize, bytes);
+                skipped = pcm.read(scratch, 0, chunk);
+                if (skipped < 0) {
+                    return;
+                }
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package src.com.musicplayer.audio;
+
+import java.util.Arrays;
+
+/**
+ * Tempo and musical key estimation.
+ *
+ * The decoded PCM is mixed to mono and decimated to about 5.5 kHz into a
+ * reusable float buffer (at most {@link #MAX_SECONDS} per track). Tempo comes
+ * from a spectral-flux onset envelope whose autocorrelation is searched for
+ * the strongest beat period between 60 and 200 BPM, weighted towards 120 BPM
+ * to avoid octave errors. The key is the best match of the track's chroma
+ * profile against the Krumhansl-Schmuckler major and minor key profiles.
+ */
+public class TempoKeyAnalyzer implements PcmAnalyzer {
+    private static final float TARGET_RATE = 5512.5f;
+    private static final int MAX_SECONDS = 600;
+    private static final int ONSET_FRAME = 512;
+    private static final int ONSET_HOP = 128;
+    private static final int CHROMA_FRAME = 4096;
+    private static final int CHROMA_HOP = 2048;
+    private static final double MIN_BPM = 60.0;
+    private static final double MAX_BPM = 200.0;
+    private static final double PREFERRED_BPM = 120.0;
+    private static final double MIN_PITCH_HZ = 55.0;
+    private static final double MAX_PITCH_HZ = 1760.0;
+
+    private static final String[] PITCH_NAMES = { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
+    private static final double[] MAJOR_PROFILE = { 6.35, 2.23, 3.48, 2.33, 4.38, 4.09, 2.52, 5.19, 2.39, 3.66,
+            2.29, 2.88 };
+    private static final double[] MINOR_PROFILE = { 6.33, 2.68, 3.52, 5.38, 2.60, 3.53, 2.54, 4.75, 3.98, 2.69,
+            3.34, 3.17 };
+
+    private final Fft onsetFft = new Fft(ONSET_FRAME);
+    private final Fft chromaFft = new Fft(CHROMA_FRAME);
+    private final float[] onsetWindow = hann(ONSET_FRAME);
+    private final float[] chromaWindow = hann(CHROMA_FRAME);
+    private final float[] re = new float[CHROMA_FRAME];
+    private final float[] im = new float[CHROMA_FRAME];
+    private final float[] previousMagnitude = new float[ONSET_FRAME / 2];
+
+    private int channels;
+    private int factor;
+    private float rate;
+    private int phase;
+    private float accumulator;
+    private float[] samples = new float[1 << 18];
+    private int count;
+    private int maxCount;
+    private float[] onsets = new float[1 << 12];
+
+    @Override
+    public void reset(float sampleRate, int channels) {
+        this.channels = channels;
+        this.factor = Math.max(1, Math.round(sampleRate / TARGET_RATE));
+        this.rate = sampleRate / factor;
+        this.maxCount = (int) (rate * MAX_SECONDS);
+        this.phase = 0;
+        this.accumulator = 0f;
+        this.count = 0;
+    }
+
+    @Override
+    public void process(byte[] buffer, int length) {
+        if (count >= maxCount) {
+            return;
+        }
+        int frameSize = channels * 2;
+        float scale = 1f / (32768f * channels * factor);
+        for (int offset = 0; offset + frameSize <= length; offset += frameSize) {
+            // Mono mix, averaged over the decimation factor as a simple low pass
+            for (int c = 0; c < channels; c++) {
+                int i = offset + c * 2;
+                accumulator += (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+            }
+            if (++phase == factor) {
+                if (count == samples.length) {
+                    samples = Arrays.copyOf(samples, Math.min(samples.length * 2, Math.max(maxCount, 1)));
+                }
+                samples[count++] = accumulator * scale;
+                accumulator = 0f;
+                phase = 0;
+                if (count >= maxCount) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The tempo in BPM rounded to 0.1, or NaN if the track is too short
+     *         or has no clear beat
+     */
+    public double bpm() {
+        int frames = count < ONSET_FRAME ? 0 : (count - ONSET_FRAME) / ONSET_HOP + 1;
+        double onsetRate = rate / ONSET_HOP;
+        int minLag = (int) Math.floor(onsetRate * 60.0 / MAX_BPM);
+        int maxLag = (int) Math.ceil(onsetRate * 60.0 / MIN_BPM);
+        if (frames < maxLag * 4) {
+            return Double.NaN;
+        }
+
+        // Spectral flux on log magnitudes
+        if (onsets.length < frames) {
+            onsets = new float[frames];
+        }
+        Arrays.fill(previousMagnitude, 0f);
+        for (int f = 0; f < frames; f++) {
+            int start = f * ONSET_HOP;
+            for (int i = 0; i < ONSET_FRAME; i++) {
+                re[i] = samples[start + i] * onsetWindow[i];
+                im[i] = 0f;
+            }
+            onsetFft.transform(re, im);
+            float flux = 0f;
+            for (int k = 1; k < ONSET_FRAME / 2; k++) {
+                float magnitude = (float) Math.log1p(100.0 * Math.sqrt(re[k] * re[k] + im[k] * im[k]));
+                float rise = magnitude - previousMagnitude[k];
+                if (rise > 0f && f > 0) {
+                    flux += rise;
+                }
+                previousMagnitude[k] = magnitude;
+            }
+            onsets[f] = flux;
+        }
+
+        // Remove the slowly varying part (about one second) and keep the peaks
+        int radius = (int) Math.max(1, onsetRate / 2);
+        double running = 0.0;
+        float[] detrended = new float[frames];
+        for (int f = 0; f < Math.min(frames, radius); f++) {
+            running += onsets[f];
+        }
+        for (int f = 0; f < frames; f++) {
+            int add = f + radius;
+            int drop = f - radius - 1;
+            if (add < frames) {
+                running += onsets[add];
+            }
+            if (drop >= 0) {
+                running -= onsets[drop];
+            }
+            int width = Math.min(frames - 1, f + radius) - Math.max(0, f - radius) + 1;
+            detrended[f] = (float) Math.max(0.0, onsets[f] - running / width);
+        }
+
+        double[] score = new double[maxLag + 2];
+        double bestScore = 0.0;
+        int bestLag = -1;
+        for (int lag = Math.max(1, minLag); lag <= maxLag + 1; lag++) {
+            double sum = 0.0;
+            for (int f = 0; f + lag < frames; f++) {
+                sum += detrended[f] * detrended[f + lag];
+            }
+            double bpm = 60.0 * onsetRate / lag;
+            double octaves = Math.log(bpm / PREFERRED_BPM) / Math.log(2.0);
+            score[lag] = sum / (frames - lag) * Math.exp(-0.5 * octaves * octaves);
+            if (lag <= maxLag && score[lag] > bestScore) {
+                bestScore = score[lag];
+                bestLag = lag;
+            }
+        }
+        if (bestLag < 0) {
+            return Double.NaN;
+        }
+
+        // Parabolic interpolation around the peak for sub-frame precision
+        double lag = bestLag;
+        if (bestLag > Math.max(1, minLag)) {
+            double left = score[bestLag - 1];
+            double right = score[bestLag + 1];
+            double denominator = left - 2.0 * score[bestLag] + right;
+            if (denominator < 0.0) {
+                lag += 0.5 * (left - right) / denominator;
+            }
+        }
+        return Math.round(600.0 * onsetRate / lag) / 10.0;
+    }
+
+    /**
+     * @return The key as a pitch name with "m" for minor (e.g. "F#m"), or null
+     *         if the track is too short or silent
+     */
+    public String key() {
+        if (count < CHROMA_FRAME) {
+            return null;
+        }
+        int[] pitchClass = new int[CHROMA_FRAME / 2];
+        for (int k = 0; k < pitchClass.length; k++) {
+            double frequency = k * rate / CHROMA_FRAME;
+            if (frequency < MIN_PITCH_HZ || frequency > MAX_PITCH_HZ) {
+                pitchClass[k] = -1;
+            } else {
+                int midi = (int) Math.round(69.0 + 12.0 * Math.log(frequency / 440.0) / Math.log(2.0));
+                pitchClass[k] = midi % 12;
+            }
+        }
+
+        double[] chroma = new double[12];
+        for (int start = 0; start + CHROMA_FRAME <= count; start += CHROMA_HOP) {
+            for (int i = 0; i < CHROMA_FRAME; i++) {
+                re[i] = samples[start + i] * chromaWindow[i];
+                im[i] = 0f;
+            }
+            chromaFft.transform(re, im);
+            for (int k = 0; k < pitchClass.length; k++) {
+                if (pitchClass[k] >= 0) {
+                    chroma[pitchClass[k]] += Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+                }
+            }
+        }
+
+        double bestCorrelation = Double.NEGATIVE_INFINITY;
+        String bestKey = null;
+        for (int tonic = 0; tonic < 12; tonic++) {
+            double major = correlation(chroma, MAJOR_PROFILE, tonic);
+            double minor = correlation(chroma, MINOR_PROFILE, tonic);
+            if (major > bestCorrelation) {
+                bestCorrelation = major;
+                bestKey = PITCH_NAMES[tonic];
+            }
+            if (minor > bestCorrelation) {
+                bestCorrelation = minor;
+                bestKey = PITCH_NAMES[tonic] + "m";
+            }
+        }
+        return Double.isNaN(bestCorrelation) ? null : bestKey;
+    }
+
+    /** Pearson correlation of the chroma with a profile rotated to the tonic. */
+    private static double correlation(double[] chroma, double[] profile, int tonic) {
+        double chromaMean = 0.0;
+        double profileMean = 0.0;
+        for (int i = 0; i < 12; i++) {
+            chromaMean += chroma[i];
+            profileMean += profile[i];
+        }
+        chromaMean /= 12.0;
+        profileMean /= 12.0;
+        double covariance = 0.0;
+        double chromaVariance = 0.0;
+        double profileVariance = 0.0;
+        for (int i = 0; i < 12; i++) {
+            double c = chroma[(i + tonic) % 12] - chromaMean;
+            double p = profile[i] - profileMean;
+            covariance += c * p;
+            chromaVariance += c * c;
+            profileVariance += p * p;
+        }
+        return covariance / Math.sqrt(chromaVariance * profileVariance);
+    }
+
+    private static float[] hann(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / size));
+        }
+        return window;
+    }
+}
@@ -0,0 +1,186 @@
+package src.com.musicplayer.audio;
+
+import java.util.Arrays;
+
+/**
+ * Timbre summary of a track for similarity search: the mean spectral centroid
+ * and the mean of 13 mel-frequency cepstral coefficients.
+ *
+ * The decoded PCM is mixed to mono and decimated to about 11 kHz. Every
+ * {@link #FRAME}-sample frame is windowed and transformed as soon as it is
+ * complete, so nothing but the running sums is kept per track. Near-silent
+ * frames are skipped so fades and gaps do not pull the means.
+ */
+public class TimbreAnalyzer implements PcmAnalyzer {
+    /** Length of {@link #features()}: centroid, then the MFCC means. */
+    public static final int FEATURE_COUNT = 14;
+
+    private static final float TARGET_RATE = 11025f;
+    private static final int FRAME = 512;
+    private static final int MEL_BANDS = 26;
+    private static final int COEFFICIENTS = FEATURE_COUNT - 1;
+    private static final double MIN_HZ = 60.0;
+    private static final double MAX_HZ = 5000.0;
+    private static final float SILENCE_POWER = 1e-7f;
+
+    private final Fft fft = new Fft(FRAME);
+    private final float[] window = new float[FRAME];
+    private final float[] frame = new float[FRAME];
+    private final float[] re = new float[FRAME];
+    private final float[] im = new float[FRAME];
+    private final float[] power = new float[FRAME / 2];
+    private final double[] melEnergy = new double[MEL_BANDS];
+    private final double[] dct = new double[COEFFICIENTS * MEL_BANDS];
+    private final double[] sums = new double[FEATURE_COUNT];
+
+    // Triangular mel filters as bin ranges and weights per bin
+    private final int[] filterStart = new int[MEL_BANDS];
+    private final float[][] filterWeights = new float[MEL_BANDS][];
+    private float rate;
+
+    private int channels;
+    private int factor;
+    private int phase;
+    private float accumulator;
+    private int filled;
+    private int frames;
+
+    public TimbreAnalyzer() {
+        for (int i = 0; i < FRAME; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / FRAME));
+        }
+        for (int c = 0; c < COEFFICIENTS; c++) {
+            for (int b = 0; b < MEL_BANDS; b++) {
+                dct[c * MEL_BANDS + b] = Math.cos(Math.PI * c * (b + 0.5) / MEL_BANDS);
+            }
+        }
+    }
+
+    @Override
+    public void reset(float sampleRate, int channels) {
+        this.channels = channels;
+        this.factor = Math.max(1, Math.round(sampleRate / TARGET_RATE));
+        float newRate = sampleRate / factor;
+        if (newRate != rate) {
+            rate = newRate;
+            buildFilters();
+        }
+        phase = 0;
+        accumulator = 0f;
+        filled = 0;
+        frames = 0;
+        Arrays.fill(sums, 0.0);
+    }
+
+    @Override
+    public void process(byte[] buffer, int length) {
+        int frameSize = channels * 2;
+        float scale = 1f / (32768f * channels * factor);
+        for (int offset = 0; offset + frameSize <= length; offset += frameSize) {
+            for (int c = 0; c < channels; c++) {
+                int i = offset + c * 2;
+                accumulator += (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+            }
+            if (++phase == factor) {
+                frame[filled++] = accumulator * scale;
+                accumulator = 0f;
+                phase = 0;
+                if (filled == FRAME) {
+                    analyzeFrame();
+                    filled = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Mean centroid in kHz followed by the 13 MFCC means, or null if the
+     *         track had no audible frame
+     */
+    public float[] features() {
+        if (frames == 0) {
+            return null;
+        }
+        float[] features = new float[FEATURE_COUNT];
+        for (int i = 0; i < FEATURE_COUNT; i++) {
+            features[i] = (float) (sums[i] / frames);
+        }
+        return features;
+    }
+
+    private void analyzeFrame() {
+        for (int i = 0; i < FRAME; i++) {
+            re[i] = frame[i] * window[i];
+            im[i] = 0f;
+        }
+        fft.transform(re, im);
+
+        double total = 0.0;
+        double weighted = 0.0;
+        for (int k = 0; k < FRAME / 2; k++) {
+            float p = re[k] * re[k] + im[k] * im[k];
+            power[k] = p;
+            total += p;
+            weighted += p * k;
+        }
+        if (total / FRAME < SILENCE_POWER) {
+            return;
+        }
+        sums[0] += weighted / total * rate / FRAME / 1000.0;
+
+        for (int b = 0; b < MEL_BANDS; b++) {
+            double energy = 0.0;
+            float[] weights = filterWeights[b];
+            for (int i = 0; i < weights.length; i++) {
+                energy += power[filterStart[b] + i] * weights[i];
+            }
+            melEnergy[b] = Math.log(energy + 1e-10);
+        }
+        for (int c = 0; c < COEFFICIENTS; c++) {
+            double coefficient = 0.0;
+            for (int b = 0; b < MEL_BANDS; b++) {
+                coefficient += dct[c * MEL_BANDS + b] * melEnergy[b];
+            }
+            sums[c + 1] += coefficient / MEL_BANDS;
+        }
+        frames++;
+    }
+
+    private void buildFilters() {
+        double maxHz = Math.min(MAX_HZ, rate / 2.0);
+        double minMel = mel(MIN_HZ);
+        double maxMel = mel(maxHz);
+        double[] edges = new double[MEL_BANDS + 2];
+        for (int i = 0; i < edges.length; i++) {
+            // Fractional FFT bin of every filter edge
+            edges[i] = hz(minMel + (maxMel - minMel) * i / (MEL_BANDS + 1)) * FRAME / rate;
+        }
+        for (int b = 0; b < MEL_BANDS; b++) {
+            double low = edges[b];
+            double center = edges[b + 1];
+            double high = edges[b + 2];
+            int start = (int) Math.ceil(low);
+            int end = Math.min(FRAME / 2 - 1, (int) Math.floor(high));
+            if (end < start) {
+                // Narrow low filters still take their nearest bin
+                start = Math.min(FRAME / 2 - 1, (int) Math.round(center));
+                end = start;
+            }
+            float[] weights = new float[end - start + 1];
+            for (int k = start; k <= end; k++) {
+                double w = k <= center ? (k - low) / (center - low) : (high - k) / (high - center);
+                weights[k - start] = (float) Math.max(w, end == start ? 1.0 : 0.0);
+            }
+            filterStart[b] = start;
+            filterWeights[b] = weights;
+        }
+    }
+
+    private static double mel(double hz) {
+        return 2595.0 * Math.log10(1.0 + hz / 700.0);
+    }
+
+    private static double hz(double mel) {
+        return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+    }
+}
@@ -0,0 +1,154 @@
+package src.com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads RIFF WAVE files holding integer or float PCM. The chunk list is walked
+ * once to find the format and the start of the sample data; the samples are
+ * then streamed out of the file mapping as they are, with no conversion.
+ */
+final class WavDecoder implements AudioDecoder {
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    @Override
+    public String getName() {
+        return "WAV";
+    }
+
+    @Override
+    public boolean canDecode(byte[] header, int length) {
+        return length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'A' && header[10] == 'V' && header[11] == 'E';
+    }
+
+    @Override
+    public AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        DataInputStream in = new DataInputStream(FileSource.open(file));
+        try {
+            in.skipNBytes(12);
+            AudioFormat format = null;
+            while (true) {
+                int id = in.readInt();
+                long size = Integer.toUnsignedLong(Integer.reverseBytes(in.readInt()));
+                if (id == 0x666D7420) { // "fmt "
+                    format = readFormat(in, size);
+                } else if (id == 0x64617461) { // "data"
+                    if (format == null) {
+                        throw new UnsupportedAudioFileException("WAV data before format chunk");
+                    }
+                    // Streaming writers leave the size at 0 or all ones
+                    long frames = size == 0 || size == 0xFFFFFFFFL
+                            ? AudioSystem.NOT_SPECIFIED
+                            : size / format.getFrameSize();
+                    InputStream data = frames == AudioSystem.NOT_SPECIFIED ? in : new BoundedInputStream(in, size);
+                    return new AudioInputStream(data, format, frames);
+                } else {
+                    // Chunks are padded to an even size
+                    in.skipNBytes(size + (size & 1));
+                }
+            }
+        } catch (EOFException e) {
+            in.close();
+            throw new UnsupportedAudioFileException("WAV file has no data chunk: " + file);
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static AudioFormat readFormat(DataInputStream in, long size) throws IOException,
+            UnsupportedAudioFileException {
+        if (size < 16) {
+            throw new UnsupportedAudioFileException("WAV format chunk too short");
+        }
+        int tag = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        int channels = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        int sampleRate = Integer.reverseBytes(in.readInt());
+        in.skipNBytes(4); // byte rate
+        int blockAlign = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        int bits = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        long rest = size - 16;
+        if (tag == FORMAT_EXTENSIBLE && rest >= 10) {
+            // cbSize, valid bits, channel mask, then the sub-format GUID
+            in.skipNBytes(8);
+            tag = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+            rest -= 10;
+        }
+        in.skipNBytes(rest + (size & 1));
+
+        if (channels == 0 || blockAlign == 0) {
+            throw new UnsupportedAudioFileException("Invalid WAV format chunk");
+        }
+        AudioFormat.Encoding encoding;
+        if (tag == FORMAT_PCM) {
+            encoding = bits <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        } else if (tag == FORMAT_FLOAT) {
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        } else {
+            throw new UnsupportedAudioFileException("Compressed WAV files are not supported (format " + tag + ")");
+        }
+        return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+    }
+
+    /** Ends the stream at the end of the data chunk. */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int value = in.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
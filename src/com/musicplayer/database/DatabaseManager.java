@@ -1,21 +1,56 @@
 package src.com.musicplayer.database;
 
+import src.com.musicplayer.audio.DecoderRegistry;
+import src.com.musicplayer.model.FileFingerprint;
+import src.com.musicplayer.model.PlaybackState;
+import src.com.musicplayer.model.Playlist;
+import src.com.musicplayer.model.PlaylistEntry;
+import src.com.musicplayer.model.PlaylistImport;
+import src.com.musicplayer.model.QueueEntry;
 import src.com.musicplayer.model.Song;
+import src.com.musicplayer.model.SongAnalysis;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DatabaseManager {
+    private static final String INSERT_SONG_SQL =
+            "INSERT INTO Songs (title, artist, album, file_path) VALUES (?, ?, ?, ?)";
+    // Stays well below SQLite's limit on bound parameters per statement
+    private static final int PATH_LOOKUP_BATCH = 500;
+
+    private String databaseUrl;
 
     public DatabaseManager() {
     }
 
+    /**
+     * Gets the application data directory in the user's home directory, where
+     * the database and the library snapshot live.
+     * 
+     * @return The path to the application data directory
+     */
+    public Path getDataDirectory() {
+        // Get the user's home directory (e.g., "C:/Users/YourName")
+        String userHome = System.getProperty("user.home");
+        // Using a hidden folder (starting with a dot) is a common convention
+        return Paths.get(userHome, ".HarmonyMusicPlayer");
+    }
+
     /**
      * Gets the robust database path in the user's home directory.
      * Creates the directory structure if it doesn't exist.
@@ -23,11 +58,8 @@ public class DatabaseManager {
      * @return The absolute path to the database file
      */
     private String getDatabasePath() {
-        // Get the user's home directory (e.g., "C:/Users/YourName")
-        String userHome = System.getProperty("user.home");
         // Create a path for our application data folder and the database file
-        // Using a hidden folder (starting with a dot) is a common convention
-        Path dbPath = Paths.get(userHome, ".HarmonyMusicPlayer", "musicplayer.db");
+        Path dbPath = getDataDirectory().resolve("musicplayer.db");
 
         // IMPORTANT: Ensure the parent directory exists.
         // If it doesn't, this will create it.
@@ -51,10 +83,11 @@ public class DatabaseManager {
     public Connection connect() {
         Connection conn = null;
         try {
-            // The new, robust database URL using the correct path
-            String dbUrl = "jdbc:sqlite:" + getDatabasePath();
-            conn = DriverManager.getConnection(dbUrl);
-            System.out.println("Database connection established successfully.");
+            // Resolve the path once; periodic writes connect often
+            if (databaseUrl == null) {
+                databaseUrl = "jdbc:sqlite:" + getDatabasePath();
+            }
+            conn = DriverManager.getConnection(databaseUrl);
         } catch (SQLException e) {
             System.err.println("Database connection failed: " + e.getMessage());
             e.printStackTrace();
@@ -82,6 +115,112 @@ public class DatabaseManager {
             // Add index on file_path for faster lookups
             stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_songs_file_path ON Songs(file_path)");
 
+            // Play statistics, kept up to date by the play history writer so the
+            // "most played" and "recently played" views are plain index scans
+            addColumnIfMissing(conn, "Songs", "play_count", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "Songs", "skip_count", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "Songs", "last_played", "INTEGER");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_songs_play_count ON Songs(play_count)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_songs_last_played ON Songs(last_played)");
+
+            // File facts for the duplicate finder, so unchanged files are not
+            // read again
+            addColumnIfMissing(conn, "Songs", "file_size", "INTEGER");
+            addColumnIfMissing(conn, "Songs", "file_mtime", "INTEGER");
+            addColumnIfMissing(conn, "Songs", "payload_size", "INTEGER");
+            addColumnIfMissing(conn, "Songs", "content_hash", "VARCHAR(64)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_songs_content_hash ON Songs(content_hash)");
+
+            // Library analysis: loudness for volume normalization, tempo and key
+            // for sorting and filtering, timbre for similarity search.
+            // Stamped with the file size, modification time and analysis
+            // version it was measured with
+            addColumnIfMissing(conn, "Songs", "loudness_lufs", "REAL");
+            addColumnIfMissing(conn, "Songs", "true_peak_dbtp", "REAL");
+            addColumnIfMissing(conn, "Songs", "bpm", "REAL");
+            addColumnIfMissing(conn, "Songs", "musical_key", "VARCHAR(8)");
+            addColumnIfMissing(conn, "Songs", "timbre", "BLOB");
+            addColumnIfMissing(conn, "Songs", "analyzed_file_size", "INTEGER");
+            addColumnIfMissing(conn, "Songs", "analyzed_file_mtime", "INTEGER");
+            addColumnIfMissing(conn, "Songs", "analysis_version", "INTEGER NOT NULL DEFAULT 0");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_songs_bpm ON Songs(bpm)");
+
+            // Every play, skip and completion
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS PlayHistory (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "song_id INTEGER NOT NULL, " +
+                            "event INTEGER NOT NULL, " +
+                            "played_at INTEGER NOT NULL, " +
+                            "listened_ms INTEGER NOT NULL)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_play_history_song ON PlayHistory(song_id)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_play_history_played_at ON PlayHistory(played_at)");
+
+            // Library generation, bumped by triggers on every change to Songs so a
+            // library snapshot can tell whether it is stale
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS LibraryMeta (" +
+                            "key VARCHAR(64) PRIMARY KEY, " +
+                            "value INTEGER NOT NULL)");
+            stmt.executeUpdate("INSERT OR IGNORE INTO LibraryMeta (key, value) VALUES ('generation', 0)");
+            stmt.executeUpdate(
+                    "CREATE TRIGGER IF NOT EXISTS trg_songs_insert_generation AFTER INSERT ON Songs BEGIN " +
+                            "UPDATE LibraryMeta SET value = value + 1 WHERE key = 'generation'; END");
+            stmt.executeUpdate(
+                    "CREATE TRIGGER IF NOT EXISTS trg_songs_delete_generation AFTER DELETE ON Songs BEGIN " +
+                            "UPDATE LibraryMeta SET value = value + 1 WHERE key = 'generation'; END");
+            stmt.executeUpdate(
+                    "CREATE TRIGGER IF NOT EXISTS trg_songs_update_generation " +
+                            "AFTER UPDATE OF title, artist, album, file_path ON Songs BEGIN " +
+                            "UPDATE LibraryMeta SET value = value + 1 WHERE key = 'generation'; END");
+
+            // Single-row table holding what was playing when the app last ran
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS PlaybackState (" +
+                            "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+                            "file_path VARCHAR(512), " +
+                            "position INTEGER NOT NULL DEFAULT 0, " +
+                            "shuffle INTEGER NOT NULL DEFAULT 0, " +
+                            "loop INTEGER NOT NULL DEFAULT 0, " +
+                            "shuffle_seed INTEGER NOT NULL DEFAULT 0)");
+            addColumnIfMissing(conn, "PlaybackState", "smart_shuffle", "INTEGER NOT NULL DEFAULT 0");
+
+            // Where each podcast or audiobook was left, by file, so it resumes
+            // there whenever it is played again
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS Bookmark (" +
+                            "file_path VARCHAR(512) PRIMARY KEY, " +
+                            "position_ms INTEGER NOT NULL, " +
+                            "updated_at INTEGER NOT NULL)");
+
+            // "Up Next" queue. Entries are identified by sparse ordering keys, so
+            // a reorder only rewrites the key of the moved entry
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS Queue (" +
+                            "sort_key INTEGER PRIMARY KEY, " +
+                            "song_id INTEGER NOT NULL)");
+            stmt.executeUpdate(
+                    "CREATE TRIGGER IF NOT EXISTS trg_songs_delete_queue AFTER DELETE ON Songs BEGIN " +
+                            "DELETE FROM Queue WHERE song_id = OLD.id; END");
+
+            // User playlists. Entries use sparse ordering keys like the queue, so
+            // a drag-reorder writes one row
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS Playlist (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "name VARCHAR(255) NOT NULL, " +
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS PlaylistEntry (" +
+                            "playlist_id INTEGER NOT NULL, " +
+                            "sort_key INTEGER NOT NULL, " +
+                            "song_id INTEGER NOT NULL, " +
+                            "PRIMARY KEY (playlist_id, sort_key))");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_playlist_entry_song ON PlaylistEntry(song_id)");
+            stmt.executeUpdate(
+                    "CREATE TRIGGER IF NOT EXISTS trg_songs_delete_playlist_entry AFTER DELETE ON Songs BEGIN " +
+                            "DELETE FROM PlaylistEntry WHERE song_id = OLD.id; END");
+
             System.out.println("Database initialized successfully.");
 
         } catch (SQLException e) {
@@ -90,6 +229,53 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Adds a column to an existing table, for databases created by an older
+     * version of the app.
+     * 
+     * @param conn       An open connection
+     * @param table      The table name
+     * @param column     The column name
+     * @param definition The column type and constraints
+     */
+    private void addColumnIfMissing(Connection conn, String table, String column, String definition)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    /**
+     * Gets the current library generation. It changes whenever a song is added,
+     * removed or edited.
+     * 
+     * @return The library generation, or -1 if it could not be read
+     */
+    public long getLibraryGeneration() {
+        String sql = "SELECT value FROM LibraryMeta WHERE key = 'generation'";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error reading library generation: " + e.getMessage());
+        }
+        return -1;
+    }
+
     /**
      * Enhanced version of loadPlaylist that filters out invalid files automatically
      * 
@@ -98,7 +284,7 @@ public class DatabaseManager {
     public List<Song> loadValidPlaylist() {
         List<Song> playlist = new ArrayList<>();
         List<String> invalidPaths = new ArrayList<>();
-        String sql = "SELECT title, artist, album, file_path FROM Songs ORDER BY title ASC";
+        String sql = "SELECT id, title, artist, album, file_path FROM Songs ORDER BY title ASC";
 
         try (Connection conn = connect();
                 Statement stmt = conn.createStatement();
@@ -110,6 +296,7 @@ public class DatabaseManager {
 
                 if (file.exists() && file.canRead()) {
                     Song song = new Song(
+                            rs.getInt("id"),
                             rs.getString("title"),
                             rs.getString("artist"),
                             rs.getString("album"),
@@ -145,6 +332,105 @@ public class DatabaseManager {
         return playlist;
     }
 
+    /**
+     * Loads every song in the library, including those whose file is missing.
+     * 
+     * @return All songs, by title
+     */
+    public List<Song> loadAllSongs() {
+        List<Song> songs = new ArrayList<>();
+        String sql = "SELECT id, title, artist, album, file_path FROM Songs ORDER BY title ASC";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                songs.add(new Song(
+                        rs.getInt("id"),
+                        rs.getString("title"),
+                        rs.getString("artist"),
+                        rs.getString("album"),
+                        rs.getString("file_path")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading songs from database: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return songs;
+    }
+
+    /**
+     * Loads one song.
+     * 
+     * @param songId The song id
+     * @return The song, or null if there is no such song
+     */
+    public Song loadSong(int songId) {
+        String sql = "SELECT id, title, artist, album, file_path FROM Songs WHERE id = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, songId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new Song(
+                            rs.getInt("id"),
+                            rs.getString("title"),
+                            rs.getString("artist"),
+                            rs.getString("album"),
+                            rs.getString("file_path"));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading song " + songId + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Finds songs whose title, artist or album contains the query, ignoring
+     * case.
+     * 
+     * @param query The text to look for
+     * @param limit The maximum number of songs to return
+     * @return The matching songs, by title
+     */
+    public List<Song> searchSongs(String query, int limit) {
+        List<Song> songs = new ArrayList<>();
+        String sql = "SELECT id, title, artist, album, file_path FROM Songs "
+                + "WHERE title LIKE ? ESCAPE '\\' OR artist LIKE ? ESCAPE '\\' OR album LIKE ? ESCAPE '\\' "
+                + "ORDER BY title ASC LIMIT ?";
+        // Wildcards in the query are matched literally
+        String pattern = "%" + query.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, pattern);
+            pstmt.setString(2, pattern);
+            pstmt.setString(3, pattern);
+            pstmt.setInt(4, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    songs.add(new Song(
+                            rs.getInt("id"),
+                            rs.getString("title"),
+                            rs.getString("artist"),
+                            rs.getString("album"),
+                            rs.getString("file_path")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error searching songs: " + e.getMessage());
+        }
+        return songs;
+    }
+
     /**
      * Adds a list of music files to the database, extracting title from filename.
      * 
@@ -152,40 +438,16 @@ public class DatabaseManager {
      * @return The number of songs successfully added to the database.
      */
     public int addSongsToDatabase(File[] files) {
-        String sql = "INSERT INTO Songs (title, artist, album, file_path) VALUES (?, ?, ?, ?)";
         int songsAddedCount = 0;
 
         try (Connection conn = connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                PreparedStatement pstmt = conn.prepareStatement(INSERT_SONG_SQL)) {
 
             conn.setAutoCommit(false);
 
             for (File file : files) {
-                // Check if file exists and is readable
-                if (!file.exists() || !file.canRead()) {
-                    System.err.println("File not accessible (skipped): " + file.getAbsolutePath());
-                    continue;
-                }
-
-                String fileName = file.getName();
-                String songTitle = fileName.substring(0,
-                        fileName.lastIndexOf('.') > 0 ? fileName.lastIndexOf('.') : fileName.length());
-
-                try {
-                    pstmt.setString(1, songTitle);
-                    pstmt.setString(2, "Unknown Artist");
-                    pstmt.setString(3, "Unknown Album");
-                    pstmt.setString(4, file.getAbsolutePath());
-                    pstmt.executeUpdate();
+                if (insertSong(pstmt, file)) {
                     songsAddedCount++;
-                    System.out.println("Added song: " + songTitle + " from " + file.getAbsolutePath());
-                } catch (SQLException e) {
-                    if (e.getErrorCode() == 19 && e.getMessage().contains("UNIQUE constraint failed")) {
-                        System.err.println("Song already exists in database (skipped): " + file.getAbsolutePath());
-                    } else {
-                        System.err.println("Error adding song '" + songTitle + "' to database: " + e.getMessage());
-                        e.printStackTrace();
-                    }
                 }
             }
 
@@ -199,6 +461,43 @@ public class DatabaseManager {
         return songsAddedCount;
     }
 
+    /**
+     * Adds one file to the Songs table, extracting the title from the filename.
+     * 
+     * @param pstmt Prepared {@link #INSERT_SONG_SQL} statement
+     * @param file  The music file
+     * @return true if the song was added
+     */
+    private boolean insertSong(PreparedStatement pstmt, File file) {
+        // Check if file exists and is readable
+        if (!file.exists() || !file.canRead()) {
+            System.err.println("File not accessible (skipped): " + file.getAbsolutePath());
+            return false;
+        }
+
+        String fileName = file.getName();
+        String songTitle = fileName.substring(0,
+                fileName.lastIndexOf('.') > 0 ? fileName.lastIndexOf('.') : fileName.length());
+
+        try {
+            pstmt.setString(1, songTitle);
+            pstmt.setString(2, "Unknown Artist");
+            pstmt.setString(3, "Unknown Album");
+            pstmt.setString(4, file.getAbsolutePath());
+            pstmt.executeUpdate();
+            System.out.println("Added song: " + songTitle + " from " + file.getAbsolutePath());
+            return true;
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 19 && e.getMessage().contains("UNIQUE constraint failed")) {
+                System.err.println("Song already exists in database (skipped): " + file.getAbsolutePath());
+            } else {
+                System.err.println("Error adding song '" + songTitle + "' to database: " + e.getMessage());
+                e.printStackTrace();
+            }
+            return false;
+        }
+    }
+
     /**
      * Validates all songs in the database and removes entries for files that no
      * longer exist.
@@ -266,4 +565,1071 @@ public class DatabaseManager {
 
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Saves the playback state so it can be resumed on the next launch. This is
+     * a single-row upsert, cheap enough to run every few seconds.
+     * 
+     * @param state The state to save
+     */
+    public void savePlaybackState(PlaybackState state) {
+        String sql = "INSERT OR REPLACE INTO PlaybackState "
+                + "(id, file_path, position, shuffle, smart_shuffle, loop, shuffle_seed) VALUES (1, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, state.getFilePath());
+            pstmt.setInt(2, state.getPosition());
+            pstmt.setInt(3, state.isShuffling() ? 1 : 0);
+            pstmt.setInt(4, state.isSmartShuffle() ? 1 : 0);
+            pstmt.setInt(5, state.isLooping() ? 1 : 0);
+            pstmt.setLong(6, state.getShuffleSeed());
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error saving playback state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the playback state saved by the last session.
+     * 
+     * @return The saved state, or null if there is none
+     */
+    public PlaybackState loadPlaybackState() {
+        String sql = "SELECT file_path, position, shuffle, smart_shuffle, loop, shuffle_seed "
+                + "FROM PlaybackState WHERE id = 1";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            if (rs.next()) {
+                return new PlaybackState(
+                        rs.getString("file_path"),
+                        rs.getInt("position"),
+                        rs.getInt("shuffle") != 0,
+                        rs.getInt("smart_shuffle") != 0,
+                        rs.getInt("loop") != 0,
+                        rs.getLong("shuffle_seed"));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading playback state: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Remembers where a long recording was left.
+     * 
+     * @param filePath   The file
+     * @param positionMs The position in milliseconds
+     */
+    public void saveBookmark(String filePath, long positionMs) {
+        String sql = "INSERT OR REPLACE INTO Bookmark (file_path, position_ms, updated_at) VALUES (?, ?, ?)";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, filePath);
+            pstmt.setLong(2, positionMs);
+            pstmt.setLong(3, System.currentTimeMillis());
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error saving bookmark: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param filePath The file
+     * @return Where it was left in milliseconds, or -1 if it has no bookmark
+     */
+    public long loadBookmark(String filePath) {
+        String sql = "SELECT position_ms FROM Bookmark WHERE file_path = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, filePath);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong("position_ms");
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading bookmark: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets the bookmark of a file, once it has been played to the end.
+     * 
+     * @param filePath The file
+     */
+    public void deleteBookmark(String filePath) {
+        String sql = "DELETE FROM Bookmark WHERE file_path = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, filePath);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error deleting bookmark: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the "Up Next" queue in play order.
+     * 
+     * @return The queue entries, empty if there are none
+     */
+    public List<QueueEntry> loadQueue() {
+        List<QueueEntry> entries = new ArrayList<>();
+        String sql = "SELECT sort_key, song_id FROM Queue ORDER BY sort_key ASC";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                entries.add(new QueueEntry(rs.getLong("sort_key"), rs.getInt("song_id")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading queue: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Adds a song to the queue at the position given by its ordering key.
+     * 
+     * @param sortKey The ordering key of the new entry
+     * @param songId  The id of the queued song
+     */
+    public void insertQueueEntry(long sortKey, int songId) {
+        String sql = "INSERT OR REPLACE INTO Queue (sort_key, song_id) VALUES (?, ?)";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, sortKey);
+            pstmt.setInt(2, songId);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error adding queue entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a single entry from the queue.
+     * 
+     * @param sortKey The ordering key of the entry
+     */
+    public void deleteQueueEntry(long sortKey) {
+        String sql = "DELETE FROM Queue WHERE sort_key = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, sortKey);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error removing queue entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a queue entry by giving it a new ordering key.
+     * 
+     * @param oldSortKey The current ordering key of the entry
+     * @param newSortKey The new ordering key
+     */
+    public void updateQueueEntryKey(long oldSortKey, long newSortKey) {
+        String sql = "UPDATE Queue SET sort_key = ? WHERE sort_key = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, newSortKey);
+            pstmt.setLong(2, oldSortKey);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error moving queue entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the whole queue. Only needed when the ordering keys run out of
+     * gaps and have to be renumbered.
+     * 
+     * @param sortKeys The ordering keys, in play order
+     * @param songIds  The queued song ids, parallel to sortKeys
+     * @param count    The number of entries to write
+     */
+    public void replaceQueue(long[] sortKeys, int[] songIds, int count) {
+        String sql = "INSERT INTO Queue (sort_key, song_id) VALUES (?, ?)";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("DELETE FROM Queue");
+            for (int i = 0; i < count; i++) {
+                pstmt.setLong(1, sortKeys[i]);
+                pstmt.setInt(2, songIds[i]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+
+        } catch (SQLException e) {
+            System.err.println("Error rewriting queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a batch of play history events and updates the per-song play
+     * statistics, all in one transaction.
+     * 
+     * @param songIds    The song id of every event
+     * @param events     The event type of every event (see PlayHistoryRecorder)
+     * @param playedAt   When every event happened, in epoch milliseconds
+     * @param listenedMs How long the song was listened to, per event
+     * @param count      The number of events to write
+     * @return true if the batch was committed
+     */
+    public boolean recordPlayEvents(int[] songIds, byte[] events, long[] playedAt, long[] listenedMs, int count) {
+        String insertSql = "INSERT INTO PlayHistory (song_id, event, played_at, listened_ms) VALUES (?, ?, ?, ?)";
+        String playSql = "UPDATE Songs SET play_count = play_count + 1, "
+                + "last_played = MAX(COALESCE(last_played, 0), ?) WHERE id = ?";
+        String skipSql = "UPDATE Songs SET skip_count = skip_count + 1 WHERE id = ?";
+
+        Connection connection = connect();
+        if (connection == null) {
+            // Already reported by connect(); the caller keeps the batch
+            return false;
+        }
+        try (Connection conn = connection;
+                PreparedStatement insert = conn.prepareStatement(insertSql);
+                PreparedStatement play = conn.prepareStatement(playSql);
+                PreparedStatement skip = conn.prepareStatement(skipSql)) {
+
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < count; i++) {
+                    insert.setInt(1, songIds[i]);
+                    insert.setInt(2, events[i]);
+                    insert.setLong(3, playedAt[i]);
+                    insert.setLong(4, listenedMs[i]);
+                    insert.addBatch();
+
+                    if (events[i] == PlayHistoryRecorder.EVENT_PLAY) {
+                        play.setLong(1, playedAt[i]);
+                        play.setInt(2, songIds[i]);
+                        play.addBatch();
+                    } else if (events[i] == PlayHistoryRecorder.EVENT_SKIP) {
+                        skip.setInt(1, songIds[i]);
+                        skip.addBatch();
+                    }
+                }
+                insert.executeBatch();
+                play.executeBatch();
+                skip.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error writing play history: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Loads the ids of the most played songs, using the play_count index.
+     * 
+     * @param limit The maximum number of songs
+     * @return Song ids, most played first
+     */
+    public int[] loadMostPlayedSongIds(int limit) {
+        return loadSongIds("SELECT id FROM Songs WHERE play_count > 0 ORDER BY play_count DESC LIMIT ?", limit);
+    }
+
+    /**
+     * Loads the ids of the most recently played songs, using the last_played
+     * index.
+     * 
+     * @param limit The maximum number of songs
+     * @return Song ids, most recent first
+     */
+    public int[] loadRecentlyPlayedSongIds(int limit) {
+        return loadSongIds("SELECT id FROM Songs WHERE last_played IS NOT NULL ORDER BY last_played DESC LIMIT ?",
+                limit);
+    }
+
+    private int[] loadSongIds(String sql, int limit) {
+        int[] ids = new int[limit];
+        int count = 0;
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next() && count < limit) {
+                    ids[count++] = rs.getInt(1);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading songs: " + e.getMessage());
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Loads all user playlists (without their entries).
+     * 
+     * @return The playlists ordered by name
+     */
+    public List<Playlist> loadPlaylists() {
+        List<Playlist> playlists = new ArrayList<>();
+        String sql = "SELECT id, name FROM Playlist ORDER BY name COLLATE NOCASE ASC";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                playlists.add(new Playlist(rs.getInt("id"), rs.getString("name")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading playlists: " + e.getMessage());
+        }
+        return playlists;
+    }
+
+    /**
+     * Creates an empty playlist.
+     * 
+     * @param name The playlist name
+     * @return The new playlist, or null if it could not be created
+     */
+    public Playlist createPlaylist(String name) {
+        String sql = "INSERT INTO Playlist (name) VALUES (?)";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            pstmt.setString(1, name);
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    return new Playlist(keys.getInt(1), name);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error creating playlist: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a playlist and all of its entries.
+     * 
+     * @param playlistId The playlist id
+     */
+    public void deletePlaylist(int playlistId) {
+        try (Connection conn = connect();
+                PreparedStatement deleteEntries = conn.prepareStatement(
+                        "DELETE FROM PlaylistEntry WHERE playlist_id = ?");
+                PreparedStatement deletePlaylist = conn.prepareStatement("DELETE FROM Playlist WHERE id = ?")) {
+
+            conn.setAutoCommit(false);
+            deleteEntries.setInt(1, playlistId);
+            deleteEntries.executeUpdate();
+            deletePlaylist.setInt(1, playlistId);
+            deletePlaylist.executeUpdate();
+            conn.commit();
+
+        } catch (SQLException e) {
+            System.err.println("Error deleting playlist: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads one page of playlist entries, using the (playlist_id, sort_key)
+     * primary key so every page is an index range scan.
+     * 
+     * @param playlistId The playlist id
+     * @param afterKey   Only entries with a greater ordering key are returned
+     * @param limit      The page size
+     * @return The entries in play order, or null if they could not be read
+     */
+    public List<PlaylistEntry> loadPlaylistEntries(int playlistId, long afterKey, int limit) {
+        List<PlaylistEntry> entries = new ArrayList<>();
+        String sql = "SELECT sort_key, song_id FROM PlaylistEntry WHERE playlist_id = ? AND sort_key > ? "
+                + "ORDER BY sort_key ASC LIMIT ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, playlistId);
+            pstmt.setLong(2, afterKey);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new PlaylistEntry(rs.getLong("sort_key"), rs.getInt("song_id")));
+                }
+            }
+
+        } catch (SQLException e) {
+            // Not a short page: that would end the playlist here
+            System.err.println("Error loading playlist entries: " + e.getMessage());
+            return null;
+        }
+        return entries;
+    }
+
+    /**
+     * Appends a song to a playlist that is not loaded in memory; the ordering
+     * key is taken after the current last one.
+     * 
+     * @param playlistId The playlist id
+     * @param songId     The song id
+     * @param keyGap     The distance to the last ordering key
+     */
+    public void appendPlaylistEntry(int playlistId, int songId, long keyGap) {
+        String sql = "INSERT INTO PlaylistEntry (playlist_id, sort_key, song_id) "
+                + "SELECT ?, COALESCE(MAX(sort_key) + ?, 0), ? FROM PlaylistEntry WHERE playlist_id = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, playlistId);
+            pstmt.setLong(2, keyGap);
+            pstmt.setInt(3, songId);
+            pstmt.setInt(4, playlistId);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error adding song to playlist: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a playlist entry with a known ordering key.
+     * 
+     * @param playlistId The playlist id
+     * @param sortKey    The ordering key of the new entry
+     * @param songId     The song id
+     */
+    public void insertPlaylistEntry(int playlistId, long sortKey, int songId) {
+        String sql = "INSERT OR REPLACE INTO PlaylistEntry (playlist_id, sort_key, song_id) VALUES (?, ?, ?)";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, playlistId);
+            pstmt.setLong(2, sortKey);
+            pstmt.setInt(3, songId);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error adding playlist entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a single playlist entry.
+     * 
+     * @param playlistId The playlist id
+     * @param sortKey    The ordering key of the entry
+     */
+    public void deletePlaylistEntry(int playlistId, long sortKey) {
+        String sql = "DELETE FROM PlaylistEntry WHERE playlist_id = ? AND sort_key = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, playlistId);
+            pstmt.setLong(2, sortKey);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error removing playlist entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a playlist entry by giving it a new ordering key.
+     * 
+     * @param playlistId The playlist id
+     * @param oldSortKey The current ordering key of the entry
+     * @param newSortKey The new ordering key
+     */
+    public void updatePlaylistEntryKey(int playlistId, long oldSortKey, long newSortKey) {
+        String sql = "UPDATE PlaylistEntry SET sort_key = ? WHERE playlist_id = ? AND sort_key = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, newSortKey);
+            pstmt.setInt(2, playlistId);
+            pstmt.setLong(3, oldSortKey);
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error moving playlist entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces all entries of a playlist. Only needed when the ordering keys
+     * run out of gaps and have to be renumbered.
+     * 
+     * @param playlistId The playlist id
+     * @param sortKeys   The ordering keys, in play order
+     * @param songIds    The song ids, parallel to sortKeys
+     * @param count      The number of entries to write
+     */
+    public void replacePlaylistEntries(int playlistId, long[] sortKeys, int[] songIds, int count) {
+        String sql = "INSERT INTO PlaylistEntry (playlist_id, sort_key, song_id) VALUES (?, ?, ?)";
+
+        try (Connection conn = connect();
+                PreparedStatement delete = conn.prepareStatement("DELETE FROM PlaylistEntry WHERE playlist_id = ?");
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            conn.setAutoCommit(false);
+            delete.setInt(1, playlistId);
+            delete.executeUpdate();
+            for (int i = 0; i < count; i++) {
+                pstmt.setInt(1, playlistId);
+                pstmt.setLong(2, sortKeys[i]);
+                pstmt.setInt(3, songIds[i]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+
+        } catch (SQLException e) {
+            System.err.println("Error rewriting playlist: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Imports a playlist file as a new user playlist. The file is streamed and
+     * handled in chunks: each chunk's paths are matched to Songs rows with one
+     * batched lookup, files that are not in the library yet go through the
+     * regular insert path, and the entries are written as one batch. The whole
+     * import is a single transaction.
+     * 
+     * @param file   The M3U, M3U8 or PLS file
+     * @param name   Name of the new playlist
+     * @param keyGap Distance between consecutive ordering keys
+     * @return The result, or null if the import failed
+     * @throws IOException If the playlist file cannot be read
+     */
+    public PlaylistImport importPlaylist(Path file, String name, long keyGap) throws IOException {
+        String entrySql = "INSERT INTO PlaylistEntry (playlist_id, sort_key, song_id) VALUES (?, ?, ?)";
+
+        try (PlaylistFileReader reader = new PlaylistFileReader(file);
+                Connection conn = connect();
+                PreparedStatement createPlaylist = conn.prepareStatement(
+                        "INSERT INTO Playlist (name) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+                PreparedStatement insertSong = conn.prepareStatement(INSERT_SONG_SQL);
+                PreparedStatement insertEntry = conn.prepareStatement(entrySql)) {
+
+            conn.setAutoCommit(false);
+            createPlaylist.setString(1, name);
+            createPlaylist.executeUpdate();
+            int playlistId;
+            try (ResultSet keys = createPlaylist.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    conn.rollback();
+                    return null;
+                }
+                playlistId = keys.getInt(1);
+            }
+
+            int entryCount = 0;
+            int addedCount = 0;
+            int missingCount = 0;
+            List<String> chunk = new ArrayList<>(PATH_LOOKUP_BATCH);
+            String path;
+            do {
+                path = reader.nextPath();
+                if (path != null) {
+                    chunk.add(path);
+                }
+                if (chunk.size() == PATH_LOOKUP_BATCH || (path == null && !chunk.isEmpty())) {
+                    Map<String, Integer> ids = lookupSongIds(conn, chunk);
+
+                    Set<String> newPaths = new LinkedHashSet<>();
+                    for (String entry : chunk) {
+                        if (!ids.containsKey(entry) && !newPaths.contains(entry) && isSupportedAudioFile(entry)
+                                && insertSong(insertSong, new File(entry))) {
+                            newPaths.add(entry);
+                        }
+                    }
+                    if (!newPaths.isEmpty()) {
+                        addedCount += newPaths.size();
+                        ids.putAll(lookupSongIds(conn, new ArrayList<>(newPaths)));
+                    }
+
+                    for (String entry : chunk) {
+                        Integer songId = ids.get(entry);
+                        if (songId == null) {
+                            missingCount++;
+                            continue;
+                        }
+                        insertEntry.setInt(1, playlistId);
+                        insertEntry.setLong(2, entryCount * keyGap);
+                        insertEntry.setInt(3, songId);
+                        insertEntry.addBatch();
+                        entryCount++;
+                    }
+                    insertEntry.executeBatch();
+                    chunk.clear();
+                }
+            } while (path != null);
+
+            conn.commit();
+            System.out.println("Imported playlist '" + name + "': " + entryCount + " entries, "
+                    + addedCount + " new songs, " + missingCount + " missing files.");
+            return new PlaylistImport(new Playlist(playlistId, name), entryCount, addedCount, missingCount);
+
+        } catch (SQLException e) {
+            System.err.println("Error importing playlist: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the ids of songs by file path, binding up to
+     * {@link #PATH_LOOKUP_BATCH} paths per query.
+     */
+    private Map<String, Integer> lookupSongIds(Connection conn, List<String> paths) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>(paths.size() * 2);
+        for (int from = 0; from < paths.size(); from += PATH_LOOKUP_BATCH) {
+            int to = Math.min(paths.size(), from + PATH_LOOKUP_BATCH);
+            StringBuilder sql = new StringBuilder("SELECT id, file_path FROM Songs WHERE file_path IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+            }
+            sql.append(')');
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                for (int i = from; i < to; i++) {
+                    pstmt.setString(i - from + 1, paths.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.put(rs.getString("file_path"), rs.getInt("id"));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static boolean isSupportedAudioFile(String path) {
+        return DecoderRegistry.isSupportedFileName(path);
+    }
+
+    /**
+     * Exports a user playlist, streaming the rows from the database cursor
+     * straight into the file.
+     * 
+     * @param playlistId The playlist id
+     * @param target     The file to write; the format follows its extension
+     * @return The number of entries written
+     * @throws IOException If the file cannot be written
+     */
+    public int exportPlaylist(int playlistId, Path target) throws IOException {
+        String sql = "SELECT s.title, s.artist, s.file_path FROM PlaylistEntry e "
+                + "JOIN Songs s ON s.id = e.song_id WHERE e.playlist_id = ? ORDER BY e.sort_key ASC";
+        return exportSongs(sql, playlistId, target);
+    }
+
+    /**
+     * Exports the whole library in playlist order.
+     * 
+     * @param target The file to write; the format follows its extension
+     * @return The number of entries written
+     * @throws IOException If the file cannot be written
+     */
+    public int exportLibrary(Path target) throws IOException {
+        return exportSongs("SELECT title, artist, file_path FROM Songs ORDER BY title ASC", -1, target);
+    }
+
+    private int exportSongs(String sql, int playlistId, Path target) throws IOException {
+        // Written beside the target with the same extension, which picks the
+        // format, and moved into place once complete
+        Path temp = target.toAbsolutePath().resolveSibling(".export-" + target.getFileName());
+        int count;
+        try (PlaylistFileWriter writer = new PlaylistFileWriter(temp);
+                Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            if (playlistId >= 0) {
+                pstmt.setInt(1, playlistId);
+            }
+            pstmt.setFetchSize(1000);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    writer.add(rs.getString("file_path"), rs.getString("title"), rs.getString("artist"));
+                }
+            }
+            count = writer.getCount();
+
+        } catch (SQLException e) {
+            System.err.println("Error exporting playlist: " + e.getMessage());
+            Files.deleteIfExists(temp);
+            throw new IOException("Could not read the playlist from the database", e);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Exported " + count + " entries to " + target);
+        return count;
+    }
+
+    /**
+     * Loads the stored file fingerprints of all songs that have one.
+     * 
+     * @return Fingerprints by song id
+     */
+    public Map<Integer, FileFingerprint> loadFileFingerprints() {
+        Map<Integer, FileFingerprint> fingerprints = new HashMap<>();
+        String sql = "SELECT id, file_size, file_mtime, payload_size, content_hash FROM Songs "
+                + "WHERE payload_size IS NOT NULL";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                int id = rs.getInt("id");
+                fingerprints.put(id, new FileFingerprint(id, rs.getLong("file_size"), rs.getLong("file_mtime"),
+                        rs.getLong("payload_size"), rs.getString("content_hash")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading file fingerprints: " + e.getMessage());
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Stores file fingerprints in one batched transaction.
+     * 
+     * @param fingerprints The new or changed fingerprints
+     */
+    public void saveFileFingerprints(List<FileFingerprint> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE Songs SET file_size = ?, file_mtime = ?, payload_size = ?, content_hash = ? "
+                + "WHERE id = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            conn.setAutoCommit(false);
+            for (FileFingerprint fingerprint : fingerprints) {
+                pstmt.setLong(1, fingerprint.getFileSize());
+                pstmt.setLong(2, fingerprint.getModifiedMillis());
+                pstmt.setLong(3, fingerprint.getPayloadSize());
+                pstmt.setString(4, fingerprint.getContentHash());
+                pstmt.setInt(5, fingerprint.getSongId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+
+        } catch (SQLException e) {
+            System.err.println("Error saving file fingerprints: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes duplicate songs in one transaction. Playlist and queue entries of
+     * a removed song are pointed at the copy that is kept, so no playlist loses
+     * a song.
+     * 
+     * @param removeIds The songs to remove
+     * @param keepIds   For every removed song, the song that replaces it
+     * @return The number of songs removed
+     */
+    public int removeDuplicateSongs(int[] removeIds, int[] keepIds) {
+        int removed = 0;
+
+        try (Connection conn = connect();
+                PreparedStatement playlistEntries = conn.prepareStatement(
+                        "UPDATE PlaylistEntry SET song_id = ? WHERE song_id = ?");
+                PreparedStatement queue = conn.prepareStatement("UPDATE Queue SET song_id = ? WHERE song_id = ?");
+                PreparedStatement delete = conn.prepareStatement("DELETE FROM Songs WHERE id = ?")) {
+
+            conn.setAutoCommit(false);
+            for (int i = 0; i < removeIds.length; i++) {
+                playlistEntries.setInt(1, keepIds[i]);
+                playlistEntries.setInt(2, removeIds[i]);
+                playlistEntries.addBatch();
+                queue.setInt(1, keepIds[i]);
+                queue.setInt(2, removeIds[i]);
+                queue.addBatch();
+                delete.setInt(1, removeIds[i]);
+                delete.addBatch();
+            }
+            playlistEntries.executeBatch();
+            queue.executeBatch();
+            for (int count : delete.executeBatch()) {
+                removed += Math.max(count, 0);
+            }
+            conn.commit();
+            System.out.println("Removed " + removed + " duplicate song(s) from database.");
+
+        } catch (SQLException e) {
+            System.err.println("Error removing duplicate songs: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes songs from the library in one transaction, together with their
+     * playlist and queue entries.
+     *
+     * @param songIds The songs to remove
+     * @param count   The number of ids to use
+     * @return The number of songs removed
+     */
+    public int removeSongs(int[] songIds, int count) {
+        int removed = 0;
+
+        try (Connection conn = connect();
+                PreparedStatement playlistEntries = conn.prepareStatement(
+                        "DELETE FROM PlaylistEntry WHERE song_id = ?");
+                PreparedStatement queue = conn.prepareStatement("DELETE FROM Queue WHERE song_id = ?");
+                PreparedStatement delete = conn.prepareStatement("DELETE FROM Songs WHERE id = ?")) {
+
+            conn.setAutoCommit(false);
+            for (int i = 0; i < count; i++) {
+                playlistEntries.setInt(1, songIds[i]);
+                playlistEntries.addBatch();
+                queue.setInt(1, songIds[i]);
+                queue.addBatch();
+                delete.setInt(1, songIds[i]);
+                delete.addBatch();
+            }
+            playlistEntries.executeBatch();
+            queue.executeBatch();
+            for (int deleted : delete.executeBatch()) {
+                removed += Math.max(deleted, 0);
+            }
+            conn.commit();
+            System.out.println("Removed " + removed + " song(s) from database.");
+
+        } catch (SQLException e) {
+            System.err.println("Error removing songs: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return removed;
+    }
+
+    /**
+     * Loads the file size, modification time and analysis version at which
+     * each song was analyzed.
+     * 
+     * @return {size, mtime, version} by song id, for analyzed songs only
+     */
+    public Map<Integer, long[]> loadAnalysisStamps() {
+        Map<Integer, long[]> stamps = new HashMap<>();
+        String sql = "SELECT id, analyzed_file_size, analyzed_file_mtime, analysis_version FROM Songs "
+                + "WHERE analyzed_file_mtime IS NOT NULL";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                stamps.put(rs.getInt("id"), new long[] { rs.getLong("analyzed_file_size"),
+                        rs.getLong("analyzed_file_mtime"), rs.getLong("analysis_version") });
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading analysis data: " + e.getMessage());
+        }
+        return stamps;
+    }
+
+    /**
+     * Stores analysis results in one batched transaction. Values that could not
+     * be measured (silent tracks, no clear beat or key, files that failed to
+     * decode) are stored without a value; the stamp is always written so the
+     * file is not analyzed again until it changes.
+     * 
+     * @param songIds   The analyzed songs
+     * @param loudness  Integrated loudness in LUFS
+     * @param truePeaks True peak in dBTP
+     * @param bpms      Tempo in BPM, NaN if none was detected
+     * @param keys      Key such as "F#m", null if none was detected
+     * @param timbres   Timbre features, null if the track was silent
+     * @param fileSizes File size at analysis
+     * @param modified  File modification time at analysis
+     * @param version   The analysis version
+     * @param count     The number of results
+     */
+    public void saveAnalysis(int[] songIds, double[] loudness, double[] truePeaks, double[] bpms, String[] keys,
+            float[][] timbres, long[] fileSizes, long[] modified, int version, int count) {
+        String sql = "UPDATE Songs SET loudness_lufs = ?, true_peak_dbtp = ?, bpm = ?, musical_key = ?, timbre = ?, "
+                + "analyzed_file_size = ?, analyzed_file_mtime = ?, analysis_version = ? WHERE id = ?";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            conn.setAutoCommit(false);
+            for (int i = 0; i < count; i++) {
+                setFiniteOrNull(pstmt, 1, loudness[i]);
+                setFiniteOrNull(pstmt, 2, truePeaks[i]);
+                setFiniteOrNull(pstmt, 3, bpms[i]);
+                pstmt.setString(4, keys[i]);
+                pstmt.setBytes(5, timbres[i] != null ? encodeFloats(timbres[i]) : null);
+                pstmt.setLong(6, fileSizes[i]);
+                pstmt.setLong(7, modified[i]);
+                pstmt.setInt(8, version);
+                pstmt.setInt(9, songIds[i]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+
+        } catch (SQLException e) {
+            System.err.println("Error saving analysis data: " + e.getMessage());
+        }
+    }
+
+    private static byte[] encodeFloats(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static void setFiniteOrNull(PreparedStatement pstmt, int index, double value) throws SQLException {
+        if (Double.isFinite(value)) {
+            pstmt.setDouble(index, value);
+        } else {
+            pstmt.setNull(index, Types.REAL);
+        }
+    }
+
+    /**
+     * Loads the measured loudness of a song.
+     * 
+     * @param songId The song id
+     * @return {loudness in LUFS, true peak in dBTP}, or null if not measured yet
+     */
+    public double[] loadLoudness(int songId) {
+        String sql = "SELECT loudness_lufs, true_peak_dbtp FROM Songs WHERE id = ? AND loudness_lufs IS NOT NULL";
+
+        try (Connection conn = connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, songId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new double[] { rs.getDouble("loudness_lufs"), rs.getDouble("true_peak_dbtp") };
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading loudness: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Loads the tempo and key of every song that has at least one of them.
+     * 
+     * @return Analysis by song id
+     */
+    public Map<Integer, SongAnalysis> loadSongAnalysis() {
+        Map<Integer, SongAnalysis> analysis = new HashMap<>();
+        String sql = "SELECT id, bpm, musical_key FROM Songs WHERE bpm IS NOT NULL OR musical_key IS NOT NULL";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            rs.setFetchSize(1000);
+            while (rs.next()) {
+                double bpm = rs.getDouble("bpm");
+                if (rs.wasNull()) {
+                    bpm = Double.NaN;
+                }
+                analysis.put(rs.getInt("id"), new SongAnalysis(bpm, rs.getString("musical_key")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading song analysis: " + e.getMessage());
+        }
+        return analysis;
+    }
+
+    /**
+     * Loads the feature vectors for similarity search: the timbre features
+     * followed by tempo and loudness. Songs without timbre features are left
+     * out; a missing tempo or loudness is NaN.
+     * 
+     * @param timbreLength Number of timbre features per song
+     * @return Feature vector by song id
+     */
+    public Map<Integer, float[]> loadSimilarityFeatures(int timbreLength) {
+        Map<Integer, float[]> features = new HashMap<>();
+        String sql = "SELECT id, timbre, bpm, loudness_lufs FROM Songs WHERE timbre IS NOT NULL";
+
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+
+            rs.setFetchSize(1000);
+            while (rs.next()) {
+                byte[] timbre = rs.getBytes("timbre");
+                if (timbre == null || timbre.length != timbreLength * Float.BYTES) {
+                    continue;
+                }
+                float[] vector = new float[timbreLength + 2];
+                ByteBuffer.wrap(timbre).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector, 0, timbreLength);
+                double bpm = rs.getDouble("bpm");
+                vector[timbreLength] = rs.wasNull() ? Float.NaN : (float) bpm;
+                double loudness = rs.getDouble("loudness_lufs");
+                vector[timbreLength + 1] = rs.wasNull() ? Float.NaN : (float) loudness;
+                features.put(rs.getInt("id"), vector);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading similarity features: " + e.getMessage());
+        }
+        return features;
+    }
+}
@@ -0,0 +1,252 @@
+package src.com.musicplayer.database;
+
+import src.com.musicplayer.model.DuplicateGroup;
+import src.com.musicplayer.model.FileFingerprint;
+import src.com.musicplayer.model.Song;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds songs that are the same recording stored under different paths.
+ *
+ * Files are first grouped by the size of their audio data, i.e. the file size
+ * without ID3v2, APEv2 and ID3v1 tags, which only needs the tag headers. Only
+ * files that share that size with another file are hashed, and only their
+ * audio data, so copies with different tags still match. Hashing reads the
+ * files memory-mapped on one thread per core. Size, modification time,
+ * audio size and hash are stored per song, so later scans only look at files
+ * that are new or changed.
+ */
+public class DuplicateFinder {
+    private static final long MAP_CHUNK = 256L * 1024 * 1024;
+    private static final int ID3V2_HEADER = 10;
+    private static final int ID3V1_SIZE = 128;
+    private static final int APE_FOOTER = 32;
+
+    private final DatabaseManager databaseManager;
+
+    public DuplicateFinder(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Scans the given songs. Runs off the EDT.
+     *
+     * @param songs The library
+     * @return Groups of identical songs, each ordered oldest first
+     */
+    public List<DuplicateGroup> findDuplicates(List<Song> songs) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        Map<Integer, FileFingerprint> stored = databaseManager.loadFileFingerprints();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "duplicate-finder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        try {
+            // Stat every file and refresh the audio size of new or changed ones
+            List<Future<FileFingerprint>> statted = new ArrayList<>(songs.size());
+            for (Song song : songs) {
+                FileFingerprint previous = stored.get(song.getId());
+                statted.add(pool.submit(() -> fingerprint(song, previous)));
+            }
+            Map<Long, List<Integer>> bySize = new HashMap<>();
+            Map<Integer, FileFingerprint> current = new HashMap<>(songs.size() * 2);
+            Map<Integer, FileFingerprint> changed = new HashMap<>();
+            for (int i = 0; i < songs.size(); i++) {
+                FileFingerprint fingerprint = await(statted.get(i));
+                if (fingerprint == null || fingerprint.getPayloadSize() <= 0) {
+                    continue;
+                }
+                current.put(fingerprint.getSongId(), fingerprint);
+                if (fingerprint != stored.get(fingerprint.getSongId())) {
+                    changed.put(fingerprint.getSongId(), fingerprint);
+                }
+                bySize.computeIfAbsent(fingerprint.getPayloadSize(), _ -> new ArrayList<>())
+                        .add(fingerprint.getSongId());
+            }
+
+            // Hash only candidates that share their audio size and have no valid hash
+            Map<Integer, Song> songById = new HashMap<>(songs.size() * 2);
+            for (Song song : songs) {
+                songById.put(song.getId(), song);
+            }
+            Map<Integer, Future<String>> hashing = new HashMap<>();
+            for (List<Integer> group : bySize.values()) {
+                if (group.size() < 2) {
+                    continue;
+                }
+                for (int songId : group) {
+                    if (current.get(songId).getContentHash() == null) {
+                        Path path = Path.of(songById.get(songId).getFilePath());
+                        hashing.put(songId, pool.submit(() -> hashPayload(path)));
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Future<String>> entry : hashing.entrySet()) {
+                String hash = await(entry.getValue());
+                if (hash != null) {
+                    FileFingerprint hashed = current.get(entry.getKey()).withContentHash(hash);
+                    current.put(entry.getKey(), hashed);
+                    changed.put(hashed.getSongId(), hashed);
+                }
+            }
+            databaseManager.saveFileFingerprints(new ArrayList<>(changed.values()));
+
+            // Group candidates by hash
+            Map<String, List<Song>> byHash = new HashMap<>();
+            for (List<Integer> group : bySize.values()) {
+                if (group.size() < 2) {
+                    continue;
+                }
+                for (int songId : group) {
+                    String hash = current.get(songId).getContentHash();
+                    if (hash != null) {
+                        byHash.computeIfAbsent(hash, _ -> new ArrayList<>()).add(songById.get(songId));
+                    }
+                }
+            }
+            List<DuplicateGroup> duplicates = new ArrayList<>();
+            for (Map.Entry<String, List<Song>> entry : byHash.entrySet()) {
+                List<Song> group = entry.getValue();
+                if (group.size() > 1) {
+                    group.sort(Comparator.comparingInt(Song::getId));
+                    duplicates.add(new DuplicateGroup(entry.getKey(), group));
+                }
+            }
+            duplicates.sort(Comparator.comparing(g -> g.getKept().getTitle(), String.CASE_INSENSITIVE_ORDER));
+
+            System.out.println("Duplicate scan: " + songs.size() + " songs, " + hashing.size() + " hashed, "
+                    + duplicates.size() + " duplicate groups in "
+                    + (System.nanoTime() - startNanos) / 1_000_000L + " ms");
+            return duplicates;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            System.err.println("Duplicate scan: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored fingerprint if the file is unchanged, otherwise a new
+     * one with the audio size read from the tag headers and no hash.
+     */
+    private static FileFingerprint fingerprint(Song song, FileFingerprint previous) {
+        Path path = Path.of(song.getFilePath());
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (previous != null && previous.getFileSize() == size && previous.getModifiedMillis() == modified
+                    && previous.getPayloadSize() >= 0) {
+                return previous;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long[] range = payloadRange(channel);
+                return new FileFingerprint(song.getId(), size, modified, range[1] - range[0], null);
+            }
+        } catch (IOException e) {
+            // Missing files are cleaned up elsewhere
+            return null;
+        }
+    }
+
+    /**
+     * Finds the audio data between leading ID3v2 tags and trailing APEv2 and
+     * ID3v1 tags.
+     *
+     * @return {start, end} byte offsets
+     */
+    static long[] payloadRange(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        ByteBuffer header = ByteBuffer.allocate(ID3V2_HEADER);
+
+        // One or more ID3v2 tags at the start
+        while (start + ID3V2_HEADER <= size) {
+            header.clear();
+            channel.read(header, start);
+            if (header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+                break;
+            }
+            int tagSize = ((header.get(6) & 0x7F) << 21) | ((header.get(7) & 0x7F) << 14)
+                    | ((header.get(8) & 0x7F) << 7) | (header.get(9) & 0x7F);
+            boolean hasFooter = (header.get(5) & 0x10) != 0;
+            start += ID3V2_HEADER + tagSize + (hasFooter ? ID3V2_HEADER : 0);
+        }
+
+        long end = size;
+        // ID3v1 at the very end
+        if (end - start >= ID3V1_SIZE) {
+            ByteBuffer tag = ByteBuffer.allocate(3);
+            channel.read(tag, end - ID3V1_SIZE);
+            if (tag.get(0) == 'T' && tag.get(1) == 'A' && tag.get(2) == 'G') {
+                end -= ID3V1_SIZE;
+            }
+        }
+        // APEv2 footer before that
+        if (end - start >= APE_FOOTER) {
+            ByteBuffer footer = ByteBuffer.allocate(APE_FOOTER).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(footer, end - APE_FOOTER);
+            if (new String(footer.array(), 0, 8, StandardCharsets.US_ASCII).equals("APETAGEX")) {
+                long tagSize = footer.getInt(12) & 0xFFFFFFFFL;
+                boolean hasHeader = (footer.getInt(20) & 0x80000000) != 0;
+                end -= tagSize + (hasHeader ? APE_FOOTER : 0);
+            }
+        }
+        return new long[] { Math.min(start, size), Math.max(Math.min(end, size), Math.min(start, size)) };
+    }
+
+    /**
+     * SHA-256 of the audio data, read through memory-mapped chunks.
+     */
+    static String hashPayload(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] range = payloadRange(channel);
+            for (long position = range[0]; position < range[1]; position += MAP_CHUNK) {
+                long length = Math.min(MAP_CHUNK, range[1] - position);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package src.com.musicplayer.database;
+
+import src.com.musicplayer.model.Song;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of the library that can be memory-mapped at launch, so
+ * the playlist can be shown before the database connection is opened.
+ *
+ * Layout: a fixed header, one fixed-width record per song holding its id and
+ * indices into a string table, the string offset table and finally the UTF-8 string data.
+ * Repeated strings (e.g. "Unknown Artist") are stored once. Each file carries
+ * the library generation of the database it was written from and is named
+ * after it, so a newer snapshot never has to replace a file that may still be
+ * mapped.
+ */
+public class LibrarySnapshot {
+    private static final int MAGIC = 0x484D4C53; // "HMLS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int FIELDS_PER_RECORD = 5;
+    private static final int RECORD_SIZE = FIELDS_PER_RECORD * Integer.BYTES;
+    private static final int NULL_STRING = -1;
+    private static final String FILE_PREFIX = "library-";
+    private static final String FILE_SUFFIX = ".snapshot";
+
+    private final long generation;
+    private final List<Song> songs;
+
+    private LibrarySnapshot(long generation, List<Song> songs) {
+        this.generation = generation;
+        this.songs = songs;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    /**
+     * Reads the newest snapshot in the given directory.
+     *
+     * @param directory The application data directory
+     * @return The snapshot, or null if there is none or it is unreadable
+     */
+    public static LibrarySnapshot read(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        Path newest = null;
+        long newestGeneration = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                long fileGeneration = parseGeneration(file);
+                if (fileGeneration > newestGeneration) {
+                    newestGeneration = fileGeneration;
+                    newest = file;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list library snapshots: " + e.getMessage());
+            return null;
+        }
+        if (newest == null) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                System.err.println("Ignoring library snapshot with unexpected size: " + newest);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading library snapshot " + newest + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static LibrarySnapshot decode(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("unknown snapshot format");
+        }
+        long generation = buffer.getLong(8);
+        int songCount = buffer.getInt(16);
+        int stringCount = buffer.getInt(20);
+
+        long recordsEnd = HEADER_SIZE + (long) songCount * RECORD_SIZE;
+        long offsetsEnd = recordsEnd + (long) (stringCount + 1) * Integer.BYTES;
+        if (songCount < 0 || stringCount < 0 || offsetsEnd > buffer.capacity()) {
+            throw new IllegalStateException("truncated snapshot");
+        }
+
+        // Decode every distinct string once
+        String[] strings = new String[stringCount];
+        int dataStart = (int) offsetsEnd;
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < stringCount; i++) {
+            int start = buffer.getInt((int) recordsEnd + i * Integer.BYTES);
+            int end = buffer.getInt((int) recordsEnd + (i + 1) * Integer.BYTES);
+            int length = end - start;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(dataStart + start, scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        List<Song> songs = new ArrayList<>(songCount);
+        for (int i = 0; i < songCount; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            songs.add(new Song(
+                    buffer.getInt(record),
+                    stringAt(strings, buffer.getInt(record + 4)),
+                    stringAt(strings, buffer.getInt(record + 8)),
+                    stringAt(strings, buffer.getInt(record + 12)),
+                    stringAt(strings, buffer.getInt(record + 16))));
+        }
+        return new LibrarySnapshot(generation, songs);
+    }
+
+    private static String stringAt(String[] strings, int index) {
+        return index == NULL_STRING ? null : strings[index];
+    }
+
+    /**
+     * Writes a snapshot of the given songs and removes older snapshots. A
+     * snapshot is never written over one with a newer generation.
+     *
+     * @param directory  The application data directory
+     * @param songs      The library in playlist order
+     * @param generation The library generation the songs were read at
+     */
+    public static synchronized void write(Path directory, List<Song> songs, long generation) {
+        Path target = directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+        Path temp = directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX + ".tmp");
+
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                if (parseGeneration(file) > generation) {
+                    // A newer load already wrote its snapshot
+                    return;
+                }
+                existing.add(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list library snapshots: " + e.getMessage());
+            return;
+        }
+
+        // Build the string table, storing each distinct string once
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> stringData = new ArrayList<>();
+        int[] records = new int[songs.size() * FIELDS_PER_RECORD];
+        int r = 0;
+        for (Song song : songs) {
+            records[r++] = song.getId();
+            records[r++] = intern(song.getTitle(), stringIndex, stringData);
+            records[r++] = intern(song.getArtist(), stringIndex, stringData);
+            records[r++] = intern(song.getAlbum(), stringIndex, stringData);
+            records[r++] = intern(song.getFilePath(), stringIndex, stringData);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(songs.size());
+            out.writeInt(stringData.size());
+            for (int value : records) {
+                out.writeInt(value);
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] bytes : stringData) {
+                offset += bytes.length;
+                out.writeInt(offset);
+            }
+            for (byte[] bytes : stringData) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing library snapshot: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving library snapshot: " + e.getMessage());
+            return;
+        }
+
+        // Best effort: an older snapshot may still be mapped and is removed next time
+        for (Path file : existing) {
+            if (!file.equals(target)) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Could not remove old library snapshot: " + file);
+                }
+            }
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> stringIndex, List<byte[]> stringData) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        Integer index = stringIndex.get(value);
+        if (index == null) {
+            index = stringData.size();
+            stringIndex.put(value, index);
+            stringData.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return index;
+    }
+
+    private static long parseGeneration(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+}
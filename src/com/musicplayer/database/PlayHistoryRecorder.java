@@ -0,0 +1,152 @@
+package src.com.musicplayer.database;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind recorder for play, skip and completion events.
+ *
+ * Events are appended to in-memory primitive buffers, which is all the EDT
+ * ever does. A background thread flushes them to the PlayHistory table in one
+ * batched transaction every {@link #FLUSH_INTERVAL_MS}, updating the play
+ * count and last-played aggregates on Songs in the same transaction. A crash
+ * loses at most the events of the last interval. A batch that cannot be
+ * written is kept for the next flush; while the database stays unavailable at
+ * most {@link #MAX_PENDING_EVENTS} are kept, the oldest dropped first.
+ */
+public class PlayHistoryRecorder {
+    public static final int EVENT_PLAY = 0;
+    public static final int EVENT_SKIP = 1;
+    public static final int EVENT_COMPLETE = 2;
+
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final int MAX_PENDING_EVENTS = 10_000;
+
+    private final DatabaseManager databaseManager;
+    private final ScheduledExecutorService flusher;
+
+    private int[] songIds = new int[64];
+    private byte[] events = new byte[64];
+    private long[] playedAt = new long[64];
+    private long[] listenedMs = new long[64];
+    private int count;
+
+    public PlayHistoryRecorder(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "play-history-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an event; never touches the database.
+     *
+     * @param songId   The song the event is about
+     * @param event    One of the EVENT_ constants
+     * @param listened How long the song was listened to, in milliseconds
+     */
+    public synchronized void record(int songId, int event, long listened) {
+        if (count == songIds.length) {
+            int capacity = count * 2;
+            songIds = Arrays.copyOf(songIds, capacity);
+            events = Arrays.copyOf(events, capacity);
+            playedAt = Arrays.copyOf(playedAt, capacity);
+            listenedMs = Arrays.copyOf(listenedMs, capacity);
+        }
+        songIds[count] = songId;
+        events[count] = (byte) event;
+        playedAt[count] = System.currentTimeMillis();
+        listenedMs[count] = listened;
+        count++;
+    }
+
+    /**
+     * Stops the background writer and flushes what is still buffered.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flush() {
+        int[] batchSongIds;
+        byte[] batchEvents;
+        long[] batchPlayedAt;
+        long[] batchListenedMs;
+        int batchCount;
+        synchronized (this) {
+            if (count == 0) {
+                return;
+            }
+            batchSongIds = Arrays.copyOf(songIds, count);
+            batchEvents = Arrays.copyOf(events, count);
+            batchPlayedAt = Arrays.copyOf(playedAt, count);
+            batchListenedMs = Arrays.copyOf(listenedMs, count);
+            batchCount = count;
+            count = 0;
+        }
+
+        boolean written;
+        try {
+            written = databaseManager.recordPlayEvents(batchSongIds, batchEvents, batchPlayedAt, batchListenedMs,
+                    batchCount);
+        } catch (RuntimeException e) {
+            // Escaping the scheduled task would cancel every later flush
+            System.err.println("Error writing play history: " + e);
+            written = false;
+        }
+        if (!written) {
+            // Keep the batch for the next flush, ahead of newer events
+            synchronized (this) {
+                songIds = concat(batchSongIds, songIds, count);
+                events = concat(batchEvents, events, count);
+                playedAt = concat(batchPlayedAt, playedAt, count);
+                listenedMs = concat(batchListenedMs, listenedMs, count);
+                count += batchCount;
+                dropOldest(count - MAX_PENDING_EVENTS);
+            }
+        }
+    }
+
+    /** Drops the oldest buffered events, if there are any to drop. */
+    private void dropOldest(int dropped) {
+        if (dropped <= 0) {
+            return;
+        }
+        count -= dropped;
+        System.arraycopy(songIds, dropped, songIds, 0, count);
+        System.arraycopy(events, dropped, events, 0, count);
+        System.arraycopy(playedAt, dropped, playedAt, 0, count);
+        System.arraycopy(listenedMs, dropped, listenedMs, 0, count);
+        System.err.println("Play history: database unavailable, dropped the " + dropped + " oldest events");
+    }
+
+    private static int[] concat(int[] first, int[] second, int secondCount) {
+        int[] result = Arrays.copyOf(first, Math.max(first.length + secondCount, 64));
+        System.arraycopy(second, 0, result, first.length, secondCount);
+        return result;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second, int secondCount) {
+        byte[] result = Arrays.copyOf(first, Math.max(first.length + secondCount, 64));
+        System.arraycopy(second, 0, result, first.length, secondCount);
+        return result;
+    }
+
+    private static long[] concat(long[] first, long[] second, int secondCount) {
+        long[] result = Arrays.copyOf(first, Math.max(first.length + secondCount, 64));
+        System.arraycopy(second, 0, result, first.length, secondCount);
+        return result;
+    }
+}
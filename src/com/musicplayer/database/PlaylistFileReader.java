@@ -0,0 +1,181 @@
+package src.com.musicplayer.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Streaming reader for M3U, M3U8 and PLS playlist files.
+ *
+ * The file is read line by line, so memory use does not depend on the
+ * playlist length. The charset comes from a byte order mark if there is one,
+ * is UTF-8 for .m3u8 files, and is otherwise sniffed from the first block of
+ * the file: valid UTF-8 is read as UTF-8, anything else as Windows-1252, which
+ * is what most players write. Relative entries are resolved against the
+ * directory the playlist is in; URLs other than file: URIs are skipped.
+ */
+public class PlaylistFileReader implements Closeable {
+    private static final int SNIFF_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private final Path baseDirectory;
+    private final boolean pls;
+    private boolean firstLine = true;
+
+    public PlaylistFileReader(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        this.baseDirectory = absolute.getParent();
+        String name = absolute.getFileName().toString().toLowerCase(Locale.ROOT);
+        this.pls = name.endsWith(".pls");
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(absolute), SNIFF_SIZE);
+        try {
+            Charset charset = detectCharset(in, name.endsWith(".m3u8"));
+            this.reader = new BufferedReader(new InputStreamReader(in, charset));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The next entry as an absolute, normalized path, or null at the
+     *         end of the playlist
+     */
+    public String nextPath() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (firstLine) {
+                firstLine = false;
+                // A BOM decoded as text, e.g. UTF-8 declared by the extension
+                if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1);
+                }
+            }
+            String entry = pls ? plsEntry(line) : m3uEntry(line);
+            if (entry != null) {
+                String path = resolve(entry);
+                if (path != null) {
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static String m3uEntry(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        return trimmed;
+    }
+
+    private static String plsEntry(String line) {
+        // Entries look like "File12=path"; titles, lengths and headers are ignored
+        String trimmed = line.trim();
+        if (trimmed.length() < 5 || !trimmed.regionMatches(true, 0, "File", 0, 4)) {
+            return null;
+        }
+        int equals = trimmed.indexOf('=');
+        if (equals < 5) {
+            return null;
+        }
+        for (int i = 4; i < equals; i++) {
+            if (!Character.isDigit(trimmed.charAt(i))) {
+                return null;
+            }
+        }
+        String value = trimmed.substring(equals + 1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private String resolve(String entry) {
+        try {
+            if (entry.regionMatches(true, 0, "file:", 0, 5)) {
+                return Paths.get(URI.create(entry)).normalize().toString();
+            }
+            if (entry.indexOf("://") > 0) {
+                // Streams and other remote entries cannot be added to the library
+                return null;
+            }
+            if (File.separatorChar == '/') {
+                entry = entry.replace('\\', '/');
+            }
+            Path path = Paths.get(entry);
+            if (!path.isAbsolute() && baseDirectory != null) {
+                path = baseDirectory.resolve(path);
+            }
+            return path.normalize().toString();
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            System.err.println("Skipping unreadable playlist entry: " + entry);
+            return null;
+        }
+    }
+
+    private static Charset detectCharset(InputStream in, boolean utf8ByName) throws IOException {
+        in.mark(SNIFF_SIZE);
+        byte[] head = new byte[SNIFF_SIZE];
+        int length = in.readNBytes(head, 0, head.length);
+        in.reset();
+
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            in.skip(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            in.skip(2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (utf8ByName || isUtf8(head, length)) {
+            return StandardCharsets.UTF_8;
+        }
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+    }
+
+    private static boolean isUtf8(byte[] bytes, int length) {
+        // A multi-byte sequence cut off at the end of the block is still valid
+        int end = length;
+        for (int i = Math.max(0, length - 3); i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b >= 0xC0) {
+                int needed = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                if (i + needed > length) {
+                    end = i;
+                }
+            }
+        }
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, 0, end));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package src.com.musicplayer.database;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Streaming writer for M3U, M3U8 and PLS playlist files. The format follows
+ * the file extension; entries are written as they are added, so a playlist of
+ * any length is exported in constant memory. Songs below the playlist's
+ * directory are written as relative paths so the folder can be moved as a
+ * whole.
+ *
+ * Every format is written as UTF-8, .m3u too: a legacy charset cannot hold
+ * most non-Latin paths, and {@link PlaylistFileReader} recognizes UTF-8 in
+ * .m3u files.
+ */
+public class PlaylistFileWriter implements Closeable {
+    private final BufferedWriter writer;
+    private final Path baseDirectory;
+    private final boolean pls;
+    private int count;
+
+    public PlaylistFileWriter(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        this.baseDirectory = absolute.getParent();
+        String name = absolute.getFileName().toString().toLowerCase(Locale.ROOT);
+        this.pls = name.endsWith(".pls");
+
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(absolute), StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(pls ? "[playlist]" : "#EXTM3U");
+        writer.newLine();
+    }
+
+    /**
+     * Appends one entry.
+     *
+     * @param filePath Absolute path of the song
+     * @param title    Song title, may be null
+     * @param artist   Song artist, may be null
+     */
+    public void add(String filePath, String title, String artist) throws IOException {
+        count++;
+        String display = artist == null || artist.isEmpty() || "Unknown Artist".equals(artist)
+                ? title
+                : artist + " - " + title;
+        String entry = relativize(filePath);
+        if (pls) {
+            writer.write("File" + count + "=" + entry);
+            writer.newLine();
+            if (display != null) {
+                writer.write("Title" + count + "=" + display);
+                writer.newLine();
+            }
+        } else {
+            if (display != null) {
+                writer.write("#EXTINF:-1," + display);
+                writer.newLine();
+            }
+            writer.write(entry);
+            writer.newLine();
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (pls) {
+                // PLS allows the entry count after the entries, so it can be streamed
+                writer.write("NumberOfEntries=" + count);
+                writer.newLine();
+                writer.write("Version=2");
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String relativize(String filePath) {
+        try {
+            Path path = Path.of(filePath);
+            if (baseDirectory != null && path.isAbsolute() && path.startsWith(baseDirectory)) {
+                return baseDirectory.relativize(path).toString();
+            }
+        } catch (RuntimeException e) {
+            // Fall back to the stored path
+        }
+        return filePath;
+    }
+}
@@ -0,0 +1,33 @@
+package src.com.musicplayer.model;
+
+/**
+ * A chapter of a long recording, as marked in the file's tags.
+ */
+public class Chapter {
+    private final String title;
+    private final long startMillis;
+    private final long endMillis;
+
+    public Chapter(String title, long startMillis, long endMillis) {
+        this.title = title;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return Where the chapter ends, which is where the next one starts
+     *         unless the file says otherwise; -1 if the file does not say
+     *         where the last chapter ends
+     */
+    public long getEndMillis() {
+        return endMillis;
+    }
+}
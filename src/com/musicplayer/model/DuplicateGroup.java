@@ -0,0 +1,32 @@
+package src.com.musicplayer.model;
+
+import java.util.List;
+
+/**
+ * Songs whose audio data is identical. The first song is the one to keep.
+ */
+public class DuplicateGroup {
+    private final String contentHash;
+    private final List<Song> songs;
+
+    public DuplicateGroup(String contentHash, List<Song> songs) {
+        this.contentHash = contentHash;
+        this.songs = songs;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    public Song getKept() {
+        return songs.get(0);
+    }
+
+    public List<Song> getDuplicates() {
+        return songs.subList(1, songs.size());
+    }
+}
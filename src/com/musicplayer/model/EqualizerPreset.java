@@ -0,0 +1,30 @@
+package src.com.musicplayer.model;
+
+/**
+ * A named set of equalizer gains, one per band from the lowest up.
+ */
+public class EqualizerPreset {
+    private final String name;
+    private final float[] gains;
+
+    public EqualizerPreset(String name, float... gains) {
+        this.name = name;
+        this.gains = gains.clone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The gain of each band in dB
+     */
+    public float[] getGains() {
+        return gains.clone();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,47 @@
+package src.com.musicplayer.model;
+
+/**
+ * Cached file facts used by the duplicate finder. A fingerprint is reused as
+ * long as the file's size and modification time are unchanged.
+ */
+public class FileFingerprint {
+    private final int songId;
+    private final long fileSize;
+    private final long modifiedMillis;
+    private final long payloadSize;
+    private final String contentHash;
+
+    public FileFingerprint(int songId, long fileSize, long modifiedMillis, long payloadSize, String contentHash) {
+        this.songId = songId;
+        this.fileSize = fileSize;
+        this.modifiedMillis = modifiedMillis;
+        this.payloadSize = payloadSize;
+        this.contentHash = contentHash;
+    }
+
+    public int getSongId() {
+        return songId;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getModifiedMillis() {
+        return modifiedMillis;
+    }
+
+    /** @return Size of the audio data without tags, or -1 if not known */
+    public long getPayloadSize() {
+        return payloadSize;
+    }
+
+    /** @return Hex hash of the audio data, or null if it was never needed */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public FileFingerprint withContentHash(String hash) {
+        return new FileFingerprint(songId, fileSize, modifiedMillis, payloadSize, hash);
+    }
+}
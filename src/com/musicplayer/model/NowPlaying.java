@@ -0,0 +1,34 @@
+package src.com.musicplayer.model;
+
+public class NowPlaying {
+    private final Song song;
+    private final boolean playing;
+    private final int position; // in seconds
+    private final int duration; // in seconds
+
+    public NowPlaying(Song song, boolean playing, int position, int duration) {
+        this.song = song;
+        this.playing = playing;
+        this.position = position;
+        this.duration = duration;
+    }
+
+    /**
+     * @return The current song, or null if the playlist is empty
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+}
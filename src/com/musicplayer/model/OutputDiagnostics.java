@@ -0,0 +1,64 @@
+package src.com.musicplayer.model;
+
+/**
+ * The state of the audio output, for diagnostics.
+ */
+public class OutputDiagnostics {
+    private final int bufferBytes;
+    private final int bufferMillis;
+    private final int latencyMillis;
+    private final long underruns;
+    private final long underrunMillis;
+    private final int resizes;
+
+    public OutputDiagnostics(int bufferBytes, int bufferMillis, int latencyMillis, long underruns,
+            long underrunMillis, int resizes) {
+        this.bufferBytes = bufferBytes;
+        this.bufferMillis = bufferMillis;
+        this.latencyMillis = latencyMillis;
+        this.underruns = underruns;
+        this.underrunMillis = underrunMillis;
+        this.resizes = resizes;
+    }
+
+    /**
+     * @return The size of the output line's buffer, 0 if no line is open
+     */
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public int getBufferMillis() {
+        return bufferMillis;
+    }
+
+    /**
+     * @return How long audio written now takes to be heard, from how full the
+     *         line's buffer is
+     */
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return How often the output ran dry since the player was created
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * @return The estimated time the output went without audio
+     */
+    public long getUnderrunMillis() {
+        return underrunMillis;
+    }
+
+    /**
+     * @return How often the buffer size was changed after an underrun or a
+     *         stable spell
+     */
+    public int getResizes() {
+        return resizes;
+    }
+}
@@ -0,0 +1,68 @@
+package src.com.musicplayer.model;
+
+import java.util.Objects;
+
+public class PlaybackState {
+    private final String filePath;
+    private final int position; // in seconds
+    private final boolean shuffling;
+    private final boolean smartShuffle;
+    private final boolean looping;
+    private final long shuffleSeed;
+
+    public PlaybackState(String filePath, int position, boolean shuffling, boolean smartShuffle, boolean looping,
+            long shuffleSeed) {
+        this.filePath = filePath;
+        this.position = position;
+        this.shuffling = shuffling;
+        this.smartShuffle = smartShuffle;
+        this.looping = looping;
+        this.shuffleSeed = shuffleSeed;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean isShuffling() {
+        return shuffling;
+    }
+
+    public boolean isSmartShuffle() {
+        return smartShuffle;
+    }
+
+    public boolean isLooping() {
+        return looping;
+    }
+
+    public long getShuffleSeed() {
+        return shuffleSeed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlaybackState)) {
+            return false;
+        }
+        PlaybackState other = (PlaybackState) o;
+        return position == other.position
+                && shuffling == other.shuffling
+                && smartShuffle == other.smartShuffle
+                && looping == other.looping
+                && shuffleSeed == other.shuffleSeed
+                && Objects.equals(filePath, other.filePath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(filePath, position, shuffling, smartShuffle, looping, shuffleSeed);
+    }
+}
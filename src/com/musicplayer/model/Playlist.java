@@ -0,0 +1,24 @@
+package src.com.musicplayer.model;
+
+public class Playlist {
+    private int id;
+    private String name;
+
+    public Playlist(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+package src.com.musicplayer.model;
+
+public class PlaylistEntry {
+    private final long sortKey;
+    private final int songId;
+
+    public PlaylistEntry(long sortKey, int songId) {
+        this.sortKey = sortKey;
+        this.songId = songId;
+    }
+
+    public long getSortKey() {
+        return sortKey;
+    }
+
+    public int getSongId() {
+        return songId;
+    }
+}
@@ -0,0 +1,36 @@
+package src.com.musicplayer.model;
+
+/**
+ * Outcome of importing a playlist file.
+ */
+public class PlaylistImport {
+    private final Playlist playlist;
+    private final int entryCount;
+    private final int addedSongCount;
+    private final int missingCount;
+
+    public PlaylistImport(Playlist playlist, int entryCount, int addedSongCount, int missingCount) {
+        this.playlist = playlist;
+        this.entryCount = entryCount;
+        this.addedSongCount = addedSongCount;
+        this.missingCount = missingCount;
+    }
+
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /** @return Songs that were not in the library yet and have been added */
+    public int getAddedSongCount() {
+        return addedSongCount;
+    }
+
+    /** @return Entries skipped because their file does not exist */
+    public int getMissingCount() {
+        return missingCount;
+    }
+}
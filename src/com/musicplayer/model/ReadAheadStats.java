@@ -0,0 +1,67 @@
+package src.com.musicplayer.model;
+
+/**
+ * Counters of the read-ahead buffering of files on slow storage, totalled over
+ * all streams since startup.
+ */
+public class ReadAheadStats {
+    private final int streams;
+    private final long underruns;
+    private final long underrunMillis;
+    private final long stalls;
+    private final long stallMillis;
+    private final long longestStallMillis;
+    private final int largestBuffer; // in bytes
+
+    public ReadAheadStats(int streams, long underruns, long underrunMillis, long stalls, long stallMillis,
+            long longestStallMillis, int largestBuffer) {
+        this.streams = streams;
+        this.underruns = underruns;
+        this.underrunMillis = underrunMillis;
+        this.stalls = stalls;
+        this.stallMillis = stallMillis;
+        this.longestStallMillis = longestStallMillis;
+        this.largestBuffer = largestBuffer;
+    }
+
+    /**
+     * @return The number of files read through read-ahead
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * @return How often a reader found the buffer empty and had to wait for
+     *         storage, not counting the first fill after opening or seeking
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getUnderrunMillis() {
+        return underrunMillis;
+    }
+
+    /**
+     * @return How many reads from storage were slow enough to count as a stall
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    public long getStallMillis() {
+        return stallMillis;
+    }
+
+    public long getLongestStallMillis() {
+        return longestStallMillis;
+    }
+
+    /**
+     * @return The largest buffer size any stream has grown to
+     */
+    public int getLargestBuffer() {
+        return largestBuffer;
+    }
+}
@@ -1,18 +1,24 @@
 package src.com.musicplayer.model;
 
 public class Song {
+    private int id;
     private String title;
     private String artist;
     private String album;
     private String filePath;
 
-    public Song(String title, String artist, String album, String filePath) {
+    public Song(int id, String title, String artist, String album, String filePath) {
+        this.id = id;
         this.title = title;
         this.artist = artist;
         this.album = album;
         this.filePath = filePath;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public String getTitle() {
         return title;
     }
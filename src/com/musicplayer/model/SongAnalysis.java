@@ -0,0 +1,49 @@
+package src.com.musicplayer.model;
+
+/**
+ * Tempo and key of a song, as measured by the library analysis.
+ */
+public class SongAnalysis {
+    private static final String[] PITCH_NAMES = { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
+
+    private final double bpm;
+    private final String key;
+
+    public SongAnalysis(double bpm, String key) {
+        this.bpm = bpm;
+        this.key = key;
+    }
+
+    /** @return The tempo in BPM, or NaN if none was detected */
+    public double getBpm() {
+        return bpm;
+    }
+
+    /** @return The key such as "A" or "F#m", or null if none was detected */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Position of the key on the Camelot wheel, so that harmonically
+     * compatible keys sort next to each other: 1A, 1B, 2A, ... 12B.
+     *
+     * @return The sort position, or Integer.MAX_VALUE without a key
+     */
+    public int getKeyOrder() {
+        if (key == null) {
+            return Integer.MAX_VALUE;
+        }
+        boolean minor = key.endsWith("m");
+        String pitch = minor ? key.substring(0, key.length() - 1) : key;
+        for (int i = 0; i < PITCH_NAMES.length; i++) {
+            if (PITCH_NAMES[i].equals(pitch)) {
+                // A minor key sits on the wheel with its relative major
+                int major = minor ? (i + 3) % 12 : i;
+                int camelot = (major * 7 + 7) % 12 + 1;
+                return camelot * 2 + (minor ? 0 : 1);
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+}
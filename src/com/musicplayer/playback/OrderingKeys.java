@@ -0,0 +1,35 @@
+package src.com.musicplayer.playback;
+
+/**
+ * Sparse ordering keys for persisted lists. Neighbouring entries start
+ * {@link #GAP} apart, so an entry can be moved by giving it a key between its
+ * new neighbours without touching any other row.
+ */
+final class OrderingKeys {
+    static final long GAP = 1L << 20;
+    static final long RENUMBER = Long.MIN_VALUE;
+
+    private OrderingKeys() {
+    }
+
+    /**
+     * @return A key that sorts between the given neighbours, or
+     *         {@link #RENUMBER} if there is no room left and the list has to be
+     *         renumbered
+     */
+    static long between(boolean hasBefore, long before, boolean hasAfter, long after) {
+        if (!hasBefore && !hasAfter) {
+            return 0;
+        }
+        if (!hasBefore) {
+            return after - GAP;
+        }
+        if (!hasAfter) {
+            return before + GAP;
+        }
+        if (after - before >= 2) {
+            return before + (after - before) / 2;
+        }
+        return RENUMBER;
+    }
+}
@@ -0,0 +1,250 @@
+package src.com.musicplayer.playback;
+
+import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.model.QueueEntry;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The "Up Next" queue: songs the user asked to hear before playback continues
+ * with the playlist.
+ *
+ * Song ids and their ordering keys are held in two parallel ring buffers, so
+ * adding at either end, taking the next song and reading any position are
+ * O(1). Removing or moving an entry in the middle shifts the entries in
+ * between in memory, O(n) in the worst case: the queue is filled by hand and
+ * stays small, where shifting a few thousand ints costs microseconds, which a
+ * tree indexed by position would not beat while making every read O(log n).
+ * Removal shifts whichever side of the entry is shorter, and a move only the
+ * entries between its two positions. Ordering keys are sparse, which lets
+ * every change be persisted as a single-row write; only when two
+ * neighbouring keys run out of room is the queue renumbered. Writes go to the
+ * database in order on one background thread and never block the caller.
+ * Except for {@link #awaitPendingWrites()}, all methods must be called on the
+ * EDT.
+ */
+public class PlayQueue {
+    private final DatabaseManager databaseManager;
+    private final ExecutorService writer;
+
+    private int[] songIds = new int[16];
+    private long[] sortKeys = new long[16];
+    private int head;
+    private int count;
+
+    public PlayQueue(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "queue-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replaces the in-memory queue with the persisted entries.
+     *
+     * @param entries The entries in play order
+     */
+    public void load(List<QueueEntry> entries) {
+        head = 0;
+        count = 0;
+        for (QueueEntry entry : entries) {
+            ensureCapacity(count + 1);
+            songIds[count] = entry.getSongId();
+            sortKeys[count] = entry.getSortKey();
+            count++;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param position Position in the queue, 0 is played next
+     * @return The song id at that position
+     */
+    public int get(int position) {
+        checkPosition(position);
+        return songIds[slot(position)];
+    }
+
+    /** Queues a song to play right after the current one. */
+    public void playNext(int songId) {
+        long key = OrderingKeys.between(false, 0, count > 0, count > 0 ? sortKeys[slot(0)] : 0);
+        ensureCapacity(count + 1);
+        head = (head - 1) & (songIds.length - 1);
+        songIds[head] = songId;
+        sortKeys[head] = key;
+        count++;
+        writer.execute(() -> databaseManager.insertQueueEntry(key, songId));
+    }
+
+    /** Queues a song after everything already queued. */
+    public void addLast(int songId) {
+        long key = OrderingKeys.between(count > 0, count > 0 ? sortKeys[slot(count - 1)] : 0, false, 0);
+        ensureCapacity(count + 1);
+        int slot = slot(count);
+        songIds[slot] = songId;
+        sortKeys[slot] = key;
+        count++;
+        writer.execute(() -> databaseManager.insertQueueEntry(key, songId));
+    }
+
+    /**
+     * Takes the next song off the queue.
+     *
+     * @return The song id, or -1 if the queue is empty
+     */
+    public int poll() {
+        if (count == 0) {
+            return -1;
+        }
+        int songId = songIds[head];
+        long key = sortKeys[head];
+        head = (head + 1) & (songIds.length - 1);
+        count--;
+        writer.execute(() -> databaseManager.deleteQueueEntry(key));
+        return songId;
+    }
+
+    public void remove(int position) {
+        checkPosition(position);
+        long key = sortKeys[slot(position)];
+        if (position < count / 2) {
+            // Closer to the head: shift the entries before it back by one
+            for (int i = position; i > 0; i--) {
+                copy(i - 1, i);
+            }
+            head = (head + 1) & (songIds.length - 1);
+        } else {
+            for (int i = position; i < count - 1; i++) {
+                copy(i + 1, i);
+            }
+        }
+        count--;
+        writer.execute(() -> databaseManager.deleteQueueEntry(key));
+    }
+
+    /**
+     * Moves an entry so that it ends up at position {@code to}. Only the moved
+     * entry gets a new ordering key.
+     */
+    public void move(int from, int to) {
+        checkPosition(from);
+        checkPosition(to);
+        if (from == to) {
+            return;
+        }
+        int songId = songIds[slot(from)];
+        long oldKey = sortKeys[slot(from)];
+
+        if (from < to) {
+            for (int i = from; i < to; i++) {
+                copy(i + 1, i);
+            }
+        } else {
+            for (int i = from; i > to; i--) {
+                copy(i - 1, i);
+            }
+        }
+
+        // Neighbours at the target position, with the moved entry taken out
+        boolean hasBefore = to > 0;
+        boolean hasAfter = to < count - 1;
+        long before = hasBefore ? sortKeys[slot(to - 1)] : 0;
+        long after = hasAfter ? sortKeys[slot(to + 1)] : 0;
+        long newKey = OrderingKeys.between(hasBefore, before, hasAfter, after);
+        if (newKey == OrderingKeys.RENUMBER) {
+            songIds[slot(to)] = songId;
+            renumber();
+            return;
+        }
+
+        songIds[slot(to)] = songId;
+        sortKeys[slot(to)] = newKey;
+        writer.execute(() -> databaseManager.updateQueueEntryKey(oldKey, newKey));
+    }
+
+    /**
+     * Blocks until all writes submitted so far are in the database. Called off
+     * the EDT before songs the queue may refer to are deleted.
+     */
+    public void awaitPendingWrites() throws InterruptedException {
+        try {
+            writer.submit(() -> {
+            }).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            // Nothing left to wait for
+        }
+    }
+
+    /**
+     * Waits briefly for pending writes, called on shutdown.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renumber() {
+        int[] ids = new int[count];
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int slot = slot(i);
+            sortKeys[slot] = i * OrderingKeys.GAP;
+            ids[i] = songIds[slot];
+            keys[i] = sortKeys[slot];
+        }
+        int size = count;
+        writer.execute(() -> databaseManager.replaceQueue(keys, ids, size));
+    }
+
+    private void copy(int fromPosition, int toPosition) {
+        int from = slot(fromPosition);
+        int to = slot(toPosition);
+        songIds[to] = songIds[from];
+        sortKeys[to] = sortKeys[from];
+    }
+
+    private int slot(int position) {
+        return (head + position) & (songIds.length - 1);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Queue position " + position + ", size " + count);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= songIds.length) {
+            return;
+        }
+        // Capacity stays a power of two so slots can be masked
+        int newLength = songIds.length * 2;
+        int[] newIds = new int[newLength];
+        long[] newKeys = new long[newLength];
+        for (int i = 0; i < count; i++) {
+            newIds[i] = songIds[slot(i)];
+            newKeys[i] = sortKeys[slot(i)];
+        }
+        songIds = newIds;
+        sortKeys = newKeys;
+        head = 0;
+    }
+}
@@ -0,0 +1,249 @@
+package src.com.musicplayer.playback;
+
+import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.model.PlaylistEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory order of one user playlist.
+ *
+ * Song ids and their sparse ordering keys are held in parallel arrays and are
+ * filled page by page as the playlist is loaded. Like the queue, adding,
+ * removing or moving an entry is persisted as a single-row write; the playlist
+ * is only renumbered when two neighbouring keys run out of room. Writes for
+ * all playlists go to the database in order on one background thread. All
+ * methods must be called on the EDT.
+ *
+ * New keys are taken from the neighbouring entries in memory, which is only
+ * safe once every entry is: until then a key past the last loaded entry could
+ * be one the database already holds. So moving waits for the playlist to be
+ * fully loaded, and songs added while it loads are held back and appended
+ * when it is.
+ */
+public class PlaylistOrder {
+    /** Distance between the ordering keys of consecutive new entries. */
+    public static final long KEY_GAP = OrderingKeys.GAP;
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "playlist-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DatabaseManager databaseManager;
+    private final int playlistId;
+
+    private int[] songIds = new int[64];
+    private long[] sortKeys = new long[64];
+    private int count;
+    private boolean fullyLoaded;
+    private final List<Integer> pendingSongIds = new ArrayList<>(); // added while loading
+
+    public PlaylistOrder(DatabaseManager databaseManager, int playlistId) {
+        this.databaseManager = databaseManager;
+        this.playlistId = playlistId;
+    }
+
+    public int getPlaylistId() {
+        return playlistId;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getSongId(int position) {
+        checkPosition(position);
+        return songIds[position];
+    }
+
+    /**
+     * @return The ordering key of the last loaded entry, where the next page
+     *         starts
+     */
+    public long getLastKey() {
+        return count > 0 ? sortKeys[count - 1] : Long.MIN_VALUE;
+    }
+
+    public boolean isFullyLoaded() {
+        return fullyLoaded;
+    }
+
+    /**
+     * Marks the playlist as fully loaded and appends the songs added while it
+     * was loading.
+     *
+     * @return The song ids appended, in order
+     */
+    public List<Integer> finishLoading() {
+        fullyLoaded = true;
+        List<Integer> appended = new ArrayList<>(pendingSongIds);
+        pendingSongIds.clear();
+        for (int songId : appended) {
+            add(songId);
+        }
+        return appended;
+    }
+
+    /**
+     * Gives up on a playlist whose loading failed. Songs added while it was
+     * loading are appended in the database, where the last key is known.
+     */
+    public void abandonLoading() {
+        for (int songId : pendingSongIds) {
+            append(databaseManager, playlistId, songId);
+        }
+        pendingSongIds.clear();
+    }
+
+    /**
+     * Appends a page read from the database.
+     *
+     * @param page The entries in play order, all after {@link #getLastKey()}
+     */
+    public void appendLoaded(List<PlaylistEntry> page) {
+        ensureCapacity(count + page.size());
+        for (PlaylistEntry entry : page) {
+            songIds[count] = entry.getSongId();
+            sortKeys[count] = entry.getSortKey();
+            count++;
+        }
+    }
+
+    /**
+     * Adds a song at the end of the playlist, or once it is fully loaded if it
+     * is still loading.
+     */
+    public void add(int songId) {
+        if (!fullyLoaded) {
+            pendingSongIds.add(songId);
+            return;
+        }
+        long key = OrderingKeys.between(count > 0, count > 0 ? sortKeys[count - 1] : 0, false, 0);
+        ensureCapacity(count + 1);
+        songIds[count] = songId;
+        sortKeys[count] = key;
+        count++;
+        WRITER.execute(() -> databaseManager.insertPlaylistEntry(playlistId, key, songId));
+    }
+
+    public void remove(int position) {
+        checkPosition(position);
+        long key = sortKeys[position];
+        System.arraycopy(songIds, position + 1, songIds, position, count - position - 1);
+        System.arraycopy(sortKeys, position + 1, sortKeys, position, count - position - 1);
+        count--;
+        WRITER.execute(() -> databaseManager.deletePlaylistEntry(playlistId, key));
+    }
+
+    /**
+     * Moves an entry so that it ends up at position {@code to}. Only the moved
+     * entry gets a new ordering key.
+     *
+     * @throws IllegalStateException If the playlist is not fully loaded yet
+     */
+    public void move(int from, int to) {
+        if (!fullyLoaded) {
+            throw new IllegalStateException("Playlist " + playlistId + " is still loading");
+        }
+        checkPosition(from);
+        checkPosition(to);
+        if (from == to) {
+            return;
+        }
+        int songId = songIds[from];
+        long oldKey = sortKeys[from];
+        if (from < to) {
+            System.arraycopy(songIds, from + 1, songIds, from, to - from);
+            System.arraycopy(sortKeys, from + 1, sortKeys, from, to - from);
+        } else {
+            System.arraycopy(songIds, to, songIds, to + 1, from - to);
+            System.arraycopy(sortKeys, to, sortKeys, to + 1, from - to);
+        }
+        songIds[to] = songId;
+
+        boolean hasBefore = to > 0;
+        boolean hasAfter = to < count - 1;
+        long newKey = OrderingKeys.between(hasBefore, hasBefore ? sortKeys[to - 1] : 0,
+                hasAfter, hasAfter ? sortKeys[to + 1] : 0);
+        if (newKey == OrderingKeys.RENUMBER) {
+            renumber();
+            return;
+        }
+        sortKeys[to] = newKey;
+        WRITER.execute(() -> databaseManager.updatePlaylistEntryKey(playlistId, oldKey, newKey));
+    }
+
+    /**
+     * Appends a song to a playlist that is not loaded; the database picks the
+     * key after its last entry.
+     */
+    public static void append(DatabaseManager databaseManager, int playlistId, int songId) {
+        WRITER.execute(() -> databaseManager.appendPlaylistEntry(playlistId, songId, OrderingKeys.GAP));
+    }
+
+    /**
+     * Deletes a playlist, ordered after any writes still pending for it.
+     */
+    public static void delete(DatabaseManager databaseManager, int playlistId) {
+        WRITER.execute(() -> databaseManager.deletePlaylist(playlistId));
+    }
+
+    /**
+     * Blocks until all writes submitted so far are in the database. Called off
+     * the EDT before a playlist is read back.
+     */
+    public static void awaitPendingWrites() throws InterruptedException {
+        try {
+            WRITER.submit(() -> {
+            }).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            // Nothing left to wait for
+        }
+    }
+
+    /**
+     * Waits briefly for pending playlist writes, called on shutdown.
+     */
+    public static void shutdownWriter() {
+        WRITER.shutdown();
+        try {
+            WRITER.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renumber() {
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = i * OrderingKeys.GAP;
+        }
+        int[] ids = Arrays.copyOf(songIds, count);
+        long[] keys = Arrays.copyOf(sortKeys, count);
+        int size = count;
+        WRITER.execute(() -> databaseManager.replacePlaylistEntries(playlistId, keys, ids, size));
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Playlist position " + position + ", size " + count);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= songIds.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, songIds.length * 2);
+        songIds = Arrays.copyOf(songIds, newLength);
+        sortKeys = Arrays.copyOf(sortKeys, newLength);
+    }
+}
@@ -0,0 +1,328 @@
+package src.com.musicplayer.playback;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shuffled play order over playlist indices.
+ *
+ * The order is kept in an int[] together with its inverse (the position of
+ * every song in the order), so finding the next or previous song is O(1).
+ * Shuffling is an in-place Fisher-Yates pass, and playlist changes are patched
+ * into the existing order instead of reshuffling everything.
+ *
+ * Smart shuffle spreads songs of the same artist (and, within an artist, the
+ * same album) evenly over the order, so they rarely play back-to-back. Songs
+ * get a sort key in [0, 1) and are bucketed into windows in O(n); a window is
+ * only sorted when playback first reaches it.
+ */
+public class ShuffleEngine {
+    private static final int WINDOW_SIZE = 4096;
+    private static final double KEY_SCALE = Integer.MAX_VALUE;
+
+    private int[] order = new int[0];
+    private int[] position = new int[0];
+    private int size;
+
+    // Smart shuffle: sort keys per song and lazily sorted windows of the order
+    private int[] keys;
+    private int[] windowStart;
+    private boolean[] windowSorted;
+
+    /**
+     * Builds a new random order over {@code size} songs.
+     *
+     * @param size The number of songs in the playlist
+     * @param seed Seed for the order, the same seed and size give the same order
+     */
+    public void shuffle(int size, long seed) {
+        ensureCapacity(size);
+        this.size = size;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(seed);
+        shuffleRange(order, 0, size, random);
+        clearWindows();
+        rebuildPositions();
+    }
+
+    /**
+     * Builds an artist-aware order. Within every album the tracks are shuffled
+     * and spread evenly; within every artist the tracks are ordered by that
+     * album spread and then spread evenly, with a random offset per artist, over
+     * the whole order. All steps work on primitive arrays in O(n log n).
+     *
+     * @param artistIds Dense artist id per playlist index
+     * @param albumIds  Dense album id per playlist index, unique per artist
+     * @param seed      Seed for the order
+     */
+    public void smartShuffle(int[] artistIds, int[] albumIds, long seed) {
+        int size = artistIds.length;
+        ensureCapacity(size);
+        this.size = size;
+        Random random = new Random(seed);
+
+        // Spread each album's tracks over [0, 1)
+        double[] albumKey = new double[size];
+        int[] groupStart = groupBy(albumIds, order);
+        for (int g = 0; g + 1 < groupStart.length; g++) {
+            int from = groupStart[g];
+            int count = groupStart[g + 1] - from;
+            if (count == 0) {
+                continue;
+            }
+            shuffleRange(order, from, groupStart[g + 1], random);
+            double offset = random.nextDouble() / count;
+            for (int i = 0; i < count; i++) {
+                albumKey[order[from + i]] = offset + (double) i / count;
+            }
+        }
+
+        // Order each artist's tracks by album spread, then spread them over [0, 1)
+        keys = new int[size];
+        groupStart = groupBy(artistIds, order);
+        long[] packed = new long[size];
+        for (int g = 0; g + 1 < groupStart.length; g++) {
+            int from = groupStart[g];
+            int count = groupStart[g + 1] - from;
+            if (count == 0) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                int song = order[from + i];
+                packed[i] = ((long) (albumKey[song] * KEY_SCALE) << 32) | song;
+            }
+            Arrays.sort(packed, 0, count);
+
+            double step = 1.0 / count;
+            double offset = random.nextDouble() * step;
+            for (int i = 0; i < count; i++) {
+                // Small jitter so artists with the same count don't stay in lockstep
+                double key = offset + i * step + (random.nextDouble() - 0.5) * step * 0.2;
+                key = Math.min(Math.max(key, 0.0), Math.nextDown(1.0));
+                keys[(int) packed[i]] = (int) (key * KEY_SCALE);
+            }
+        }
+
+        // Bucket into windows by key; each window is sorted on first use
+        int windows = Math.max(1, (size + WINDOW_SIZE - 1) / WINDOW_SIZE);
+        int[] windowOfSong = new int[size];
+        for (int song = 0; song < size; song++) {
+            windowOfSong[song] = (int) ((long) keys[song] * windows / ((long) Integer.MAX_VALUE + 1));
+        }
+        windowStart = groupBy(windowOfSong, order, windows);
+        windowSorted = new boolean[windows];
+        rebuildPositions();
+    }
+
+    /**
+     * Patches the order after the playlist changed. Songs that are still present
+     * keep their relative order, removed songs are dropped and new songs are
+     * shuffled among themselves and merged in at random positions, each
+     * interleaving with the surviving order equally likely.
+     *
+     * @param newIndexOfOld For every old playlist index, its new index or -1 if removed
+     * @param newSize       The size of the new playlist
+     * @param random        Source of randomness for placing new songs
+     */
+    public void remap(int[] newIndexOfOld, int newSize, Random random) {
+        sortAllWindows();
+        clearWindows();
+        int[] surviving = new int[newSize];
+        boolean[] placed = new boolean[newSize];
+        int survivingCount = 0;
+        for (int i = 0; i < size; i++) {
+            int mapped = order[i] < newIndexOfOld.length ? newIndexOfOld[order[i]] : -1;
+            if (mapped >= 0 && mapped < newSize && !placed[mapped]) {
+                surviving[survivingCount++] = mapped;
+                placed[mapped] = true;
+            }
+        }
+        int[] added = new int[newSize - survivingCount];
+        int addedCount = 0;
+        for (int song = 0; song < newSize; song++) {
+            if (!placed[song]) {
+                // Inside-out Fisher-Yates among the new songs only
+                int j = random.nextInt(addedCount + 1);
+                added[addedCount] = added[j];
+                added[j] = song;
+                addedCount++;
+            }
+        }
+
+        // Take the next song from either list in proportion to what each has
+        // left, which makes every interleaving equally likely
+        int[] newOrder = new int[Math.max(newSize, 1)];
+        int s = 0;
+        int a = 0;
+        for (int i = 0; i < newSize; i++) {
+            if (a == addedCount || (s < survivingCount
+                    && random.nextInt(survivingCount - s + addedCount - a) < survivingCount - s)) {
+                newOrder[i] = surviving[s++];
+            } else {
+                newOrder[i] = added[a++];
+            }
+        }
+
+        order = newOrder;
+        size = newSize;
+        position = new int[order.length];
+        rebuildPositions();
+    }
+
+    public void clear() {
+        size = 0;
+        clearWindows();
+    }
+
+    /**
+     * @param playlistSize The current playlist size
+     * @return true if the order covers exactly that many songs
+     */
+    public boolean isValidFor(int playlistSize) {
+        return size > 0 && size == playlistSize;
+    }
+
+    /**
+     * @return The song after this one, or the first if it is not in the order
+     */
+    public int next(int songIndex) {
+        return songAt((positionOf(songIndex) + 1) % size);
+    }
+
+    /**
+     * @return The song before this one, or the last if it is not in the order
+     */
+    public int previous(int songIndex) {
+        int current = positionOf(songIndex);
+        if (current < 0) {
+            return songAt(size - 1);
+        }
+        return songAt((current - 1 + size) % size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return The song's place in the order, or -1 if it is outside it */
+    private int positionOf(int songIndex) {
+        if (songIndex < 0 || songIndex >= size) {
+            return -1;
+        }
+        // Sorting only permutes a window, so the song stays in the same window
+        ensureWindowSorted(position[songIndex]);
+        return position[songIndex];
+    }
+
+    private int songAt(int orderPosition) {
+        ensureWindowSorted(orderPosition);
+        return order[orderPosition];
+    }
+
+    private void ensureWindowSorted(int orderPosition) {
+        if (windowStart == null) {
+            return;
+        }
+        int window = Arrays.binarySearch(windowStart, 0, windowSorted.length, orderPosition);
+        if (window < 0) {
+            window = -window - 2;
+        } else {
+            // Skip empty windows that start at the same position
+            while (window + 1 < windowSorted.length && windowStart[window + 1] == orderPosition) {
+                window++;
+            }
+        }
+        if (windowSorted[window]) {
+            return;
+        }
+
+        int from = windowStart[window];
+        int to = windowStart[window + 1];
+        long[] packed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            packed[i - from] = ((long) keys[order[i]] << 32) | order[i];
+        }
+        Arrays.sort(packed);
+        for (int i = from; i < to; i++) {
+            int song = (int) packed[i - from];
+            order[i] = song;
+            position[song] = i;
+        }
+        windowSorted[window] = true;
+    }
+
+    private void sortAllWindows() {
+        if (windowStart == null) {
+            return;
+        }
+        for (int window = 0; window < windowSorted.length; window++) {
+            if (windowStart[window] < windowStart[window + 1]) {
+                ensureWindowSorted(windowStart[window]);
+            }
+        }
+    }
+
+    private void clearWindows() {
+        keys = null;
+        windowStart = null;
+        windowSorted = null;
+    }
+
+    private static void shuffleRange(int[] values, int from, int to, Random random) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    /**
+     * Counting sort of song indices by a dense group id.
+     *
+     * @param groupIds Group id per song
+     * @param out      Receives the song indices, grouped
+     * @return Start offset of every group in {@code out}, plus the end offset
+     */
+    private static int[] groupBy(int[] groupIds, int[] out) {
+        int groups = 0;
+        for (int id : groupIds) {
+            groups = Math.max(groups, id + 1);
+        }
+        return groupBy(groupIds, out, groups);
+    }
+
+    private static int[] groupBy(int[] groupIds, int[] out, int groups) {
+        int[] start = new int[groups + 1];
+        for (int id : groupIds) {
+            start[id + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            start[g + 1] += start[g];
+        }
+        int[] next = Arrays.copyOf(start, groups);
+        for (int song = 0; song < groupIds.length; song++) {
+            out[next[groupIds[song]]++] = song;
+        }
+        return start;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (order.length < capacity) {
+            order = new int[capacity];
+            position = new int[capacity];
+        } else if (order.length > capacity * 4 && order.length > 1024) {
+            // Release memory after the library shrank a lot
+            order = Arrays.copyOf(order, capacity);
+            position = Arrays.copyOf(position, capacity);
+        }
+    }
+
+    private void rebuildPositions() {
+        for (int i = 0; i < size; i++) {
+            position[order[i]] = i;
+        }
+    }
+}
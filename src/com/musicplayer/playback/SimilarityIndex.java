@@ -0,0 +1,462 @@
+package src.com.musicplayer.playback;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Approximate nearest-neighbour index over per-song audio feature vectors, used
+ * to find songs that sound alike.
+ *
+ * Vectors are standardized per dimension and weighted so timbre, tempo and
+ * loudness each carry a fixed share of the distance. They are kept in one flat
+ * float[] and indexed by a forest of random-projection trees: every inner node
+ * splits its songs by the hyperplane halfway between two random members, and
+ * every tree's leaves are contiguous runs of one permutation of the songs. A
+ * query walks all trees best-first by distance to the splitting planes until
+ * it has enough candidates, then ranks those exactly.
+ *
+ * The whole index is written to a single binary file in the data directory and
+ * read back in one pass at launch.
+ */
+public class SimilarityIndex {
+    private static final int MAGIC = 0x484D5349; // "HMSI"
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "similarity.index";
+    private static final int TREE_COUNT = 10;
+    private static final int LEAF_SIZE = 32;
+    private static final int SPLIT_ATTEMPTS = 3;
+
+    // Share of the squared distance per feature group
+    private static final float TIMBRE_WEIGHT = 2.0f;
+    private static final float TEMPO_WEIGHT = 1.0f;
+    private static final float LOUDNESS_WEIGHT = 0.5f;
+
+    private final int dimensions;
+    private final int[] songIds;
+    private final float[] vectors;
+    private final int[] roots;
+    // Inner node: children; leaf: left is -1 - start in leafItems, right the length
+    private final int[] left;
+    private final int[] right;
+    // Splitting plane per node: normal followed by offset
+    private final float[] planes;
+    private final int[] leafItems;
+    private final Map<Integer, Integer> indexById;
+
+    private SimilarityIndex(int dimensions, int[] songIds, float[] vectors, int[] roots, int[] left, int[] right,
+            float[] planes, int[] leafItems) {
+        this.dimensions = dimensions;
+        this.songIds = songIds;
+        this.vectors = vectors;
+        this.roots = roots;
+        this.left = left;
+        this.right = right;
+        this.planes = planes;
+        this.leafItems = leafItems;
+        this.indexById = new HashMap<>(songIds.length * 2);
+        for (int i = 0; i < songIds.length; i++) {
+            indexById.put(songIds[i], i);
+        }
+    }
+
+    public int size() {
+        return songIds.length;
+    }
+
+    /**
+     * Builds an index.
+     *
+     * @param features Feature vector by song id: timbre features followed by
+     *                 tempo in BPM and loudness in LUFS, NaN where unknown
+     * @param seed     Seed for the random splits
+     * @return The index, or null if there are no features
+     */
+    public static SimilarityIndex build(Map<Integer, float[]> features, long seed) {
+        int count = features.size();
+        if (count == 0) {
+            return null;
+        }
+        int dimensions = features.values().iterator().next().length;
+        int[] songIds = new int[count];
+        float[] vectors = new float[count * dimensions];
+        int n = 0;
+        for (Map.Entry<Integer, float[]> entry : features.entrySet()) {
+            songIds[n] = entry.getKey();
+            float[] vector = entry.getValue();
+            System.arraycopy(vector, 0, vectors, n * dimensions, dimensions);
+            // Tempo is compared on a log scale, so 70 vs 140 counts like 120 vs 240
+            int tempo = n * dimensions + dimensions - 2;
+            vectors[tempo] = vectors[tempo] > 0 ? (float) (Math.log(vectors[tempo]) / Math.log(2)) : Float.NaN;
+            n++;
+        }
+        standardize(vectors, count, dimensions);
+
+        int[] leafItems = new int[count * TREE_COUNT];
+        int[] roots = new int[TREE_COUNT];
+        Builder builder = new Builder(dimensions, vectors, leafItems, new Random(seed),
+                TREE_COUNT * (4 * count / LEAF_SIZE + 1));
+        for (int tree = 0; tree < TREE_COUNT; tree++) {
+            int start = tree * count;
+            for (int i = 0; i < count; i++) {
+                leafItems[start + i] = i;
+            }
+            roots[tree] = builder.buildTree(start, start + count);
+        }
+        int nodes = builder.nodeCount;
+        return new SimilarityIndex(dimensions, songIds, vectors, roots, Arrays.copyOf(builder.left, nodes),
+                Arrays.copyOf(builder.right, nodes), Arrays.copyOf(builder.planes, nodes * (dimensions + 1)),
+                leafItems);
+    }
+
+    /**
+     * Finds the songs that sound most like the given one.
+     *
+     * @param songId  The seed song
+     * @param limit   The number of songs to return at most
+     * @param exclude Song ids to leave out; the seed is always left out
+     * @return Song ids, most similar first; empty if the song is not indexed
+     */
+    public int[] neighbours(int songId, int limit, Set<Integer> exclude) {
+        Integer seed = indexById.get(songId);
+        if (seed == null || limit <= 0) {
+            return new int[0];
+        }
+        int seedOffset = seed * dimensions;
+        int wanted = Math.max(limit * TREE_COUNT, 200) + exclude.size();
+
+        // Best-first over all trees by the smallest margin to a splitting plane on the way
+        boolean[] seen = new boolean[songIds.length];
+        int[] candidates = new int[Math.min(songIds.length, wanted + LEAF_SIZE)];
+        int candidateCount = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+        for (int root : roots) {
+            queue.add(new double[] { Double.POSITIVE_INFINITY, root });
+        }
+        while (!queue.isEmpty() && candidateCount < wanted) {
+            double[] top = queue.poll();
+            int node = (int) top[1];
+            if (left[node] < 0) {
+                int start = -1 - left[node];
+                for (int i = start; i < start + right[node]; i++) {
+                    int item = leafItems[i];
+                    if (!seen[item] && item != seed && candidateCount < candidates.length) {
+                        seen[item] = true;
+                        if (!exclude.contains(songIds[item])) {
+                            candidates[candidateCount++] = item;
+                        }
+                    }
+                }
+            } else {
+                // Songs on or below the plane went left
+                double margin = margin(node, vectors, seedOffset);
+                queue.add(new double[] { Math.min(top[0], -margin), left[node] });
+                queue.add(new double[] { Math.min(top[0], margin), right[node] });
+            }
+        }
+
+        // Exact ranking; distances are non-negative, so their float bits sort like the values
+        long[] ranked = new long[candidateCount];
+        for (int i = 0; i < candidateCount; i++) {
+            float distance = distance(vectors, seedOffset, candidates[i] * dimensions, dimensions);
+            ranked[i] = ((long) Float.floatToIntBits(distance) << 32) | candidates[i];
+        }
+        Arrays.sort(ranked);
+        int[] result = new int[Math.min(limit, candidateCount)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = songIds[(int) ranked[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Reads the index from the data directory.
+     *
+     * @param directory The application data directory
+     * @return The index, or null if there is none or it is unreadable
+     */
+    public static SimilarityIndex read(Path directory) {
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("unexpected size");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IllegalStateException("unknown index format");
+            }
+            int dimensions = buffer.getInt();
+            int count = buffer.getInt();
+            int nodes = buffer.getInt();
+            int[] songIds = readInts(buffer, count);
+            float[] vectors = readFloats(buffer, count * dimensions);
+            int[] roots = readInts(buffer, TREE_COUNT);
+            int[] left = readInts(buffer, nodes);
+            int[] right = readInts(buffer, nodes);
+            float[] planes = readFloats(buffer, nodes * (dimensions + 1));
+            int[] leafItems = readInts(buffer, count * TREE_COUNT);
+            return new SimilarityIndex(dimensions, songIds, vectors, roots, left, right, planes, leafItems);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading similarity index " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to the data directory, replacing the previous one.
+     *
+     * @param directory The application data directory
+     */
+    public synchronized void write(Path directory) {
+        Path target = directory.resolve(FILE_NAME);
+        Path temp = directory.resolve(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(songIds.length);
+            out.writeInt(left.length);
+            writeInts(out, songIds);
+            writeFloats(out, vectors);
+            writeInts(out, roots);
+            writeInts(out, left);
+            writeInts(out, right);
+            writeFloats(out, planes);
+            writeInts(out, leafItems);
+        } catch (IOException e) {
+            System.err.println("Error writing similarity index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving similarity index: " + e.getMessage());
+        }
+    }
+
+    private double margin(int node, float[] values, int offset) {
+        int plane = node * (dimensions + 1);
+        double dot = 0.0;
+        for (int d = 0; d < dimensions; d++) {
+            dot += planes[plane + d] * values[offset + d];
+        }
+        return dot - planes[plane + dimensions];
+    }
+
+    private static float distance(float[] vectors, int a, int b, int dimensions) {
+        float sum = 0f;
+        for (int d = 0; d < dimensions; d++) {
+            float diff = vectors[a + d] - vectors[b + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Scales every dimension to zero mean and unit variance, then by its group
+     * weight. Unknown values become the mean.
+     */
+    private static void standardize(float[] vectors, int count, int dimensions) {
+        int timbreDimensions = dimensions - 2;
+        for (int d = 0; d < dimensions; d++) {
+            double sum = 0.0;
+            double squares = 0.0;
+            int known = 0;
+            for (int i = d; i < vectors.length; i += dimensions) {
+                if (!Float.isNaN(vectors[i])) {
+                    sum += vectors[i];
+                    squares += (double) vectors[i] * vectors[i];
+                    known++;
+                }
+            }
+            double mean = known > 0 ? sum / known : 0.0;
+            double deviation = known > 1 ? Math.sqrt(Math.max(squares / known - mean * mean, 0.0)) : 0.0;
+            float weight;
+            if (d < timbreDimensions) {
+                weight = TIMBRE_WEIGHT / timbreDimensions;
+            } else if (d == timbreDimensions) {
+                weight = TEMPO_WEIGHT;
+            } else {
+                weight = LOUDNESS_WEIGHT;
+            }
+            float scale = deviation > 1e-9 ? (float) (Math.sqrt(weight) / deviation) : 0f;
+            for (int i = d; i < vectors.length; i += dimensions) {
+                vectors[i] = Float.isNaN(vectors[i]) ? 0f : (float) ((vectors[i] - mean) * scale);
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static float[] readFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + count * Float.BYTES);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    /** Builds the trees into growable node arrays. */
+    private static class Builder {
+        final int dimensions;
+        final float[] vectors;
+        final int[] items;
+        final Random random;
+        final float[] normal;
+        int[] left;
+        int[] right;
+        float[] planes;
+        int nodeCount;
+
+        Builder(int dimensions, float[] vectors, int[] items, Random random, int expectedNodes) {
+            this.dimensions = dimensions;
+            this.vectors = vectors;
+            this.items = items;
+            this.random = random;
+            this.normal = new float[dimensions + 1];
+            this.left = new int[expectedNodes];
+            this.right = new int[expectedNodes];
+            this.planes = new float[expectedNodes * (dimensions + 1)];
+        }
+
+        int addNode() {
+            if (nodeCount == left.length) {
+                int capacity = left.length * 2;
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                planes = Arrays.copyOf(planes, capacity * (dimensions + 1));
+            }
+            return nodeCount++;
+        }
+
+        /**
+         * Builds the tree over items[from, to) without recursion, so an unlucky
+         * run of lopsided splits cannot overflow the stack.
+         *
+         * @return The root node
+         */
+        int buildTree(int from, int to) {
+            int root = addNode();
+            // Pending nodes as (node, from, to)
+            int[] stack = new int[96];
+            int top = 0;
+            stack[top++] = root;
+            stack[top++] = from;
+            stack[top++] = to;
+            while (top > 0) {
+                int end = stack[--top];
+                int start = stack[--top];
+                int node = stack[--top];
+                int split = end - start > LEAF_SIZE ? split(node, start, end) : -1;
+                if (split < 0) {
+                    left[node] = -1 - start;
+                    right[node] = end - start;
+                    continue;
+                }
+                int leftChild = addNode();
+                int rightChild = addNode();
+                left[node] = leftChild;
+                right[node] = rightChild;
+                if (top + 6 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = leftChild;
+                stack[top++] = start;
+                stack[top++] = split;
+                stack[top++] = rightChild;
+                stack[top++] = split;
+                stack[top++] = end;
+            }
+            return root;
+        }
+
+        /**
+         * Picks the most balanced of a few random planes and partitions the
+         * items by it; songs with identical features are split down the middle.
+         *
+         * @return The first item on the far side of the plane
+         */
+        int split(int node, int start, int end) {
+            int plane = node * (dimensions + 1);
+            int bestImbalance = Integer.MAX_VALUE;
+            for (int attempt = 0; attempt < SPLIT_ATTEMPTS && bestImbalance > 0; attempt++) {
+                int a = items[start + random.nextInt(end - start)] * dimensions;
+                int b = items[start + random.nextInt(end - start)] * dimensions;
+                double offset = 0.0;
+                for (int d = 0; d < dimensions; d++) {
+                    normal[d] = vectors[a + d] - vectors[b + d];
+                    offset += normal[d] * (vectors[a + d] + vectors[b + d]) * 0.5;
+                }
+                normal[dimensions] = (float) offset;
+                int near = 0;
+                for (int i = start; i < end; i++) {
+                    if (side(normal, 0, items[i] * dimensions) <= 0) {
+                        near++;
+                    }
+                }
+                int imbalance = Math.abs(2 * near - (end - start));
+                if (near > 0 && near < end - start && imbalance < bestImbalance) {
+                    bestImbalance = imbalance;
+                    System.arraycopy(normal, 0, planes, plane, dimensions + 1);
+                }
+            }
+            if (bestImbalance == Integer.MAX_VALUE) {
+                // No plane separates these songs: arbitrary halves under a zero plane
+                Arrays.fill(planes, plane, plane + dimensions + 1, 0f);
+                return (start + end) >>> 1;
+            }
+
+            int split = start;
+            for (int i = start; i < end; i++) {
+                if (side(planes, plane, items[i] * dimensions) <= 0) {
+                    int tmp = items[split];
+                    items[split] = items[i];
+                    items[i] = tmp;
+                    split++;
+                }
+            }
+            return split;
+        }
+
+        private double side(float[] plane, int base, int offset) {
+            double dot = -plane[base + dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                dot += plane[base + d] * vectors[offset + d];
+            }
+            return dot;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package src.com.musicplayer.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One HTTP/1.1 client connection, served on its own virtual thread with
+ * blocking I/O. Requests are read into a fixed head buffer and may be
+ * pipelined; bodies are limited to small control requests. Files are sent with
+ * {@link FileChannel#transferTo}, so track data goes from the page cache to the
+ * socket without passing through the heap.
+ */
+final class HttpConnection implements Runnable {
+    private static final int MAX_HEAD_SIZE = 8 * 1024;
+    private static final int MAX_BODY_SIZE = 64 * 1024;
+    private static final int IDLE_TIMEOUT_MS = 30_000;
+    private static final int STALL_CHUNK_SIZE = 16 * 1024;
+
+    private final LibraryServer server;
+    private final SocketChannel channel;
+    private final byte[] head = new byte[MAX_HEAD_SIZE];
+    private int filled;
+    private boolean keepAlive;
+    // Only allocated once a stream has had to wait for a slow client
+    private ByteBuffer stallBuffer;
+
+    HttpConnection(LibraryServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+    }
+
+    @Override
+    public void run() {
+        try (SocketChannel client = channel) {
+            client.socket().setSoTimeout(IDLE_TIMEOUT_MS);
+            client.socket().setTcpNoDelay(true);
+            // The socket's stream honours the read timeout, the channel does not
+            InputStream in = client.socket().getInputStream();
+            while (true) {
+                int end;
+                try {
+                    end = readHead(in);
+                } catch (IllegalStateException e) {
+                    keepAlive = false;
+                    sendError(431, "Request header too large");
+                    return;
+                }
+                if (end < 0) {
+                    return;
+                }
+                Request request;
+                try {
+                    request = Request.parse(head, end);
+                } catch (IllegalArgumentException e) {
+                    keepAlive = false;
+                    sendError(400, e.getMessage());
+                    return;
+                }
+                consume(end);
+                keepAlive = request.isKeepAlive();
+
+                if (request.header("transfer-encoding") != null) {
+                    keepAlive = false;
+                    sendError(501, "Chunked request bodies are not supported");
+                    return;
+                }
+                long bodyLength = request.contentLength();
+                if (bodyLength > MAX_BODY_SIZE || bodyLength < 0) {
+                    keepAlive = false;
+                    sendError(413, "Request body too large");
+                    return;
+                }
+                skipBody(in, bodyLength);
+
+                server.handle(request, this);
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException | EOFException e) {
+            // Idle or gone
+        } catch (IOException e) {
+            // Client closed the connection, usually in the middle of a stream
+        }
+    }
+
+    /**
+     * Reads until the head buffer holds a complete request head.
+     *
+     * @return The offset just past the blank line, or -1 at end of stream
+     */
+    private int readHead(InputStream in) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = Math.max(scanned, 3); i < filled; i++) {
+                if (head[i] == '\n' && head[i - 1] == '\r' && head[i - 2] == '\n' && head[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            scanned = filled;
+            if (filled == head.length) {
+                throw new IllegalStateException("Request head exceeds " + MAX_HEAD_SIZE + " bytes");
+            }
+            int read = in.read(head, filled, head.length - filled);
+            if (read < 0) {
+                if (filled > 0) {
+                    throw new EOFException("Connection closed in the middle of a request");
+                }
+                return -1;
+            }
+            filled += read;
+        }
+    }
+
+    /** Drops the first {@code length} bytes of the head buffer. */
+    private void consume(int length) {
+        System.arraycopy(head, length, head, 0, filled - length);
+        filled -= length;
+    }
+
+    private void skipBody(InputStream in, long length) throws IOException {
+        int buffered = (int) Math.min(length, filled);
+        consume(buffered);
+        long remaining = length - buffered;
+        while (remaining > 0) {
+            int read = in.read(head, 0, (int) Math.min(remaining, head.length));
+            if (read < 0) {
+                throw new EOFException("Connection closed in the middle of a request body");
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Writes a status line and headers. Content-Length and Connection are
+     * always added.
+     *
+     * @param status        The status code
+     * @param contentLength The length of the body that follows
+     * @param headers       Further header names and values, alternating
+     */
+    void sendHead(int status, long contentLength, String... headers) throws IOException {
+        StringBuilder response = new StringBuilder(256);
+        response.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            response.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+        }
+        response.append("Content-Length: ").append(contentLength).append("\r\n");
+        response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        write(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    void sendBody(byte[] body) throws IOException {
+        write(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Sends a JSON body with the given status.
+     */
+    void sendJson(int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        sendHead(status, body.length, "Content-Type", "application/json; charset=utf-8",
+                "Cache-Control", "no-store");
+        sendBody(body);
+    }
+
+    void sendError(int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message != null ? message : reason(status));
+        sendJson(status, json.append('}').toString());
+    }
+
+    /**
+     * Sends part of a file straight from the file to the socket.
+     *
+     * @param file     The open file
+     * @param position Where to start in the file
+     * @param count    The number of bytes to send
+     */
+    void sendFile(FileChannel file, long position, long count) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, channel);
+            if (sent > 0) {
+                position += sent;
+                continue;
+            }
+            // On a virtual thread the socket is non-blocking underneath, and
+            // transferTo gives up when the send buffer is full instead of
+            // waiting. A plain write parks until the client catches up.
+            if (stallBuffer == null) {
+                stallBuffer = ByteBuffer.allocate(STALL_CHUNK_SIZE);
+            }
+            stallBuffer.clear().limit((int) Math.min(STALL_CHUNK_SIZE, end - position));
+            int read = file.read(stallBuffer, position);
+            if (read <= 0) {
+                // The file got shorter; the client sees a truncated body
+                throw new EOFException("File ended at " + position + " of " + end);
+            }
+            stallBuffer.flip();
+            write(stallBuffer);
+            position += read;
+        }
+    }
+
+    /** Closes the connection after the current response. */
+    void closeAfterResponse() {
+        keepAlive = false;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 400:
+                return "Bad Request";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 413:
+                return "Payload Too Large";
+            case 416:
+                return "Range Not Satisfiable";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Error";
+        }
+    }
+
+    /** A parsed request line and headers. */
+    static final class Request {
+        final String method;
+        final String path;
+        private final String version;
+        private final Map<String, String> query;
+        private final Map<String, String> headers;
+
+        private Request(String method, String path, String version, Map<String, String> query,
+                Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.version = version;
+            this.query = query;
+            this.headers = headers;
+        }
+
+        static Request parse(byte[] head, int length) {
+            String[] lines = new String(head, 0, length, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                throw new IllegalArgumentException("Malformed request line");
+            }
+            String target = requestLine[1];
+            int queryStart = target.indexOf('?');
+            String path = queryStart >= 0 ? target.substring(0, queryStart) : target;
+            Map<String, String> query = new HashMap<>();
+            if (queryStart >= 0) {
+                for (String parameter : target.substring(queryStart + 1).split("&")) {
+                    if (parameter.isEmpty()) {
+                        continue;
+                    }
+                    int equals = parameter.indexOf('=');
+                    String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+                    String value = equals >= 0 ? parameter.substring(equals + 1) : "";
+                    query.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                            URLDecoder.decode(value, StandardCharsets.UTF_8));
+                }
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Malformed header line");
+                }
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim());
+            }
+            return new Request(requestLine[0], path, requestLine[2], query, headers);
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        String parameter(String name) {
+            return query.get(name);
+        }
+
+        boolean isKeepAlive() {
+            String connection = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+            if (version.equals("HTTP/1.0")) {
+                return connection.contains("keep-alive");
+            }
+            return !connection.contains("close");
+        }
+
+        long contentLength() {
+            String value = headers.get("content-length");
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package src.com.musicplayer.server;
+
+/**
+ * JSON string escaping shared by the library server and the command-line
+ * tool's event output.
+ */
+public final class Json {
+    private Json() {
+    }
+
+    /**
+     * Appends a JSON string literal, or null.
+     *
+     * @param json  Where to append
+     * @param value The string, may be null
+     */
+    public static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
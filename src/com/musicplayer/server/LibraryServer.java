@@ -0,0 +1,451 @@
+package src.com.musicplayer.server;
+
+import src.com.musicplayer.database.DatabaseManager;
+import src.com.musicplayer.model.NowPlaying;
+import src.com.musicplayer.model.Song;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the library on localhost while it is switched on.
+ *
+ * <pre>
+ * GET  /api/search?q=&lt;text&gt;[&amp;limit=&lt;n&gt;]   songs matching the text
+ * GET  /api/now-playing                   the current song and position
+ * POST /api/control?action=&lt;action&gt;      play, pause, toggle, next or previous
+ * GET  /stream/&lt;song id&gt;                 the song's file, with Range support
+ * </pre>
+ *
+ * The server only listens on the loopback address, and only answers requests
+ * addressed to it by a loopback name: a web page the user visits can reach
+ * the port too, directly or through DNS rebinding. A request whose Host is
+ * not 127.0.0.1, localhost or [::1] with the server's port is refused, and so
+ * is a POST from a page on another origin. Controlling the player and
+ * streaming files also take the token made at each launch, passed as the
+ * {@code token} parameter or as {@code Authorization: Bearer <token>}; the
+ * stream links in search results carry it.
+ *
+ * Every connection gets its own virtual thread doing blocking I/O, so
+ * hundreds of concurrent streams cost a few kilobytes each; file data is
+ * copied by the kernel. The number of open connections is capped, further
+ * clients are turned away.
+ */
+public class LibraryServer {
+    public static final int DEFAULT_PORT = 8765;
+
+    private static final int MAX_CONNECTIONS = 1024;
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+    private static final int MAX_SEARCH_LIMIT = 500;
+
+    private final DatabaseManager databaseManager;
+    private final PlayerControl player;
+    private final Semaphore connectionSlots = new Semaphore(MAX_CONNECTIONS);
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final String token = newToken();
+
+    private ServerSocketChannel serverChannel;
+
+    public LibraryServer(DatabaseManager databaseManager, PlayerControl player) {
+        this.databaseManager = databaseManager;
+        this.player = player;
+    }
+
+    /**
+     * Starts listening on the loopback address.
+     *
+     * @param port The port, 0 for any free port
+     * @throws IOException If the port cannot be bound
+     */
+    public synchronized void start(int port) throws IOException {
+        if (serverChannel != null) {
+            return;
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        serverChannel = channel;
+        Thread.ofVirtual().name("library-server").start(() -> accept(channel));
+        System.out.println("Library server: listening on http://127.0.0.1:" + getPort() + "/");
+    }
+
+    /**
+     * Stops listening and closes all open connections.
+     */
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Library server: error closing server socket - " + e.getMessage());
+        }
+        serverChannel = null;
+        for (SocketChannel connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        System.out.println("Library server: stopped");
+    }
+
+    /**
+     * @return The token that controlling the player and streaming take, new
+     *         at each launch
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public synchronized boolean isRunning() {
+        return serverChannel != null;
+    }
+
+    /**
+     * @return The port being listened on, or -1 if stopped
+     */
+    public synchronized int getPort() {
+        if (serverChannel == null) {
+            return -1;
+        }
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Library server: accept failed - " + e.getMessage());
+                continue;
+            }
+            if (!connectionSlots.tryAcquire()) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // Turned away either way
+                }
+                continue;
+            }
+            connections.add(client);
+            Thread.ofVirtual().name("library-server-connection").start(() -> {
+                try {
+                    new HttpConnection(this, client).run();
+                } finally {
+                    connections.remove(client);
+                    connectionSlots.release();
+                }
+            });
+        }
+    }
+
+    void handle(HttpConnection.Request request, HttpConnection connection) throws IOException {
+        String path = request.path;
+        int port = getPort();
+        if (!isLocalHost(request.header("host"), port)) {
+            connection.closeAfterResponse();
+            connection.sendError(403, "Not a local address");
+            return;
+        }
+        String origin = request.header("origin");
+        if (request.method.equals("POST") && origin != null && !isLocalOrigin(origin, port)) {
+            connection.sendError(403, "Requests from other sites are not accepted");
+            return;
+        }
+        if (path.startsWith("/stream/")) {
+            if (!request.method.equals("GET") && !request.method.equals("HEAD")) {
+                methodNotAllowed(connection, "GET, HEAD");
+                return;
+            }
+            if (!hasToken(request)) {
+                connection.sendError(403, "Missing or wrong token");
+                return;
+            }
+            stream(request, connection, path.substring("/stream/".length()));
+            return;
+        }
+        switch (path) {
+            case "/api/search":
+                if (!request.method.equals("GET")) {
+                    methodNotAllowed(connection, "GET");
+                    return;
+                }
+                search(request, connection);
+                return;
+            case "/api/now-playing":
+                if (!request.method.equals("GET")) {
+                    methodNotAllowed(connection, "GET");
+                    return;
+                }
+                nowPlaying(connection);
+                return;
+            case "/api/control":
+                if (!request.method.equals("POST")) {
+                    methodNotAllowed(connection, "POST");
+                    return;
+                }
+                if (!hasToken(request)) {
+                    connection.sendError(403, "Missing or wrong token");
+                    return;
+                }
+                control(request, connection);
+                return;
+            default:
+                connection.sendError(404, "No such resource: " + path);
+        }
+    }
+
+    private void search(HttpConnection.Request request, HttpConnection connection) throws IOException {
+        String query = request.parameter("q");
+        if (query == null) {
+            connection.sendError(400, "Missing parameter q");
+            return;
+        }
+        int limit = DEFAULT_SEARCH_LIMIT;
+        String limitParameter = request.parameter("limit");
+        if (limitParameter != null) {
+            try {
+                limit = Math.max(1, Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(limitParameter)));
+            } catch (NumberFormatException e) {
+                connection.sendError(400, "limit must be a number");
+                return;
+            }
+        }
+
+        List<Song> songs = databaseManager.searchSongs(query, limit);
+        StringBuilder json = new StringBuilder(64 + songs.size() * 96);
+        json.append("{\"songs\":[");
+        for (int i = 0; i < songs.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendSong(json, songs.get(i));
+        }
+        json.append("]}");
+        connection.sendJson(200, json.toString());
+    }
+
+    private void nowPlaying(HttpConnection connection) throws IOException {
+        NowPlaying state = player.nowPlaying();
+        if (state == null) {
+            connection.sendError(503, "The player did not answer");
+            return;
+        }
+        StringBuilder json = new StringBuilder(192);
+        json.append("{\"song\":");
+        if (state.getSong() != null) {
+            appendSong(json, state.getSong());
+        } else {
+            json.append("null");
+        }
+        json.append(",\"playing\":").append(state.isPlaying());
+        json.append(",\"position\":").append(state.getPosition());
+        json.append(",\"duration\":").append(state.getDuration());
+        json.append('}');
+        connection.sendJson(200, json.toString());
+    }
+
+    private void control(HttpConnection.Request request, HttpConnection connection) throws IOException {
+        String action = request.parameter("action");
+        if (action == null) {
+            connection.sendError(400, "Missing parameter action");
+            return;
+        }
+        if (!player.control(action)) {
+            connection.sendError(400, "Unknown action: " + action);
+            return;
+        }
+        connection.sendHead(204, 0);
+    }
+
+    private void stream(HttpConnection.Request request, HttpConnection connection, String songId)
+            throws IOException {
+        Song song;
+        try {
+            song = databaseManager.loadSong(Integer.parseInt(songId));
+        } catch (NumberFormatException e) {
+            song = null;
+        }
+        if (song == null) {
+            connection.sendError(404, "No such song: " + songId);
+            return;
+        }
+
+        FileChannel file;
+        try {
+            file = FileChannel.open(Path.of(song.getFilePath()), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            connection.sendError(404, "The file of song " + songId + " is missing");
+            return;
+        }
+        try (FileChannel source = file) {
+            long size = source.size();
+            String contentType = contentType(song.getFilePath());
+            long[] range = parseRange(request.header("range"), size);
+            if (range != null && range.length == 0) {
+                connection.sendHead(416, 0, "Content-Range", "bytes */" + size, "Accept-Ranges", "bytes");
+                return;
+            }
+
+            long start = range != null ? range[0] : 0;
+            long length = range != null ? range[1] - range[0] + 1 : size;
+            if (range != null) {
+                connection.sendHead(206, length, "Content-Type", contentType, "Accept-Ranges", "bytes",
+                        "Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            } else {
+                connection.sendHead(200, length, "Content-Type", contentType, "Accept-Ranges", "bytes");
+            }
+            if (request.method.equals("GET")) {
+                try {
+                    connection.sendFile(source, start, length);
+                } catch (IOException e) {
+                    // The body is incomplete, so the connection cannot be reused
+                    connection.closeAfterResponse();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether the Host header names this server by a loopback name
+     */
+    static boolean isLocalHost(String host, int port) {
+        if (host == null || port < 0) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        return name.equals("127.0.0.1:" + port) || name.equals("localhost:" + port)
+                || name.equals("[::1]:" + port);
+    }
+
+    private static boolean isLocalOrigin(String origin, int port) {
+        String value = origin.trim().toLowerCase(Locale.ROOT);
+        return value.startsWith("http://") && isLocalHost(value.substring("http://".length()), port);
+    }
+
+    private boolean hasToken(HttpConnection.Request request) {
+        String given = request.parameter("token");
+        String authorization = request.header("authorization");
+        if (given == null && authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            given = authorization.substring(7).trim();
+        }
+        // Compared in constant time, so timing does not give the token away
+        return given != null && MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * Parses a single-range Range header. Multiple ranges are answered with the
+     * whole file, which clients must accept.
+     *
+     * @param header The header value, may be null
+     * @param size   The file size
+     * @return {first, last} byte, null for the whole file, or an empty array if
+     *         the range cannot be satisfied
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || size == 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash + 1 < spec.length() ? Long.parseLong(spec.substring(dash + 1)) : size - 1;
+                if (first >= size) {
+                    return new long[0];
+                }
+                if (last < first) {
+                    return null;
+                }
+                last = Math.min(last, size - 1);
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String contentType(String filePath) {
+        String name = filePath.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".mp3")) {
+            return "audio/mpeg";
+        } else if (name.endsWith(".wav")) {
+            return "audio/wav";
+        } else if (name.endsWith(".flac")) {
+            return "audio/flac";
+        } else if (name.endsWith(".ogg") || name.endsWith(".oga")) {
+            return "audio/ogg";
+        }
+        return "application/octet-stream";
+    }
+
+    private static void methodNotAllowed(HttpConnection connection, String allowed) throws IOException {
+        byte[] body = ("{\"error\":\"Use " + allowed + "\"}").getBytes(StandardCharsets.UTF_8);
+        connection.sendHead(405, body.length, "Allow", allowed, "Content-Type", "application/json; charset=utf-8");
+        connection.sendBody(body);
+    }
+
+    private void appendSong(StringBuilder json, Song song) {
+        json.append("{\"id\":").append(song.getId());
+        json.append(",\"title\":");
+        Json.appendString(json, song.getTitle());
+        json.append(",\"artist\":");
+        Json.appendString(json, song.getArtist());
+        json.append(",\"album\":");
+        Json.appendString(json, song.getAlbum());
+        json.append(",\"stream\":\"/stream/").append(song.getId()).append("?token=").append(token).append("\"}");
+    }
+}
@@ -0,0 +1,28 @@
+package src.com.musicplayer.server;
+
+import src.com.musicplayer.model.NowPlaying;
+
+/**
+ * The part of the player the library server can see and control. Both methods
+ * are called on server threads; implementations hand the work to the EDT.
+ */
+public interface PlayerControl {
+    String ACTION_PLAY = "play";
+    String ACTION_PAUSE = "pause";
+    String ACTION_TOGGLE = "toggle";
+    String ACTION_NEXT = "next";
+    String ACTION_PREVIOUS = "previous";
+
+    /**
+     * @return What is playing right now, or null if the player did not answer
+     */
+    NowPlaying nowPlaying();
+
+    /**
+     * Carries out one of the ACTION_ constants.
+     *
+     * @param action The action
+     * @return false if the action is not known
+     */
+    boolean control(String action);
+}
@@ -0,0 +1,69 @@
+package src.com.musicplayer.ui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * An antialiased shape that is rendered once into a translucent compatible
+ * image and blitted on later paints. The image is only re-rendered when the
+ * size, colour or device scale changes, or after {@link #invalidate()}.
+ */
+final class CachedShape {
+
+    interface Painter {
+        void paint(Graphics2D g2d, int width, int height);
+    }
+
+    private final Painter painter;
+    private BufferedImage image;
+    private int width;
+    private int height;
+    private double scale;
+    private Color color;
+
+    CachedShape(Painter painter) {
+        this.painter = painter;
+    }
+
+    void paint(Graphics g, int x, int y, int width, int height, Color color) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        double scale = g2d.getTransform().getScaleX();
+        if (image == null || this.width != width || this.height != height
+                || this.scale != scale || !color.equals(this.color)) {
+            render(g2d.getDeviceConfiguration(), width, height, scale, color);
+        }
+        g2d.drawImage(image, x, y, width, height, null);
+    }
+
+    void invalidate() {
+        if (image != null) {
+            image.flush();
+            image = null;
+        }
+    }
+
+    private void render(GraphicsConfiguration gc, int width, int height, double scale, Color color) {
+        invalidate();
+        // Render at device resolution so high-DPI screens get a 1:1 blit
+        int imageWidth = (int) Math.ceil(width * scale);
+        int imageHeight = (int) Math.ceil(height * scale);
+        image = gc != null
+                ? gc.createCompatibleImage(imageWidth, imageHeight, Transparency.TRANSLUCENT)
+                : new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.scale((double) imageWidth / width, (double) imageHeight / height);
+        g2d.setColor(color);
+        painter.paint(g2d, width, height);
+        g2d.dispose();
+
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.color = color;
+    }
+}
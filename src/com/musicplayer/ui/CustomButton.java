@@ -4,12 +4,17 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.RoundRectangle2D;
 
 import src.com.musicplayer.MusicPlayer;
 
 public class CustomButton extends JButton {
+    private static final int STATE_NORMAL = 0;
+    private static final int STATE_HOVER = 1;
+    private static final int STATE_ACTIVE = 2;
+
     private boolean isActive = false;
+    // One cached background per visual state, so toggling hover never re-renders
+    private CachedShape[] stateBackgrounds;
 
     public CustomButton(String text) {
         super(text);
@@ -30,7 +35,6 @@ public class CustomButton extends JButton {
                 if (!isActive) {
                     setBackground(MusicPlayer.BUTTON_HOVER_COLOR);
                 }
-                repaint();
             }
 
             @Override
@@ -38,7 +42,6 @@ public class CustomButton extends JButton {
                 if (!isActive) {
                     setBackground(MusicPlayer.CONTROL_PANEL_COLOR);
                 }
-                repaint();
             }
         });
     }
@@ -50,25 +53,44 @@ public class CustomButton extends JButton {
         repaint();
     }
 
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        // Theme change: drop cached backgrounds so they are rendered again
+        if (stateBackgrounds != null) {
+            for (CachedShape background : stateBackgrounds) {
+                background.invalidate();
+            }
+        }
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
-        Graphics2D g2 = (Graphics2D) g.create();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (stateBackgrounds == null) {
+            stateBackgrounds = new CachedShape[3];
+            for (int i = 0; i < stateBackgrounds.length; i++) {
+                stateBackgrounds[i] = new CachedShape((g2d, w, h) -> g2d.fillRoundRect(0, 0, w, h, 20, 20));
+            }
+        }
 
         // Determine color based on state
+        int state;
+        Color color;
         if (isActive || getModel().isPressed()) {
-            g2.setColor(MusicPlayer.ACCENT_COLOR);
+            state = STATE_ACTIVE;
+            color = MusicPlayer.ACCENT_COLOR;
             super.setForeground(Color.BLACK);
         } else if (getModel().isRollover()) {
-            g2.setColor(MusicPlayer.BUTTON_HOVER_COLOR);
+            state = STATE_HOVER;
+            color = MusicPlayer.BUTTON_HOVER_COLOR;
             super.setForeground(MusicPlayer.TEXT_COLOR);
         } else {
-            g2.setColor(getBackground());
+            state = STATE_NORMAL;
+            color = getBackground();
             super.setForeground(MusicPlayer.TEXT_COLOR);
         }
 
-        g2.fill(new RoundRectangle2D.Float(0, 0, getWidth(), getHeight(), 20, 20));
+        stateBackgrounds[state].paint(g, 0, 0, getWidth(), getHeight(), color);
         super.paintComponent(g);
-        g2.dispose();
     }
 }
\ No newline at end of file
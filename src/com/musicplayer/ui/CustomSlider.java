@@ -1,6 +1,8 @@
 package src.com.musicplayer.ui;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.plaf.basic.BasicSliderUI;
 import java.awt.*;
 
@@ -9,52 +11,118 @@ import src.com.musicplayer.MusicPlayer;
 public class CustomSlider extends JSlider {
     public CustomSlider(int min, int max, int value) {
         super(min, max, value);
-        setUI(new CustomSliderUI(this));
         setFocusable(false);
     }
 
+    @Override
+    public void updateUI() {
+        // Install a fresh UI (and with it fresh cached images) on every theme change
+        setUI(new CustomSliderUI(this));
+    }
+
     static class CustomSliderUI extends BasicSliderUI {
+        private static final Color TRACK_COLOR = new Color(70, 70, 70);
+        private static final int TRACK_HEIGHT = 4;
+        private static final int THUMB_SIZE = 12;
+
+        private final CachedShape trackShape = new CachedShape(
+                (g2d, w, h) -> g2d.fillRoundRect(0, 0, w, h, TRACK_HEIGHT, TRACK_HEIGHT));
+        private final CachedShape fillShape = new CachedShape(
+                (g2d, w, h) -> g2d.fillRoundRect(0, 0, w, h, TRACK_HEIGHT, TRACK_HEIGHT));
+        private final CachedShape thumbShape = new CachedShape(
+                (g2d, w, h) -> g2d.fillOval(0, 0, w, h));
+
         public CustomSliderUI(JSlider slider) {
             super(slider);
         }
 
         @Override
-        public void paintTrack(Graphics g) {
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        protected ChangeListener createChangeListener(JSlider slider) {
+            return new DirtyRegionChangeHandler();
+        }
+
+        private int filledWidth() {
+            int min = slider.getMinimum();
+            int max = slider.getMaximum();
+            if (max <= min) {
+                return 0;
+            }
+            double percentage = (double) (slider.getValue() - min) / (max - min);
+            return (int) (percentage * trackRect.width);
+        }
 
-            int trackHeight = 4;
+        /**
+         * Repaints only the part of the slider that changed when the value moves,
+         * and nothing at all if the fill and thumb stay on the same pixel.
+         */
+        private class DirtyRegionChangeHandler implements ChangeListener {
+            private int lastFilledWidth = -1;
+
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (isDragging()) {
+                    // The track listener repaints while dragging
+                    return;
+                }
+
+                Rectangle oldThumb = new Rectangle(thumbRect);
+                int oldFilledWidth = lastFilledWidth;
+                calculateThumbLocation();
+                int newFilledWidth = filledWidth();
+                lastFilledWidth = newFilledWidth;
+
+                if (oldFilledWidth < 0) {
+                    slider.repaint();
+                    return;
+                }
+                if (oldThumb.equals(thumbRect) && oldFilledWidth == newFilledWidth) {
+                    return;
+                }
+
+                // Cover the track between the old and new fill end, including the rounded cap
+                int fromX = trackRect.x + Math.min(oldFilledWidth, newFilledWidth) - TRACK_HEIGHT;
+                int toX = trackRect.x + Math.max(oldFilledWidth, newFilledWidth) + TRACK_HEIGHT;
+                Rectangle dirty = new Rectangle(fromX, trackRect.y, toX - fromX, trackRect.height);
+                dirty = dirty.union(oldThumb).union(thumbRect);
+                slider.repaint(dirty);
+            }
+        }
+
+        @Override
+        public void paintTrack(Graphics g) {
+            int trackHeight = TRACK_HEIGHT;
             int trackWidth = trackRect.width;
             int trackY = trackRect.y + (trackRect.height - trackHeight) / 2;
 
             // Background track
-            g2d.setColor(new Color(70, 70, 70));
-            g2d.fillRoundRect(trackRect.x, trackY, trackWidth, trackHeight, trackHeight, trackHeight);
+            trackShape.paint(g, trackRect.x, trackY, trackWidth, trackHeight, TRACK_COLOR);
 
-            // Filled track based on slider value
-            int value = slider.getValue();
-            int min = slider.getMinimum();
-            int max = slider.getMaximum();
-            double percentage = (double) (value - min) / (max - min);
-            int filledWidth = (int) (percentage * trackWidth);
+            // Filled track based on slider value: blit the full-width fill clipped to
+            // the value, the thumb covers the square end of the clip
+            int filledWidth = filledWidth();
 
             if (filledWidth > 0) {
-                g2d.setColor(MusicPlayer.ACCENT_COLOR);
-                g2d.fillRoundRect(trackRect.x, trackY, filledWidth, trackHeight, trackHeight, trackHeight);
+                Shape oldClip = g.getClip();
+                g.clipRect(trackRect.x, trackY, filledWidth, trackHeight);
+                fillShape.paint(g, trackRect.x, trackY, trackWidth, trackHeight, MusicPlayer.ACCENT_COLOR);
+                g.setClip(oldClip);
             }
         }
 
         @Override
         public void paintThumb(Graphics g) {
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            int thumbX = thumbRect.x + (thumbRect.width - THUMB_SIZE) / 2;
+            int thumbY = thumbRect.y + (thumbRect.height - THUMB_SIZE) / 2;
 
-            int thumbSize = 12;
-            int thumbX = thumbRect.x + (thumbRect.width - thumbSize) / 2;
-            int thumbY = thumbRect.y + (thumbRect.height - thumbSize) / 2;
+            thumbShape.paint(g, thumbX, thumbY, THUMB_SIZE, THUMB_SIZE, MusicPlayer.ACCENT_COLOR);
+        }
 
-            g2d.setColor(MusicPlayer.ACCENT_COLOR);
-            g2d.fillOval(thumbX, thumbY, thumbSize, thumbSize);
+        @Override
+        public void uninstallUI(JComponent c) {
+            trackShape.invalidate();
+            fillShape.invalidate();
+            thumbShape.invalidate();
+            super.uninstallUI(c);
         }
 
         @Override